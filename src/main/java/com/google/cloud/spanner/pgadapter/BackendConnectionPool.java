@@ -0,0 +1,506 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter;
+
+import com.google.cloud.spanner.pgadapter.metadata.OptionsMetadata;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of backend JDBC connections that is shared by all {@link ConnectionHandler}s of a {@link
+ * ProxyServer}. Opening a connection to Spanner or BigQuery can take seconds, which would otherwise
+ * be paid by every client that connects to the proxy.
+ *
+ * Connections are handed out most recently used first, so that surplus connections stay idle and
+ * are eventually closed by the idle eviction. Connections that have been idle for a while are
+ * validated before they are handed out again. A returned connection is reset to a clean session
+ * state (auto-commit, no open transaction, no warnings) before another client may use it.
+ *
+ * Borrowers that find the pool exhausted wait in a queue, and each connection that is given back
+ * is handed to the borrower that has waited longest. No thread is blocked while waiting for an
+ * asynchronous borrow; connections are only opened by borrowers that have been handed a permit, and
+ * asynchronous borrows open them on a bounded number of threads. A pool without a maximum size
+ * never makes a borrower wait.
+ */
+public class BackendConnectionPool {
+
+  private static final Logger logger = Logger.getLogger(BackendConnectionPool.class.getName());
+  private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+  private static final long VALIDATION_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30L);
+  private static final long MAX_EVICTION_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30L);
+  // The maximum number of connections that are opened at the same time.
+  private static final int MAX_CONNECT_THREADS = 64;
+
+  private final String connectionURL;
+  private final int minSize;
+  private final int maxSize;
+  private final int permitCount;
+  private final long idleTimeoutMillis;
+  private final long borrowTimeoutMillis;
+  private final long validationIntervalMillis;
+  private final Semaphore permits;
+  // Borrowers that are waiting for a permit, in the order in which they started to wait.
+  private final Queue<CompletableFuture<Connection>> waiters = new ConcurrentLinkedQueue<>();
+  private final LinkedBlockingDeque<IdleConnection> idleConnections = new LinkedBlockingDeque<>();
+  private final AtomicInteger totalConnections = new AtomicInteger();
+  private final ThreadPoolExecutor connectExecutor;
+  // Runs the maintenance of the pool and the borrow timeouts.
+  private final ScheduledThreadPoolExecutor maintenanceExecutor;
+  private boolean started;
+  private volatile boolean closed;
+  // The state that connections are reset to when they are given back, taken from the first
+  // connection that was opened.
+  private volatile SessionState initialState;
+
+  public BackendConnectionPool(OptionsMetadata options) {
+    this(options.getConnectionURL(),
+        options.getPoolMinSize(),
+        options.getPoolMaxSize(),
+        TimeUnit.SECONDS.toMillis(options.getPoolIdleTimeoutSeconds()),
+        TimeUnit.SECONDS.toMillis(options.getPoolBorrowTimeoutSeconds()),
+        VALIDATION_INTERVAL_MILLIS);
+  }
+
+  /**
+   * @param maxSize The maximum number of connections in use at the same time, or 0 for no limit.
+   * @param validationIntervalMillis Connections that have been idle for at least this long are
+   * validated before they are handed out.
+   */
+  BackendConnectionPool(String connectionURL,
+      int minSize,
+      int maxSize,
+      long idleTimeoutMillis,
+      long borrowTimeoutMillis,
+      long validationIntervalMillis) {
+    if (minSize < 0 || maxSize < 0 || (maxSize > 0 && minSize > maxSize)) {
+      throw new IllegalArgumentException(
+          "Invalid connection pool size: min " + minSize + ", max " + maxSize);
+    }
+    this.connectionURL = connectionURL;
+    this.minSize = minSize;
+    this.maxSize = maxSize;
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.borrowTimeoutMillis = borrowTimeoutMillis;
+    this.validationIntervalMillis = validationIntervalMillis;
+    this.permitCount = maxSize == 0 ? Integer.MAX_VALUE : maxSize;
+    this.permits = new Semaphore(this.permitCount);
+    int connectThreads = Math.min(this.permitCount, MAX_CONNECT_THREADS);
+    this.connectExecutor = new ThreadPoolExecutor(connectThreads, connectThreads,
+        60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(),
+        new ThreadFactoryBuilder()
+            .setNameFormat("backend-connect-%d")
+            .setDaemon(true)
+            .build());
+    this.connectExecutor.allowCoreThreadTimeOut(true);
+    this.maintenanceExecutor = new ScheduledThreadPoolExecutor(1,
+        new ThreadFactoryBuilder()
+            .setNameFormat("backend-connection-pool-%d")
+            .setDaemon(true)
+            .build());
+    this.maintenanceExecutor.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Starts the background maintenance of the pool, which opens the minimum number of connections
+   * and periodically closes connections that have been idle for longer than the idle timeout.
+   */
+  public synchronized void start() {
+    if (this.started) {
+      return;
+    }
+    this.started = true;
+    this.maintenanceExecutor.execute(this::fillToMinimum);
+    long interval = Math.max(1L, Math.min(this.idleTimeoutMillis / 2, MAX_EVICTION_INTERVAL_MILLIS));
+    this.maintenanceExecutor.scheduleWithFixedDelay(
+        this::evictIdleConnections, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Closes all idle connections and fails all waiting borrowers. Connections that are currently
+   * borrowed are closed when they are returned.
+   */
+  public synchronized void close() {
+    this.closed = true;
+    this.maintenanceExecutor.shutdownNow();
+    this.connectExecutor.shutdown();
+    failWaiters();
+    IdleConnection idle;
+    while ((idle = this.idleConnections.pollFirst()) != null) {
+      discard(idle.connection);
+    }
+  }
+
+  /**
+   * Borrows a connection from the pool, opening a new connection if no idle connection is
+   * available. Waits for at most the borrow timeout if the pool is exhausted.
+   *
+   * @return A connection that must be given back with {@link #release(Connection)}.
+   * @throws SQLException if the pool is exhausted or a new connection could not be opened.
+   */
+  public Connection borrow() throws SQLException {
+    if (this.closed) {
+      throw new SQLException("The backend connection pool has been closed");
+    }
+    if (this.waiters.isEmpty() && this.permits.tryAcquire()) {
+      return take();
+    }
+    CompletableFuture<Connection> waiter = enqueue();
+    try {
+      return waiter.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      waiter.cancel(false);
+      // The connection may have been handed over just before the wait was interrupted.
+      waiter.thenAccept(this::release);
+      throw new SQLException("Interrupted while waiting for a backend connection", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof SQLException
+          ? (SQLException) cause
+          : new SQLException(cause.getMessage(), cause);
+    }
+  }
+
+  /**
+   * Borrows a connection without blocking the caller, so that it can continue with other work
+   * (such as the startup handshake with the client) while a new connection is being opened or
+   * while it waits for a connection to be given back. A borrower that no longer needs the
+   * connection may cancel the future.
+   *
+   * @return A future that completes with the same result as {@link #borrow()}.
+   */
+  public CompletableFuture<Connection> borrowAsync() {
+    if (this.closed) {
+      CompletableFuture<Connection> failed = new CompletableFuture<>();
+      failed.completeExceptionally(
+          new SQLException("The backend connection pool has been closed"));
+      return failed;
+    }
+    if (this.waiters.isEmpty() && this.permits.tryAcquire()) {
+      CompletableFuture<Connection> result = new CompletableFuture<>();
+      serve(result);
+      return result;
+    }
+    return enqueue();
+  }
+
+  /**
+   * Gives a borrowed connection back to the pool. The session state is reset first; a connection
+   * that cannot be reset is closed instead.
+   *
+   * @param connection The connection that was returned by {@link #borrow()}.
+   */
+  public void release(Connection connection) {
+    try {
+      if (this.closed || connection.isClosed()) {
+        discard(connection);
+        return;
+      }
+      reset(connection);
+      this.idleConnections.offerFirst(new IdleConnection(connection));
+    } catch (SQLException e) {
+      logger.log(Level.WARNING, "Could not reset backend connection, closing it: {0}", e);
+      discard(connection);
+    } finally {
+      releasePermit();
+    }
+  }
+
+  /**
+   * Gives back a borrowed connection of which the session state cannot be reset, such as a
+   * connection on which a client changed a setting of the JDBC driver with SET. The connection is
+   * closed, and the next borrower gets a new one.
+   *
+   * @param connection The connection that was returned by {@link #borrow()}.
+   */
+  public void invalidate(Connection connection) {
+    try {
+      discard(connection);
+    } finally {
+      releasePermit();
+    }
+  }
+
+  public int getTotalConnections() {
+    return this.totalConnections.get();
+  }
+
+  public int getIdleConnections() {
+    return this.idleConnections.size();
+  }
+
+  public int getActiveConnections() {
+    return this.permitCount - this.permits.availablePermits();
+  }
+
+  /**
+   * @return The maximum number of connections in use at the same time, or 0 if the pool is not
+   * limited.
+   */
+  public int getMaxSize() {
+    return this.maxSize;
+  }
+
+  /**
+   * Takes an idle connection, or opens a new one. The caller must hold a permit, which is given
+   * back if no connection could be obtained.
+   */
+  private Connection take() throws SQLException {
+    try {
+      IdleConnection idle;
+      while ((idle = this.idleConnections.pollFirst()) != null) {
+        if (isUsable(idle)) {
+          return idle.connection;
+        }
+        discard(idle.connection);
+      }
+      return open();
+    } catch (SQLException | RuntimeException e) {
+      releasePermit();
+      throw e;
+    }
+  }
+
+  /**
+   * Adds a borrower to the queue of borrowers that wait for a permit. The borrower fails if it has
+   * not been handed a permit within the borrow timeout.
+   */
+  private CompletableFuture<Connection> enqueue() {
+    CompletableFuture<Connection> waiter = new CompletableFuture<>();
+    this.waiters.offer(waiter);
+    try {
+      ScheduledFuture<?> timeout = this.maintenanceExecutor.schedule(
+          () -> waiter.completeExceptionally(new SQLException("Timed out after "
+              + this.borrowTimeoutMillis + "ms waiting for one of " + this.maxSize
+              + " backend connections")),
+          this.borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+      waiter.whenComplete((connection, e) -> {
+        timeout.cancel(false);
+        this.waiters.remove(waiter);
+      });
+    } catch (RejectedExecutionException e) {
+      this.waiters.remove(waiter);
+      waiter.completeExceptionally(
+          new SQLException("The backend connection pool has been closed", e));
+      return waiter;
+    }
+    // A permit may have been given back after the caller found none, but before the waiter was
+    // added to the queue.
+    dispatch();
+    if (this.closed) {
+      failWaiters();
+    }
+    return waiter;
+  }
+
+  /**
+   * Gives back a permit, handing it to the borrower that has waited longest if there is one.
+   */
+  private void releasePermit() {
+    this.permits.release();
+    dispatch();
+  }
+
+  /**
+   * Hands free permits to waiting borrowers. Both sides check the other after changing their own
+   * state, so a permit is never left free while a borrower waits for it.
+   */
+  private void dispatch() {
+    while (!this.waiters.isEmpty() && this.permits.tryAcquire()) {
+      CompletableFuture<Connection> waiter = this.waiters.poll();
+      if (waiter == null || waiter.isDone()) {
+        this.permits.release();
+      } else {
+        serve(waiter);
+      }
+    }
+  }
+
+  /**
+   * Completes a borrower that holds a permit with a connection, on a connect thread as opening a
+   * connection can be slow.
+   */
+  private void serve(CompletableFuture<Connection> waiter) {
+    try {
+      this.connectExecutor.execute(() -> {
+        Connection connection;
+        try {
+          connection = take();
+        } catch (SQLException | RuntimeException e) {
+          waiter.completeExceptionally(e);
+          return;
+        }
+        if (!waiter.complete(connection)) {
+          // The borrower timed out or gave up in the meantime.
+          release(connection);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      this.permits.release();
+      waiter.completeExceptionally(
+          new SQLException("The backend connection pool has been closed", e));
+    }
+  }
+
+  private void failWaiters() {
+    CompletableFuture<Connection> waiter;
+    while ((waiter = this.waiters.poll()) != null) {
+      waiter.completeExceptionally(
+          new SQLException("The backend connection pool has been closed"));
+    }
+  }
+
+  private Connection open() throws SQLException {
+    Connection connection = connect();
+    this.totalConnections.incrementAndGet();
+    if (this.initialState == null) {
+      try {
+        this.initialState = new SessionState(connection);
+      } catch (SQLException e) {
+        discard(connection);
+        throw e;
+      }
+    }
+    return connection;
+  }
+
+  /**
+   * Opens a new backend connection.
+   */
+  Connection connect() throws SQLException {
+    return DriverManager.getConnection(this.connectionURL);
+  }
+
+  private void discard(Connection connection) {
+    this.totalConnections.decrementAndGet();
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      logger.log(Level.FINE, "Closing backend connection failed: {0}", e);
+    }
+  }
+
+  /**
+   * Puts a connection back in the state a newly opened connection would be in: the transaction,
+   * auto-commit, read-only and the isolation level. Settings that a client changed with a SET
+   * statement cannot be reset here, so connections on which a SET was executed are given back with
+   * {@link #invalidate(Connection)} instead. The statements of the client have already been closed
+   * by its connection handler.
+   */
+  private void reset(Connection connection) throws SQLException {
+    if (!connection.getAutoCommit()) {
+      connection.rollback();
+      connection.setAutoCommit(true);
+    }
+    SessionState initialState = this.initialState;
+    if (initialState != null) {
+      initialState.restore(connection);
+    }
+    connection.clearWarnings();
+  }
+
+  private boolean isUsable(IdleConnection idle) {
+    if (System.currentTimeMillis() - idle.idleSince < this.validationIntervalMillis) {
+      return true;
+    }
+    try {
+      return idle.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  private void fillToMinimum() {
+    while (!this.closed && this.totalConnections.get() < this.minSize) {
+      try {
+        this.idleConnections.offerLast(new IdleConnection(open()));
+      } catch (SQLException e) {
+        logger.log(Level.WARNING, "Could not open backend connection for the pool: {0}",
+            e.getMessage());
+        return;
+      }
+    }
+  }
+
+  /**
+   * Closes the least recently used connections that have exceeded the idle timeout, while keeping
+   * at least the minimum number of connections open.
+   */
+  private void evictIdleConnections() {
+    long now = System.currentTimeMillis();
+    IdleConnection oldest;
+    while (this.totalConnections.get() > this.minSize
+        && (oldest = this.idleConnections.peekLast()) != null
+        && now - oldest.idleSince > this.idleTimeoutMillis) {
+      if (this.idleConnections.removeLastOccurrence(oldest)) {
+        discard(oldest.connection);
+      }
+    }
+    fillToMinimum();
+  }
+
+  /**
+   * The session state of a newly opened connection. All connections are opened with the same URL,
+   * so they all start in the same state.
+   */
+  private static final class SessionState {
+
+    private final boolean readOnly;
+    private final int transactionIsolation;
+
+    SessionState(Connection connection) throws SQLException {
+      this.readOnly = connection.isReadOnly();
+      this.transactionIsolation = connection.getTransactionIsolation();
+    }
+
+    void restore(Connection connection) throws SQLException {
+      if (connection.isReadOnly() != this.readOnly) {
+        connection.setReadOnly(this.readOnly);
+      }
+      if (connection.getTransactionIsolation() != this.transactionIsolation) {
+        connection.setTransactionIsolation(this.transactionIsolation);
+      }
+    }
+  }
+
+  private static final class IdleConnection {
+
+    private final Connection connection;
+    private final long idleSince;
+
+    IdleConnection(Connection connection) {
+      this.connection = connection;
+      this.idleSince = System.currentTimeMillis();
+    }
+  }
+}
@@ -0,0 +1,468 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter;
+
+import com.google.cloud.spanner.pgadapter.wireprotocol.SSLMessage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.sql.Connection;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The non-blocking counterpart of a client socket. The owning {@link SelectorEventLoop} reads raw
+ * bytes from the channel and cuts them into complete PostgreSQL messages. Only once at least one
+ * complete message is available is the {@link ConnectionHandler} scheduled on the worker executor,
+ * where it reads the message through an ordinary {@link DataInputStream}. As the handler never
+ * reads beyond the messages that have been received, the existing {@link
+ * com.google.cloud.spanner.pgadapter.wireprotocol.WireMessage} classes never block on the client.
+ *
+ * A message that needs a backend connection while the pool is exhausted does not occupy a worker
+ * either: the connection stops processing messages until the pool hands it a backend connection,
+ * and then continues on a worker.
+ *
+ * Outbound data is written directly to the channel by the worker if the socket accepts it, and
+ * otherwise queued for the event loop. A worker that gets too far ahead of a slow client waits
+ * until the queue has drained, which bounds the memory used per connection.
+ */
+class ChannelConnection {
+
+  private static final Logger logger = Logger.getLogger(ChannelConnection.class.getName());
+
+  private static final int READ_BUFFER_SIZE = 8192;
+  private static final int MAX_MESSAGE_LENGTH = 1 << 30;
+  private static final int CONTROL_HEADER_LENGTH = 5;
+  private static final int BOOTSTRAP_HEADER_LENGTH = 4;
+  private static final long WRITE_HIGH_WATER_MARK = 1L << 20;
+
+  private final ProxyServer server;
+  private final SelectorEventLoop eventLoop;
+  private final Executor workerExecutor;
+  private final SocketChannel channel;
+  private final FrameInputStream input = new FrameInputStream();
+  private final AtomicInteger pendingFrames = new AtomicInteger();
+  private final AtomicBoolean scheduled = new AtomicBoolean(true);
+  private final Object writeLock = new Object();
+  private final Queue<ByteBuffer> writeQueue = new ArrayDeque<>();
+  private long pendingWriteBytes;
+
+  private SelectionKey selectionKey;
+  private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+  private boolean bootstrapPhase = true;
+  private volatile boolean inputClosed;
+  private volatile boolean closed;
+  private ConnectionHandler handler;
+  // The backend connection that the next message waits for, if any.
+  private volatile CompletableFuture<Connection> backendConnection;
+
+  ChannelConnection(ProxyServer server,
+      SelectorEventLoop eventLoop,
+      Executor workerExecutor,
+      SocketChannel channel) {
+    this.server = server;
+    this.eventLoop = eventLoop;
+    this.workerExecutor = workerExecutor;
+    this.channel = channel;
+  }
+
+  void setSelectionKey(SelectionKey selectionKey) {
+    this.selectionKey = selectionKey;
+  }
+
+  /**
+   * Creates the {@link ConnectionHandler} on a worker thread. Messages that arrive in the meantime
+   * are buffered and processed afterwards.
+   */
+  void start() {
+    this.workerExecutor.execute(this::processMessages);
+  }
+
+  /**
+   * @return The number of complete messages that have been received but not processed yet.
+   */
+  int getPendingFrames() {
+    return this.pendingFrames.get();
+  }
+
+  /**
+   * Called by the event loop when the channel has data available. Reads whatever is available and
+   * queues every complete message for the worker.
+   *
+   * @throws IOException if the channel was closed or if the client sent an invalid message.
+   */
+  void onReadable() throws IOException {
+    if (this.channel.read(this.readBuffer) < 0) {
+      onClosed();
+      return;
+    }
+    this.readBuffer.flip();
+    int frames = 0;
+    int requiredLength = 0;
+    while (true) {
+      int headerLength = this.bootstrapPhase ? BOOTSTRAP_HEADER_LENGTH : CONTROL_HEADER_LENGTH;
+      if (this.readBuffer.remaining() < headerLength) {
+        break;
+      }
+      int position = this.readBuffer.position();
+      int length = this.readBuffer.getInt(position + headerLength - 4);
+      if (length < 4 || length > MAX_MESSAGE_LENGTH) {
+        throw new IOException("Invalid message length: " + length);
+      }
+      // Bootstrap messages do not have an identifier byte, control messages do.
+      int frameLength = length + headerLength - 4;
+      if (this.readBuffer.remaining() < frameLength) {
+        requiredLength = frameLength;
+        break;
+      }
+      if (this.bootstrapPhase
+          && (length < 8 || this.readBuffer.getInt(position + 4) != SSLMessage.IDENTIFIER)) {
+        // Anything but an SSL request ends the bootstrap phase.
+        this.bootstrapPhase = false;
+      }
+      byte[] frame = new byte[frameLength];
+      this.readBuffer.get(frame);
+      this.input.add(frame);
+      frames++;
+    }
+    this.readBuffer.compact();
+    if (requiredLength > this.readBuffer.capacity()) {
+      ByteBuffer larger = ByteBuffer.allocate(requiredLength);
+      this.readBuffer.flip();
+      larger.put(this.readBuffer);
+      this.readBuffer = larger;
+    } else if (requiredLength == 0 && this.readBuffer.position() == 0
+        && this.readBuffer.capacity() > READ_BUFFER_SIZE) {
+      this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    }
+    if (frames > 0) {
+      this.pendingFrames.addAndGet(frames);
+      schedule();
+    }
+  }
+
+  /**
+   * Called by the event loop when the channel can accept more data.
+   *
+   * @throws IOException if writing to the channel fails.
+   */
+  void onWritable() throws IOException {
+    synchronized (this.writeLock) {
+      drainWriteQueue();
+      if (this.writeQueue.isEmpty()) {
+        this.selectionKey.interestOps(this.selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+      }
+      this.writeLock.notifyAll();
+    }
+  }
+
+  /**
+   * Called by the event loop when the client has closed the connection or the channel failed. The
+   * handler is closed once it has finished processing the messages it already received.
+   */
+  void onClosed() {
+    this.inputClosed = true;
+    if (this.selectionKey != null) {
+      this.selectionKey.cancel();
+    }
+    synchronized (this.writeLock) {
+      this.writeLock.notifyAll();
+    }
+    CompletableFuture<Connection> backendConnection = this.backendConnection;
+    if (backendConnection != null) {
+      // Stop waiting for the pool; the handler is closed once the wait has ended.
+      backendConnection.cancel(false);
+    }
+    schedule();
+  }
+
+  private void schedule() {
+    if (this.scheduled.compareAndSet(false, true)) {
+      this.workerExecutor.execute(this::processMessages);
+    }
+  }
+
+  /**
+   * Processes all complete messages that are currently available. Runs on a worker thread, and at
+   * most one worker processes messages for this connection at any time.
+   */
+  private void processMessages() {
+    CompletableFuture<Connection> backendConnection = this.backendConnection;
+    if (backendConnection != null) {
+      this.backendConnection = null;
+      if (backendConnection.isCancelled()) {
+        close();
+        return;
+      }
+    }
+    try {
+      if (this.handler == null && !initializeHandler()) {
+        close();
+        return;
+      }
+      while (this.pendingFrames.get() > 0 && !this.handler.isTerminated()) {
+        backendConnection = this.handler.awaitBackendConnection(this.input.peek());
+        if (backendConnection != null) {
+          // The scheduled flag stays set, so that no other worker processes the messages of this
+          // connection until the wait has ended.
+          this.backendConnection = backendConnection;
+          backendConnection.whenComplete(
+              (connection, e) -> this.workerExecutor.execute(this::processMessages));
+          return;
+        }
+        this.pendingFrames.decrementAndGet();
+        this.handler.processNextMessage();
+      }
+    } catch (Exception e) {
+      if (this.handler == null) {
+        // The handler could not be created, so there is nothing to name it by but its client.
+        logger.log(Level.WARNING, "Exception while starting connection handler for client {0}: {1}",
+            new Object[]{this.channel.socket().getRemoteSocketAddress(), e});
+      } else {
+        logger.log(Level.WARNING, "Exception on connection handler with ID {0}: {1}",
+            new Object[]{this.handler.getName(), e});
+      }
+      close();
+      return;
+    }
+    if (this.handler.isTerminated() || (this.inputClosed && this.pendingFrames.get() == 0)) {
+      close();
+      return;
+    }
+    this.scheduled.set(false);
+    // Messages may have arrived after the loop above finished, but before the flag was cleared.
+    if (this.pendingFrames.get() > 0 || this.inputClosed) {
+      schedule();
+    }
+  }
+
+  private boolean initializeHandler() throws Exception {
+    this.handler = new ConnectionHandler(this.server, this.channel.socket());
+    this.server.register(this.handler);
+    logger.log(Level.INFO, "Connection handler with ID {0} starting for client {1}",
+        new Object[]{this.handler.getName(), this.channel.socket().getInetAddress()});
+    return this.handler.initialize(
+        new DataInputStream(this.input),
+        new DataOutputStream(new ChannelOutputStream()));
+  }
+
+  private void close() {
+    this.closed = true;
+    synchronized (this.writeLock) {
+      this.writeLock.notifyAll();
+    }
+    if (this.handler != null) {
+      this.handler.closeConnection();
+    } else {
+      try {
+        this.channel.close();
+      } catch (IOException ignore) {
+        // Nothing more we can do for this client.
+      }
+    }
+  }
+
+  /**
+   * Writes as much of the queued data as the channel accepts. Must hold the write lock.
+   */
+  private void drainWriteQueue() throws IOException {
+    ByteBuffer buffer;
+    while ((buffer = this.writeQueue.peek()) != null) {
+      this.pendingWriteBytes -= this.channel.write(buffer);
+      if (buffer.hasRemaining()) {
+        return;
+      }
+      this.writeQueue.poll();
+    }
+  }
+
+  /**
+   * Sends the given data to the client, or queues it if the socket buffer is full. Blocks the
+   * calling worker while too much data is waiting to be written.
+   */
+  private void write(ByteBuffer data) throws IOException {
+    synchronized (this.writeLock) {
+      if (this.closed || this.inputClosed) {
+        throw new SocketException("Connection closed by client");
+      }
+      if (this.writeQueue.isEmpty()) {
+        this.channel.write(data);
+      }
+      if (!data.hasRemaining()) {
+        return;
+      }
+      this.writeQueue.add(data);
+      this.pendingWriteBytes += data.remaining();
+      this.eventLoop.execute(() -> {
+        if (this.selectionKey.isValid()) {
+          this.selectionKey.interestOps(this.selectionKey.interestOps() | SelectionKey.OP_WRITE);
+        }
+      });
+      while (this.pendingWriteBytes > WRITE_HIGH_WATER_MARK) {
+        if (this.closed || this.inputClosed) {
+          throw new SocketException("Connection closed by client");
+        }
+        try {
+          this.writeLock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while writing to client");
+        }
+      }
+    }
+  }
+
+  /**
+   * An input stream over the complete messages received so far. Reading beyond the received data
+   * is reported as end of stream.
+   */
+  private static final class FrameInputStream extends InputStream {
+
+    private final Queue<byte[]> frames = new ConcurrentLinkedQueue<>();
+    private byte[] current;
+    private int position;
+
+    void add(byte[] frame) {
+      this.frames.add(frame);
+    }
+
+    /**
+     * @return The next message, or null if no complete message is available or the last message
+     * has only partly been read.
+     */
+    byte[] peek() {
+      if (this.current != null && this.position < this.current.length) {
+        return this.position == 0 ? this.current : null;
+      }
+      return this.frames.peek();
+    }
+
+    private boolean hasData() {
+      while (this.current == null || this.position == this.current.length) {
+        this.current = this.frames.poll();
+        this.position = 0;
+        if (this.current == null) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int read() {
+      if (!hasData()) {
+        return -1;
+      }
+      return this.current[this.position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!hasData()) {
+        return -1;
+      }
+      int count = Math.min(length, this.current.length - this.position);
+      System.arraycopy(this.current, this.position, buffer, offset, count);
+      this.position += count;
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return this.current == null ? 0 : this.current.length - this.position;
+    }
+  }
+
+  /**
+   * Collects the output of the wire messages, and hands it to the channel on flush or when the
+   * configured output buffer size has been reached.
+   */
+  private final class ChannelOutputStream extends OutputStream {
+
+    private final int flushThreshold = server.getOptions().getOutputBufferSize();
+    private byte[] buffer = new byte[READ_BUFFER_SIZE];
+    private int count;
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > this.buffer.length) {
+        this.buffer = Arrays.copyOf(this.buffer, Math.max(capacity, this.buffer.length * 2));
+      }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      ensureCapacity(this.count + 1);
+      this.buffer[this.count++] = (byte) b;
+      if (this.count >= this.flushThreshold) {
+        flush();
+      }
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+      ensureCapacity(this.count + length);
+      System.arraycopy(data, offset, this.buffer, this.count, length);
+      this.count += length;
+      if (this.count >= this.flushThreshold) {
+        flush();
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (this.count == 0) {
+        return;
+      }
+      ByteBuffer data = ByteBuffer.wrap(Arrays.copyOf(this.buffer, this.count));
+      if (handler != null) {
+        handler.recordBytesSent(this.count);
+      } else if (server.getMetrics() != null) {
+        server.getMetrics().recordBytesSent(this.count);
+      }
+      this.count = 0;
+      if (handler == null || server.getSlowQueryLog() == null) {
+        ChannelConnection.this.write(data);
+        return;
+      }
+      // The write waits while too much data is queued for a slow client.
+      long start = System.nanoTime();
+      ChannelConnection.this.write(data);
+      handler.addClientWriteNanos(System.nanoTime() - start);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
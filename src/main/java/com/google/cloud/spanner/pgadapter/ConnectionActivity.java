@@ -0,0 +1,298 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a client connection is doing, for the pg_stat_activity view and the SHOW commands of the
+ * admin console. The {@link ConnectionHandler} updates the record at state transitions, and any
+ * thread may read it without taking locks. The state and the query are replaced together as one
+ * immutable {@link Status}, so a reader never sees the state of one query with the SQL of another.
+ */
+public final class ConnectionActivity {
+
+  public enum State {
+    STARTUP("startup"),
+    IDLE("idle"),
+    ACTIVE("active"),
+    IDLE_IN_TRANSACTION("idle in transaction");
+
+    private final String label;
+
+    State(String label) {
+      this.label = label;
+    }
+
+    /**
+     * @return The state as it is shown in pg_stat_activity, such as "idle in transaction".
+     */
+    public String getLabel() {
+      return this.label;
+    }
+  }
+
+  private final int connectionId;
+  private final String clientAddress;
+  private final int clientPort;
+  private final long connectTimeMillis = System.currentTimeMillis();
+  private final Counters counters = new Counters();
+  private volatile String user;
+  private volatile String database;
+  private volatile String applicationName;
+  private volatile Status status =
+      new Status(State.STARTUP, null, 0L, 0L, this.connectTimeMillis);
+  private volatile boolean backendConnectionHeld;
+  // The System.nanoTime() at which the connection started to wait for a backend connection, or 0
+  // if it is not waiting.
+  private volatile long waitStartNanos;
+
+  ConnectionActivity(int connectionId, String clientAddress, int clientPort) {
+    this.connectionId = connectionId;
+    this.clientAddress = clientAddress;
+    this.clientPort = clientPort;
+  }
+
+  /**
+   * Records the parameters of the startup message of the client.
+   */
+  void started(String user, String database, String applicationName) {
+    this.user = user;
+    this.database = database;
+    this.applicationName = applicationName;
+    this.status = new Status(State.IDLE, null, 0L, 0L, System.currentTimeMillis());
+  }
+
+  /**
+   * Called when the connection starts to handle a query or an execute message.
+   */
+  void queryStarted(String sql) {
+    Status current = this.status;
+    long startNanos = System.nanoTime();
+    if (current.state == State.ACTIVE) {
+      // The previous execute message of the same Sync has finished.
+      queryFinished(startNanos - current.queryStartNanos);
+    }
+    long now = System.currentTimeMillis();
+    this.status = new Status(State.ACTIVE, sql, now, startNanos, now);
+  }
+
+  /**
+   * Called when the client is told that the server is ready for the next query. The query remains
+   * visible until the next one starts, as in PostgreSQL.
+   */
+  void readyForQuery(boolean inTransaction) {
+    Status current = this.status;
+    State state = inTransaction ? State.IDLE_IN_TRANSACTION : State.IDLE;
+    if (current.state == State.ACTIVE) {
+      long nanos = System.nanoTime() - current.queryStartNanos;
+      queryFinished(nanos);
+      this.status = new Status(state, current.query, current.queryStartMillis,
+          current.queryStartNanos, System.currentTimeMillis(), nanos);
+    } else if (current.state != state) {
+      this.status = new Status(state, current.query, current.queryStartMillis,
+          current.queryStartNanos, System.currentTimeMillis(), current.queryNanos);
+    }
+  }
+
+  private void queryFinished(long nanos) {
+    this.counters.queries.increment();
+    this.counters.queryNanos.add(nanos);
+  }
+
+  void setBackendConnectionHeld(boolean backendConnectionHeld) {
+    this.backendConnectionHeld = backendConnectionHeld;
+  }
+
+  void waitStarted() {
+    this.waitStartNanos = System.nanoTime();
+  }
+
+  void waitFinished() {
+    long start = this.waitStartNanos;
+    this.waitStartNanos = 0L;
+    if (start != 0L) {
+      this.counters.waitNanos.add(System.nanoTime() - start);
+    }
+  }
+
+  void addBytesReceived(long bytes) {
+    this.counters.bytesReceived.add(bytes);
+  }
+
+  void addBytesSent(long bytes) {
+    this.counters.bytesSent.add(bytes);
+  }
+
+  public int getConnectionId() {
+    return this.connectionId;
+  }
+
+  public String getClientAddress() {
+    return this.clientAddress;
+  }
+
+  public int getClientPort() {
+    return this.clientPort;
+  }
+
+  public long getConnectTimeMillis() {
+    return this.connectTimeMillis;
+  }
+
+  /**
+   * @return The user of the startup message, or null if the client has not sent it yet.
+   */
+  public String getUser() {
+    return this.user;
+  }
+
+  /**
+   * @return The database of the startup message, or null if the client has not sent it yet.
+   */
+  public String getDatabase() {
+    return this.database;
+  }
+
+  public String getApplicationName() {
+    return this.applicationName;
+  }
+
+  public Status getStatus() {
+    return this.status;
+  }
+
+  public boolean isBackendConnectionHeld() {
+    return this.backendConnectionHeld;
+  }
+
+  /**
+   * @return How long the connection has been waiting for a backend connection, or 0 if it is not
+   * waiting.
+   */
+  public long getWaitNanos() {
+    long start = this.waitStartNanos;
+    return start == 0L ? 0L : Math.max(System.nanoTime() - start, 1L);
+  }
+
+  public Counters getCounters() {
+    return this.counters;
+  }
+
+  /**
+   * The state of the connection and the query that it is running or ran last.
+   */
+  public static final class Status {
+
+    private final State state;
+    private final String query;
+    private final long queryStartMillis;
+    private final long queryStartNanos;
+    private final long stateChangeMillis;
+    // The duration of the query once it has finished, or -1 while it is running.
+    private final long queryNanos;
+
+    private Status(State state, String query, long queryStartMillis, long queryStartNanos,
+        long stateChangeMillis) {
+      this(state, query, queryStartMillis, queryStartNanos, stateChangeMillis, -1L);
+    }
+
+    private Status(State state, String query, long queryStartMillis, long queryStartNanos,
+        long stateChangeMillis, long queryNanos) {
+      this.state = state;
+      this.query = query;
+      this.queryStartMillis = queryStartMillis;
+      this.queryStartNanos = queryStartNanos;
+      this.stateChangeMillis = stateChangeMillis;
+      this.queryNanos = queryNanos;
+    }
+
+    public State getState() {
+      return this.state;
+    }
+
+    /**
+     * @return The query that is running, or that ran last, or null if there has not been one.
+     */
+    public String getQuery() {
+      return this.query;
+    }
+
+    /**
+     * @return The time at which the query started, or 0 if there has not been one.
+     */
+    public long getQueryStartMillis() {
+      return this.queryStartMillis;
+    }
+
+    public long getStateChangeMillis() {
+      return this.stateChangeMillis;
+    }
+
+    /**
+     * @return How long the running query has been running, or how long the last query took, or -1
+     * if there has not been one.
+     */
+    public long getQueryNanos() {
+      if (this.query == null) {
+        return -1L;
+      }
+      return this.queryNanos >= 0L ? this.queryNanos : System.nanoTime() - this.queryStartNanos;
+    }
+  }
+
+  /**
+   * The totals of one connection, or of all closed connections of a database.
+   */
+  public static final class Counters {
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder queryNanos = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+
+    void add(Counters other) {
+      this.queries.add(other.getQueries());
+      this.queryNanos.add(other.getQueryNanos());
+      this.waitNanos.add(other.getWaitNanos());
+      this.bytesReceived.add(other.getBytesReceived());
+      this.bytesSent.add(other.getBytesSent());
+    }
+
+    public long getQueries() {
+      return this.queries.sum();
+    }
+
+    public long getQueryNanos() {
+      return this.queryNanos.sum();
+    }
+
+    /**
+     * @return The total time spent waiting for a backend connection from the pool.
+     */
+    public long getWaitNanos() {
+      return this.waitNanos.sum();
+    }
+
+    public long getBytesReceived() {
+      return this.bytesReceived.sum();
+    }
+
+    public long getBytesSent() {
+      return this.bytesSent.sum();
+    }
+  }
+}
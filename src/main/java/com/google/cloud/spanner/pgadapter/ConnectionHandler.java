@@ -15,28 +15,44 @@
 package com.google.cloud.spanner.pgadapter;
 
 import com.google.cloud.spanner.pgadapter.metadata.ConnectionMetadata;
+import com.google.cloud.spanner.pgadapter.metadata.OptionsMetadata.PoolMode;
+import com.google.cloud.spanner.pgadapter.metrics.ProxyMetrics;
+import com.google.cloud.spanner.pgadapter.metrics.SlowQueryLog;
+import com.google.cloud.spanner.pgadapter.metrics.StatementStatistics;
+import com.google.cloud.spanner.pgadapter.metrics.StatementTimings;
+import com.google.cloud.spanner.pgadapter.metrics.StatementTimings.Phase;
+import com.google.cloud.spanner.pgadapter.statements.AdminStatement;
 import com.google.cloud.spanner.pgadapter.statements.IntermediatePortalStatement;
 import com.google.cloud.spanner.pgadapter.statements.IntermediatePreparedStatement;
+import com.google.cloud.spanner.pgadapter.statements.DmlBatch;
 import com.google.cloud.spanner.pgadapter.statements.IntermediateStatement;
+import com.google.cloud.spanner.pgadapter.statements.PreparedStatementCache;
+import com.google.cloud.spanner.pgadapter.utils.ProtocolTracer;
+import com.google.cloud.spanner.pgadapter.wireoutput.BindCompleteResponse;
+import com.google.cloud.spanner.pgadapter.wireoutput.CommandCompleteResponse;
 import com.google.cloud.spanner.pgadapter.wireoutput.ErrorResponse;
 import com.google.cloud.spanner.pgadapter.wireoutput.ReadyResponse;
 import com.google.cloud.spanner.pgadapter.wireprotocol.BootstrapMessage;
+import com.google.cloud.spanner.pgadapter.wireprotocol.ControlMessage;
 import com.google.cloud.spanner.pgadapter.wireprotocol.WireMessage;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.security.SecureRandom;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.text.MessageFormat;
+import java.sql.Statement;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,6 +64,9 @@ import java.util.logging.Logger;
  *
  * Each {@link ConnectionHandler} is also a {@link Thread}. Although a TCP connection does not
  * necessarily need to have its own thread, this makes the implementation more straightforward.
+ * When the non-blocking transport is used, the thread is never started; instead a {@link
+ * ChannelConnection} calls {@link #processNextMessage()} on a worker thread whenever a complete
+ * message has been received.
  */
 public class ConnectionHandler extends Thread {
 
@@ -57,24 +76,60 @@ public class ConnectionHandler extends Thread {
   private final Socket socket;
   private final Map<String, IntermediatePreparedStatement> statementsMap = new HashMap<>();
   private final Map<String, IntermediatePortalStatement> portalsMap = new HashMap<>();
-  private static volatile Map<Integer, IntermediateStatement> activeStatementsMap = new HashMap<>();
-  private static final Map<Integer, Integer> connectionToSecretMapping = new HashMap<>();
+  private final Map<String, String> sessionParameters = new HashMap<>();
+  // The statement that is executing, which a cancel request from another connection may cancel.
+  private final AtomicReference<IntermediateStatement> activeStatement = new AtomicReference<>();
   private volatile ConnectionStatus status = ConnectionStatus.UNAUTHENTICATED;
-  private int connectionId;
+  private final int connectionId;
   private final int secret;
-  // Separate the following from the threat ID generator, since PG connection IDs are maximum
-  //  32 bytes, and shouldn't be incremented on failed startups.
-  private static AtomicInteger incrementingConnectionId = new AtomicInteger(0);
   private ConnectionMetadata connectionMetadata;
   private WireMessage message;
   private Connection jdbcConnection;
-
-  ConnectionHandler(ProxyServer server, Socket socket) throws SQLException {
+  private CompletableFuture<Connection> pendingJdbcConnection;
+  private boolean inTransaction;
+  // True if a SET statement was executed on the backend connection, which changes settings of the
+  // JDBC driver that the pool cannot reset. SET statements that are sent with the extended query
+  // protocol are not answered by LocalStatement.
+  private boolean backendSettingsChanged;
+  private volatile boolean closed;
+  private final AtomicLong prefetchMemoryBytes = new AtomicLong();
+  // As in the PostgreSQL backend, an error in a message of the extended query protocol makes the
+  // handler ignore all following messages until the client sends Sync.
+  private boolean doingExtendedQueryMessage;
+  private boolean ignoreTillSync;
+  private DmlBatch batch;
+  private final PreparedStatementCache statementCache;
+  // Null unless the messages of this connection are traced.
+  private final ProtocolTracer.Session traceSession;
+  // The time spent blocked writing to the client socket, if the slow query log is turned on.
+  private long clientWriteNanos;
+  // The last statement that finished. It is checked against the slow query log once its response
+  // has been flushed, or when the next statement finishes.
+  private IntermediateStatement finishedStatement;
+  private final ConnectionActivity activity;
+  // True if the client connected to the admin database, which never gets a backend connection.
+  private boolean adminConsole;
+
+  ConnectionHandler(ProxyServer server, Socket socket) {
     super("ConnectionHandler-" + CONNECTION_HANDLER_ID_GENERATOR.incrementAndGet());
     this.server = server;
     this.socket = socket;
+    this.connectionId = server.getConnectionRegistry().nextConnectionId();
     this.secret = new SecureRandom().nextInt();
-    this.jdbcConnection = DriverManager.getConnection(server.getOptions().getConnectionURL());
+    this.activity = new ConnectionActivity(this.connectionId,
+        socket.getInetAddress().getHostAddress(), socket.getPort());
+    this.traceSession = server.getProtocolTracer() == null
+        ? null
+        : server.getProtocolTracer().newSession(this.connectionId);
+    int statementCacheSize = server.getOptions().getStatementCacheSize();
+    this.statementCache =
+        statementCacheSize > 0 ? new PreparedStatementCache(statementCacheSize) : null;
+    if (server.getOptions().getPoolMode() == PoolMode.SESSION
+        && !server.getOptions().isLazyBackendConnect()) {
+      // Opening a backend connection can be slow, so do it while the client goes through startup.
+      this.pendingJdbcConnection = server.getConnectionPool().borrowAsync();
+      this.activity.setBackendConnectionHeld(true);
+    }
     setDaemon(true);
     logger.log(Level.INFO, "Connection handler with ID {0} created for client {1}",
         new Object[]{getName(), socket.getInetAddress().getHostAddress()});
@@ -94,58 +149,270 @@ public class ConnectionHandler extends Thread {
         DataInputStream input =
             new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
         DataOutputStream output =
-            new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+            new DataOutputStream(new BufferedOutputStream(getSocketOutputStream(),
+                this.server.getOptions().getOutputBufferSize()));
     ) {
-      if (!this.socket.getInetAddress().isAnyLocalAddress() &&
-          !this.socket.getInetAddress().isLoopbackAddress()) {
-        handleError(output,
-            new IllegalAccessException("This proxy may only be accessed from localhost."));
+      if (!initialize(input, output)) {
         return;
       }
+      while (!isTerminated()) {
+        processNextMessage();
+      }
+    } catch (Exception e) {
+      logger.log(Level.WARNING, "Exception on connection handler with ID {0} for client {1}: {2}",
+          new Object[]{getName(), socket.getInetAddress().getHostAddress(), e});
+    } finally {
+      closeConnection();
+    }
+  }
+
+  private OutputStream getSocketOutputStream() throws IOException {
+    OutputStream output = countBytesSent(this.socket.getOutputStream());
+    return getSlowQueryLog() == null ? output : timeClientWrites(output);
+  }
+
+  /**
+   * @return A stream that counts the bytes that are written to the given stream. Place it below any
+   * buffering stream, so that it is called once per buffer instead of once per value.
+   */
+  private OutputStream countBytesSent(OutputStream output) {
+    return new FilterOutputStream(output) {
+      @Override
+      public void write(int b) throws IOException {
+        this.out.write(b);
+        recordBytesSent(1L);
+      }
+
+      @Override
+      public void write(byte[] data, int offset, int length) throws IOException {
+        this.out.write(data, offset, length);
+        recordBytesSent(length);
+      }
+    };
+  }
+
+  /**
+   * @return A stream that adds the time spent in writes to the given stream to the client write
+   * time of this handler. Place it below any buffering stream, so that only the writes that may
+   * block on the socket are timed.
+   */
+  private OutputStream timeClientWrites(OutputStream output) {
+    return new FilterOutputStream(output) {
+      @Override
+      public void write(int b) throws IOException {
+        long start = System.nanoTime();
+        this.out.write(b);
+        addClientWriteNanos(System.nanoTime() - start);
+      }
+
+      @Override
+      public void write(byte[] data, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        this.out.write(data, offset, length);
+        addClientWriteNanos(System.nanoTime() - start);
+      }
+
+      @Override
+      public void flush() throws IOException {
+        long start = System.nanoTime();
+        this.out.flush();
+        addClientWriteNanos(System.nanoTime() - start);
+      }
+    };
+  }
+
+  /**
+   * Sets up the streams used to communicate with the client. The streams are supplied by the
+   * transport, so that the same message handling is used whether this handler runs on its own
+   * thread or is driven by a {@link SelectorEventLoop}.
+   *
+   * @return false if the client may not use this proxy, in which case an error has already been
+   * sent and the connection should be closed.
+   * @throws Exception if sending the error to the client fails.
+   */
+  boolean initialize(DataInputStream input, DataOutputStream output) throws Exception {
+    if (!this.socket.getInetAddress().isAnyLocalAddress() &&
+        !this.socket.getInetAddress().isLoopbackAddress()) {
+      handleError(output,
+          new IllegalAccessException("This proxy may only be accessed from localhost."));
+      return false;
+    }
+    this.connectionMetadata = new ConnectionMetadata(input, output);
+    return true;
+  }
+
+  /**
+   * Reads and handles exactly one message from the client. The first message is always a
+   * bootstrap message; all later messages are read by the previous message's state handler. Any
+   * exception caused by the message itself is reported to the client, whereas a failure to report
+   * it (i.e. a broken connection) is thrown to the caller.
+   *
+   * @throws Exception if the client can no longer be reached.
+   */
+  void processNextMessage() throws Exception {
+    if (this.traceSession == null) {
+      handleNextMessage();
+      return;
+    }
+    this.traceSession.enter();
+    try {
+      handleNextMessage();
+    } finally {
+      this.traceSession.exit();
+    }
+  }
 
+  private void handleNextMessage() throws Exception {
+    DataOutputStream output = this.connectionMetadata.getOutputStream();
+    if (this.message == null) {
       try {
-        this.connectionMetadata = new ConnectionMetadata(input, output);
         this.message = BootstrapMessage.create(this);
         this.message.send();
-        while (this.status != ConnectionStatus.TERMINATED) {
-          try {
-            message.nextHandler();
-            message.send();
-          } catch (Exception e) {
-            this.handleError(output, e);
-          }
-        }
       } catch (Exception e) {
+        this.status = ConnectionStatus.TERMINATED;
         this.handleError(output, e);
       }
+      return;
+    }
+    try {
+      message.nextHandler();
+      message.send();
     } catch (Exception e) {
-      logger.log(Level.WARNING, "Exception on connection handler with ID {0} for client {1}: {2}",
-          new Object[]{getName(), socket.getInetAddress().getHostAddress(), e});
-    } finally {
-      logger.log(Level.INFO, "Closing connection handler with ID {0}", getName());
-      try {
-        if (this.jdbcConnection != null) {
-          this.jdbcConnection.close();
-        }
-        this.socket.close();
-      } catch (SQLException | IOException e) {
-        logger.log(Level.WARNING, "Exception while closing connection handler with ID {0}",
-            getName());
-      }
-      this.server.deregister(this);
-      logger.log(Level.INFO, "Connection handler with ID {0} closed", getName());
+      this.handleError(output, e);
+    }
+  }
+
+  boolean isTerminated() {
+    return this.status == ConnectionStatus.TERMINATED;
+  }
+
+  /**
+   * Releases all resources held by this handler and removes it from the server. Safe to call more
+   * than once.
+   */
+  void closeConnection() {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+    this.status = ConnectionStatus.TERMINATED;
+    logger.log(Level.INFO, "Closing connection handler with ID {0}", getName());
+    releaseJdbcConnection();
+    try {
+      this.socket.close();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Exception while closing connection handler with ID {0}",
+          getName());
     }
+    this.activeStatement.set(null);
+    this.server.deregister(this);
+    logger.log(Level.INFO, "Connection handler with ID {0} closed", getName());
   }
 
   /**
    * Called when a Terminate message is received. This closes this {@link ConnectionHandler}.
    */
   public void handleTerminate() throws Exception {
-    closeAllPortals();
-    this.jdbcConnection.close();
+    releaseJdbcConnection();
     this.status = ConnectionStatus.TERMINATED;
   }
 
+  /**
+   * Closes all statements of this handler and gives the backend connection back to the pool of the
+   * server.
+   */
+  private synchronized void releaseJdbcConnection() {
+    if (this.pendingJdbcConnection != null) {
+      BackendConnectionPool pool = this.server.getConnectionPool();
+      // Stop waiting for a connection that has not been handed over yet, or give it back once it
+      // has been.
+      this.pendingJdbcConnection.cancel(false);
+      this.pendingJdbcConnection.thenAccept(pool::release);
+      this.pendingJdbcConnection = null;
+    }
+    this.activity.setBackendConnectionHeld(false);
+    if (this.jdbcConnection == null) {
+      return;
+    }
+    closeAllPortals();
+    this.statementsMap.clear();
+    giveBackJdbcConnection();
+  }
+
+  /**
+   * Called right before the client is told that the server is ready for the next query. In
+   * transaction pool mode, this gives the backend connection back to the pool unless a transaction
+   * is still in progress. Portals end with the transaction, and the backend statements of named
+   * prepared statements are closed; those statements are prepared again on whichever backend
+   * connection is leased when they are next bound.
+   */
+  public synchronized void readyForQuery() {
+    this.activity.readyForQuery(this.inTransaction);
+    if (this.jdbcConnection == null
+        || this.server.getOptions().getPoolMode() != PoolMode.TRANSACTION
+        || this.inTransaction) {
+      return;
+    }
+    try {
+      if (!this.jdbcConnection.getAutoCommit()) {
+        // The client has turned off auto-commit, which pins the backend connection.
+        return;
+      }
+    } catch (SQLException e) {
+      logger.log(Level.WARNING, "Could not read auto-commit of connection handler with ID {0}",
+          getName());
+    }
+    closeAllPortals();
+    giveBackJdbcConnection();
+    this.activity.setBackendConnectionHeld(false);
+  }
+
+  /**
+   * Gives the backend connection back to the pool, which closes it instead if its settings were
+   * changed.
+   */
+  private void giveBackJdbcConnection() {
+    if (this.backendSettingsChanged) {
+      this.server.getConnectionPool().invalidate(this.jdbcConnection);
+    } else {
+      this.server.getConnectionPool().release(this.jdbcConnection);
+    }
+    this.jdbcConnection = null;
+    this.backendSettingsChanged = false;
+  }
+
+  /**
+   * Keeps track of explicit transactions, so that the backend connection is not released halfway
+   * through a transaction in transaction pool mode, and of settings that were changed on the
+   * backend connection, so that they do not leak to the next client that borrows it.
+   *
+   * @param command The command (first word) of the statement that was executed.
+   * @param succeeded Whether the statement was executed successfully.
+   */
+  public void updateTransactionState(String command, boolean succeeded) {
+    if (command == null) {
+      return;
+    }
+    switch (command.endsWith(";") ? command.substring(0, command.length() - 1) : command) {
+      case "BEGIN":
+      case "START":
+        this.inTransaction |= succeeded;
+        break;
+      case "COMMIT":
+      case "END":
+      case "ROLLBACK":
+      case "ABORT":
+        // A failed commit or rollback also ends the transaction.
+        this.inTransaction = false;
+        break;
+      case "SET":
+        this.backendSettingsChanged |= succeeded;
+        break;
+      default:
+        break;
+    }
+  }
+
   /**
    * Takes an Exception Object and relates its results to the user within the client.
    *
@@ -156,14 +423,100 @@ public class ConnectionHandler extends Thread {
     logger.log(Level.WARNING,
         "Exception on connection handler with ID {0}: {2}",
         new Object[]{getName(), e});
+    // The results of the statements that were batched before the failed message come first. If
+    // the batch itself fails, its error is reported and the failed message counts as ignored.
+    flushBatch(output);
+    if (this.ignoreTillSync) {
+      return;
+    }
+    recordError(ErrorResponse.State.InternalError);
     new ErrorResponse(output, e, ErrorResponse.State.InternalError).send();
+    if (this.doingExtendedQueryMessage) {
+      this.ignoreTillSync = true;
+      return;
+    }
+    readyForQuery();
+    long clientWriteNanos = this.clientWriteNanos;
     new ReadyResponse(output, ReadyResponse.Status.IDLE).send();
+    readyForQuerySent(this.clientWriteNanos - clientWriteNanos);
+  }
+
+  /**
+   * Executes the pending batch of DML statements, if any, and sends the responses to the bind and
+   * execute messages that were held back for it. If a statement of the batch fails, its error is
+   * sent instead of its result, and all messages until the next Sync are ignored.
+   *
+   * @param output The stream to send the responses to.
+   * @throws Exception if sending the responses fails.
+   */
+  public void flushBatch(DataOutputStream output) throws Exception {
+    if (this.batch == null) {
+      return;
+    }
+    DmlBatch batch = this.batch;
+    this.batch = null;
+    batch.execute();
+    for (DmlBatch.Step step : batch.getSteps()) {
+      if (step.isBindPending()) {
+        new BindCompleteResponse(output).send();
+      }
+      if (!step.isExecuted()) {
+        continue;
+      }
+      IntermediatePortalStatement portal = step.getPortal();
+      if (portal.hasException()) {
+        recordError(ErrorResponse.State.InternalError);
+        new ErrorResponse(output, portal.getException(), ErrorResponse.State.InternalError).send();
+        this.ignoreTillSync = true;
+        return;
+      }
+      new CommandCompleteResponse(output, portal.getUpdateCommandTag()).send();
+      cleanUp(portal);
+    }
+  }
+
+  /**
+   * @return The batch of DML statements that has not been sent to the backend yet, or null.
+   */
+  public DmlBatch getBatch() {
+    return this.batch;
+  }
+
+  public void setBatch(DmlBatch batch) {
+    this.batch = batch;
+  }
+
+  /**
+   * Marks whether the message that is being handled belongs to the extended query protocol, in
+   * which case an error makes the handler ignore all messages until the next Sync.
+   */
+  public void setDoingExtendedQueryMessage(boolean doingExtendedQueryMessage) {
+    this.doingExtendedQueryMessage = doingExtendedQueryMessage;
+  }
+
+  public boolean isDoingExtendedQueryMessage() {
+    return this.doingExtendedQueryMessage;
+  }
+
+  /**
+   * @return True if an error occurred in the extended query protocol, and messages are ignored
+   * until the client sends Sync.
+   */
+  public boolean isIgnoreTillSync() {
+    return this.ignoreTillSync;
+  }
+
+  public void setIgnoreTillSync(boolean ignoreTillSync) {
+    this.ignoreTillSync = ignoreTillSync;
   }
 
   /**
    * Closes portals and statements if the result of an execute was the end of a transaction.
    */
   public void cleanUp(IntermediateStatement statement) throws Exception {
+    if (!statement.isHasMoreData()) {
+      statementFinished(statement);
+    }
     if (!statement.isHasMoreData() && statement.isBound()) {
       statement.close();
     }
@@ -171,18 +524,36 @@ public class ConnectionHandler extends Thread {
   }
 
   /**
-   * Closes all named and unnamed portals on this connection.
+   * Closes all named and unnamed portals on this connection, and the underlying JDBC statements of
+   * both portals and prepared statements, as the backend connection outlives them.
    */
   private void closeAllPortals() {
+    // Batched executions of the portals are discarded, as PostgreSQL discards an unsynced pipeline.
+    this.batch = null;
     for (IntermediatePortalStatement statement : portalsMap.values()) {
+      closePortalStatement(statement);
+    }
+    for (IntermediatePreparedStatement statement : statementsMap.values()) {
       try {
-        statement.close();
+        closeBackendStatement(statement.getStatement());
       } catch (Exception e) {
-        logger.log(Level.SEVERE, "Unable to close portal: {0}", e.getMessage());
+        logger.log(Level.SEVERE, "Unable to close statement: {0}", e.getMessage());
       }
     }
     this.portalsMap.clear();
-    this.statementsMap.clear();
+    if (this.statementCache != null) {
+      this.statementCache.closeBackendStatements();
+    }
+  }
+
+  /**
+   * Closes a backend statement, unless it belongs to the statement cache, in which case it is given
+   * back to the cache.
+   */
+  private void closeBackendStatement(Statement statement) throws SQLException {
+    if (this.statementCache == null || !this.statementCache.release(statement)) {
+      statement.close();
+    }
   }
 
   public IntermediatePortalStatement getPortal(String portalName) {
@@ -193,15 +564,34 @@ public class ConnectionHandler extends Thread {
 
   }
 
+  /**
+   * Registers a portal. A portal that was registered before with the same name, such as the
+   * previous unnamed portal, is closed, as it can no longer be executed.
+   */
   public void registerPortal(String portalName, IntermediatePortalStatement portal) {
-    this.portalsMap.put(portalName, portal);
+    IntermediatePortalStatement previous = this.portalsMap.put(portalName, portal);
+    if (previous != null && previous != portal) {
+      closePortalStatement(previous);
+    }
   }
 
+  /**
+   * Removes a portal, and closes its open result set and backend statement.
+   */
   public void closePortal(String portalName) {
     if (!hasPortal(portalName)) {
       throw new IllegalStateException("Unregistered statement: " + portalName);
     }
-    this.portalsMap.remove(portalName);
+    closePortalStatement(this.portalsMap.remove(portalName));
+  }
+
+  private void closePortalStatement(IntermediatePortalStatement statement) {
+    try {
+      statement.close();
+      closeBackendStatement(statement.getStatement());
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, "Unable to close portal: {0}", e.getMessage());
+    }
   }
 
   public boolean hasPortal(String portalName) {
@@ -209,27 +599,24 @@ public class ConnectionHandler extends Thread {
   }
 
   /**
-   * Add a currently executing statement to a buffer. This is only used in case a statement in
-   * flight is cancelled. It must be saved separately, as a new connection is spawned to issue
-   * a cancellation (as per Postgres protocol standard). This means some sort of IPC is required,
-   * which in this case is a global Map.
+   * Saves the currently executing statement. This is only used in case a statement in flight is
+   * cancelled. The cancel request arrives on a new connection (as per Postgres protocol standard),
+   * which finds this handler in the {@link ConnectionRegistry} of the server.
    *
    * @param statement Currently executing statement to be saved.
    */
-  public synchronized void addActiveStatement(IntermediateStatement statement) {
-    activeStatementsMap.put(this.connectionId, statement);
+  public void addActiveStatement(IntermediateStatement statement) {
+    this.activeStatement.set(statement);
   }
 
   /**
-   * Remove a statement from the buffer if it is currently executing. For more information on this
-   * use-case, read addActiveStatement comment.
+   * Remove a statement if it is currently executing. For more information on this use-case, read
+   * addActiveStatement comment.
    *
    * @param statement The statement to be removed.
    */
-  public synchronized void removeActiveStatement(IntermediateStatement statement) {
-    if (activeStatementsMap.get(this.connectionId) == statement) {
-      activeStatementsMap.remove(this.connectionId);
-    }
+  public void removeActiveStatement(IntermediateStatement statement) {
+    this.activeStatement.compareAndSet(statement, null);
   }
 
   /**
@@ -242,23 +629,27 @@ public class ConnectionHandler extends Thread {
    * @param secret The secret value linked to this connection. If it does not match, we cannot cancel.
    * @throws Exception If Cancellation fails.
    */
-  public synchronized void cancelActiveStatement(int connectionId, int secret) throws Exception {
-    int expectedSecret = ConnectionHandler.connectionToSecretMapping.get(connectionId);
-    if(secret != expectedSecret) {
+  public void cancelActiveStatement(int connectionId, int secret) throws Exception {
+    ProxyMetrics metrics = getMetrics();
+    if (metrics != null) {
+      metrics.recordCancelRequest();
+    }
+    ConnectionHandler handler = this.server.getConnectionRegistry().get(connectionId);
+    if (handler == null) {
+      // The connection has already been closed.
+      return;
+    }
+    if (secret != handler.secret) {
       logger.log(Level.WARNING,
-          MessageFormat.format(
-              "User attempted to cancel a connection with the incorrect secret."
-              + "Connection: {}, Secret: {}, Expected Secret: {}",
-              connectionId, secret, expectedSecret
-          )
-      );
+          "User attempted to cancel connection {0} with the incorrect secret.",
+          String.valueOf(connectionId));
       // Since the user does not accept a response, there is no need to except here: simply return.
       return;
     }
-    if (activeStatementsMap.containsKey(connectionId)) {
-      IntermediateStatement statement = activeStatementsMap.remove(connectionId);
-      // We can mostly ignore the exception since cancel does not expect any result (positive or
-      // otherwise)
+    IntermediateStatement statement = handler.activeStatement.getAndSet(null);
+    // We can mostly ignore the exception since cancel does not expect any result (positive or
+    // otherwise). Local statements do not have a JDBC statement.
+    if (statement != null && statement.getStatement() != null) {
       statement.getStatement().cancel();
     }
   }
@@ -270,34 +661,313 @@ public class ConnectionHandler extends Thread {
     return this.statementsMap.get(statementName);
   }
 
+  /**
+   * Registers a prepared statement. A statement that was registered before with the same name, such
+   * as the previous unnamed statement, is closed.
+   */
   public void registerStatement(String statementName, IntermediatePreparedStatement statement) {
-    this.statementsMap.put(statementName, statement);
+    IntermediatePreparedStatement previous = this.statementsMap.put(statementName, statement);
+    if (previous != null && previous != statement) {
+      closePreparedStatement(previous);
+    }
   }
 
   public void closeStatement(String statementName) {
     if (!hasStatement(statementName)) {
       throw new IllegalStateException("Unregistered statement: " + statementName);
     }
-    this.statementsMap.remove(statementName);
+    closePreparedStatement(this.statementsMap.remove(statementName));
+  }
+
+  /**
+   * Closes the backend statement of a prepared statement that is no longer registered. Portals that
+   * were bound from it have backend statements of their own. The backend statements of cached
+   * statements are left to the cache, which may have lent them to a portal.
+   */
+  private void closePreparedStatement(IntermediatePreparedStatement statement) {
+    Statement backendStatement = statement.getStatement();
+    if (backendStatement == null
+        || (this.statementCache != null && this.statementCache.contains(backendStatement))) {
+      return;
+    }
+    try {
+      backendStatement.close();
+    } catch (SQLException e) {
+      logger.log(Level.SEVERE, "Unable to close statement: {0}", e.getMessage());
+    }
   }
 
   public boolean hasStatement(String statementName) {
     return this.statementsMap.containsKey(statementName);
   }
 
+  /**
+   * @return The cache of parsed statements of this connection, or null if caching is turned off.
+   */
+  public PreparedStatementCache getStatementCache() {
+    return this.statementCache;
+  }
+
+  /**
+   * @return The value the client has set for the given session parameter, or null if the client
+   * has not set it.
+   */
+  public String getSessionParameter(String name) {
+    return this.sessionParameters.get(name);
+  }
+
+  public void setSessionParameter(String name, String value) {
+    this.sessionParameters.put(name, value);
+  }
+
   public ProxyServer getServer() {
     return this.server;
   }
 
-  public Connection getJdbcConnection() {
+  /**
+   * @return The metrics of the server, or null if metrics are turned off.
+   */
+  public ProxyMetrics getMetrics() {
+    return this.server == null ? null : this.server.getMetrics();
+  }
+
+  /**
+   * @return The statement statistics of the server, or null if they are turned off.
+   */
+  public StatementStatistics getStatementStatistics() {
+    return this.server == null ? null : this.server.getStatementStatistics();
+  }
+
+  /**
+   * @return The log of slow statements of the server, or null if it is turned off.
+   */
+  public SlowQueryLog getSlowQueryLog() {
+    return this.server == null ? null : this.server.getSlowQueryLog();
+  }
+
+  /**
+   * Adds time that was spent blocked writing to the client. Only counted if the slow query log is
+   * turned on.
+   */
+  void addClientWriteNanos(long nanos) {
+    this.clientWriteNanos += nanos;
+  }
+
+  /**
+   * @return The total time that this handler has been blocked writing to the client. Statements
+   * take the difference before and after they write to find their own client write time.
+   */
+  public long getClientWriteNanos() {
+    return this.clientWriteNanos;
+  }
+
+  /**
+   * Called when a statement has sent its entire result. The statement is logged once the response
+   * has been flushed to the client, which usually happens when the client is told that the server
+   * is ready for the next query.
+   */
+  private void statementFinished(IntermediateStatement statement) {
+    StatementTimings timings = statement.getTimings();
+    if (timings == null || !timings.finish()) {
+      return;
+    }
+    logFinishedStatement();
+    this.finishedStatement = statement;
+  }
+
+  /**
+   * Called right after the client has been told that the server is ready for the next query.
+   *
+   * @param flushNanos The time spent blocked writing the response to the client. This is added to
+   * the last statement, as its rows are usually the ones that were still buffered.
+   */
+  public void readyForQuerySent(long flushNanos) {
+    if (this.finishedStatement != null) {
+      this.finishedStatement.getTimings().add(Phase.CLIENT_WRITE, flushNanos);
+      logFinishedStatement();
+    }
+  }
+
+  private void logFinishedStatement() {
+    IntermediateStatement statement = this.finishedStatement;
+    if (statement == null) {
+      return;
+    }
+    this.finishedStatement = null;
+    SlowQueryLog slowQueryLog = getSlowQueryLog();
+    if (slowQueryLog != null) {
+      slowQueryLog.record(this.connectionId, statement.getSql(), statement.getTimings());
+    }
+  }
+
+  /**
+   * Called when the startup message of the client has been received. A client that connects to the
+   * admin database gives back the backend connection that was opened for it.
+   */
+  public void startSession(String user, String database, String applicationName) {
+    this.activity.started(user, database, applicationName);
+    String adminDatabase = this.server.getOptions().getAdminDatabase();
+    if (adminDatabase != null && adminDatabase.equals(database)) {
+      this.adminConsole = true;
+      releaseJdbcConnection();
+    }
+  }
+
+  /**
+   * @return True if the client has started a transaction with BEGIN or START that has not ended
+   * yet.
+   */
+  public boolean isInTransaction() {
+    return this.inTransaction;
+  }
+
+  /**
+   * @return True if the client connected to the admin database, and may only run the SHOW commands
+   * of {@link AdminStatement}.
+   */
+  public boolean isAdminConsole() {
+    return this.adminConsole;
+  }
+
+  /**
+   * @return What this connection is doing, for pg_stat_activity and the admin console.
+   */
+  public ConnectionActivity getActivity() {
+    return this.activity;
+  }
+
+  /**
+   * Called when the handler starts to handle a query or an execute message.
+   */
+  public void queryStarted(String sql) {
+    this.activity.queryStarted(sql);
+  }
+
+  public void recordBytesReceived(long bytes) {
+    this.activity.addBytesReceived(bytes);
+  }
+
+  void recordBytesSent(long bytes) {
+    this.activity.addBytesSent(bytes);
+    ProxyMetrics metrics = getMetrics();
+    if (metrics != null) {
+      metrics.recordBytesSent(bytes);
+    }
+  }
+
+  /**
+   * Counts an error that is sent to the client.
+   *
+   * @param state The SQLSTATE of the error.
+   */
+  public void recordError(ErrorResponse.State state) {
+    ProxyMetrics metrics = getMetrics();
+    if (metrics != null) {
+      metrics.recordError(state);
+    }
+  }
+
+  /**
+   * Starts to obtain a backend connection for the next message of the client, if that message needs
+   * one and this handler does not hold one yet. The non-blocking transport calls this before it
+   * hands a message to the handler, so that no worker thread waits for an exhausted pool while the
+   * clients that would give a connection back wait for a worker.
+   *
+   * @param message The next message of the client, starting with its identifier byte.
+   * @return A future that completes once the backend connection has been obtained or could not be
+   * obtained, or null if the message can be handled right away.
+   */
+  synchronized CompletableFuture<Connection> awaitBackendConnection(byte[] message) {
+    if (message == null
+        || this.adminConsole
+        || this.closed
+        || this.jdbcConnection != null
+        || this.activity.getStatus().getState() == ConnectionActivity.State.STARTUP
+        || !ControlMessage.needsBackendConnection(this, message)) {
+      return null;
+    }
+    if (this.pendingJdbcConnection == null) {
+      this.pendingJdbcConnection = this.server.getConnectionPool().borrowAsync();
+    }
+    if (this.pendingJdbcConnection.isDone()) {
+      return null;
+    }
+    this.activity.waitStarted();
+    return this.pendingJdbcConnection;
+  }
+
+  /**
+   * Returns the backend connection of this handler, waiting for it if it is still being opened. In
+   * transaction pool mode, a connection is leased from the pool if this handler does not currently
+   * hold one.
+   *
+   * @throws IllegalStateException if no backend connection could be obtained from the pool.
+   */
+  public synchronized Connection getJdbcConnection() {
+    if (this.adminConsole) {
+      throw new IllegalStateException(AdminStatement.UNSUPPORTED_MESSAGE);
+    }
+    if (this.jdbcConnection == null && this.pendingJdbcConnection != null) {
+      CompletableFuture<Connection> pending = this.pendingJdbcConnection;
+      this.pendingJdbcConnection = null;
+      if (!pending.isDone()) {
+        this.activity.waitStarted();
+      }
+      try {
+        this.jdbcConnection = pending.join();
+      } catch (CompletionException e) {
+        this.activity.setBackendConnectionHeld(false);
+        logger.log(Level.SEVERE,
+            "Something went wrong in establishing a Spanner connection: {0}",
+            e.getCause().getMessage());
+        throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+      } finally {
+        this.activity.waitFinished();
+      }
+    }
+    if (this.jdbcConnection == null && !this.closed) {
+      this.activity.waitStarted();
+      try {
+        this.jdbcConnection = this.server.getConnectionPool().borrow();
+      } catch (SQLException e) {
+        throw new IllegalStateException(e.getMessage(), e);
+      } finally {
+        this.activity.waitFinished();
+      }
+    }
+    this.activity.setBackendConnectionHeld(this.jdbcConnection != null);
     return this.jdbcConnection;
   }
 
+  /**
+   * Reserves memory for rows that are fetched in the background. All suspended portals of this
+   * connection share the limit that is set by the prefetch memory option.
+   *
+   * @param bytes The number of bytes to reserve.
+   * @return True if the memory was reserved, false if the limit would be exceeded.
+   */
+  public boolean reservePrefetchMemory(int bytes) {
+    long limit = this.server.getOptions().getPrefetchMemoryBytes();
+    long reserved;
+    do {
+      reserved = this.prefetchMemoryBytes.get();
+      if (reserved + bytes > limit) {
+        return false;
+      }
+    } while (!this.prefetchMemoryBytes.compareAndSet(reserved, reserved + bytes));
+    return true;
+  }
+
+  /**
+   * Releases memory that was reserved with {@link #reservePrefetchMemory(int)}.
+   *
+   * @param bytes The number of bytes to release.
+   */
+  public void releasePrefetchMemory(long bytes) {
+    this.prefetchMemoryBytes.addAndGet(-bytes);
+  }
+
   public int getConnectionId() {
-    if (this.connectionId == 0) {
-      this.connectionId = ConnectionHandler.incrementingConnectionId.incrementAndGet();
-      ConnectionHandler.connectionToSecretMapping.put(this.connectionId, this.secret);
-    }
     return this.connectionId;
   }
 
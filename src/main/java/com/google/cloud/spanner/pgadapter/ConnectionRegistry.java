@@ -0,0 +1,137 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter;
+
+import com.google.cloud.spanner.pgadapter.ConnectionActivity.Counters;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The open connections of a {@link ProxyServer}, by connection ID. Handlers are added by the
+ * thread that accepts connections and removed by the handler itself when it closes, so the
+ * registry does not take any locks. Cancel requests, which arrive on a connection of their own,
+ * use it to find the connection that they cancel.
+ */
+public class ConnectionRegistry {
+
+  /**
+   * The number of databases for which the totals of closed connections are kept apart. Database
+   * names are chosen by clients, so the totals of any further databases are added up under
+   * {@link #OTHER_DATABASES}.
+   */
+  static final int MAX_CLOSED_DATABASES = 100;
+  static final String OTHER_DATABASES = "(other)";
+
+  private final ConcurrentMap<Integer, ConnectionHandler> handlers = new ConcurrentHashMap<>();
+  // Separate from the thread ID generator, since PG connection IDs are maximum 32 bits.
+  private final AtomicInteger lastConnectionId = new AtomicInteger(0);
+  // The totals of the connections that have been closed, by database. Bounded by
+  // MAX_CLOSED_DATABASES, give or take the handlers that close at the same time.
+  private final ConcurrentMap<String, Counters> closedCounters = new ConcurrentHashMap<>();
+
+  /**
+   * Hands out connection IDs in increasing order. After Integer.MAX_VALUE they wrap around to 1,
+   * and IDs that are still held by an open connection are skipped.
+   *
+   * @return A connection ID that no open connection uses.
+   */
+  int nextConnectionId() {
+    while (true) {
+      int connectionId =
+          this.lastConnectionId.updateAndGet(id -> id == Integer.MAX_VALUE ? 1 : id + 1);
+      if (!this.handlers.containsKey(connectionId)) {
+        return connectionId;
+      }
+    }
+  }
+
+  /**
+   * Adds the handler. An open connection is never replaced, as cancel requests for it would
+   * otherwise go to the new one.
+   *
+   * @throws IllegalStateException If the connection ID is held by another open connection.
+   */
+  void register(ConnectionHandler handler) {
+    ConnectionHandler existing = this.handlers.putIfAbsent(handler.getConnectionId(), handler);
+    if (existing != null && existing != handler) {
+      throw new IllegalStateException(
+          "Connection ID " + handler.getConnectionId() + " is already in use");
+    }
+  }
+
+  /**
+   * Removes the handler, unless its connection ID has already been given to another handler.
+   */
+  void deregister(ConnectionHandler handler) {
+    if (this.handlers.remove(handler.getConnectionId(), handler)) {
+      ConnectionActivity activity = handler.getActivity();
+      String database = activity.getDatabase();
+      if (database != null) {
+        if (!this.closedCounters.containsKey(database)
+            && this.closedCounters.size() >= MAX_CLOSED_DATABASES) {
+          database = OTHER_DATABASES;
+        }
+        this.closedCounters.computeIfAbsent(database, key -> new Counters())
+            .add(activity.getCounters());
+      }
+    }
+  }
+
+  /**
+   * @param connectionId The connection ID that was sent to the client in BackendKeyData.
+   * @return The handler of the connection, or null if it is not open.
+   */
+  public ConnectionHandler get(int connectionId) {
+    return this.handlers.get(connectionId);
+  }
+
+  public int size() {
+    return this.handlers.size();
+  }
+
+  /**
+   * @return The handlers that are open at the time of the call. Handlers that are opened or closed
+   * afterwards do not change the returned list.
+   */
+  public List<ConnectionHandler> getConnections() {
+    return ImmutableList.copyOf(this.handlers.values());
+  }
+
+  /**
+   * @return The totals of all connections that have been opened since the server started, both
+   * open and closed, by the database that the clients connected to. Closed connections of
+   * databases beyond the first {@link #MAX_CLOSED_DATABASES} are counted under
+   * {@link #OTHER_DATABASES}.
+   */
+  public Map<String, Counters> getCountersByDatabase() {
+    Map<String, Counters> counters = new TreeMap<>();
+    for (Map.Entry<String, Counters> entry : this.closedCounters.entrySet()) {
+      counters.computeIfAbsent(entry.getKey(), key -> new Counters()).add(entry.getValue());
+    }
+    for (ConnectionHandler handler : this.handlers.values()) {
+      ConnectionActivity activity = handler.getActivity();
+      if (activity.getDatabase() != null) {
+        counters.computeIfAbsent(activity.getDatabase(), key -> new Counters())
+            .add(activity.getCounters());
+      }
+    }
+    return counters;
+  }
+}
@@ -15,17 +15,27 @@
 package com.google.cloud.spanner.pgadapter;
 
 import com.google.cloud.spanner.pgadapter.ConnectionHandler.QueryMode;
+import com.google.cloud.spanner.pgadapter.catalog.SchemaCatalog;
+import com.google.cloud.spanner.pgadapter.commands.CommandDispatcher;
 import com.google.cloud.spanner.pgadapter.metadata.OptionsMetadata;
 import com.google.cloud.spanner.pgadapter.metadata.OptionsMetadata.TextFormat;
+import com.google.cloud.spanner.pgadapter.metrics.MetricsServer;
+import com.google.cloud.spanner.pgadapter.metrics.ProxyMetrics;
+import com.google.cloud.spanner.pgadapter.metrics.SlowQueryLog;
+import com.google.cloud.spanner.pgadapter.metrics.StatementStatistics;
 import com.google.cloud.spanner.pgadapter.statements.IntermediateStatement;
+import com.google.cloud.spanner.pgadapter.utils.ProtocolTracer;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
-import java.sql.SQLException;
-import java.util.LinkedList;
-import java.util.List;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.concurrent.GuardedBy;
@@ -38,7 +48,15 @@ public class ProxyServer extends Thread {
 
   private static final Logger logger = Logger.getLogger(ProxyServer.class.getName());
   private final OptionsMetadata options;
-  private final List<ConnectionHandler> handlers = new LinkedList<>();
+  private final BackendConnectionPool connectionPool;
+  private final ConnectionRegistry connections = new ConnectionRegistry();
+  private final ExecutorService prefetchExecutor;
+  private final SchemaCatalog schemaCatalog;
+  private final ProtocolTracer protocolTracer;
+  private final ProxyMetrics metrics;
+  private final MetricsServer metricsServer;
+  private final StatementStatistics statementStatistics;
+  private final SlowQueryLog slowQueryLog;
   @GuardedBy("itself")
   private volatile ServerStatus status = ServerStatus.NEW;
   private ServerSocket serverSocket;
@@ -51,6 +69,38 @@ public class ProxyServer extends Thread {
   public ProxyServer(OptionsMetadata optionsMetadata) {
     super("spanner-postgres-adapter-proxy-port-" + optionsMetadata.getProxyPort());
     this.options = optionsMetadata;
+    this.connectionPool = new BackendConnectionPool(optionsMetadata);
+    this.schemaCatalog = optionsMetadata.getCatalogRefreshIntervalSeconds() > 0
+        ? new SchemaCatalog(this.connectionPool,
+            optionsMetadata.getCatalogRefreshIntervalSeconds(), getName())
+        : null;
+    this.protocolTracer = optionsMetadata.getTraceSampleRate() > 0
+        ? new ProtocolTracer(optionsMetadata.getTraceSampleRate(),
+            optionsMetadata.getTraceFile(), getName())
+        : null;
+    if (optionsMetadata.getMetricsPort() > 0) {
+      this.metrics = new ProxyMetrics();
+      this.metricsServer = new MetricsServer(this, optionsMetadata.getMetricsPort(), getName());
+    } else {
+      this.metrics = null;
+      this.metricsServer = null;
+    }
+    this.statementStatistics = optionsMetadata.getStatementStatisticsSize() > 0
+        ? new StatementStatistics(optionsMetadata.getStatementStatisticsSize())
+        : null;
+    this.slowQueryLog = optionsMetadata.getSlowQueryThresholdMillis() > 0
+        ? new SlowQueryLog(optionsMetadata.getSlowQueryThresholdMillis(),
+            optionsMetadata.getSlowQueryFile(), getName())
+        : null;
+    if (optionsMetadata.isPSQLMode()) {
+      // Compile the meta-command matchers before the first client connects.
+      CommandDispatcher.forMetadata(optionsMetadata.getCommandMetadataJSON());
+    }
+    this.prefetchExecutor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder()
+            .setNameFormat(getName() + "-prefetch-%d")
+            .setDaemon(true)
+            .build());
   }
 
   /**
@@ -95,11 +145,39 @@ public class ProxyServer extends Thread {
 
   @Override
   public void run() {
+    this.connectionPool.start();
+    if (this.schemaCatalog != null) {
+      this.schemaCatalog.start();
+    }
+    if (this.protocolTracer != null) {
+      this.protocolTracer.start();
+    }
+    if (this.slowQueryLog != null) {
+      this.slowQueryLog.start();
+    }
+    if (this.metricsServer != null) {
+      this.metricsServer.start();
+    }
     try {
       runServer();
     } catch (IOException e) {
       logger.log(Level.WARNING, "Server on port {0} stopped by exception: {1}",
           new Object[]{this.options.getProxyPort(), e});
+    } finally {
+      this.prefetchExecutor.shutdownNow();
+      if (this.metricsServer != null) {
+        this.metricsServer.close();
+      }
+      if (this.schemaCatalog != null) {
+        this.schemaCatalog.close();
+      }
+      if (this.protocolTracer != null) {
+        this.protocolTracer.close();
+      }
+      if (this.slowQueryLog != null) {
+        this.slowQueryLog.close();
+      }
+      this.connectionPool.close();
     }
   }
 
@@ -109,6 +187,10 @@ public class ProxyServer extends Thread {
    * @throws IOException if ServerSocket cannot start.
    */
   void runServer() throws IOException {
+    if (this.options.isNonBlockingIO()) {
+      runNonBlockingServer();
+      return;
+    }
     this.serverSocket = new ServerSocket(this.options.getProxyPort());
     this.status = ServerStatus.STARTED;
     try {
@@ -120,24 +202,65 @@ public class ProxyServer extends Thread {
       logger.log(Level.INFO,
           "Socket exception on port {0}: {1}. This is normal when the server is stopped.",
           new Object[]{this.options.getProxyPort(), e});
-    } catch (SQLException e) {
-      logger.log(Level.SEVERE,
-          "Something went wrong in establishing a Spanner connection: {0}",
-          e.getMessage()
-      );
     } finally {
       this.status = ServerStatus.STOPPED;
       logger.log(Level.INFO, "Socket on port {0} stopped", this.options.getProxyPort());
     }
   }
 
+  /**
+   * Thread logic for the non-blocking transport: accepts client channels and distributes them over
+   * a fixed number of {@link SelectorEventLoop}s. Statements are executed on a bounded pool of
+   * worker threads instead of a thread per connection.
+   *
+   * @throws IOException if the ServerSocketChannel or a Selector cannot be opened.
+   */
+  private void runNonBlockingServer() throws IOException {
+    ServerSocketChannel serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(new InetSocketAddress(this.options.getProxyPort()));
+    this.serverSocket = serverChannel.socket();
+    ExecutorService workerExecutor = Executors.newFixedThreadPool(
+        this.options.getWorkerThreads(),
+        new ThreadFactoryBuilder()
+            .setNameFormat(getName() + "-worker-%d")
+            .setDaemon(true)
+            .build());
+    SelectorEventLoop[] eventLoops = new SelectorEventLoop[this.options.getIoThreads()];
+    try {
+      for (int i = 0; i < eventLoops.length; i++) {
+        eventLoops[i] = new SelectorEventLoop(this, workerExecutor, i);
+        eventLoops[i].start();
+      }
+      this.status = ServerStatus.STARTED;
+      int next = 0;
+      while (this.status == ServerStatus.STARTED) {
+        eventLoops[next].register(serverChannel.accept());
+        next = (next + 1) % eventLoops.length;
+      }
+    } catch (ClosedChannelException e) {
+      // This is a normal exception, as this will occur when Server#stopServer() is called.
+      logger.log(Level.INFO,
+          "Channel closed on port {0}: {1}. This is normal when the server is stopped.",
+          new Object[]{this.options.getProxyPort(), e});
+    } finally {
+      for (SelectorEventLoop eventLoop : eventLoops) {
+        if (eventLoop != null) {
+          eventLoop.shutdown();
+        }
+      }
+      workerExecutor.shutdown();
+      serverChannel.close();
+      this.status = ServerStatus.STOPPED;
+      logger.log(Level.INFO, "Socket on port {0} stopped", this.options.getProxyPort());
+    }
+  }
+
   /**
    * Creates and runs the {@link ConnectionHandler}, saving an instance of it locally.
    *
    * @param socket The socket the {@link ConnectionHandler} will read from.
-   * @throws SQLException if the {@link ConnectionHandler} is unable to Connect.
    */
-  void createConnectionHandler(Socket socket) throws SQLException {
+  void createConnectionHandler(Socket socket) {
     ConnectionHandler handler = new ConnectionHandler(this, socket);
     register(handler);
     handler.start();
@@ -148,8 +271,8 @@ public class ProxyServer extends Thread {
    *
    * @param handler The handler currently in use.
    */
-  private void register(ConnectionHandler handler) {
-    this.handlers.add(handler);
+  void register(ConnectionHandler handler) {
+    this.connections.register(handler);
   }
 
   /**
@@ -158,15 +281,71 @@ public class ProxyServer extends Thread {
    * @param handler The handler to revoke.
    */
   void deregister(ConnectionHandler handler) {
-    this.handlers.remove(handler);
+    this.connections.deregister(handler);
   }
 
   public OptionsMetadata getOptions() {
     return this.options;
   }
 
+  public BackendConnectionPool getConnectionPool() {
+    return this.connectionPool;
+  }
+
+  /**
+   * @return The snapshot of the backend schema that catalog queries are answered from, or null if
+   * catalog queries are sent to the backend.
+   */
+  public SchemaCatalog getSchemaCatalog() {
+    return this.schemaCatalog;
+  }
+
+  /**
+   * @return The tracer of the wire protocol messages of a sample of the connections, or null if
+   * tracing is turned off.
+   */
+  public ProtocolTracer getProtocolTracer() {
+    return this.protocolTracer;
+  }
+
+  /**
+   * @return The metrics of this server, or null if metrics are turned off.
+   */
+  public ProxyMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /**
+   * @return The statistics of the statements executed by this server, or null if they are turned
+   * off.
+   */
+  public StatementStatistics getStatementStatistics() {
+    return this.statementStatistics;
+  }
+
+  /**
+   * @return The log of slow statements, or null if it is turned off.
+   */
+  public SlowQueryLog getSlowQueryLog() {
+    return this.slowQueryLog;
+  }
+
+  /**
+   * @return The executor that fetches the next page of suspended portals in the background.
+   */
+  public ExecutorService getPrefetchExecutor() {
+    return this.prefetchExecutor;
+  }
+
   public int getNumberOfConnections() {
-    return this.handlers.size();
+    return this.connections.size();
+  }
+
+  /**
+   * @return The open connections of this server.
+   */
+  public ConnectionRegistry getConnectionRegistry() {
+    return this.connections;
   }
 
   public ServerStatus getServerStatus() {
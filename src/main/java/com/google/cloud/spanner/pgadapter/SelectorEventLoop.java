@@ -0,0 +1,147 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A single I/O thread of the non-blocking transport. Each event loop owns a {@link Selector} and
+ * any number of client {@link SocketChannel}s. The loop only moves bytes between the sockets and
+ * the {@link ChannelConnection} buffers; decoding messages and executing statements happens on the
+ * worker {@link Executor}, so a slow backend call never stalls the I/O of other clients.
+ */
+class SelectorEventLoop extends Thread {
+
+  private static final Logger logger = Logger.getLogger(SelectorEventLoop.class.getName());
+
+  private final ProxyServer server;
+  private final Executor workerExecutor;
+  private final Selector selector;
+  private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+  private volatile boolean running = true;
+
+  SelectorEventLoop(ProxyServer server, Executor workerExecutor, int index) throws IOException {
+    super(server.getName() + "-io-" + index);
+    this.server = server;
+    this.workerExecutor = workerExecutor;
+    this.selector = Selector.open();
+    setDaemon(true);
+  }
+
+  /**
+   * Hands a newly accepted client channel over to this event loop. May be called from any thread.
+   *
+   * @param channel The accepted client channel.
+   */
+  void register(SocketChannel channel) {
+    execute(() -> {
+      try {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        ChannelConnection connection =
+            new ChannelConnection(this.server, this, this.workerExecutor, channel);
+        connection.setSelectionKey(channel.register(this.selector, SelectionKey.OP_READ,
+            connection));
+        connection.start();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Could not register client channel: {0}", e);
+        closeQuietly(channel);
+      }
+    });
+  }
+
+  /**
+   * Runs the given task on the event loop thread. Used for anything that touches the selector or
+   * the selection keys, as those are not safe to modify from other threads.
+   *
+   * @param task The task to run.
+   */
+  void execute(Runnable task) {
+    this.pendingTasks.add(task);
+    this.selector.wakeup();
+  }
+
+  /**
+   * Stops the event loop and closes all channels that are registered with it.
+   */
+  void shutdown() {
+    this.running = false;
+    this.selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (this.running) {
+        this.selector.select();
+        runPendingTasks();
+        Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          ChannelConnection connection = (ChannelConnection) key.attachment();
+          try {
+            if (key.isReadable()) {
+              connection.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+              connection.onWritable();
+            }
+          } catch (IOException | CancelledKeyException e) {
+            connection.onClosed();
+          }
+        }
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      logger.log(Level.WARNING, "Event loop {0} stopped by exception: {1}",
+          new Object[]{getName(), e});
+    } finally {
+      for (SelectionKey key : this.selector.keys()) {
+        ((ChannelConnection) key.attachment()).onClosed();
+      }
+      try {
+        this.selector.close();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Closing selector of event loop {0} failed", getName());
+      }
+    }
+  }
+
+  private void runPendingTasks() {
+    Runnable task;
+    while ((task = this.pendingTasks.poll()) != null) {
+      task.run();
+    }
+  }
+
+  private static void closeQuietly(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException ignore) {
+      // Nothing more we can do for this client.
+    }
+  }
+}
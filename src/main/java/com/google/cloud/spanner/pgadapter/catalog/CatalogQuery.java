@@ -0,0 +1,615 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.catalog;
+
+import com.google.cloud.spanner.pgadapter.catalog.CatalogTable.Column;
+import com.google.common.collect.ImmutableSet;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+/**
+ * A query on a single emulated pg_catalog table, which can be answered from a {@link
+ * SchemaSnapshot}. Only the simple form that tools use to look up catalog objects is recognized:
+ *
+ * <pre>
+ * SELECT * | column [[AS] label] | 'literal' [AS] label, ...
+ * FROM [pg_catalog.]table [[AS] alias]
+ * [WHERE column = | &lt;&gt; | != | IN (...) value [AND ...]]
+ * [ORDER BY column | position [ASC | DESC], ...]
+ * [LIMIT count]
+ * </pre>
+ *
+ * Joins, functions and any column that is not emulated make the query unrecognized, in which case
+ * it is sent to the backend as before.
+ */
+public class CatalogQuery {
+
+  private static final Set<String> KEYWORDS = ImmutableSet.of(
+      "SELECT", "FROM", "WHERE", "AND", "OR", "ORDER", "BY", "LIMIT", "AS", "ASC", "DESC", "IN",
+      "JOIN", "LEFT", "RIGHT", "INNER", "OUTER", "CROSS", "ON", "GROUP", "HAVING", "UNION",
+      "OFFSET", "NOT", "IS", "NULL");
+  private static final Set<String> TRUE_VALUES = ImmutableSet.of("t", "true", "y", "yes", "on", "1");
+  private static final Set<String> FALSE_VALUES =
+      ImmutableSet.of("f", "false", "n", "no", "off", "0");
+
+  private final CatalogTable table;
+  private final List<OutputColumn> outputColumns;
+  private final List<Condition> conditions;
+  private final List<SortKey> sortKeys;
+  private final long limit;
+
+  private CatalogQuery(CatalogTable table,
+      List<OutputColumn> outputColumns,
+      List<Condition> conditions,
+      List<SortKey> sortKeys,
+      long limit) {
+    this.table = table;
+    this.outputColumns = outputColumns;
+    this.conditions = conditions;
+    this.sortKeys = sortKeys;
+    this.limit = limit;
+  }
+
+  /**
+   * Recognizes a query on an emulated catalog table.
+   *
+   * @param sql The query as sent by the client.
+   * @return The query, or null if it is not a query that can be answered from a snapshot.
+   */
+  public static CatalogQuery parse(String sql) {
+    if (!sql.regionMatches(true, 0, "SELECT", 0, 6)
+        || !sql.toLowerCase(Locale.ENGLISH).contains("pg_")) {
+      return null;
+    }
+    try {
+      return new QueryParser(tokenize(sql)).parse();
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return The emulated table that this query selects from.
+   */
+  public CatalogTable getTable() {
+    return this.table;
+  }
+
+  /**
+   * Runs this query on a snapshot.
+   *
+   * @param snapshot The snapshot of the backend schema.
+   * @return The result of the query.
+   * @throws SQLException If the result set could not be created.
+   */
+  public ResultSet execute(SchemaSnapshot snapshot) throws SQLException {
+    return execute(snapshot.getRows(this.table));
+  }
+
+  /**
+   * Runs this query on the given rows of its table.
+   *
+   * @param tableRows The rows of the table, with one value per column of the table.
+   * @return The result of the query.
+   * @throws SQLException If the result set could not be created.
+   */
+  public ResultSet execute(List<Object[]> tableRows) throws SQLException {
+    List<Object[]> rows = new ArrayList<>();
+    for (Object[] row : tableRows) {
+      if (matches(row)) {
+        rows.add(row);
+      }
+    }
+    if (!this.sortKeys.isEmpty()) {
+      rows.sort(createComparator());
+    }
+    RowSetMetaDataImpl metadata = new RowSetMetaDataImpl();
+    metadata.setColumnCount(this.outputColumns.size());
+    for (int index = 0; index < this.outputColumns.size(); index++) {
+      OutputColumn column = this.outputColumns.get(index);
+      metadata.setColumnName(index + 1, column.label);
+      metadata.setColumnLabel(index + 1, column.label);
+      metadata.setColumnType(index + 1, column.type);
+      metadata.setColumnTypeName(index + 1, column.typeName);
+    }
+    CachedRowSet resultSet = RowSetProvider.newFactory().createCachedRowSet();
+    resultSet.setMetaData(metadata);
+    long count = 0;
+    for (Object[] row : rows) {
+      if (this.limit >= 0 && count++ >= this.limit) {
+        break;
+      }
+      resultSet.moveToInsertRow();
+      for (int index = 0; index < this.outputColumns.size(); index++) {
+        Object value = this.outputColumns.get(index).getValue(row);
+        if (value == null) {
+          resultSet.updateNull(index + 1);
+        } else {
+          resultSet.updateObject(index + 1, value);
+        }
+      }
+      resultSet.insertRow();
+    }
+    resultSet.moveToCurrentRow();
+    resultSet.beforeFirst();
+    return resultSet;
+  }
+
+  private boolean matches(Object[] row) {
+    for (Condition condition : this.conditions) {
+      if (!condition.matches(row)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private Comparator<Object[]> createComparator() {
+    Comparator<Object[]> comparator = null;
+    for (SortKey key : this.sortKeys) {
+      // NULLS are sorted last in ascending order, like in PostgreSQL.
+      Comparator<Object[]> keyComparator = Comparator.comparing(
+          row -> (Comparable) key.column.getValue(row),
+          Comparator.nullsLast(Comparator.naturalOrder()));
+      if (key.descending) {
+        keyComparator = keyComparator.reversed();
+      }
+      comparator = comparator == null ? keyComparator : comparator.thenComparing(keyComparator);
+    }
+    return comparator;
+  }
+
+  private static List<Token> tokenize(String sql) {
+    List<Token> tokens = new ArrayList<>();
+    int index = 0;
+    while (index < sql.length()) {
+      char character = sql.charAt(index);
+      if (Character.isWhitespace(character)) {
+        index++;
+      } else if (character == '\'') {
+        StringBuilder value = new StringBuilder();
+        index++;
+        while (true) {
+          if (index >= sql.length()) {
+            throw new IllegalArgumentException("Unterminated string literal");
+          }
+          if (sql.charAt(index) == '\'') {
+            if (index + 1 < sql.length() && sql.charAt(index + 1) == '\'') {
+              value.append('\'');
+              index += 2;
+              continue;
+            }
+            index++;
+            break;
+          }
+          value.append(sql.charAt(index++));
+        }
+        tokens.add(new Token(TokenType.STRING, value.toString()));
+      } else if (character == '"') {
+        int end = sql.indexOf('"', index + 1);
+        if (end < 0) {
+          throw new IllegalArgumentException("Unterminated quoted identifier");
+        }
+        tokens.add(new Token(TokenType.QUOTED_IDENTIFIER, sql.substring(index + 1, end)));
+        index = end + 1;
+      } else if (Character.isDigit(character)) {
+        int end = index;
+        while (end < sql.length() && Character.isDigit(sql.charAt(end))) {
+          end++;
+        }
+        tokens.add(new Token(TokenType.NUMBER, sql.substring(index, end)));
+        index = end;
+      } else if (Character.isLetter(character) || character == '_') {
+        int end = index;
+        while (end < sql.length()
+            && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_'
+            || sql.charAt(end) == '$')) {
+          end++;
+        }
+        tokens.add(new Token(TokenType.IDENTIFIER, sql.substring(index, end)));
+        index = end;
+      } else if ((character == '<' || character == '!') && index + 1 < sql.length()
+          && sql.charAt(index + 1) == (character == '<' ? '>' : '=')) {
+        tokens.add(new Token(TokenType.SYMBOL, "<>"));
+        index += 2;
+      } else if (",.*=();".indexOf(character) >= 0) {
+        tokens.add(new Token(TokenType.SYMBOL, String.valueOf(character)));
+        index++;
+      } else {
+        throw new IllegalArgumentException("Unsupported character: " + character);
+      }
+    }
+    return tokens;
+  }
+
+  private enum TokenType {IDENTIFIER, QUOTED_IDENTIFIER, STRING, NUMBER, SYMBOL}
+
+  private static final class Token {
+
+    private final TokenType type;
+    private final String text;
+
+    private Token(TokenType type, String text) {
+      this.type = type;
+      this.text = text;
+    }
+
+    private boolean isKeyword(String keyword) {
+      return this.type == TokenType.IDENTIFIER && this.text.equalsIgnoreCase(keyword);
+    }
+
+    private boolean isSymbol(String symbol) {
+      return this.type == TokenType.SYMBOL && this.text.equals(symbol);
+    }
+
+    private boolean isName() {
+      return this.type == TokenType.QUOTED_IDENTIFIER
+          || (this.type == TokenType.IDENTIFIER
+              && !KEYWORDS.contains(this.text.toUpperCase(Locale.ENGLISH)));
+    }
+
+    /**
+     * @return The identifier as PostgreSQL resolves it: unquoted identifiers are case-insensitive.
+     */
+    private String getName() {
+      return this.type == TokenType.QUOTED_IDENTIFIER
+          ? this.text : this.text.toLowerCase(Locale.ENGLISH);
+    }
+  }
+
+  /**
+   * A recursive-descent parser for the recognized query form. Throws an {@link
+   * IllegalArgumentException} as soon as the query does not have that form.
+   */
+  private static final class QueryParser {
+
+    private final List<Token> tokens;
+    private int position;
+    private CatalogTable table;
+    private String alias;
+
+    private QueryParser(List<Token> tokens) {
+      this.tokens = tokens;
+    }
+
+    private CatalogQuery parse() {
+      expectKeyword("SELECT");
+      // The select list can only be resolved once the table is known.
+      int selectListStart = this.position;
+      while (!peek().isKeyword("FROM")) {
+        next();
+      }
+      next();
+      parseTable();
+      List<Condition> conditions = new ArrayList<>();
+      if (acceptKeyword("WHERE")) {
+        do {
+          conditions.add(parseCondition());
+        } while (acceptKeyword("AND"));
+      }
+      int afterFromClause = this.position;
+      this.position = selectListStart;
+      List<OutputColumn> outputColumns = parseSelectList();
+      this.position = afterFromClause;
+      List<SortKey> sortKeys = new ArrayList<>();
+      if (acceptKeyword("ORDER")) {
+        expectKeyword("BY");
+        do {
+          sortKeys.add(parseSortKey(outputColumns));
+        } while (acceptSymbol(","));
+      }
+      long limit = -1;
+      if (acceptKeyword("LIMIT")) {
+        limit = Long.parseLong(expect(TokenType.NUMBER).text);
+      }
+      acceptSymbol(";");
+      if (this.position != this.tokens.size()) {
+        throw new IllegalArgumentException("Unexpected token: " + peek().text);
+      }
+      return new CatalogQuery(this.table, outputColumns, conditions, sortKeys, limit);
+    }
+
+    private void parseTable() {
+      Token name = expectName();
+      if (acceptSymbol(".")) {
+        if (!name.getName().equals("pg_catalog")) {
+          throw new IllegalArgumentException("Not a pg_catalog table");
+        }
+        name = expectName();
+      }
+      this.table = CatalogTable.forName(name.getName());
+      if (this.table == null) {
+        throw new IllegalArgumentException("Not an emulated table: " + name.text);
+      }
+      boolean explicitAlias = acceptKeyword("AS");
+      if (explicitAlias || (hasNext() && peek().isName())) {
+        this.alias = expectName().getName();
+      }
+    }
+
+    private List<OutputColumn> parseSelectList() {
+      List<OutputColumn> columns = new ArrayList<>();
+      do {
+        if (acceptSymbol("*")) {
+          addAllColumns(columns);
+          continue;
+        }
+        Token token = next();
+        if (token.type == TokenType.STRING) {
+          columns.add(new OutputColumn(parseLabel("?column?"), -1, token.text, Types.VARCHAR,
+              "STRING"));
+          continue;
+        }
+        if (!token.isName()) {
+          throw new IllegalArgumentException("Unsupported expression: " + token.text);
+        }
+        if (acceptSymbol(".")) {
+          checkQualifier(token);
+          if (acceptSymbol("*")) {
+            addAllColumns(columns);
+            continue;
+          }
+          token = expectName();
+        }
+        int index = resolveColumn(token);
+        Column column = this.table.getColumns().get(index);
+        columns.add(new OutputColumn(parseLabel(column.getName()), index, null, column.getType(),
+            column.getTypeName()));
+      } while (acceptSymbol(","));
+      expectKeyword("FROM");
+      return columns;
+    }
+
+    private void addAllColumns(List<OutputColumn> columns) {
+      List<Column> tableColumns = this.table.getColumns();
+      for (int index = 0; index < tableColumns.size(); index++) {
+        Column column = tableColumns.get(index);
+        columns.add(new OutputColumn(column.getName(), index, null, column.getType(),
+            column.getTypeName()));
+      }
+    }
+
+    private String parseLabel(String defaultLabel) {
+      if (acceptKeyword("AS") || (hasNext() && peek().isName())) {
+        return expectName().getName();
+      }
+      return defaultLabel;
+    }
+
+    private Condition parseCondition() {
+      int column = parseColumnReference();
+      Column definition = this.table.getColumns().get(column);
+      if (acceptKeyword("IN")) {
+        expectSymbol("(");
+        List<Object> values = new ArrayList<>();
+        do {
+          values.add(parseValue(definition));
+        } while (acceptSymbol(","));
+        expectSymbol(")");
+        return new Condition(column, values, false);
+      }
+      Token operator = expect(TokenType.SYMBOL);
+      if (!operator.isSymbol("=") && !operator.isSymbol("<>")) {
+        throw new IllegalArgumentException("Unsupported operator: " + operator.text);
+      }
+      List<Object> values = new ArrayList<>();
+      values.add(parseValue(definition));
+      return new Condition(column, values, operator.isSymbol("<>"));
+    }
+
+    private SortKey parseSortKey(List<OutputColumn> outputColumns) {
+      OutputColumn column;
+      if (peek().type == TokenType.NUMBER) {
+        int position = Integer.parseInt(next().text);
+        if (position < 1 || position > outputColumns.size()) {
+          throw new IllegalArgumentException("ORDER BY position out of range");
+        }
+        column = outputColumns.get(position - 1);
+      } else {
+        int index = parseColumnReference();
+        Column definition = this.table.getColumns().get(index);
+        column = new OutputColumn(definition.getName(), index, null, definition.getType(),
+            definition.getTypeName());
+      }
+      boolean descending = acceptKeyword("DESC");
+      if (!descending) {
+        acceptKeyword("ASC");
+      }
+      return new SortKey(column, descending);
+    }
+
+    private int parseColumnReference() {
+      Token name = expectName();
+      if (acceptSymbol(".")) {
+        checkQualifier(name);
+        name = expectName();
+      }
+      return resolveColumn(name);
+    }
+
+    private void checkQualifier(Token qualifier) {
+      String expected = this.alias == null ? this.table.getTableName() : this.alias;
+      if (!qualifier.getName().equals(expected)) {
+        throw new IllegalArgumentException("Unknown qualifier: " + qualifier.text);
+      }
+    }
+
+    private int resolveColumn(Token name) {
+      int index = this.table.getColumnIndex(name.getName());
+      if (index < 0) {
+        throw new IllegalArgumentException("Not an emulated column: " + name.text);
+      }
+      return index;
+    }
+
+    /**
+     * Parses a literal and converts it to the type of the column that it is compared with.
+     */
+    private Object parseValue(Column column) {
+      Token token = next();
+      if (token.type != TokenType.STRING && token.type != TokenType.NUMBER
+          && !token.isKeyword("TRUE") && !token.isKeyword("FALSE")) {
+        throw new IllegalArgumentException("Unsupported value: " + token.text);
+      }
+      switch (column.getType()) {
+        case Types.BIGINT:
+          return Long.parseLong(token.text);
+        case Types.DOUBLE:
+          return Double.parseDouble(token.text);
+        case Types.TIMESTAMP:
+          return Timestamp.valueOf(token.text);
+        case Types.BOOLEAN:
+          String value = token.text.toLowerCase(Locale.ENGLISH);
+          if (TRUE_VALUES.contains(value)) {
+            return Boolean.TRUE;
+          } else if (FALSE_VALUES.contains(value)) {
+            return Boolean.FALSE;
+          }
+          throw new IllegalArgumentException("Invalid boolean: " + token.text);
+        default:
+          return token.text;
+      }
+    }
+
+    private boolean hasNext() {
+      return this.position < this.tokens.size();
+    }
+
+    private Token peek() {
+      if (!hasNext()) {
+        throw new IllegalArgumentException("Unexpected end of query");
+      }
+      return this.tokens.get(this.position);
+    }
+
+    private Token next() {
+      Token token = peek();
+      this.position++;
+      return token;
+    }
+
+    private Token expect(TokenType type) {
+      Token token = next();
+      if (token.type != type) {
+        throw new IllegalArgumentException("Unexpected token: " + token.text);
+      }
+      return token;
+    }
+
+    private Token expectName() {
+      Token token = next();
+      if (!token.isName()) {
+        throw new IllegalArgumentException("Expected a name: " + token.text);
+      }
+      return token;
+    }
+
+    private void expectKeyword(String keyword) {
+      if (!acceptKeyword(keyword)) {
+        throw new IllegalArgumentException("Expected " + keyword);
+      }
+    }
+
+    private void expectSymbol(String symbol) {
+      if (!acceptSymbol(symbol)) {
+        throw new IllegalArgumentException("Expected " + symbol);
+      }
+    }
+
+    private boolean acceptKeyword(String keyword) {
+      if (hasNext() && peek().isKeyword(keyword)) {
+        this.position++;
+        return true;
+      }
+      return false;
+    }
+
+    private boolean acceptSymbol(String symbol) {
+      if (hasNext() && peek().isSymbol(symbol)) {
+        this.position++;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * A column of the result: either a column of the table, or a constant.
+   */
+  private static final class OutputColumn {
+
+    private final String label;
+    private final int index;
+    private final Object constant;
+    private final int type;
+    private final String typeName;
+
+    private OutputColumn(String label, int index, Object constant, int type, String typeName) {
+      this.label = label;
+      this.index = index;
+      this.constant = constant;
+      this.type = type;
+      this.typeName = typeName;
+    }
+
+    private Object getValue(Object[] row) {
+      return this.index < 0 ? this.constant : row[this.index];
+    }
+  }
+
+  /**
+   * A comparison of a column with one or more values.
+   */
+  private static final class Condition {
+
+    private final int column;
+    private final List<Object> values;
+    private final boolean negated;
+
+    private Condition(int column, List<Object> values, boolean negated) {
+      this.column = column;
+      this.values = values;
+      this.negated = negated;
+    }
+
+    private boolean matches(Object[] row) {
+      Object value = row[this.column];
+      // Comparisons with NULL are never true.
+      return value != null && this.values.contains(value) != this.negated;
+    }
+  }
+
+  private static final class SortKey {
+
+    private final OutputColumn column;
+    private final boolean descending;
+
+    private SortKey(OutputColumn column, boolean descending) {
+      this.column = column;
+      this.descending = descending;
+    }
+  }
+}
@@ -0,0 +1,194 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.catalog;
+
+import com.google.common.collect.ImmutableList;
+import java.sql.Types;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The pg_catalog tables that are emulated from a {@link SchemaSnapshot}. Only the columns that
+ * clients commonly ask for are emulated; a query for any other column is sent to the backend.
+ *
+ * The pg_stat_statements view is not part of the snapshot; its rows come from the {@link
+ * com.google.cloud.spanner.pgadapter.metrics.StatementStatistics} of the proxy. Neither is the
+ * pg_stat_activity view, whose rows describe the client connections of the proxy.
+ */
+public enum CatalogTable {
+  PG_NAMESPACE("pg_namespace",
+      Column.oid("oid"),
+      Column.name("nspname"),
+      Column.oid("nspowner")),
+  PG_CLASS("pg_class",
+      Column.oid("oid"),
+      Column.name("relname"),
+      Column.oid("relnamespace"),
+      Column.name("relkind"),
+      Column.oid("relowner"),
+      Column.bool("relhasindex"),
+      Column.integer("relnatts")),
+  PG_ATTRIBUTE("pg_attribute",
+      Column.oid("attrelid"),
+      Column.name("attname"),
+      Column.oid("atttypid"),
+      Column.integer("attnum"),
+      Column.integer("atttypmod"),
+      Column.bool("attnotnull"),
+      Column.bool("atthasdef"),
+      Column.bool("attisdropped")),
+  PG_TYPE("pg_type",
+      Column.oid("oid"),
+      Column.name("typname"),
+      Column.oid("typnamespace"),
+      Column.integer("typlen"),
+      Column.name("typtype"),
+      Column.oid("typelem"),
+      Column.oid("typarray")),
+  PG_INDEX("pg_index",
+      Column.oid("indexrelid"),
+      Column.oid("indrelid"),
+      Column.integer("indnatts"),
+      Column.bool("indisunique"),
+      Column.bool("indisprimary")),
+  PG_STAT_STATEMENTS("pg_stat_statements",
+      Column.integer("queryid"),
+      Column.name("query"),
+      Column.integer("calls"),
+      Column.float8("total_exec_time"),
+      Column.float8("min_exec_time"),
+      Column.float8("max_exec_time"),
+      Column.float8("mean_exec_time"),
+      Column.float8("p99_exec_time"),
+      Column.integer("rows"),
+      Column.integer("bytes_sent"),
+      Column.float8("total_send_time")),
+  PG_STAT_ACTIVITY("pg_stat_activity",
+      Column.name("datname"),
+      Column.integer("pid"),
+      Column.name("usename"),
+      Column.name("application_name"),
+      Column.name("client_addr"),
+      Column.integer("client_port"),
+      Column.timestamp("backend_start"),
+      Column.timestamp("query_start"),
+      Column.timestamp("state_change"),
+      Column.name("wait_event_type"),
+      Column.name("wait_event"),
+      Column.name("state"),
+      Column.name("query"),
+      Column.float8("query_duration"),
+      Column.bool("backend_connection"),
+      Column.integer("bytes_received"),
+      Column.integer("bytes_sent"));
+
+  private final String tableName;
+  private final List<Column> columns;
+
+  CatalogTable(String tableName, Column... columns) {
+    this.tableName = tableName;
+    this.columns = ImmutableList.copyOf(columns);
+  }
+
+  /**
+   * @param name The name of a table, without the pg_catalog schema.
+   * @return The emulated table with that name, or null if it is not emulated.
+   */
+  public static CatalogTable forName(String name) {
+    String lowerCaseName = name.toLowerCase(Locale.ENGLISH);
+    for (CatalogTable table : values()) {
+      if (table.tableName.equals(lowerCaseName)) {
+        return table;
+      }
+    }
+    return null;
+  }
+
+  public String getTableName() {
+    return this.tableName;
+  }
+
+  public List<Column> getColumns() {
+    return this.columns;
+  }
+
+  /**
+   * @return The position of the column with the given name, or -1 if it is not emulated.
+   */
+  public int getColumnIndex(String name) {
+    for (int index = 0; index < this.columns.size(); index++) {
+      if (this.columns.get(index).getName().equalsIgnoreCase(name)) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * A column of an emulated table. Values are reported with the type that Spanner would report for
+   * them, so that they are described and encoded like backend results.
+   */
+  public static final class Column {
+
+    private final String name;
+    private final int type;
+    private final String typeName;
+
+    private Column(String name, int type, String typeName) {
+      this.name = name;
+      this.type = type;
+      this.typeName = typeName;
+    }
+
+    private static Column oid(String name) {
+      return new Column(name, Types.BIGINT, "INT64");
+    }
+
+    private static Column integer(String name) {
+      return new Column(name, Types.BIGINT, "INT64");
+    }
+
+    private static Column name(String name) {
+      return new Column(name, Types.VARCHAR, "STRING");
+    }
+
+    private static Column float8(String name) {
+      return new Column(name, Types.DOUBLE, "FLOAT64");
+    }
+
+    private static Column bool(String name) {
+      return new Column(name, Types.BOOLEAN, "BOOL");
+    }
+
+    private static Column timestamp(String name) {
+      return new Column(name, Types.TIMESTAMP, "TIMESTAMP");
+    }
+
+    public String getName() {
+      return this.name;
+    }
+
+    /**
+     * @return The {@link Types} constant of the values in this column.
+     */
+    public int getType() {
+      return this.type;
+    }
+
+    public String getTypeName() {
+      return this.typeName;
+    }
+  }
+}
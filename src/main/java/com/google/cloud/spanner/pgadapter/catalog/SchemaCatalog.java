@@ -0,0 +1,114 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.catalog;
+
+import com.google.cloud.spanner.pgadapter.BackendConnectionPool;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.Connection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Keeps the {@link SchemaSnapshot} that catalog queries are answered from. The snapshot is read on
+ * a background thread with a connection from the pool, at a fixed interval and whenever a DDL
+ * statement may have changed the schema. Until the first snapshot has been read, and from a DDL
+ * statement until the snapshot that follows it, there is no snapshot and catalog queries are sent
+ * to the backend.
+ */
+public class SchemaCatalog {
+
+  private static final Logger logger = Logger.getLogger(SchemaCatalog.class.getName());
+
+  private final BackendConnectionPool connectionPool;
+  private final int refreshIntervalSeconds;
+  private final ScheduledExecutorService executor;
+  @GuardedBy("this")
+  private long generation;
+  private volatile SchemaSnapshot snapshot;
+
+  public SchemaCatalog(BackendConnectionPool connectionPool, int refreshIntervalSeconds,
+      String threadNamePrefix) {
+    this.connectionPool = connectionPool;
+    this.refreshIntervalSeconds = refreshIntervalSeconds;
+    this.executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat(threadNamePrefix + "-catalog-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  /**
+   * Reads the first snapshot, and schedules the refreshes.
+   */
+  public void start() {
+    this.executor.scheduleWithFixedDelay(
+        this::refresh, 0, this.refreshIntervalSeconds, TimeUnit.SECONDS);
+  }
+
+  public void close() {
+    this.executor.shutdownNow();
+  }
+
+  /**
+   * @return The current snapshot, or null if there is none.
+   */
+  public SchemaSnapshot getSnapshot() {
+    return this.snapshot;
+  }
+
+  /**
+   * Discards the current snapshot because the schema may have changed, and reads a new one. A
+   * snapshot that was being read at the same time is discarded as well.
+   */
+  public void invalidate() {
+    synchronized (this) {
+      this.generation++;
+      this.snapshot = null;
+    }
+    try {
+      this.executor.execute(this::refresh);
+    } catch (RejectedExecutionException e) {
+      // The server is stopping.
+    }
+  }
+
+  private void refresh() {
+    long startGeneration;
+    synchronized (this) {
+      startGeneration = this.generation;
+    }
+    Connection connection = null;
+    try {
+      connection = this.connectionPool.borrow();
+      SchemaSnapshot newSnapshot = SchemaSnapshot.load(connection);
+      synchronized (this) {
+        if (this.generation == startGeneration) {
+          this.snapshot = newSnapshot;
+        }
+      }
+    } catch (Exception e) {
+      logger.log(Level.WARNING, "Unable to read the schema of the backend: {0}", e.getMessage());
+    } finally {
+      if (connection != null) {
+        this.connectionPool.release(connection);
+      }
+    }
+  }
+}
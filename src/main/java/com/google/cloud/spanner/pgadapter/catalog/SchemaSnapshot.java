@@ -0,0 +1,257 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.catalog;
+
+import com.google.cloud.spanner.pgadapter.parsers.Parser;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.postgresql.core.Oid;
+
+/**
+ * An immutable copy of the tables, columns and indexes of the backend, in the form of the rows of
+ * the emulated pg_catalog tables. The snapshot is read through the JDBC {@link DatabaseMetaData} of
+ * the backend connection, so it works the same for every backend.
+ *
+ * Object IDs are assigned in the order of the schema and table names, so they are stable for as
+ * long as the schema does not change.
+ */
+public class SchemaSnapshot {
+
+  private static final long PG_CATALOG_NAMESPACE_OID = 11L;
+  private static final long PUBLIC_NAMESPACE_OID = 2200L;
+  private static final long OWNER_OID = 10L;
+  private static final long FIRST_OBJECT_OID = 16384L;
+  // Spanner reports the default schema as an empty name, which PostgreSQL clients know as public.
+  private static final String PUBLIC_SCHEMA = "public";
+  private static final Set<String> SYSTEM_SCHEMAS =
+      ImmutableSet.of("INFORMATION_SCHEMA", "SPANNER_SYS", "PG_CATALOG");
+
+  /**
+   * The types that the proxy sends to clients: OID, name, length and the OID of the array type.
+   */
+  private static final Object[][] TYPES = {
+      {Oid.BOOL, "bool", 1L, Oid.BOOL_ARRAY},
+      {Oid.BYTEA, "bytea", -1L, Oid.BYTEA_ARRAY},
+      {Oid.INT8, "int8", 8L, Oid.INT8_ARRAY},
+      {Oid.FLOAT8, "float8", 8L, Oid.FLOAT8_ARRAY},
+      {Oid.VARCHAR, "varchar", -1L, Oid.VARCHAR_ARRAY},
+      {Oid.DATE, "date", 4L, Oid.DATE_ARRAY},
+      {Oid.TIMESTAMPTZ, "timestamptz", 8L, Oid.TIMESTAMPTZ_ARRAY},
+      {Oid.NUMERIC, "numeric", -1L, Oid.NUMERIC_ARRAY},
+  };
+
+  private final Map<CatalogTable, List<Object[]>> rows;
+
+  private SchemaSnapshot(Map<CatalogTable, List<Object[]>> rows) {
+    this.rows = rows;
+  }
+
+  /**
+   * Reads the schema of the backend.
+   *
+   * @param connection The backend connection to read the schema with.
+   * @return A snapshot of the schema.
+   * @throws SQLException If the schema could not be read.
+   */
+  public static SchemaSnapshot load(Connection connection) throws SQLException {
+    DatabaseMetaData metaData = connection.getMetaData();
+    Map<String, Map<String, TableInfo>> schemas = new TreeMap<>();
+    try (ResultSet tables = metaData.getTables(null, null, "%", null)) {
+      while (tables.next()) {
+        String schema = Strings.nullToEmpty(tables.getString("TABLE_SCHEM"));
+        if (SYSTEM_SCHEMAS.contains(schema.toUpperCase(Locale.ENGLISH))) {
+          continue;
+        }
+        String name = tables.getString("TABLE_NAME");
+        schemas.computeIfAbsent(schema, key -> new TreeMap<>())
+            .put(name, new TableInfo(name, "VIEW".equals(tables.getString("TABLE_TYPE"))));
+      }
+    }
+    try (ResultSet columns = metaData.getColumns(null, null, "%", "%")) {
+      while (columns.next()) {
+        Map<String, TableInfo> tables =
+            schemas.get(Strings.nullToEmpty(columns.getString("TABLE_SCHEM")));
+        TableInfo table = tables == null ? null : tables.get(columns.getString("TABLE_NAME"));
+        if (table != null) {
+          table.columns.add(new ColumnInfo(
+              columns.getString("COLUMN_NAME"),
+              columns.getInt("DATA_TYPE"),
+              columns.getInt("NULLABLE") == DatabaseMetaData.columnNoNulls));
+        }
+      }
+    }
+    for (Map.Entry<String, Map<String, TableInfo>> schema : schemas.entrySet()) {
+      for (TableInfo table : schema.getValue().values()) {
+        if (!table.view) {
+          loadIndexes(metaData, schema.getKey(), table);
+        }
+      }
+    }
+    return new SchemaSnapshot(toRows(schemas));
+  }
+
+  private static void loadIndexes(DatabaseMetaData metaData, String schema, TableInfo table)
+      throws SQLException {
+    try (ResultSet indexes = metaData.getIndexInfo(null, schema, table.name, false, false)) {
+      while (indexes.next()) {
+        String name = indexes.getString("INDEX_NAME");
+        if (name == null || indexes.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic) {
+          continue;
+        }
+        IndexInfo index = table.indexes.computeIfAbsent(name,
+            key -> new IndexInfo(key, !isTrue(indexes, "NON_UNIQUE")));
+        index.columnCount++;
+      }
+    } catch (SQLFeatureNotSupportedException e) {
+      // Backends without indexes, such as BigQuery.
+    }
+  }
+
+  private static boolean isTrue(ResultSet resultSet, String column) {
+    try {
+      return resultSet.getBoolean(column);
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  private static Map<CatalogTable, List<Object[]>> toRows(
+      Map<String, Map<String, TableInfo>> schemas) {
+    Map<CatalogTable, List<Object[]>> rows = new EnumMap<>(CatalogTable.class);
+    for (CatalogTable table : CatalogTable.values()) {
+      rows.put(table, new ArrayList<>());
+    }
+    rows.get(CatalogTable.PG_NAMESPACE)
+        .add(new Object[]{PG_CATALOG_NAMESPACE_OID, "pg_catalog", OWNER_OID});
+    for (Object[] type : TYPES) {
+      long oid = ((Integer) type[0]).longValue();
+      long arrayOid = ((Integer) type[3]).longValue();
+      rows.get(CatalogTable.PG_TYPE).add(new Object[]{
+          oid, type[1], PG_CATALOG_NAMESPACE_OID, type[2], "b", 0L, arrayOid});
+      rows.get(CatalogTable.PG_TYPE).add(new Object[]{
+          arrayOid, "_" + type[1], PG_CATALOG_NAMESPACE_OID, -1L, "b", oid, 0L});
+    }
+    Map<String, Long> namespaceOids = new LinkedHashMap<>();
+    long nextOid = FIRST_OBJECT_OID;
+    for (String schema : schemas.keySet()) {
+      String name = schema.isEmpty() ? PUBLIC_SCHEMA : schema;
+      if (!namespaceOids.containsKey(name)) {
+        long oid = PUBLIC_SCHEMA.equals(name) ? PUBLIC_NAMESPACE_OID : nextOid++;
+        namespaceOids.put(name, oid);
+        rows.get(CatalogTable.PG_NAMESPACE).add(new Object[]{oid, name, OWNER_OID});
+      }
+    }
+    for (Map.Entry<String, Map<String, TableInfo>> schema : schemas.entrySet()) {
+      long namespaceOid =
+          namespaceOids.get(schema.getKey().isEmpty() ? PUBLIC_SCHEMA : schema.getKey());
+      for (TableInfo table : schema.getValue().values()) {
+        long tableOid = nextOid++;
+        rows.get(CatalogTable.PG_CLASS).add(new Object[]{
+            tableOid, table.name, namespaceOid, table.view ? "v" : "r", OWNER_OID,
+            !table.indexes.isEmpty(), (long) table.columns.size()});
+        long attnum = 1;
+        for (ColumnInfo column : table.columns) {
+          rows.get(CatalogTable.PG_ATTRIBUTE).add(new Object[]{
+              tableOid, column.name, (long) toOid(column.type), attnum++, -1L, column.notNull,
+              false, false});
+        }
+        for (IndexInfo index : table.indexes.values()) {
+          long indexOid = nextOid++;
+          rows.get(CatalogTable.PG_CLASS).add(new Object[]{
+              indexOid, index.name, namespaceOid, "i", OWNER_OID, false,
+              (long) index.columnCount});
+          rows.get(CatalogTable.PG_INDEX).add(new Object[]{
+              indexOid, tableOid, (long) index.columnCount, index.unique,
+              "PRIMARY_KEY".equals(index.name)});
+        }
+      }
+    }
+    Map<CatalogTable, List<Object[]>> result = new EnumMap<>(CatalogTable.class);
+    for (Map.Entry<CatalogTable, List<Object[]>> entry : rows.entrySet()) {
+      result.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+    }
+    return result;
+  }
+
+  private static int toOid(int jdbcType) {
+    if (jdbcType == Types.ARRAY) {
+      // The element type is not reported by DatabaseMetaData.
+      return Oid.VARCHAR_ARRAY;
+    }
+    int oid = Parser.toOid(jdbcType);
+    return oid == Oid.UNSPECIFIED ? Oid.VARCHAR : oid;
+  }
+
+  /**
+   * @param table An emulated table.
+   * @return The rows of the table, with one value per column of the table.
+   */
+  public List<Object[]> getRows(CatalogTable table) {
+    return this.rows.get(table);
+  }
+
+  private static final class TableInfo {
+
+    private final String name;
+    private final boolean view;
+    private final List<ColumnInfo> columns = new ArrayList<>();
+    private final Map<String, IndexInfo> indexes = new TreeMap<>();
+
+    private TableInfo(String name, boolean view) {
+      this.name = name;
+      this.view = view;
+    }
+  }
+
+  private static final class ColumnInfo {
+
+    private final String name;
+    private final int type;
+    private final boolean notNull;
+
+    private ColumnInfo(String name, int type, boolean notNull) {
+      this.name = name;
+      this.type = type;
+      this.notNull = notNull;
+    }
+  }
+
+  private static final class IndexInfo {
+
+    private final String name;
+    private final boolean unique;
+    private int columnCount;
+
+    private IndexInfo(String name, boolean unique) {
+      this.name = name;
+      this.unique = unique;
+    }
+  }
+}
@@ -0,0 +1,176 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.commands;
+
+import com.google.cloud.spanner.pgadapter.metadata.DynamicCommandMetadata;
+import com.google.cloud.spanner.pgadapter.utils.PatternPrefilter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.json.simple.JSONObject;
+
+/**
+ * Finds the {@link Command} that a SQL statement matches and translates the statement, in the same
+ * order as {@link Command#getCommands}. The patterns of all commands are compiled once. Most
+ * commands match the queries that psql generates for its meta-commands, which start with a fixed
+ * text, so the commands are indexed on the start of that text and only the commands that the
+ * statement could match are tried. Translations that only depend on the statement are remembered,
+ * as psql sends the same catalog queries over and over again.
+ */
+public class CommandDispatcher {
+
+  // Long enough to tell apart e.g. "SELECT n.nspname" and "SELECT c.oid,\n  ".
+  private static final int INDEX_KEY_LENGTH = 16;
+  private static final int MAX_CACHED_TRANSLATIONS = 1024;
+  private static final int MAX_CACHED_QUERY_LENGTH = 4096;
+
+  private static volatile CommandDispatcher lastDispatcher;
+
+  private final JSONObject commandMetadataJSON;
+  private final Map<String, List<CommandEntry>> indexedCommands = new HashMap<>();
+  private final List<CommandEntry> unindexedCommands = new ArrayList<>();
+  private final Cache<String, String> translations =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_TRANSLATIONS).build();
+
+  public CommandDispatcher(JSONObject commandMetadataJSON) {
+    this.commandMetadataJSON = commandMetadataJSON;
+    List<CommandEntry> commands = new ArrayList<>();
+    for (DynamicCommandMetadata metadata : DynamicCommandMetadata.fromJSON(commandMetadataJSON)) {
+      commands.add(new CommandEntry(commands.size(), metadata.getCompiledInputPattern(), true,
+          (sql, matcher, connection) -> new DynamicCommand(matcher, metadata)));
+    }
+    commands.add(new CommandEntry(commands.size(), ListCommand.INPUT_REGEX, false,
+        (sql, matcher, connection) -> new ListCommand(sql, connection)));
+    commands.add(new CommandEntry(commands.size(), InvalidMetaCommand.INPUT_REGEX, false,
+        (sql, matcher, connection) -> new InvalidMetaCommand(sql)));
+    for (CommandEntry command : commands) {
+      String literal = command.prefilter.getLiteral();
+      if (command.prefilter.isAnchored() && literal.length() >= INDEX_KEY_LENGTH) {
+        this.indexedCommands
+            .computeIfAbsent(literal.substring(0, INDEX_KEY_LENGTH), key -> new ArrayList<>())
+            .add(command);
+      } else {
+        this.unindexedCommands.add(command);
+      }
+    }
+  }
+
+  /**
+   * Returns the dispatcher for the given command metadata, reusing the dispatcher of the previous
+   * call if it was for the same metadata, so that the commands are only compiled once.
+   *
+   * @param commandMetadataJSON The user-defined commands.
+   * @return A dispatcher for the user-defined and built-in commands.
+   */
+  public static CommandDispatcher forMetadata(JSONObject commandMetadataJSON) {
+    CommandDispatcher dispatcher = lastDispatcher;
+    if (dispatcher == null || dispatcher.commandMetadataJSON != commandMetadataJSON) {
+      dispatcher = new CommandDispatcher(commandMetadataJSON);
+      lastDispatcher = dispatcher;
+    }
+    return dispatcher;
+  }
+
+  /**
+   * Translates a statement with the first command that it matches.
+   *
+   * @param sql The SQL statement to be translated.
+   * @param connection The connection currently in use.
+   * @return The translated SQL statement, or the original statement if it matches no command.
+   */
+  public String translate(String sql, Connection connection) {
+    boolean cacheable = sql.length() <= MAX_CACHED_QUERY_LENGTH;
+    if (cacheable) {
+      String translation = this.translations.getIfPresent(sql);
+      if (translation != null) {
+        return translation;
+      }
+    }
+    for (CommandEntry command : getCandidates(sql)) {
+      if (!command.prefilter.mayMatch(sql)) {
+        continue;
+      }
+      Matcher matcher = command.pattern.matcher(sql);
+      if (matcher.find()) {
+        String translation = command.factory.create(sql, matcher, connection).translate();
+        if (cacheable && command.cacheable) {
+          this.translations.put(sql, translation);
+        }
+        return translation;
+      }
+    }
+    if (cacheable) {
+      this.translations.put(sql, sql);
+    }
+    return sql;
+  }
+
+  /**
+   * @return The commands that the statement could match, in the order they must be tried.
+   */
+  private List<CommandEntry> getCandidates(String sql) {
+    List<CommandEntry> indexed = sql.length() < INDEX_KEY_LENGTH
+        ? Collections.emptyList()
+        : this.indexedCommands.getOrDefault(
+            sql.substring(0, INDEX_KEY_LENGTH), Collections.emptyList());
+    if (indexed.isEmpty()) {
+      return this.unindexedCommands;
+    }
+    List<CommandEntry> candidates = new ArrayList<>(indexed.size() + this.unindexedCommands.size());
+    int indexedPosition = 0;
+    int unindexedPosition = 0;
+    while (indexedPosition < indexed.size() || unindexedPosition < this.unindexedCommands.size()) {
+      if (unindexedPosition == this.unindexedCommands.size()
+          || (indexedPosition < indexed.size()
+              && indexed.get(indexedPosition).order
+                  < this.unindexedCommands.get(unindexedPosition).order)) {
+        candidates.add(indexed.get(indexedPosition++));
+      } else {
+        candidates.add(this.unindexedCommands.get(unindexedPosition++));
+      }
+    }
+    return candidates;
+  }
+
+  private interface CommandFactory {
+
+    Command create(String sql, Matcher matcher, Connection connection);
+  }
+
+  private static final class CommandEntry {
+
+    private final int order;
+    private final Pattern pattern;
+    private final PatternPrefilter prefilter;
+    // Whether the translation only depends on the statement, and not on e.g. the connection.
+    private final boolean cacheable;
+    private final CommandFactory factory;
+
+    private CommandEntry(int order, Pattern pattern, boolean cacheable, CommandFactory factory) {
+      this.order = order;
+      this.pattern = pattern;
+      this.prefilter = PatternPrefilter.of(pattern.pattern());
+      this.cacheable = cacheable;
+      this.factory = factory;
+    }
+  }
+}
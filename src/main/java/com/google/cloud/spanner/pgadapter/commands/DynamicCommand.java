@@ -18,6 +18,7 @@ import com.google.cloud.spanner.pgadapter.metadata.DynamicCommandMetadata;
 import com.google.cloud.spanner.pgadapter.utils.StatementParser;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -29,17 +30,21 @@ public class DynamicCommand extends Command {
   private final DynamicCommandMetadata metadata;
 
     public DynamicCommand(String sql, DynamicCommandMetadata metadata) {
-      super(getPattern(metadata).matcher(sql));
+      this(metadata.getCompiledInputPattern().matcher(sql), metadata);
+    }
+
+    /**
+     * @param matcher A matcher of the input pattern of the command. If it has already found the
+     * match, translate() may be called without calling is() first.
+     */
+    DynamicCommand(Matcher matcher, DynamicCommandMetadata metadata) {
+      super(matcher);
       this.metadata = metadata;
     }
 
     @Override
     public Pattern getPattern() {
-      return getPattern(this.metadata);
-    }
-
-    private static Pattern getPattern(DynamicCommandMetadata metadata) {
-      return Pattern.compile(metadata.getInputPattern());
+      return this.metadata.getCompiledInputPattern();
     }
 
     @Override
@@ -23,7 +23,7 @@ import java.util.regex.Pattern;
  */
 public class InvalidMetaCommand extends Command {
 
-  private static final Pattern INPUT_REGEX =
+  static final Pattern INPUT_REGEX =
       Pattern.compile(".*pg_catalog.*");
 
   public InvalidMetaCommand(String sql) {
@@ -25,7 +25,7 @@ import java.util.regex.Pattern;
  */
 public class ListCommand extends Command {
 
-  private static final Pattern INPUT_REGEX = Pattern.compile("^SELECT d\\.datname as \"Name\",\n" +
+  static final Pattern INPUT_REGEX = Pattern.compile("^SELECT d\\.datname as \"Name\",\n" +
       "       pg_catalog\\.pg_get_userbyid\\(d.datdba\\) as \"Owner\",\n" +
       "       pg_catalog\\.pg_encoding_to_char\\(d\\.encoding\\) as \"Encoding\",\n" +
       "       pg_catalog\\.array_to_string\\(d\\.datacl, '\\\\n'\\) AS \"Access privileges\"\n" +
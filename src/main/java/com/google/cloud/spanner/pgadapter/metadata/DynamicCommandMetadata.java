@@ -16,6 +16,7 @@ package com.google.cloud.spanner.pgadapter.metadata;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Pattern;
 import static com.google.cloud.spanner.pgadapter.metadata.JSONUtils.*;
 import org.json.simple.JSONObject;
 
@@ -34,9 +35,11 @@ public class DynamicCommandMetadata {
   private final String inputPattern;
   private final String outputPattern;
   private final List<String> matcherOrder;
+  private final Pattern compiledInputPattern;
 
   private DynamicCommandMetadata(JSONObject commandJSON) {
     this.inputPattern = getJSONString(commandJSON, INPUT_KEY);
+    this.compiledInputPattern = Pattern.compile(this.inputPattern);
     this.outputPattern = getJSONString(commandJSON, OUTPUT_KEY);
     this.matcherOrder = new ArrayList<>();
     for (Object arrayObject : getJSONArray(commandJSON, MATCHER_KEY)) {
@@ -64,6 +67,13 @@ public class DynamicCommandMetadata {
     return this.inputPattern;
   }
 
+  /**
+   * @return The input pattern, compiled when the metadata was loaded.
+   */
+  public Pattern getCompiledInputPattern() {
+    return this.compiledInputPattern;
+  }
+
   public String getOutputPattern() {
     return this.outputPattern;
   }
@@ -16,6 +16,7 @@ package com.google.cloud.spanner.pgadapter.metadata;
 
 import com.google.cloud.spanner.pgadapter.Server;
 import com.google.cloud.spanner.pgadapter.utils.Credentials;
+import com.google.cloud.spanner.pgadapter.utils.QueryRewriter;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -49,6 +50,27 @@ public class OptionsMetadata {
   private static final String OPTION_COMMAND_METADATA_FILE = "j";
   private static final String OPTION_QUERY_REWRITES_FILE = "r";
   private static final String OPTION_BIGQUERY_MODE = "x";
+  private static final String OPTION_NON_BLOCKING_IO = "n";
+  private static final String OPTION_IO_THREADS = "io-threads";
+  private static final String OPTION_WORKER_THREADS = "worker-threads";
+  private static final String OPTION_POOL_MIN_SIZE = "pool-min-size";
+  private static final String OPTION_POOL_MAX_SIZE = "pool-max-size";
+  private static final String OPTION_POOL_IDLE_TIMEOUT = "pool-idle-timeout";
+  private static final String OPTION_POOL_BORROW_TIMEOUT = "pool-borrow-timeout";
+  private static final String OPTION_POOL_MODE = "pool-mode";
+  private static final String OPTION_LAZY_BACKEND_CONNECT = "lazy-backend-connect";
+  private static final String OPTION_OUTPUT_BUFFER_SIZE = "output-buffer-size";
+  private static final String OPTION_OUTPUT_FLUSH_INTERVAL = "output-flush-interval";
+  private static final String OPTION_PREFETCH_MEMORY = "prefetch-memory";
+  private static final String OPTION_STATEMENT_CACHE_SIZE = "statement-cache-size";
+  private static final String OPTION_CATALOG_REFRESH_INTERVAL = "catalog-refresh-interval";
+  private static final String OPTION_TRACE_SAMPLE_RATE = "trace-sample-rate";
+  private static final String OPTION_TRACE_FILE = "trace-file";
+  private static final String OPTION_METRICS_PORT = "metrics-port";
+  private static final String OPTION_STATEMENT_STATISTICS_SIZE = "statement-statistics-size";
+  private static final String OPTION_SLOW_QUERY_THRESHOLD = "slow-query-threshold";
+  private static final String OPTION_SLOW_QUERY_FILE = "slow-query-file";
+  private static final String OPTION_ADMIN_DATABASE = "admin-database";
   private static final String COMMAND_METADATA_FILE_DEFAULT = "metadata/command_metadata.json";
   private static final String CLI_ARGS =
       "gcpga -p <project> -i <instance> -d <database> -c <credentials_file>";
@@ -56,6 +78,24 @@ public class OptionsMetadata {
   private static final String DEFAULT_PORT = "5432";
   private static final String EMPTY_COMMAND_JSON = "{\"commands\":[]}";
   private static final int MIN_PORT = 1, MAX_PORT = 65535;
+  private static final int DEFAULT_IO_THREADS = Runtime.getRuntime().availableProcessors();
+  private static final int DEFAULT_WORKER_THREADS = 64;
+  private static final int DEFAULT_POOL_MIN_SIZE = 0;
+  // In session pool mode, each client connection holds a backend connection, so the pool is not
+  // limited unless the user asks for it.
+  private static final int DEFAULT_SESSION_POOL_MAX_SIZE = 0;
+  private static final int DEFAULT_TRANSACTION_POOL_MAX_SIZE = 100;
+  private static final int DEFAULT_POOL_IDLE_TIMEOUT_SECONDS = 600;
+  private static final int DEFAULT_POOL_BORROW_TIMEOUT_SECONDS = 30;
+  private static final int DEFAULT_OUTPUT_BUFFER_SIZE = 64 * 1024;
+  private static final int DEFAULT_OUTPUT_FLUSH_INTERVAL_MILLIS = 50;
+  private static final int DEFAULT_PREFETCH_MEMORY_BYTES = 0;
+  private static final int DEFAULT_STATEMENT_CACHE_SIZE = 256;
+  private static final int DEFAULT_CATALOG_REFRESH_INTERVAL_SECONDS = 0;
+  private static final int DEFAULT_TRACE_SAMPLE_RATE = 0;
+  private static final int DEFAULT_METRICS_PORT = 0;
+  private static final int DEFAULT_STATEMENT_STATISTICS_SIZE = 0;
+  private static final int DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS = 0;
 
   private final String connectionURL;
   private final int proxyPort;
@@ -65,6 +105,28 @@ public class OptionsMetadata {
   private final boolean psqlMode;
   private final JSONObject commandMetadataJSON;
   private final List<QueryRewritesMetadata> queryRewritesJSON;
+  private final QueryRewriter queryRewriter;
+  private final boolean nonBlockingIO;
+  private final int ioThreads;
+  private final int workerThreads;
+  private final int poolMinSize;
+  private final int poolMaxSize;
+  private final int poolIdleTimeoutSeconds;
+  private final int poolBorrowTimeoutSeconds;
+  private final PoolMode poolMode;
+  private final boolean lazyBackendConnect;
+  private final int outputBufferSize;
+  private final int outputFlushIntervalMillis;
+  private final int prefetchMemoryBytes;
+  private final int statementCacheSize;
+  private final int catalogRefreshIntervalSeconds;
+  private final int traceSampleRate;
+  private final String traceFile;
+  private final int metricsPort;
+  private final int statementStatisticsSize;
+  private final int slowQueryThresholdMillis;
+  private final String slowQueryFile;
+  private final String adminDatabase;
 
   public OptionsMetadata(String[] args) {
     CommandLine commandLine = buildOptions(args);
@@ -76,6 +138,50 @@ public class OptionsMetadata {
     this.psqlMode = commandLine.hasOption(OPTION_PSQL_MODE);
     this.commandMetadataJSON = buildCommandMetadataJSON(commandLine);
     this.queryRewritesJSON = buildQueryRewritesJSON(commandLine);
+    this.queryRewriter = new QueryRewriter(this.queryRewritesJSON);
+    this.nonBlockingIO = commandLine.hasOption(OPTION_NON_BLOCKING_IO);
+    this.ioThreads = buildPositiveInt(commandLine, OPTION_IO_THREADS, DEFAULT_IO_THREADS);
+    this.workerThreads =
+        buildPositiveInt(commandLine, OPTION_WORKER_THREADS, DEFAULT_WORKER_THREADS);
+    this.poolMinSize = buildNonNegativeInt(commandLine, OPTION_POOL_MIN_SIZE, DEFAULT_POOL_MIN_SIZE);
+    this.poolMode = buildPoolMode(commandLine);
+    this.poolMaxSize = buildNonNegativeInt(commandLine, OPTION_POOL_MAX_SIZE,
+        this.poolMode == PoolMode.TRANSACTION
+            ? DEFAULT_TRANSACTION_POOL_MAX_SIZE
+            : DEFAULT_SESSION_POOL_MAX_SIZE);
+    this.poolIdleTimeoutSeconds = buildPositiveInt(commandLine, OPTION_POOL_IDLE_TIMEOUT,
+        DEFAULT_POOL_IDLE_TIMEOUT_SECONDS);
+    this.poolBorrowTimeoutSeconds = buildPositiveInt(commandLine, OPTION_POOL_BORROW_TIMEOUT,
+        DEFAULT_POOL_BORROW_TIMEOUT_SECONDS);
+    this.lazyBackendConnect = commandLine.hasOption(OPTION_LAZY_BACKEND_CONNECT);
+    this.outputBufferSize = buildPositiveInt(commandLine, OPTION_OUTPUT_BUFFER_SIZE,
+        DEFAULT_OUTPUT_BUFFER_SIZE);
+    this.outputFlushIntervalMillis = buildNonNegativeInt(commandLine,
+        OPTION_OUTPUT_FLUSH_INTERVAL, DEFAULT_OUTPUT_FLUSH_INTERVAL_MILLIS);
+    this.prefetchMemoryBytes = buildNonNegativeInt(commandLine, OPTION_PREFETCH_MEMORY,
+        DEFAULT_PREFETCH_MEMORY_BYTES);
+    this.statementCacheSize = buildNonNegativeInt(commandLine, OPTION_STATEMENT_CACHE_SIZE,
+        DEFAULT_STATEMENT_CACHE_SIZE);
+    this.catalogRefreshIntervalSeconds = buildNonNegativeInt(commandLine,
+        OPTION_CATALOG_REFRESH_INTERVAL, DEFAULT_CATALOG_REFRESH_INTERVAL_SECONDS);
+    this.traceSampleRate =
+        buildNonNegativeInt(commandLine, OPTION_TRACE_SAMPLE_RATE, DEFAULT_TRACE_SAMPLE_RATE);
+    this.traceFile = commandLine.getOptionValue(OPTION_TRACE_FILE);
+    this.metricsPort = buildNonNegativeInt(commandLine, OPTION_METRICS_PORT, DEFAULT_METRICS_PORT);
+    if (this.metricsPort > MAX_PORT) {
+      throw new IllegalArgumentException(
+          "Option " + OPTION_METRICS_PORT + " must be between " + MIN_PORT + " and " + MAX_PORT);
+    }
+    this.statementStatisticsSize = buildNonNegativeInt(commandLine,
+        OPTION_STATEMENT_STATISTICS_SIZE, DEFAULT_STATEMENT_STATISTICS_SIZE);
+    this.slowQueryThresholdMillis = buildNonNegativeInt(commandLine,
+        OPTION_SLOW_QUERY_THRESHOLD, DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS);
+    this.slowQueryFile = commandLine.getOptionValue(OPTION_SLOW_QUERY_FILE);
+    this.adminDatabase = commandLine.getOptionValue(OPTION_ADMIN_DATABASE);
+    if (this.poolMaxSize > 0 && this.poolMinSize > this.poolMaxSize) {
+      throw new IllegalArgumentException(
+          OPTION_POOL_MIN_SIZE + " may not be larger than " + OPTION_POOL_MAX_SIZE);
+    }
   }
 
   public OptionsMetadata(String connectionURL,
@@ -94,6 +200,29 @@ public class OptionsMetadata {
     this.psqlMode = psqlMode;
     this.commandMetadataJSON = commandMetadata;
     this.queryRewritesJSON = queryRewrites;
+    this.queryRewriter = new QueryRewriter(
+        queryRewrites == null ? Collections.emptyList() : queryRewrites);
+    this.nonBlockingIO = false;
+    this.ioThreads = DEFAULT_IO_THREADS;
+    this.workerThreads = DEFAULT_WORKER_THREADS;
+    this.poolMinSize = DEFAULT_POOL_MIN_SIZE;
+    this.poolMaxSize = DEFAULT_SESSION_POOL_MAX_SIZE;
+    this.poolIdleTimeoutSeconds = DEFAULT_POOL_IDLE_TIMEOUT_SECONDS;
+    this.poolBorrowTimeoutSeconds = DEFAULT_POOL_BORROW_TIMEOUT_SECONDS;
+    this.poolMode = PoolMode.SESSION;
+    this.lazyBackendConnect = false;
+    this.outputBufferSize = DEFAULT_OUTPUT_BUFFER_SIZE;
+    this.outputFlushIntervalMillis = DEFAULT_OUTPUT_FLUSH_INTERVAL_MILLIS;
+    this.prefetchMemoryBytes = DEFAULT_PREFETCH_MEMORY_BYTES;
+    this.statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+    this.catalogRefreshIntervalSeconds = DEFAULT_CATALOG_REFRESH_INTERVAL_SECONDS;
+    this.traceSampleRate = DEFAULT_TRACE_SAMPLE_RATE;
+    this.traceFile = null;
+    this.metricsPort = DEFAULT_METRICS_PORT;
+    this.statementStatisticsSize = DEFAULT_STATEMENT_STATISTICS_SIZE;
+    this.slowQueryThresholdMillis = DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS;
+    this.slowQueryFile = null;
+    this.adminDatabase = null;
   }
 
   public static String getDefaultCommandMetadataFilePath() {
@@ -113,6 +242,18 @@ public class OptionsMetadata {
     );
   }
 
+  /**
+   * Takes the pool mode option result and parses it accordingly to fit the PoolMode data type.
+   *
+   * @param commandLine The parsed options for CLI
+   * @return The specified pool mode from the user input, or default SESSION if none.
+   */
+  private PoolMode buildPoolMode(CommandLine commandLine) {
+    return PoolMode.valueOf(
+        commandLine.getOptionValue(OPTION_POOL_MODE, PoolMode.SESSION.toString())
+            .toUpperCase());
+  }
+
   /**
    * Takes the proxy port option result and parses it accordingly to fit port specs.
    *
@@ -130,6 +271,41 @@ public class OptionsMetadata {
     return port;
   }
 
+  /**
+   * Takes a numeric option and validates that it is strictly positive.
+   *
+   * @param commandLine The parsed options for CLI
+   * @param option The name of the option to read.
+   * @param defaultValue The value to use if the option was not specified.
+   * @return The designated value if any, otherwise the default value.
+   */
+  private int buildPositiveInt(CommandLine commandLine, String option, int defaultValue) {
+    int value = buildNonNegativeInt(commandLine, option, defaultValue);
+    if (value == 0) {
+      throw new IllegalArgumentException("Option " + option + " must be a positive number");
+    }
+    return value;
+  }
+
+  /**
+   * Takes a numeric option and validates that it is not negative.
+   *
+   * @param commandLine The parsed options for CLI
+   * @param option The name of the option to read.
+   * @param defaultValue The value to use if the option was not specified.
+   * @return The designated value if any, otherwise the default value.
+   */
+  private int buildNonNegativeInt(CommandLine commandLine, String option, int defaultValue) {
+    if (!commandLine.hasOption(option)) {
+      return defaultValue;
+    }
+    int value = Integer.parseInt(commandLine.getOptionValue(option));
+    if (value < 0) {
+      throw new IllegalArgumentException("Option " + option + " may not be negative");
+    }
+    return value;
+  }
+
   /**
    * Get credential file path from either command line or application default. If neither throw
    * error.
@@ -292,6 +468,80 @@ public class OptionsMetadata {
     options.addOption(OPTION_QUERY_REWRITES_FILE, "query-rewrites-metadata", true,
             "The full path of the file containing query rewrite instructions.");
     options.addOption(OPTION_BIGQUERY_MODE, "bigquery", false, "BigQuery connection mode.");
+    options.addOption(OPTION_NON_BLOCKING_IO, "non-blocking-io", false,
+        "Use a selector-based transport instead of one thread per client connection. Client I/O "
+            + "is handled by a small number of event loop threads, and statements are executed "
+            + "on a bounded pool of worker threads.");
+    options.addOption(null, OPTION_IO_THREADS, true,
+        "The number of event loop threads used by the non-blocking transport "
+            + "(default is the number of available processors).");
+    options.addOption(null, OPTION_WORKER_THREADS, true,
+        "The maximum number of threads that execute statements for the non-blocking transport "
+            + "(default " + DEFAULT_WORKER_THREADS + ").");
+    options.addOption(null, OPTION_POOL_MIN_SIZE, true,
+        "The number of backend connections that are opened at startup and kept open while idle "
+            + "(default " + DEFAULT_POOL_MIN_SIZE + ").");
+    options.addOption(null, OPTION_POOL_MAX_SIZE, true,
+        "The maximum number of backend connections that are in use at the same time, or 0 for "
+            + "no limit (default " + DEFAULT_SESSION_POOL_MAX_SIZE + " in SESSION pool mode and "
+            + DEFAULT_TRANSACTION_POOL_MAX_SIZE + " in TRANSACTION pool mode).");
+    options.addOption(null, OPTION_POOL_IDLE_TIMEOUT, true,
+        "The number of seconds after which an idle backend connection above the minimum pool "
+            + "size is closed (default " + DEFAULT_POOL_IDLE_TIMEOUT_SECONDS + ").");
+    options.addOption(null, OPTION_POOL_BORROW_TIMEOUT, true,
+        "The number of seconds a new client connection waits for a backend connection when all "
+            + "are in use (default " + DEFAULT_POOL_BORROW_TIMEOUT_SECONDS + ").");
+    options.addOption(null, OPTION_POOL_MODE, true,
+        "When a client connection gives its backend connection back to the pool: SESSION (when "
+            + "the client disconnects) or TRANSACTION (after each transaction or auto-commit "
+            + "statement). Default is SESSION.");
+    options.addOption(null, OPTION_LAZY_BACKEND_CONNECT, false,
+        "Do not connect a client to the backend until it sends a statement that the proxy cannot "
+            + "answer itself. By default, the backend connection is opened during client startup.");
+    options.addOption(null, OPTION_OUTPUT_BUFFER_SIZE, true,
+        "The number of bytes that are buffered per client connection before they are sent, "
+            + "unless a protocol boundary is reached first (default "
+            + DEFAULT_OUTPUT_BUFFER_SIZE + ").");
+    options.addOption(null, OPTION_OUTPUT_FLUSH_INTERVAL, true,
+        "The maximum number of milliseconds that rows of a result are buffered before they are "
+            + "sent to the client (default " + DEFAULT_OUTPUT_FLUSH_INTERVAL_MILLIS + ").");
+    options.addOption(null, OPTION_PREFETCH_MEMORY, true,
+        "The maximum number of bytes per client connection that are used to fetch the next page "
+            + "of a suspended portal in the background while the client processes the current "
+            + "page. The default (0) disables prefetching.");
+    options.addOption(null, OPTION_STATEMENT_CACHE_SIZE, true,
+        "The number of distinct SQL strings per client connection for which the parsed statement "
+            + "and its backend prepared statement are kept, so that parsing the same SQL string "
+            + "again is cheap (default " + DEFAULT_STATEMENT_CACHE_SIZE + "). 0 disables the "
+            + "cache.");
+    options.addOption(null, OPTION_CATALOG_REFRESH_INTERVAL, true,
+        "The number of seconds between refreshes of the snapshot of the backend schema from which "
+            + "simple pg_catalog queries are answered by the proxy itself (default "
+            + DEFAULT_CATALOG_REFRESH_INTERVAL_SECONDS + "). 0 disables the snapshot, and sends "
+            + "all catalog queries to the backend.");
+    options.addOption(null, OPTION_TRACE_SAMPLE_RATE, true,
+        "Trace the wire protocol messages of one in this many client connections (default "
+            + DEFAULT_TRACE_SAMPLE_RATE + "). 0 disables tracing, 1 traces all connections.");
+    options.addOption(null, OPTION_TRACE_FILE, true,
+        "The file that the protocol trace is appended to. By default, the trace is written to "
+            + "the com.google.cloud.spanner.pgadapter.trace logger.");
+    options.addOption(null, OPTION_METRICS_PORT, true,
+        "The port on which metrics are served in the Prometheus text format, on /metrics. By "
+            + "default, no metrics are collected.");
+    options.addOption(null, OPTION_STATEMENT_STATISTICS_SIZE, true,
+        "The number of distinct statements for which statistics are kept in the "
+            + "pg_stat_statements view (default " + DEFAULT_STATEMENT_STATISTICS_SIZE + "). 0 "
+            + "turns statement statistics off.");
+    options.addOption(null, OPTION_SLOW_QUERY_THRESHOLD, true,
+        "Log the statements that take the proxy at least this many milliseconds, with the time "
+            + "of each phase of the statement (default " + DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS
+            + "). 0 turns the slow query log off.");
+    options.addOption(null, OPTION_SLOW_QUERY_FILE, true,
+        "The file that the slow query log is appended to. By default, slow statements are "
+            + "written to the com.google.cloud.spanner.pgadapter.slowquery logger.");
+    options.addOption(null, OPTION_ADMIN_DATABASE, true,
+        "Clients that connect to the database with this name get an admin console that answers "
+            + "SHOW CLIENTS, SHOW POOLS and SHOW STATS. By default, there is no admin console.");
     options.addOption(OPTION_HELP, "help", false,
         "Print help."
     );
@@ -331,6 +581,13 @@ public class OptionsMetadata {
     return this.queryRewritesJSON;
   }
 
+  /**
+   * @return The rewriter that applies the query rewrites to the statements of all connections.
+   */
+  public QueryRewriter getQueryRewriter() {
+    return this.queryRewriter;
+  }
+
   public String getConnectionURL() {
     return this.connectionURL;
   }
@@ -351,6 +608,110 @@ public class OptionsMetadata {
     return this.psqlMode;
   }
 
+  public boolean isNonBlockingIO() {
+    return this.nonBlockingIO;
+  }
+
+  public int getIoThreads() {
+    return this.ioThreads;
+  }
+
+  public int getWorkerThreads() {
+    return this.workerThreads;
+  }
+
+  public int getPoolMinSize() {
+    return this.poolMinSize;
+  }
+
+  /**
+   * @return The maximum number of backend connections in use at the same time, or 0 if the pool is
+   * not limited.
+   */
+  public int getPoolMaxSize() {
+    return this.poolMaxSize;
+  }
+
+  public int getPoolIdleTimeoutSeconds() {
+    return this.poolIdleTimeoutSeconds;
+  }
+
+  public int getPoolBorrowTimeoutSeconds() {
+    return this.poolBorrowTimeoutSeconds;
+  }
+
+  public PoolMode getPoolMode() {
+    return this.poolMode;
+  }
+
+  public boolean isLazyBackendConnect() {
+    return this.lazyBackendConnect;
+  }
+
+  public int getOutputBufferSize() {
+    return this.outputBufferSize;
+  }
+
+  public int getOutputFlushIntervalMillis() {
+    return this.outputFlushIntervalMillis;
+  }
+
+  public int getPrefetchMemoryBytes() {
+    return this.prefetchMemoryBytes;
+  }
+
+  public int getStatementCacheSize() {
+    return this.statementCacheSize;
+  }
+
+  public int getCatalogRefreshIntervalSeconds() {
+    return this.catalogRefreshIntervalSeconds;
+  }
+
+  public int getTraceSampleRate() {
+    return this.traceSampleRate;
+  }
+
+  /**
+   * @return The file that the protocol trace is written to, or null to write it to a logger.
+   */
+  public String getTraceFile() {
+    return this.traceFile;
+  }
+
+  /**
+   * @return The port of the metrics endpoint, or 0 if metrics are turned off.
+   */
+  public int getMetricsPort() {
+    return this.metricsPort;
+  }
+
+  public int getStatementStatisticsSize() {
+    return this.statementStatisticsSize;
+  }
+
+  /**
+   * @return The number of milliseconds after which a statement is logged as slow, or 0 if the slow
+   * query log is turned off.
+   */
+  public int getSlowQueryThresholdMillis() {
+    return this.slowQueryThresholdMillis;
+  }
+
+  /**
+   * @return The file that the slow query log is written to, or null to write it to a logger.
+   */
+  public String getSlowQueryFile() {
+    return this.slowQueryFile;
+  }
+
+  /**
+   * @return The database name of the admin console, or null if it is turned off.
+   */
+  public String getAdminDatabase() {
+    return this.adminDatabase;
+  }
+
   /**
    * The PostgreSQL wire protocol can send data in both binary and text format. When using text
    * format, the {@link Server} will normally send output back to the client using a format
@@ -376,4 +737,23 @@ public class OptionsMetadata {
      */
     SPANNER
   }
+
+  /**
+   * Determines how long a client connection holds on to a backend connection from the pool.
+   *
+   * The default mode is {@link PoolMode#SESSION}.
+   */
+  public enum PoolMode {
+    /**
+     * The backend connection is held for the lifetime of the client connection. This supports all
+     * features, but requires one backend connection per client.
+     */
+    SESSION,
+    /**
+     * The backend connection is held for the duration of a transaction, or of a single statement in
+     * auto-commit mode. Many mostly idle clients can then share a few backend connections. Portals
+     * do not survive the end of a transaction, which is also the case in PostgreSQL.
+     */
+    TRANSACTION
+  }
 }
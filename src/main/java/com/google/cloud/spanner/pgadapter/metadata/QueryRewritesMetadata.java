@@ -14,10 +14,12 @@
 
 package com.google.cloud.spanner.pgadapter.metadata;
 
+import com.google.cloud.spanner.pgadapter.utils.PatternPrefilter;
 import org.json.simple.JSONObject;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import static com.google.cloud.spanner.pgadapter.metadata.JSONUtils.getJSONArray;
 import static com.google.cloud.spanner.pgadapter.metadata.JSONUtils.getJSONString;
@@ -35,10 +37,14 @@ public class QueryRewritesMetadata {
 
   private final String inputPattern;
   private final String outputPattern;
+  private final Pattern compiledInputPattern;
+  private final PatternPrefilter prefilter;
 
   private QueryRewritesMetadata(JSONObject commandJSON) {
     this.inputPattern = getJSONString(commandJSON, INPUT_KEY);
     this.outputPattern = getJSONString(commandJSON, OUTPUT_KEY);
+    this.compiledInputPattern = Pattern.compile(this.inputPattern);
+    this.prefilter = PatternPrefilter.of(this.inputPattern);
   }
 
   /**
@@ -64,4 +70,18 @@ public class QueryRewritesMetadata {
     return this.outputPattern;
   }
 
+  /**
+   * Replaces every match of the input pattern with the output pattern. The regular expression is
+   * only evaluated if the SQL string contains the literal text that every match must start with.
+   *
+   * @param sql The SQL string to rewrite.
+   * @return The rewritten SQL string.
+   */
+  public String apply(String sql) {
+    if (!this.prefilter.mayMatch(sql)) {
+      return sql;
+    }
+    return this.compiledInputPattern.matcher(sql).replaceAll(this.outputPattern);
+  }
+
 }
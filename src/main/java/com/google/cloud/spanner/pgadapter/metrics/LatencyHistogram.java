@@ -0,0 +1,146 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.metrics;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations with a fixed set of buckets. Like an HDR histogram, the buckets are
+ * linear up to 4 microseconds and then split every power of two in two, so that the relative error
+ * of a bucket is at most 50% over the entire range of 1 microsecond to 2 minutes. Longer durations
+ * are only counted in the +Inf bucket.
+ *
+ * Recording a duration adds to a {@link LongAdder}, so the threads of different connections do not
+ * contend with each other.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 1;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Durations below this number of microseconds each have a bucket of their own.
+  private static final int LINEAR_BUCKETS = SUB_BUCKETS << 1;
+  private static final int MAX_EXPONENT = 26;
+  private static final int BUCKET_COUNT =
+      LINEAR_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+  private static final String[] UPPER_BOUNDS = new String[BUCKET_COUNT];
+
+  static {
+    for (int index = 0; index < BUCKET_COUNT; index++) {
+      UPPER_BOUNDS[index] =
+          BigDecimal.valueOf(getUpperBoundMicros(index), 6).stripTrailingZeros().toPlainString();
+    }
+  }
+
+  private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sumNanos = new LongAdder();
+
+  public LatencyHistogram() {
+    for (int index = 0; index < BUCKET_COUNT; index++) {
+      this.buckets[index] = new LongAdder();
+    }
+  }
+
+  /**
+   * @param nanos The duration to add to the histogram, in nanoseconds.
+   */
+  public void record(long nanos) {
+    this.count.increment();
+    this.sumNanos.add(nanos);
+    // Rounded up, as the upper bounds of the buckets are inclusive.
+    int index = getBucketIndex((nanos + 999L) / 1000L);
+    if (index < BUCKET_COUNT) {
+      this.buckets[index].increment();
+    }
+  }
+
+  public long getCount() {
+    return this.count.sum();
+  }
+
+  /**
+   * Estimates a percentile of the recorded durations.
+   *
+   * @param percentile The percentile, between 0 and 100.
+   * @return The upper bound of the bucket that contains the percentile, in microseconds, or
+   * Long.MAX_VALUE if it is longer than the last bucket. Returns 0 if nothing was recorded.
+   */
+  public long getPercentileMicros(double percentile) {
+    long total = getCount();
+    if (total == 0) {
+      return 0L;
+    }
+    long rank = Math.max((long) Math.ceil(total * percentile / 100d), 1L);
+    long cumulativeCount = 0;
+    for (int index = 0; index < BUCKET_COUNT; index++) {
+      cumulativeCount += this.buckets[index].sum();
+      if (cumulativeCount >= rank) {
+        return getUpperBoundMicros(index);
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Appends the histogram in the Prometheus text format, with the durations in seconds.
+   *
+   * @param output The output to append to.
+   * @param name The name of the metric, without the _bucket, _sum and _count suffixes.
+   * @param labels The labels of the histogram, such as type="Q", or an empty string.
+   */
+  void appendTo(StringBuilder output, String name, String labels) {
+    String separator = labels.isEmpty() ? "" : ",";
+    long cumulativeCount = 0;
+    for (int index = 0; index < BUCKET_COUNT; index++) {
+      cumulativeCount += this.buckets[index].sum();
+      output.append(name).append("_bucket{").append(labels).append(separator)
+          .append("le=\"").append(UPPER_BOUNDS[index]).append("\"} ")
+          .append(cumulativeCount).append('\n');
+    }
+    // The count is read after the buckets, so that it is never lower than the last bucket.
+    long total = getCount();
+    String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+    output.append(name).append("_bucket{").append(labels).append(separator)
+        .append("le=\"+Inf\"} ").append(Math.max(total, cumulativeCount)).append('\n');
+    output.append(name).append("_sum").append(braces).append(' ')
+        .append(BigDecimal.valueOf(this.sumNanos.sum(), 9).toPlainString()).append('\n');
+    output.append(name).append("_count").append(braces).append(' ')
+        .append(Math.max(total, cumulativeCount)).append('\n');
+  }
+
+  /**
+   * Durations of d microseconds are counted in the bucket of d - 1, so that the upper bound of
+   * each bucket is inclusive, as Prometheus expects.
+   */
+  static int getBucketIndex(long micros) {
+    long value = Math.max(micros, 1L) - 1L;
+    if (value < LINEAR_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+    return LINEAR_BUCKETS + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long getUpperBoundMicros(int index) {
+    if (index < LINEAR_BUCKETS) {
+      return index + 1;
+    }
+    int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+    int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+    return (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+  }
+}
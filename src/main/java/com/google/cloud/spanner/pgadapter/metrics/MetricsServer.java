@@ -0,0 +1,142 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.metrics;
+
+import com.google.cloud.spanner.pgadapter.BackendConnectionPool;
+import com.google.cloud.spanner.pgadapter.ProxyServer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves the metrics of a proxy server in the Prometheus text format on /metrics. The server uses
+ * the HTTP server of the JDK and a single thread of its own, so a scrape never runs on, or waits
+ * for, a thread that handles a client connection.
+ */
+public class MetricsServer {
+
+  private static final Logger logger = Logger.getLogger(MetricsServer.class.getName());
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private final ProxyServer server;
+  private final int port;
+  private final String threadNamePrefix;
+  private HttpServer httpServer;
+  private ExecutorService executor;
+
+  /**
+   * @param server The proxy server whose metrics are served.
+   * @param port The port to listen on.
+   * @param threadNamePrefix The prefix of the name of the thread that serves the requests.
+   */
+  public MetricsServer(ProxyServer server, int port, String threadNamePrefix) {
+    this.server = server;
+    this.port = port;
+    this.threadNamePrefix = threadNamePrefix;
+  }
+
+  public synchronized void start() {
+    try {
+      this.httpServer = HttpServer.create(new InetSocketAddress(this.port), 0);
+    } catch (IOException e) {
+      // The proxy itself still works, so this does not stop the server.
+      logger.log(Level.WARNING, "Unable to serve metrics on port {0}: {1}",
+          new Object[]{String.valueOf(this.port), e});
+      return;
+    }
+    this.executor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat(this.threadNamePrefix + "-metrics")
+            .setDaemon(true)
+            .build());
+    this.httpServer.setExecutor(this.executor);
+    this.httpServer.createContext("/metrics", this::handle);
+    this.httpServer.start();
+    logger.log(Level.INFO, "Serving metrics on port {0}", String.valueOf(this.port));
+  }
+
+  public synchronized void close() {
+    if (this.httpServer != null) {
+      this.httpServer.stop(0);
+      this.executor.shutdown();
+      this.httpServer = null;
+    }
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      byte[] body = render().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream output = exchange.getResponseBody()) {
+        output.write(body);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * @return All metrics of the proxy server in the Prometheus text format.
+   */
+  public String render() {
+    StringBuilder output = new StringBuilder(16384);
+    ProxyMetrics metrics = this.server.getMetrics();
+    long connections = this.server.getConnectionRegistry().size();
+    long activeConnections = Math.min(metrics.getMessagesInProgress(), connections);
+    ProxyMetrics.appendHeader(output, "pgadapter_client_connections", "gauge",
+        "Open client connections. Active connections are handling a message.");
+    output.append("pgadapter_client_connections{state=\"active\"} ")
+        .append(activeConnections).append('\n');
+    output.append("pgadapter_client_connections{state=\"idle\"} ")
+        .append(connections - activeConnections).append('\n');
+
+    BackendConnectionPool pool = this.server.getConnectionPool();
+    ProxyMetrics.appendHeader(output, "pgadapter_pool_connections", "gauge",
+        "Backend connections in the pool. Active connections are leased by a client connection.");
+    output.append("pgadapter_pool_connections{state=\"active\"} ")
+        .append(pool.getActiveConnections()).append('\n');
+    output.append("pgadapter_pool_connections{state=\"idle\"} ")
+        .append(pool.getIdleConnections()).append('\n');
+    ProxyMetrics.appendHeader(output, "pgadapter_pool_max_connections", "gauge",
+        "The maximum number of backend connections in the pool, or 0 if it is not limited.");
+    output.append("pgadapter_pool_max_connections ").append(pool.getMaxSize()).append('\n');
+
+    metrics.appendTo(output);
+    if (this.server.getProtocolTracer() != null) {
+      ProxyMetrics.appendCounter(output, "pgadapter_trace_dropped_records_total",
+          "Protocol trace records dropped because the trace buffer was full.",
+          this.server.getProtocolTracer().getDroppedRecords());
+    }
+    if (this.server.getSlowQueryLog() != null) {
+      ProxyMetrics.appendCounter(output, "pgadapter_slow_query_dropped_records_total",
+          "Slow statements not logged because the slow query log buffer was full.",
+          this.server.getSlowQueryLog().getDroppedRecords());
+    }
+    return output.toString();
+  }
+}
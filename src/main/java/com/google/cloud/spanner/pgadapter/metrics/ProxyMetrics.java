@@ -0,0 +1,145 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.metrics;
+
+import com.google.cloud.spanner.pgadapter.wireoutput.ErrorResponse.State;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and latency histograms of a proxy server. All updates are lock-free, as they are
+ * made by the threads that handle the client connections; the values are only summed when the
+ * metrics are read.
+ */
+public class ProxyMetrics {
+
+  private final ConcurrentMap<Character, LatencyHistogram> messageLatencies =
+      new ConcurrentHashMap<>();
+  private final LatencyHistogram executeLatency = new LatencyHistogram();
+  private final LatencyHistogram resultSendLatency = new LatencyHistogram();
+  private final LongAdder messagesInProgress = new LongAdder();
+  private final LongAdder rowsSent = new LongAdder();
+  private final LongAdder bytesSent = new LongAdder();
+  private final LongAdder cancelRequests = new LongAdder();
+  private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+  /**
+   * Called when a connection starts to handle a message from the client. Connections that are
+   * handling a message are reported as active.
+   */
+  public void messageStarted() {
+    this.messagesInProgress.increment();
+  }
+
+  /**
+   * Called when a connection has handled a message from the client.
+   *
+   * @param identifier The identifier of the message, such as 'Q' or 'P'.
+   * @param nanos The time it took to handle the message.
+   */
+  public void messageFinished(char identifier, long nanos) {
+    this.messagesInProgress.decrement();
+    LatencyHistogram histogram = this.messageLatencies.get(identifier);
+    if (histogram == null) {
+      histogram = this.messageLatencies.computeIfAbsent(identifier, key -> new LatencyHistogram());
+    }
+    histogram.record(nanos);
+  }
+
+  /**
+   * @param nanos The time it took the backend to execute a statement or a batch.
+   */
+  public void recordExecute(long nanos) {
+    this.executeLatency.record(nanos);
+  }
+
+  /**
+   * @param nanos The time it took to encode and send (part of) a result to the client, including
+   * fetching the rows after the first row from the backend.
+   * @param rows The number of rows that were sent.
+   */
+  public void recordResultSend(long nanos, long rows) {
+    this.resultSendLatency.record(nanos);
+    this.rowsSent.add(rows);
+  }
+
+  public void recordCancelRequest() {
+    this.cancelRequests.increment();
+  }
+
+  public void recordError(State state) {
+    String sqlState = state.toString();
+    LongAdder counter = this.errors.get(sqlState);
+    if (counter == null) {
+      counter = this.errors.computeIfAbsent(sqlState, key -> new LongAdder());
+    }
+    counter.increment();
+  }
+
+  public void recordBytesSent(long bytes) {
+    this.bytesSent.add(bytes);
+  }
+
+  /**
+   * @return The number of messages that connections are handling at this moment.
+   */
+  public long getMessagesInProgress() {
+    return Math.max(this.messagesInProgress.sum(), 0L);
+  }
+
+  /**
+   * Appends the metrics of this object in the Prometheus text format.
+   */
+  void appendTo(StringBuilder output) {
+    appendHeader(output, "pgadapter_message_duration_seconds", "histogram",
+        "Time to handle a message from the client, by message type.");
+    for (Map.Entry<Character, LatencyHistogram> entry :
+        new TreeMap<>(this.messageLatencies).entrySet()) {
+      entry.getValue().appendTo(output, "pgadapter_message_duration_seconds",
+          "type=\"" + entry.getKey() + "\"");
+    }
+    appendHeader(output, "pgadapter_backend_execute_duration_seconds", "histogram",
+        "Time for the backend to execute a statement or a batch of statements.");
+    this.executeLatency.appendTo(output, "pgadapter_backend_execute_duration_seconds", "");
+    appendHeader(output, "pgadapter_result_send_duration_seconds", "histogram",
+        "Time to fetch, encode and flush the rows of a result to the client.");
+    this.resultSendLatency.appendTo(output, "pgadapter_result_send_duration_seconds", "");
+    appendCounter(output, "pgadapter_rows_sent_total", "Rows sent to clients.",
+        this.rowsSent.sum());
+    appendCounter(output, "pgadapter_bytes_sent_total", "Bytes sent to clients.",
+        this.bytesSent.sum());
+    appendCounter(output, "pgadapter_cancel_requests_total", "Cancel requests received.",
+        this.cancelRequests.sum());
+    appendHeader(output, "pgadapter_errors_total", "counter",
+        "Errors sent to clients, by SQLSTATE.");
+    for (Map.Entry<String, LongAdder> entry : new TreeMap<>(this.errors).entrySet()) {
+      output.append("pgadapter_errors_total{sqlstate=\"").append(entry.getKey()).append("\"} ")
+          .append(entry.getValue().sum()).append('\n');
+    }
+  }
+
+  static void appendHeader(StringBuilder output, String name, String type, String help) {
+    output.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    output.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  static void appendCounter(StringBuilder output, String name, String help, long value) {
+    appendHeader(output, name, "counter", help);
+    output.append(name).append(' ').append(value).append('\n');
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.metrics;
+
+import com.google.cloud.spanner.pgadapter.utils.AsyncLogWriter;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Logs the statements that took the proxy longer than a threshold, with the time of each phase of
+ * the statement (see {@link StatementTimings}), so that it is clear whether the time went to the
+ * proxy, the backend or a slow client. The log is written by a background thread.
+ */
+public class SlowQueryLog {
+
+  // Statements are written here when no log file is given.
+  private static final Logger slowQueryLogger =
+      Logger.getLogger("com.google.cloud.spanner.pgadapter.slowquery");
+
+  private final long thresholdNanos;
+  private final AsyncLogWriter writer;
+
+  /**
+   * @param thresholdMillis Statements that take at least this many milliseconds are logged.
+   * @param file The file that the log is appended to, or null to write it to the
+   * com.google.cloud.spanner.pgadapter.slowquery logger.
+   * @param threadNamePrefix The prefix of the name of the background thread.
+   */
+  public SlowQueryLog(long thresholdMillis, String file, String threadNamePrefix) {
+    this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    this.writer = new AsyncLogWriter(file, slowQueryLogger, threadNamePrefix + "-slow-query-log");
+  }
+
+  public void start() {
+    this.writer.start();
+  }
+
+  public void close() {
+    this.writer.close();
+  }
+
+  /**
+   * Logs a finished statement if it took at least the threshold.
+   *
+   * @param connectionId The ID of the connection that executed the statement.
+   * @param sql The SQL string of the statement.
+   * @param timings The timings of the statement.
+   * @return True if the statement was slow.
+   */
+  public boolean record(int connectionId, String sql, StatementTimings timings) {
+    long totalNanos = timings.getTotalNanos();
+    if (totalNanos < this.thresholdNanos) {
+      return false;
+    }
+    this.writer.write(new SlowQuery(
+        System.currentTimeMillis(), connectionId, totalNanos, timings.toString(), sql));
+    return true;
+  }
+
+  /**
+   * @return The number of slow statements that were not logged because the buffer was full.
+   */
+  public long getDroppedRecords() {
+    return this.writer.getDroppedRecords();
+  }
+
+  private static final class SlowQuery {
+
+    private final long timestamp;
+    private final int connectionId;
+    private final long totalNanos;
+    private final String timings;
+    private final String sql;
+
+    private SlowQuery(long timestamp, int connectionId, long totalNanos, String timings,
+        String sql) {
+      this.timestamp = timestamp;
+      this.connectionId = connectionId;
+      this.totalNanos = totalNanos;
+      this.timings = timings;
+      this.sql = sql;
+    }
+
+    @Override
+    public String toString() {
+      return Instant.ofEpochMilli(this.timestamp) + " [" + this.connectionId + "] total="
+          + StatementTimings.toMillis(this.totalNanos) + " " + this.timings + " sql: " + this.sql;
+    }
+  }
+}
@@ -0,0 +1,193 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.metrics;
+
+import com.google.cloud.spanner.pgadapter.utils.SQLLexer;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of the statements that are executed on the backend, in the manner of the
+ * pg_stat_statements extension of PostgreSQL. Statements are grouped by their normalized SQL
+ * string, in which the constants are replaced by parameters (see {@link
+ * com.google.cloud.spanner.pgadapter.utils.LexedSQL#getNormalizedSql()}).
+ *
+ * The number of statements is bounded. When the table is full, the least frequently called
+ * statements are evicted to make room for new ones. Updates of the statistics of a statement do
+ * not take any locks; only eviction does.
+ */
+public class StatementStatistics {
+
+  // The fraction of the statements that is evicted at once, so that eviction, which has to look
+  // at all statements, does not happen for every new statement.
+  private static final double EVICTED_FRACTION = 0.05d;
+  private static final double PERCENTILE = 99d;
+
+  private final int maxSize;
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private final Object evictionLock = new Object();
+
+  /**
+   * @param maxSize The maximum number of distinct statements to keep statistics for.
+   */
+  public StatementStatistics(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Records the execution of a statement on the backend.
+   *
+   * @param sql The SQL string that was executed.
+   * @param nanos The time it took the backend to execute the statement.
+   * @param rows The number of rows that the statement changed, or 0 for a query, whose rows are
+   * counted when they are sent.
+   * @return The statistics of the statement, to which the sending of its result is added.
+   */
+  public Entry recordExecute(String sql, long nanos, long rows) {
+    String query = SQLLexer.lex(sql).getNormalizedSql();
+    Entry entry = this.entries.get(query);
+    if (entry == null) {
+      if (this.entries.size() >= this.maxSize) {
+        evict();
+      }
+      entry = this.entries.computeIfAbsent(query, Entry::new);
+    }
+    entry.recordExecute(nanos, rows);
+    return entry;
+  }
+
+  /**
+   * Evicts the least frequently called statements. Statements that are added concurrently may
+   * make the table exceed its maximum size by a few statements until the next eviction.
+   */
+  private void evict() {
+    synchronized (this.evictionLock) {
+      if (this.entries.size() < this.maxSize) {
+        return;
+      }
+      List<Entry> candidates = new ArrayList<>(this.entries.values());
+      candidates.sort(Comparator.comparingLong(entry -> entry.calls.sum()));
+      int count = Math.max((int) (this.maxSize * EVICTED_FRACTION), 1);
+      for (Entry entry : candidates.subList(0, Math.min(count, candidates.size()))) {
+        this.entries.remove(entry.query, entry);
+      }
+    }
+  }
+
+  /**
+   * Discards the statistics of all statements.
+   */
+  public void reset() {
+    this.entries.clear();
+  }
+
+  public int size() {
+    return this.entries.size();
+  }
+
+  /**
+   * @return One row per statement with the columns of the emulated pg_stat_statements view:
+   * queryid, query, calls, total_exec_time, min_exec_time, max_exec_time, mean_exec_time,
+   * p99_exec_time, rows, bytes_sent and total_send_time. Times are in milliseconds.
+   */
+  public List<Object[]> getRows() {
+    List<Object[]> rows = new ArrayList<>(this.entries.size());
+    for (Entry entry : this.entries.values()) {
+      rows.add(entry.toRow());
+    }
+    return rows;
+  }
+
+  /**
+   * The statistics of one normalized statement.
+   */
+  public static final class Entry {
+
+    private final String query;
+    private final long queryId;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong minNanos = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder sendNanos = new LongAdder();
+
+    private Entry(String query) {
+      this.query = query;
+      this.queryId = Hashing.farmHashFingerprint64()
+          .hashString(query, StandardCharsets.UTF_8).asLong();
+    }
+
+    private void recordExecute(long nanos, long rows) {
+      this.calls.increment();
+      this.totalNanos.add(nanos);
+      this.minNanos.accumulateAndGet(nanos, Math::min);
+      this.maxNanos.accumulateAndGet(nanos, Math::max);
+      this.latency.record(nanos);
+      this.rows.add(rows);
+    }
+
+    /**
+     * Records that (a part of) the result of the statement was sent to the client.
+     *
+     * @param nanos The time it took to fetch, encode and send the rows.
+     * @param rows The number of rows that were sent.
+     * @param bytes The number of bytes that were sent.
+     */
+    public void recordResultSent(long nanos, long rows, long bytes) {
+      this.sendNanos.add(nanos);
+      this.rows.add(rows);
+      this.bytesSent.add(bytes);
+    }
+
+    private Object[] toRow() {
+      long calls = this.calls.sum();
+      long totalNanos = this.totalNanos.sum();
+      long maxNanos = this.maxNanos.get();
+      // The percentile is the upper bound of a bucket, which may be higher than the slowest call.
+      long percentileMicros = this.latency.getPercentileMicros(PERCENTILE);
+      long percentileNanos = percentileMicros == Long.MAX_VALUE
+          ? maxNanos
+          : Math.min(TimeUnit.MICROSECONDS.toNanos(percentileMicros), maxNanos);
+      return new Object[]{
+          this.queryId,
+          this.query,
+          calls,
+          toMillis(totalNanos),
+          toMillis(calls == 0 ? 0L : this.minNanos.get()),
+          toMillis(maxNanos),
+          toMillis(calls == 0 ? 0L : totalNanos / calls),
+          toMillis(percentileNanos),
+          this.rows.sum(),
+          this.bytesSent.sum(),
+          toMillis(this.sendNanos.sum())
+      };
+    }
+
+    private static double toMillis(long nanos) {
+      return nanos / 1_000_000d;
+    }
+  }
+}
@@ -0,0 +1,134 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.metrics;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+
+/**
+ * The time that one statement spent in each phase of its lifecycle, measured with
+ * System.nanoTime(). The phases do not overlap, so their sum is the time that the proxy spent on
+ * the statement. A statement is only handled by one thread at a time, so this class is not
+ * thread-safe.
+ */
+public final class StatementTimings {
+
+  public enum Phase {
+    /** Lexing and rewriting the SQL string in the proxy. */
+    PARSE,
+    /** Creating the JDBC statement of a portal, or taking it from the statement cache. */
+    PREPARE,
+    /** Converting the parameter values of a portal and setting them on the JDBC statement. */
+    BIND,
+    /** Executing the statement on the backend, up to its first row. */
+    EXECUTE,
+    /** Fetching the first row of a query from the backend. */
+    FIRST_ROW,
+    /** Fetching the rows after the first row from the backend. */
+    FETCH,
+    /** Encoding the rows into data row messages. */
+    ENCODE,
+    /** Being blocked writing to the client socket, such as when the client reads slowly. */
+    CLIENT_WRITE;
+
+    private final String label = name().toLowerCase(Locale.ROOT);
+  }
+
+  private static final Phase[] PHASES = Phase.values();
+
+  private final long[] nanos = new long[PHASES.length];
+  private long rows;
+  private long bytes;
+  private boolean finished;
+
+  public void add(Phase phase, long nanos) {
+    this.nanos[phase.ordinal()] += nanos;
+  }
+
+  public long getNanos(Phase phase) {
+    return this.nanos[phase.ordinal()];
+  }
+
+  /**
+   * Removes the time of a phase, so that it can be moved to another statement.
+   *
+   * @return The time that was removed.
+   */
+  public long remove(Phase phase) {
+    long nanos = this.nanos[phase.ordinal()];
+    this.nanos[phase.ordinal()] = 0L;
+    return nanos;
+  }
+
+  /**
+   * @return The sum of the times of all phases.
+   */
+  public long getTotalNanos() {
+    long total = 0L;
+    for (long phaseNanos : this.nanos) {
+      total += phaseNanos;
+    }
+    return total;
+  }
+
+  public void addRows(long rows) {
+    this.rows += rows;
+  }
+
+  public long getRows() {
+    return this.rows;
+  }
+
+  public void addBytes(long bytes) {
+    this.bytes += bytes;
+  }
+
+  public long getBytes() {
+    return this.bytes;
+  }
+
+  /**
+   * Marks the statement as finished.
+   *
+   * @return False if it was already finished, such as when a client executes a portal again after
+   * it has sent all its rows.
+   */
+  public boolean finish() {
+    if (this.finished) {
+      return false;
+    }
+    this.finished = true;
+    return true;
+  }
+
+  /**
+   * @return The time of each phase in milliseconds, followed by the row and byte counts, such as
+   * "parse=0.012 prepare=0.003 ... rows=10 bytes=1234".
+   */
+  @Override
+  public String toString() {
+    StringBuilder output = new StringBuilder();
+    for (Phase phase : PHASES) {
+      output.append(phase.label).append('=')
+          .append(toMillis(this.nanos[phase.ordinal()])).append(' ');
+    }
+    return output.append("rows=").append(this.rows)
+        .append(" bytes=").append(this.bytes).toString();
+  }
+
+  static String toMillis(long nanos) {
+    return BigDecimal.valueOf(nanos / 1000L, 3).toPlainString();
+  }
+}
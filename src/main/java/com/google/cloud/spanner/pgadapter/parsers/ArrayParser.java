@@ -110,15 +110,23 @@ public class ArrayParser extends Parser<List> {
         );
   }
 
+  /**
+   * Encodes the array in the binary PostgreSQL array format: the number of dimensions, whether the
+   * array contains nulls and the element type, followed by the length and lower bound of the
+   * (single) dimension and the length-prefixed elements.
+   */
   @Override
   protected byte[] binaryParse() {
     ByteArrayOutputStream arrayStream = new ByteArrayOutputStream();
     try {
-      arrayStream.write(toBinary(1, Types.INTEGER));   // dimension
-      arrayStream.write(toBinary(1, Types.INTEGER));   // Set null flag
-      arrayStream.write(toBinary(this.arrayType, Types.INTEGER));    // Set type
-      arrayStream.write(toBinary(this.item.size(), Types.INTEGER));  // Set array length
-      arrayStream.write(toBinary(0, Types.INTEGER));  // Lower bound (?)
+      boolean empty = this.item.isEmpty();
+      arrayStream.write(toBinary(empty ? 0 : 1, Types.INTEGER));   // dimension
+      arrayStream.write(toBinary(this.item.contains(null) ? 1 : 0, Types.INTEGER));  // null flag
+      arrayStream.write(toBinary(toOid(this.arrayType), Types.INTEGER));    // element type
+      if (!empty) {
+        arrayStream.write(toBinary(this.item.size(), Types.INTEGER));  // array length
+        arrayStream.write(toBinary(1, Types.INTEGER));  // lower bound
+      }
       for (Object currentItem : this.item) {
         if (currentItem == null) {
           arrayStream.write(toBinary(-1, Types.INTEGER));
@@ -14,6 +14,7 @@
 
 package com.google.cloud.spanner.pgadapter.parsers;
 
+import com.google.cloud.spanner.pgadapter.ProxyServer.DataFormat;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import org.postgresql.util.PGbytea;
@@ -32,6 +33,18 @@ public class BinaryParser extends Parser<byte[]> {
     this.item = (byte[]) item;
   }
 
+  public BinaryParser(byte[] item, DataFormat format) {
+    if (format == DataFormat.POSTGRESQL_BINARY) {
+      this.item = item;
+    } else {
+      try {
+        this.item = PGbytea.toBytes(item);
+      } catch (SQLException e) {
+        throw new IllegalArgumentException("Invalid input syntax for type bytea", e);
+      }
+    }
+  }
+
   @Override
   protected String stringParse() {
     return PGbytea.toPGString(this.item);
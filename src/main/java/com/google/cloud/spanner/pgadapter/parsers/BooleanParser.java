@@ -14,8 +14,11 @@
 
 package com.google.cloud.spanner.pgadapter.parsers;
 
+import com.google.cloud.spanner.pgadapter.ProxyServer.DataFormat;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Locale;
 
 /**
  * Parse specified data to boolean. For most cases it is simply translating from chars 't'/'f' to
@@ -34,6 +37,35 @@ public class BooleanParser extends Parser<Boolean> {
     this.item = (Boolean) item;
   }
 
+  public BooleanParser(byte[] item, DataFormat format) {
+    if (format == DataFormat.POSTGRESQL_BINARY) {
+      if (item.length != 1) {
+        throw new IllegalArgumentException("Invalid length for binary boolean: " + item.length);
+      }
+      this.item = item[0] != 0;
+    } else {
+      this.item = parseText(new String(item, UTF8).trim().toLowerCase(Locale.ENGLISH));
+    }
+  }
+
+  /**
+   * Accepts the same boolean literals as PostgreSQL: true, yes, on, 1 and their opposites, where
+   * the words may be abbreviated as long as they are unambiguous.
+   */
+  private static boolean parseText(String value) {
+    if (!value.isEmpty()) {
+      if ("true".startsWith(value) || "yes".startsWith(value) || "on".equals(value)
+          || "1".equals(value)) {
+        return true;
+      }
+      if ("false".startsWith(value) || "no".startsWith(value) || ("off".startsWith(value)
+          && value.length() > 1) || "0".equals(value)) {
+        return false;
+      }
+    }
+    throw new IllegalArgumentException("Invalid input syntax for type boolean: " + value);
+  }
+
   @Override
   public Boolean getItem() {
     return this.item;
@@ -48,5 +80,10 @@ public class BooleanParser extends Parser<Boolean> {
   protected String spannerParse() {
     return Boolean.toString(this.item);
   }
+
+  @Override
+  protected byte[] binaryParse() {
+    return toBinary(this.item, Types.BOOLEAN);
+  }
 }
 
@@ -0,0 +1,438 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.parsers;
+
+import com.google.cloud.spanner.pgadapter.ProxyServer.DataFormat;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.TimeZone;
+import org.postgresql.util.PGbytea;
+
+/**
+ * Encodes the values of one result set column into the wire format. Where a {@link Parser} is
+ * created for every single value, a column encoder is stateless: one is chosen per column when a
+ * result set is sent, and then reads each value with the typed getter of the {@link ResultSet} and
+ * writes it straight into the {@link RowBuffer} of the row.
+ *
+ * The encoded values are the same as those of the corresponding {@link Parser} subclass. Numbers,
+ * dates and timestamps are written as text directly from their primitive values, without creating
+ * an intermediate {@link String} for every value.
+ */
+public abstract class ColumnEncoder {
+
+  private static final long MILLIS_PER_DAY = 86400000L;
+  private static final long SECONDS_PER_DAY = 86400L;
+  /** Days from 0000-03-01 to 1970-01-01, see {@link java.time.LocalDate#ofEpochDay(long)}. */
+  private static final long DAYS_0000_TO_1970 = 719468L;
+  private static final int DAYS_PER_CYCLE = 146097;
+  /** java.util.Date uses the Julian calendar before 1582-10-15. */
+  private static final long GREGORIAN_CUTOVER_MILLIS = -12219292800000L;
+  private static final long MAX_TEXT_DATE_MILLIS = 253402300800000L; // 10000-01-01
+  private static final double MIN_PLAIN_DOUBLE = 1e-3;
+  private static final double MAX_PLAIN_DOUBLE = 1e7;
+  private static final int MAX_FRACTION_DIGITS = 8;
+  private static final double[] POWERS_OF_TEN =
+      {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8};
+
+  /**
+   * Factory method for the encoder of a column.
+   *
+   * @param jdbcType The {@link Types} constant of the column.
+   * @param format The format that the column must be sent in.
+   * @return The encoder for the column.
+   */
+  public static ColumnEncoder create(int jdbcType, DataFormat format) {
+    switch (jdbcType) {
+      case Types.BOOLEAN:
+        return new BooleanEncoder(format);
+      case Types.BINARY:
+        return new BytesEncoder(format);
+      case Types.DATE:
+        return new DateEncoder(format);
+      case Types.DOUBLE:
+        return new DoubleEncoder(format);
+      case Types.BIGINT:
+        return new LongEncoder(format);
+      case Types.NVARCHAR:
+      case Types.VARCHAR:
+        return new StringEncoder();
+      case Types.TIMESTAMP:
+        return new TimestampEncoder(format);
+      case Types.ARRAY:
+        return new ArrayEncoder(format);
+      case Types.NUMERIC:
+        return new NumericEncoder(format);
+      default:
+        // Unknown types are only rejected once a value that is not null has to be sent.
+        return new UnsupportedEncoder(jdbcType);
+    }
+  }
+
+  /**
+   * Writes the value of the column in the current row of the result set, preceded by its length,
+   * to the buffer. A null value is written as length -1 without a value.
+   *
+   * @param resultSet The result set, positioned on the row to encode.
+   * @param column The index of the column, starting at 1.
+   * @param buffer The buffer of the row.
+   * @throws SQLException if the value could not be read from the result set.
+   */
+  public abstract void encode(ResultSet resultSet, int column, RowBuffer buffer)
+      throws SQLException;
+
+  protected static void writeString(String value, RowBuffer buffer) {
+    int position = buffer.beginValue();
+    buffer.writeUtf8(value);
+    buffer.endValue(position);
+  }
+
+  /**
+   * Writes a double in the same notation as {@link Double#toString(double)}. Values with up to
+   * {@value #MAX_FRACTION_DIGITS} fraction digits in plain notation, which covers most stored
+   * values, are written digit by digit, using the shortest fraction that parses back to the same
+   * double. Other values fall back to {@link Double#toString(double)}.
+   */
+  static void writeDouble(double value, RowBuffer buffer) {
+    double magnitude = Math.abs(value);
+    if (magnitude >= MIN_PLAIN_DOUBLE && magnitude < MAX_PLAIN_DOUBLE) {
+      for (int digits = 1; digits <= MAX_FRACTION_DIGITS; digits++) {
+        double scale = POWERS_OF_TEN[digits];
+        long scaled = Math.round(magnitude * scale);
+        // Both operands are exact, so the division rounds exactly like parsing the text would.
+        if (scaled / scale == magnitude) {
+          long unit = (long) scale;
+          if (value < 0) {
+            buffer.writeByte('-');
+          }
+          buffer.writeDecimal(scaled / unit);
+          buffer.writeByte('.');
+          long fraction = scaled % unit;
+          if (fraction == 0) {
+            buffer.writeByte('0');
+          } else {
+            while (fraction % 10 == 0) {
+              fraction /= 10;
+              digits--;
+            }
+            buffer.writeDigits(fraction, digits);
+          }
+          return;
+        }
+      }
+    }
+    buffer.writeUtf8(Double.toString(value));
+  }
+
+  /**
+   * Writes the date of the given local time as yyyy-MM-dd, computed like {@link
+   * java.time.LocalDate#ofEpochDay(long)} does.
+   *
+   * @param localMillis Milliseconds since the epoch in the local time zone.
+   */
+  static void writeLocalDate(long localMillis, RowBuffer buffer) {
+    long zeroDay = Math.floorDiv(localMillis, MILLIS_PER_DAY) + DAYS_0000_TO_1970;
+    long era = Math.floorDiv(zeroDay, DAYS_PER_CYCLE);
+    long dayOfEra = zeroDay - era * DAYS_PER_CYCLE;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long monthIndex = (5 * dayOfYear + 2) / 153;
+    long day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+    long month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+    buffer.writeDigits(year, 4);
+    buffer.writeByte('-');
+    buffer.writeDigits(month, 2);
+    buffer.writeByte('-');
+    buffer.writeDigits(day, 2);
+  }
+
+  /**
+   * @return Whether {@link #writeLocalDate(long, RowBuffer)} gives the same text as {@link
+   * java.util.Date} would for the given local time.
+   */
+  static boolean isTextDate(long localMillis) {
+    return localMillis >= GREGORIAN_CUTOVER_MILLIS && localMillis < MAX_TEXT_DATE_MILLIS;
+  }
+
+  private static final class BooleanEncoder extends ColumnEncoder {
+
+    private static final byte[] BINARY_TRUE = {1};
+    private static final byte[] BINARY_FALSE = {0};
+
+    private final byte[] trueValue;
+    private final byte[] falseValue;
+
+    BooleanEncoder(DataFormat format) {
+      if (format == DataFormat.POSTGRESQL_BINARY) {
+        this.trueValue = BINARY_TRUE;
+        this.falseValue = BINARY_FALSE;
+      } else {
+        boolean spanner = format == DataFormat.SPANNER;
+        this.trueValue = (spanner ? "true" : "t").getBytes(Parser.UTF8);
+        this.falseValue = (spanner ? "false" : "f").getBytes(Parser.UTF8);
+      }
+    }
+
+    @Override
+    public void encode(ResultSet resultSet, int column, RowBuffer buffer) throws SQLException {
+      boolean value = resultSet.getBoolean(column);
+      if (resultSet.wasNull()) {
+        buffer.writeNull();
+      } else {
+        buffer.writeValue(value ? this.trueValue : this.falseValue);
+      }
+    }
+  }
+
+  private static final class BytesEncoder extends ColumnEncoder {
+
+    private final boolean text;
+
+    BytesEncoder(DataFormat format) {
+      this.text = format == DataFormat.POSTGRESQL_TEXT;
+    }
+
+    @Override
+    public void encode(ResultSet resultSet, int column, RowBuffer buffer) throws SQLException {
+      byte[] value = resultSet.getBytes(column);
+      if (value == null) {
+        buffer.writeNull();
+      } else if (this.text) {
+        writeString(PGbytea.toPGString(value), buffer);
+      } else {
+        buffer.writeValue(value);
+      }
+    }
+  }
+
+  private static final class DateEncoder extends ColumnEncoder {
+
+    private final boolean binary;
+    private final TimeZone timeZone = TimeZone.getDefault();
+
+    DateEncoder(DataFormat format) {
+      this.binary = format == DataFormat.POSTGRESQL_BINARY;
+    }
+
+    @Override
+    public void encode(ResultSet resultSet, int column, RowBuffer buffer) throws SQLException {
+      Date value = resultSet.getDate(column);
+      if (value == null) {
+        buffer.writeNull();
+      } else if (this.binary) {
+        long days = value.toLocalDate().toEpochDay() - Parser.PG_EPOCH_DAYS;
+        if (days > Integer.MAX_VALUE) {
+          throw new IllegalArgumentException("Date is out of range, epoch day=" + days);
+        }
+        buffer.writeInt(4);
+        buffer.writeInt((int) days);
+      } else {
+        // Like Date#toString, the date is given in the default time zone.
+        long localMillis = value.getTime() + this.timeZone.getOffset(value.getTime());
+        if (isTextDate(localMillis)) {
+          int position = buffer.beginValue();
+          writeLocalDate(localMillis, buffer);
+          buffer.endValue(position);
+        } else {
+          writeString(value.toString(), buffer);
+        }
+      }
+    }
+  }
+
+  private static final class DoubleEncoder extends ColumnEncoder {
+
+    private final boolean binary;
+
+    DoubleEncoder(DataFormat format) {
+      this.binary = format == DataFormat.POSTGRESQL_BINARY;
+    }
+
+    @Override
+    public void encode(ResultSet resultSet, int column, RowBuffer buffer) throws SQLException {
+      double value = resultSet.getDouble(column);
+      if (resultSet.wasNull()) {
+        buffer.writeNull();
+      } else if (this.binary) {
+        buffer.writeInt(8);
+        buffer.writeLong(Double.doubleToRawLongBits(value));
+      } else {
+        int position = buffer.beginValue();
+        writeDouble(value, buffer);
+        buffer.endValue(position);
+      }
+    }
+  }
+
+  private static final class LongEncoder extends ColumnEncoder {
+
+    private final boolean binary;
+
+    LongEncoder(DataFormat format) {
+      this.binary = format == DataFormat.POSTGRESQL_BINARY;
+    }
+
+    @Override
+    public void encode(ResultSet resultSet, int column, RowBuffer buffer) throws SQLException {
+      long value = resultSet.getLong(column);
+      if (resultSet.wasNull()) {
+        buffer.writeNull();
+      } else if (this.binary) {
+        buffer.writeInt(8);
+        buffer.writeLong(value);
+      } else {
+        int position = buffer.beginValue();
+        buffer.writeDecimal(value);
+        buffer.endValue(position);
+      }
+    }
+  }
+
+  private static final class StringEncoder extends ColumnEncoder {
+
+    @Override
+    public void encode(ResultSet resultSet, int column, RowBuffer buffer) throws SQLException {
+      String value = resultSet.getString(column);
+      if (value == null) {
+        buffer.writeNull();
+      } else {
+        writeString(value, buffer);
+      }
+    }
+  }
+
+  private static final class TimestampEncoder extends ColumnEncoder {
+
+    private final boolean binary;
+    private final TimeZone timeZone = TimeZone.getDefault();
+
+    TimestampEncoder(DataFormat format) {
+      this.binary = format == DataFormat.POSTGRESQL_BINARY;
+    }
+
+    @Override
+    public void encode(ResultSet resultSet, int column, RowBuffer buffer) throws SQLException {
+      Timestamp value = resultSet.getTimestamp(column);
+      if (value == null) {
+        buffer.writeNull();
+      } else if (this.binary) {
+        buffer.writeInt(8);
+        buffer.writeLong(TimestampParser.toPGMicros(value));
+      } else {
+        // Like Timestamp#toString, the time is given in the default time zone.
+        long localMillis = value.getTime() + this.timeZone.getOffset(value.getTime());
+        if (isTextDate(localMillis)) {
+          int position = buffer.beginValue();
+          writeLocalTimestamp(localMillis, value.getNanos(), buffer);
+          buffer.endValue(position);
+        } else {
+          writeString(value.toString(), buffer);
+        }
+      }
+    }
+
+    /**
+     * Writes yyyy-MM-dd HH:mm:ss.f, where the fraction has at least one and at most nine digits
+     * and no trailing zeros, the same as {@link Timestamp#toString()}.
+     */
+    private static void writeLocalTimestamp(long localMillis, int nanos, RowBuffer buffer) {
+      writeLocalDate(localMillis, buffer);
+      long secondOfDay = Math.floorMod(Math.floorDiv(localMillis, 1000L), SECONDS_PER_DAY);
+      buffer.writeByte(' ');
+      buffer.writeDigits(secondOfDay / 3600, 2);
+      buffer.writeByte(':');
+      buffer.writeDigits(secondOfDay / 60 % 60, 2);
+      buffer.writeByte(':');
+      buffer.writeDigits(secondOfDay % 60, 2);
+      buffer.writeByte('.');
+      if (nanos == 0) {
+        buffer.writeByte('0');
+      } else {
+        int digits = 9;
+        while (nanos % 10 == 0) {
+          nanos /= 10;
+          digits--;
+        }
+        buffer.writeDigits(nanos, digits);
+      }
+    }
+  }
+
+  private static final class NumericEncoder extends ColumnEncoder {
+
+    private final boolean binary;
+
+    NumericEncoder(DataFormat format) {
+      this.binary = format == DataFormat.POSTGRESQL_BINARY;
+    }
+
+    @Override
+    public void encode(ResultSet resultSet, int column, RowBuffer buffer) throws SQLException {
+      BigDecimal value = resultSet.getBigDecimal(column);
+      if (value == null) {
+        buffer.writeNull();
+      } else if (this.binary) {
+        buffer.writeValue(NumericParser.toBinaryNumeric(value));
+      } else {
+        writeString(value.toString(), buffer);
+      }
+    }
+  }
+
+  /**
+   * Arrays are rare and hold values of any other type, so they are still encoded by an {@link
+   * ArrayParser}.
+   */
+  private static final class ArrayEncoder extends ColumnEncoder {
+
+    private final DataFormat format;
+
+    ArrayEncoder(DataFormat format) {
+      this.format = format;
+    }
+
+    @Override
+    public void encode(ResultSet resultSet, int column, RowBuffer buffer) throws SQLException {
+      if (resultSet.getArray(column) == null) {
+        buffer.writeNull();
+      } else {
+        buffer.writeValue(new ArrayParser(resultSet, column).parse(this.format));
+      }
+    }
+  }
+
+  private static final class UnsupportedEncoder extends ColumnEncoder {
+
+    private final int jdbcType;
+
+    UnsupportedEncoder(int jdbcType) {
+      this.jdbcType = jdbcType;
+    }
+
+    @Override
+    public void encode(ResultSet resultSet, int column, RowBuffer buffer) throws SQLException {
+      if (resultSet.getObject(column) == null) {
+        buffer.writeNull();
+      } else {
+        throw new IllegalArgumentException(
+            "Illegal or unknown element oidType: [2] " + this.jdbcType);
+      }
+    }
+  }
+}
@@ -14,6 +14,7 @@
 
 package com.google.cloud.spanner.pgadapter.parsers;
 
+import com.google.cloud.spanner.pgadapter.ProxyServer.DataFormat;
 import com.google.common.base.Preconditions;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -28,6 +29,8 @@ import org.postgresql.util.ByteConverter;
  */
 public class DateParser extends Parser<java.sql.Date> {
 
+  private static final int ISO_DATE_LENGTH = 10;
+
   public DateParser(ResultSet item, int position) throws SQLException {
     this.item = item.getDate(position);
   }
@@ -37,9 +40,49 @@ public class DateParser extends Parser<java.sql.Date> {
   }
 
   public DateParser(byte[] item) {
-    long days = ByteConverter.int4(item, 0) + PG_EPOCH_DAYS;
-    this.validateRange(days);
-    this.item = java.sql.Date.valueOf(LocalDate.ofEpochDay(days));
+    this(item, DataFormat.POSTGRESQL_BINARY);
+  }
+
+  public DateParser(byte[] item, DataFormat format) {
+    if (format == DataFormat.POSTGRESQL_BINARY) {
+      long days = ByteConverter.int4(item, 0) + PG_EPOCH_DAYS;
+      this.validateRange(days);
+      this.item = java.sql.Date.valueOf(LocalDate.ofEpochDay(days));
+    } else {
+      this.item = parseText(item);
+    }
+  }
+
+  /**
+   * Parses a date in ISO format (yyyy-mm-dd) directly from the bytes. Other formats are left to
+   * {@link java.sql.Date#valueOf(String)}.
+   */
+  private static java.sql.Date parseText(byte[] item) {
+    if (item.length == ISO_DATE_LENGTH && item[4] == '-' && item[7] == '-') {
+      int year = parseDigits(item, 0, 4);
+      int month = parseDigits(item, 5, 7);
+      int day = parseDigits(item, 8, 10);
+      if (year >= 0 && month >= 0 && day >= 0) {
+        return java.sql.Date.valueOf(LocalDate.of(year, month, day));
+      }
+    }
+    return java.sql.Date.valueOf(new String(item, UTF8).trim());
+  }
+
+  /**
+   * @return The number in the given range of the bytes, or -1 if the range contains anything else
+   * than digits.
+   */
+  private static int parseDigits(byte[] item, int from, int to) {
+    int value = 0;
+    for (int index = from; index < to; index++) {
+      int digit = item[index] - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      value = value * 10 + digit;
+    }
+    return value;
   }
 
   /**
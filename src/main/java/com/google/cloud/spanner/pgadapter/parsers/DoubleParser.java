@@ -14,9 +14,11 @@
 
 package com.google.cloud.spanner.pgadapter.parsers;
 
+import com.google.cloud.spanner.pgadapter.ProxyServer.DataFormat;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import org.postgresql.util.ByteConverter;
 
 /**
  * Translate from wire protocol to double.
@@ -32,7 +34,27 @@ public class DoubleParser extends Parser<Double> {
   }
 
   public DoubleParser(byte[] item) {
-    this.item = Double.valueOf(new String(item));
+    this(item, DataFormat.POSTGRESQL_TEXT);
+  }
+
+  /**
+   * Decodes a float4 or float8 value. The width of a binary value is given by its length.
+   */
+  public DoubleParser(byte[] item, DataFormat format) {
+    if (format == DataFormat.POSTGRESQL_BINARY) {
+      switch (item.length) {
+        case 4:
+          this.item = (double) ByteConverter.float4(item, 0);
+          break;
+        case 8:
+          this.item = ByteConverter.float8(item, 0);
+          break;
+        default:
+          throw new IllegalArgumentException("Invalid length for binary float: " + item.length);
+      }
+    } else {
+      this.item = Double.valueOf(new String(item, UTF8));
+    }
   }
 
   @Override
@@ -14,15 +14,19 @@
 
 package com.google.cloud.spanner.pgadapter.parsers;
 
+import com.google.cloud.spanner.pgadapter.ProxyServer.DataFormat;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import org.postgresql.util.ByteConverter;
 
 /**
  * Translate from wire protocol to long.
  */
 public class LongParser extends Parser<Long> {
 
+  private static final int MAX_FAST_DIGITS = 18;
+
   public LongParser(ResultSet item, int position) throws SQLException {
     this.item = item.getLong(position);
   }
@@ -32,7 +36,55 @@ public class LongParser extends Parser<Long> {
   }
 
   public LongParser(byte[] item) {
-    this.item = Long.valueOf(new String(item));
+    this(item, DataFormat.POSTGRESQL_TEXT);
+  }
+
+  /**
+   * Decodes an int2, int4 or int8 value. The width of a binary value is given by its length.
+   */
+  public LongParser(byte[] item, DataFormat format) {
+    if (format == DataFormat.POSTGRESQL_BINARY) {
+      switch (item.length) {
+        case 2:
+          this.item = (long) ByteConverter.int2(item, 0);
+          break;
+        case 4:
+          this.item = (long) ByteConverter.int4(item, 0);
+          break;
+        case 8:
+          this.item = ByteConverter.int8(item, 0);
+          break;
+        default:
+          throw new IllegalArgumentException("Invalid length for binary integer: " + item.length);
+      }
+    } else {
+      this.item = parseDecimal(item);
+    }
+  }
+
+  /**
+   * Parses decimal text directly from the bytes. Anything other than an optional sign followed by
+   * up to 18 digits is left to {@link Long#valueOf(String)}, which also reports invalid input.
+   */
+  private static long parseDecimal(byte[] item) {
+    int index = 0;
+    boolean negative = false;
+    if (item.length > 0 && (item[0] == '-' || item[0] == '+')) {
+      negative = item[0] == '-';
+      index++;
+    }
+    if (index == item.length || item.length - index > MAX_FAST_DIGITS) {
+      return Long.valueOf(new String(item, UTF8));
+    }
+    long value = 0;
+    for (; index < item.length; index++) {
+      int digit = item[index] - '0';
+      if (digit < 0 || digit > 9) {
+        return Long.valueOf(new String(item, UTF8));
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
   }
 
   @Override
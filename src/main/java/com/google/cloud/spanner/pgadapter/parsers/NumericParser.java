@@ -14,17 +14,25 @@
 
 package com.google.cloud.spanner.pgadapter.parsers;
 
+import com.google.cloud.spanner.pgadapter.ProxyServer.DataFormat;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.math.RoundingMode;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import org.postgresql.util.ByteConverter;
 
 /**
  * Translate from wire protocol to numeric.
  */
 public class NumericParser extends Parser<BigDecimal> {
 
+  private static final int NBASE = 10000;
+  private static final int NBASE_DIGITS = 4;
+  private static final int NUMERIC_POS = 0x0000;
+  private static final int NUMERIC_NEG = 0x4000;
+
   public NumericParser(ResultSet item, int position) throws SQLException {
     this.item = item.getBigDecimal(position);
   }
@@ -34,7 +42,39 @@ public class NumericParser extends Parser<BigDecimal> {
   }
 
   public NumericParser(byte[] item) {
-    this.item = new BigDecimal(new String(item));
+    this(item, DataFormat.POSTGRESQL_TEXT);
+  }
+
+  public NumericParser(byte[] item, DataFormat format) {
+    if (format == DataFormat.POSTGRESQL_BINARY) {
+      this.item = fromBinaryNumeric(item);
+    } else {
+      this.item = new BigDecimal(new String(item, UTF8).trim());
+    }
+  }
+
+  /**
+   * Converts the binary PostgreSQL numeric representation to a {@link BigDecimal}. This is the
+   * inverse of {@link #toBinaryNumeric(BigDecimal)}.
+   */
+  private static BigDecimal fromBinaryNumeric(byte[] item) {
+    int count = ByteConverter.int2(item, 0);
+    int weight = ByteConverter.int2(item, 2);
+    int sign = ByteConverter.int2(item, 4) & 0xffff;
+    int scale = ByteConverter.int2(item, 6);
+    if (sign != NUMERIC_POS && sign != NUMERIC_NEG) {
+      throw new IllegalArgumentException("NaN is not a supported numeric value");
+    }
+    BigInteger unscaled = BigInteger.ZERO;
+    BigInteger base = BigInteger.valueOf(NBASE);
+    for (int index = 0; index < count; index++) {
+      unscaled = unscaled.multiply(base)
+          .add(BigInteger.valueOf(ByteConverter.int2(item, 8 + 2 * index)));
+    }
+    // The last digit has weight (weight - count + 1); digits beyond the display scale are zero.
+    BigDecimal value = new BigDecimal(unscaled, NBASE_DIGITS * (count - 1 - weight))
+        .setScale(scale, RoundingMode.DOWN);
+    return sign == NUMERIC_NEG ? value.negate() : value;
   }
 
   @Override
@@ -47,4 +87,72 @@ public class NumericParser extends Parser<BigDecimal> {
     return this.item.toString();
   }
 
+  @Override
+  protected byte[] binaryParse() {
+    return toBinaryNumeric(this.item);
+  }
+
+  /**
+   * Converts a {@link BigDecimal} to the binary PostgreSQL numeric representation: the number of
+   * digits, the weight of the first digit, the sign and the display scale, followed by the digits
+   * in base {@value #NBASE}, all as 16 bit integers. Leading and trailing zero digits are left out.
+   *
+   * @param value The value to convert.
+   * @return The binary representation of the value.
+   */
+  public static byte[] toBinaryNumeric(BigDecimal value) {
+    if (value.scale() < 0) {
+      value = value.setScale(0);
+    }
+    int scale = value.scale();
+    String digits = value.unscaledValue().abs().toString();
+    int integerLength = digits.length() - scale;
+    StringBuilder padded = new StringBuilder();
+    if (integerLength <= 0) {
+      appendZeros(padded, -integerLength);
+      integerLength = 0;
+    } else {
+      appendZeros(padded, (NBASE_DIGITS - integerLength % NBASE_DIGITS) % NBASE_DIGITS);
+      integerLength = padded.length() + integerLength;
+    }
+    padded.append(digits);
+    appendZeros(padded, (NBASE_DIGITS - padded.length() % NBASE_DIGITS) % NBASE_DIGITS);
+
+    int first = 0;
+    int last = padded.length() / NBASE_DIGITS - 1;
+    int weight = integerLength / NBASE_DIGITS - 1;
+    while (first <= last && digit(padded, first) == 0) {
+      first++;
+      weight--;
+    }
+    while (last >= first && digit(padded, last) == 0) {
+      last--;
+    }
+    int count = last - first + 1;
+    if (count == 0) {
+      weight = 0;
+    }
+
+    byte[] result = new byte[8 + 2 * count];
+    ByteConverter.int2(result, 0, count);
+    ByteConverter.int2(result, 2, weight);
+    ByteConverter.int2(result, 4, value.signum() < 0 ? NUMERIC_NEG : NUMERIC_POS);
+    ByteConverter.int2(result, 6, scale);
+    for (int index = 0; index < count; index++) {
+      ByteConverter.int2(result, 8 + 2 * index, digit(padded, first + index));
+    }
+    return result;
+  }
+
+  private static void appendZeros(StringBuilder builder, int count) {
+    for (int index = 0; index < count; index++) {
+      builder.append('0');
+    }
+  }
+
+  private static int digit(CharSequence digits, int index) {
+    return Integer.parseInt(
+        digits.subSequence(index * NBASE_DIGITS, (index + 1) * NBASE_DIGITS).toString());
+  }
+
 }
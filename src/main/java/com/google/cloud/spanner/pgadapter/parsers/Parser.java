@@ -38,31 +38,57 @@ public abstract class Parser<T> {
 
 
   /**
-   * Factory method to create a Parser subtype with a designated type from a byte array.
+   * Factory method to create a Parser subtype with a designated type from a byte array in text
+   * format.
    *
    * @param item The data to be parsed.
    * @param oidType The type of the designated data.
    * @return The parser object for the designated data type.
    */
   public static Parser create(byte[] item, int oidType) {
+    return create(item, oidType, DataFormat.POSTGRESQL_TEXT);
+  }
+
+  /**
+   * Factory method to create a Parser subtype with a designated type from a byte array, such as a
+   * bind parameter. Binary values are decoded directly from the given bytes.
+   *
+   * @param item The data to be parsed.
+   * @param oidType The type of the designated data.
+   * @param format The format of the data, either {@link DataFormat#POSTGRESQL_TEXT} or {@link
+   * DataFormat#POSTGRESQL_BINARY}.
+   * @return The parser object for the designated data type.
+   */
+  public static Parser create(byte[] item, int oidType, DataFormat format) {
     switch (oidType) {
       case Oid.BOOL:
-        return new BooleanParser(item);
+        return new BooleanParser(item, format);
       case Oid.BIT_ARRAY:
-        return new BinaryParser(item);
+        return new BinaryParser((Object) item);
+      case Oid.BYTEA:
+        return new BinaryParser(item, format);
       case Oid.DATE:
-        return new DateParser(item);
+        return new DateParser(item, format);
+      case Oid.FLOAT4:
       case Oid.FLOAT8:
-        return new DoubleParser(item);
+        return new DoubleParser(item, format);
+      case Oid.INT2:
+      case Oid.INT4:
       case Oid.INT8:
-        return new LongParser(item);
+        return new LongParser(item, format);
       case Oid.UNSPECIFIED:
+        if (format == DataFormat.POSTGRESQL_BINARY) {
+          throw new IllegalArgumentException("Binary values must have a specified type");
+        }
+        return new StringParser(item);
+      case Oid.TEXT:
       case Oid.VARCHAR:
         return new StringParser(item);
       case Oid.TIMESTAMP:
-        return new TimestampParser(item);
+      case Oid.TIMESTAMPTZ:
+        return new TimestampParser(item, format);
       case Oid.NUMERIC:
-        return new NumericParser(item);
+        return new NumericParser(item, format);
       default:
         throw new IllegalArgumentException(
             "Illegal or unknown element type [1]: " + oidType);
@@ -173,6 +199,37 @@ public abstract class Parser<T> {
     }
   }
 
+  /**
+   * Translates a JDBC type to the PostgreSQL type that is used to send values of that type to the
+   * client.
+   *
+   * @param jdbcType The {@link Types} constant.
+   * @return The {@link Oid} constant, or {@link Oid#UNSPECIFIED} if the type is not supported.
+   */
+  public static int toOid(int jdbcType) {
+    switch (jdbcType) {
+      case Types.BOOLEAN:
+        return Oid.BOOL;
+      case Types.BINARY:
+        return Oid.BYTEA;
+      case Types.DATE:
+        return Oid.DATE;
+      case Types.DOUBLE:
+        return Oid.FLOAT8;
+      case Types.BIGINT:
+        return Oid.INT8;
+      case Types.NVARCHAR:
+      case Types.VARCHAR:
+        return Oid.VARCHAR;
+      case Types.TIMESTAMP:
+        return Oid.TIMESTAMPTZ;
+      case Types.NUMERIC:
+        return Oid.NUMERIC;
+      default:
+        return Oid.UNSPECIFIED;
+    }
+  }
+
   public T getItem() {
     return this.item;
   }
@@ -0,0 +1,237 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.parsers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer that a row is encoded into before it is sent, as the length of a data row
+ * message must be known before its payload is written. The buffer is reused for every row of a
+ * result set, so it only grows until it fits the largest row.
+ *
+ * All multi-byte values are written in network byte order.
+ */
+public final class RowBuffer {
+
+  private static final int INITIAL_CAPACITY = 256;
+  private static final int NULL_LENGTH = -1;
+  private static final byte[] MIN_LONG =
+      Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+  private byte[] bytes = new byte[INITIAL_CAPACITY];
+  private int size;
+
+  /**
+   * Discards the contents of the buffer, keeping its capacity.
+   */
+  public void reset() {
+    this.size = 0;
+  }
+
+  /**
+   * @return The number of bytes written to the buffer since the last reset.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  public void writeByte(int value) {
+    ensureCapacity(1);
+    this.bytes[this.size++] = (byte) value;
+  }
+
+  public void writeShort(int value) {
+    ensureCapacity(2);
+    this.bytes[this.size++] = (byte) (value >>> 8);
+    this.bytes[this.size++] = (byte) value;
+  }
+
+  public void writeInt(int value) {
+    ensureCapacity(4);
+    putInt(this.size, value);
+    this.size += 4;
+  }
+
+  public void writeLong(long value) {
+    writeInt((int) (value >>> 32));
+    writeInt((int) value);
+  }
+
+  public void write(byte[] value) {
+    ensureCapacity(value.length);
+    System.arraycopy(value, 0, this.bytes, this.size, value.length);
+    this.size += value.length;
+  }
+
+  /**
+   * Writes the decimal text representation of a number, as {@link Long#toString(long)} would.
+   *
+   * @param value The number to write.
+   */
+  public void writeDecimal(long value) {
+    if (value == Long.MIN_VALUE) {
+      write(MIN_LONG);
+      return;
+    }
+    if (value < 0) {
+      writeByte('-');
+      value = -value;
+    }
+    int digits = 1;
+    for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+      digits++;
+    }
+    writeDigits(value, digits);
+  }
+
+  /**
+   * Writes the decimal digits of a non-negative number, padded with leading zeros to the given
+   * width.
+   *
+   * @param value The number to write. Must not be negative and must fit in the width.
+   * @param width The number of digits to write.
+   */
+  public void writeDigits(long value, int width) {
+    ensureCapacity(width);
+    for (int position = this.size + width - 1; position >= this.size; position--) {
+      this.bytes[position] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    this.size += width;
+  }
+
+  /**
+   * Writes a string encoded as UTF-8, with the same result as {@link String#getBytes} would give.
+   * Strings that only contain ASCII characters, which are the vast majority, are copied without
+   * going through an encoder.
+   *
+   * @param value The string to write.
+   */
+  public void writeUtf8(String value) {
+    int length = value.length();
+    // A char never needs more than three bytes; a surrogate pair needs four bytes for two chars.
+    ensureCapacity(length * 3);
+    byte[] target = this.bytes;
+    int position = this.size;
+    int index = 0;
+    while (index < length) {
+      char character = value.charAt(index);
+      if (character >= 0x80) {
+        break;
+      }
+      target[position++] = (byte) character;
+      index++;
+    }
+    while (index < length) {
+      char character = value.charAt(index++);
+      if (character < 0x80) {
+        target[position++] = (byte) character;
+      } else if (character < 0x800) {
+        target[position++] = (byte) (0xc0 | (character >> 6));
+        target[position++] = (byte) (0x80 | (character & 0x3f));
+      } else if (Character.isHighSurrogate(character)
+          && index < length && Character.isLowSurrogate(value.charAt(index))) {
+        int codePoint = Character.toCodePoint(character, value.charAt(index++));
+        target[position++] = (byte) (0xf0 | (codePoint >> 18));
+        target[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        target[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        target[position++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else if (Character.isSurrogate(character)) {
+        // An unpaired surrogate cannot be encoded, and is replaced like the JDK encoder does.
+        target[position++] = '?';
+      } else {
+        target[position++] = (byte) (0xe0 | (character >> 12));
+        target[position++] = (byte) (0x80 | ((character >> 6) & 0x3f));
+        target[position++] = (byte) (0x80 | (character & 0x3f));
+      }
+    }
+    this.size = position;
+  }
+
+  /**
+   * Writes a column value that is SQL NULL.
+   */
+  public void writeNull() {
+    writeInt(NULL_LENGTH);
+  }
+
+  /**
+   * Writes a column value preceded by its length.
+   *
+   * @param value The encoded value.
+   */
+  public void writeValue(byte[] value) {
+    writeInt(value.length);
+    write(value);
+  }
+
+  /**
+   * Starts a column value of which the length is not known up front. The value must be written
+   * directly after this call, and completed with {@link #endValue(int)}.
+   *
+   * @return The position of the length of the value, to be passed to {@link #endValue(int)}.
+   */
+  public int beginValue() {
+    int position = this.size;
+    writeInt(0);
+    return position;
+  }
+
+  /**
+   * Completes a column value that was started with {@link #beginValue()}.
+   *
+   * @param position The position that was returned by {@link #beginValue()}.
+   */
+  public void endValue(int position) {
+    putInt(position, this.size - position - 4);
+  }
+
+  /**
+   * Writes the contents of the buffer to the given stream.
+   *
+   * @param output The stream to write to.
+   * @throws IOException if the stream could not be written to.
+   */
+  public void writeTo(OutputStream output) throws IOException {
+    output.write(this.bytes, 0, this.size);
+  }
+
+  /**
+   * Copies the contents of the buffer into an array.
+   *
+   * @param target The array to copy to.
+   * @param offset The position in the array of the first byte of the buffer.
+   */
+  public void copyTo(byte[] target, int offset) {
+    System.arraycopy(this.bytes, 0, target, offset, this.size);
+  }
+
+  private void putInt(int position, int value) {
+    this.bytes[position] = (byte) (value >>> 24);
+    this.bytes[position + 1] = (byte) (value >>> 16);
+    this.bytes[position + 2] = (byte) (value >>> 8);
+    this.bytes[position + 3] = (byte) value;
+  }
+
+  private void ensureCapacity(int additional) {
+    int required = this.size + additional;
+    if (required > this.bytes.length) {
+      this.bytes = Arrays.copyOf(this.bytes, Math.max(required, this.bytes.length * 2));
+    }
+  }
+}
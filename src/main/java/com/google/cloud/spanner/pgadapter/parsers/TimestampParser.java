@@ -14,11 +14,15 @@
 
 package com.google.cloud.spanner.pgadapter.parsers;
 
+import com.google.cloud.spanner.pgadapter.ProxyServer.DataFormat;
 import com.google.common.base.Preconditions;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.postgresql.util.ByteConverter;
 
@@ -51,8 +55,65 @@ public class TimestampParser extends Parser<Timestamp> {
   }
 
   public TimestampParser(byte[] item) {
-    long micros = ByteConverter.int8(item, 0);
-    this.item = new Timestamp(micros);
+    this(item, DataFormat.POSTGRESQL_BINARY);
+  }
+
+  public TimestampParser(byte[] item, DataFormat format) {
+    if (format == DataFormat.POSTGRESQL_BINARY) {
+      this.item = fromPGMicros(ByteConverter.int8(item, 0));
+    } else {
+      this.item = parseText(new String(item, UTF8).trim());
+    }
+  }
+
+  /**
+   * Converts the binary PostgreSQL representation of a timestamp, the number of microseconds since
+   * 2000-01-01 00:00:00 UTC, to a {@link Timestamp}.
+   */
+  private static Timestamp fromPGMicros(long micros) {
+    long seconds = Math.floorDiv(micros, MICROSECONDS_IN_SECOND) + PG_EPOCH_SECONDS;
+    Timestamp timestamp = new Timestamp(seconds * MILLISECONDS_IN_SECOND);
+    timestamp.setNanos(
+        (int) (Math.floorMod(micros, MICROSECONDS_IN_SECOND) * NANOSECONDS_IN_MICROSECONDS));
+    return timestamp;
+  }
+
+  /**
+   * Parses a timestamp in the text format that PostgreSQL clients send. A timestamp without a time
+   * zone is interpreted in the default time zone, like {@link Timestamp#valueOf(String)} does.
+   */
+  private static Timestamp parseText(String value) {
+    Matcher matcher = TIMESTAMP_PATTERN.matcher(value);
+    if (!matcher.matches()) {
+      return Timestamp.valueOf(value);
+    }
+    int nanos = 0;
+    String fraction = matcher.group(8);
+    if (fraction != null) {
+      nanos = Integer.parseInt(fraction.substring(1));
+      for (int digits = fraction.length() - 1; digits < 9; digits++) {
+        nanos *= 10;
+      }
+    }
+    LocalDateTime localDateTime = LocalDateTime.of(
+        Integer.parseInt(matcher.group(1)),
+        Integer.parseInt(matcher.group(2)),
+        Integer.parseInt(matcher.group(3)),
+        Integer.parseInt(matcher.group(5)),
+        Integer.parseInt(matcher.group(6)),
+        Integer.parseInt(matcher.group(7)),
+        nanos);
+    if (matcher.group(9) == null) {
+      return Timestamp.valueOf(localDateTime);
+    }
+    ZoneOffset offset = ZoneOffset.UTC;
+    if (matcher.group(10) != null) {
+      int sign = "-".equals(matcher.group(10)) ? -1 : 1;
+      int hours = Integer.parseInt(matcher.group(11));
+      int minutes = matcher.group(13) == null ? 0 : Integer.parseInt(matcher.group(13));
+      offset = ZoneOffset.ofHoursMinutes(sign * hours, sign * minutes);
+    }
+    return Timestamp.from(localDateTime.toInstant(offset));
   }
 
   /**
@@ -83,10 +144,22 @@ public class TimestampParser extends Parser<Timestamp> {
 
   @Override
   protected byte[] binaryParse() {
-    long microseconds = (
-        (this.item.getTime() / MILLISECONDS_IN_SECOND - PG_EPOCH_SECONDS) * MICROSECONDS_IN_SECOND)
-        + (this.item.getNanos() / NANOSECONDS_IN_MICROSECONDS);
-    return toBinary(microseconds, Types.BIGINT);
+    return toBinary(toPGMicros(this.item), Types.BIGINT);
+  }
+
+  /**
+   * Converts a {@link Timestamp} to the binary PostgreSQL representation of a timestamptz, which is
+   * the number of microseconds since 2000-01-01 00:00:00 UTC.
+   *
+   * @param timestamp The timestamp to convert.
+   * @return The number of microseconds since the PostgreSQL epoch.
+   */
+  public static long toPGMicros(Timestamp timestamp) {
+    // The nanos of a timestamp are always positive, also before 1970, so the seconds are rounded
+    // down instead of towards zero.
+    long seconds = Math.floorDiv(timestamp.getTime(), MILLISECONDS_IN_SECOND);
+    return (seconds - PG_EPOCH_SECONDS) * MICROSECONDS_IN_SECOND
+        + timestamp.getNanos() / NANOSECONDS_IN_MICROSECONDS;
   }
 
   /**
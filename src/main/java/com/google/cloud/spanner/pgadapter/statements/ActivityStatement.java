@@ -0,0 +1,142 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.statements;
+
+import com.google.cloud.spanner.pgadapter.ConnectionActivity;
+import com.google.cloud.spanner.pgadapter.ConnectionActivity.Status;
+import com.google.cloud.spanner.pgadapter.ConnectionHandler;
+import com.google.cloud.spanner.pgadapter.ConnectionRegistry;
+import com.google.cloud.spanner.pgadapter.catalog.CatalogQuery;
+import com.google.cloud.spanner.pgadapter.catalog.CatalogTable;
+import com.google.cloud.spanner.pgadapter.utils.SQLLexer;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A query on the pg_stat_activity view, which is answered from the {@link ConnectionActivity} of
+ * the client connections of the proxy, without a backend connection. The view supports the same
+ * simple queries as the emulated pg_catalog tables (see {@link CatalogQuery}), for example:
+ *
+ * <pre>
+ * SELECT pid, state, query_duration, query FROM pg_stat_activity WHERE state = 'active'
+ * </pre>
+ *
+ * Besides the columns of PostgreSQL, the view shows how long the current or last query took in
+ * milliseconds (query_duration), whether the connection holds a backend connection, and the number
+ * of bytes received from and sent to the client. A connection that waits for a backend connection
+ * from the pool has wait_event_type 'Client' and wait_event 'BackendConnection'.
+ *
+ * <p>As in PostgreSQL, the query and the other details of a connection are only shown to
+ * connections of the same user. The rows of connections of other users only show the database,
+ * pid, user and application name, and the query '&lt;insufficient privilege&gt;'.
+ */
+public class ActivityStatement extends IntermediateStatement {
+
+  static final String INSUFFICIENT_PRIVILEGE = "<insufficient privilege>";
+
+  private final ConnectionRegistry registry;
+  private final CatalogQuery query;
+  // The user of the connection that queries the view.
+  private final String user;
+
+  private ActivityStatement(String sql,
+      ConnectionHandler connectionHandler,
+      ConnectionRegistry registry,
+      CatalogQuery query) {
+    super(sql, connectionHandler, (Statement) null);
+    this.registry = registry;
+    this.query = query;
+    this.user = connectionHandler.getActivity().getUser();
+  }
+
+  /**
+   * Creates a statement for the given query if it queries pg_stat_activity.
+   *
+   * @param sql The statement as sent by the client.
+   * @param connectionHandler The connection that the statement was received on.
+   * @return The statement, or null if the statement is not recognized.
+   */
+  public static ActivityStatement create(String sql, ConnectionHandler connectionHandler) {
+    if (connectionHandler.getServer() == null) {
+      return null;
+    }
+    CatalogQuery query = CatalogQuery.parse(SQLLexer.lex(sql).getSql());
+    if (query == null || query.getTable() != CatalogTable.PG_STAT_ACTIVITY) {
+      return null;
+    }
+    return new ActivityStatement(sql, connectionHandler,
+        connectionHandler.getServer().getConnectionRegistry(), query);
+  }
+
+  @Override
+  public void execute() {
+    this.executed = true;
+    try {
+      setResultSet(this.query.execute(getRows(this.registry.getConnections(), this.user)));
+    } catch (SQLException e) {
+      handleExecutionException(e);
+    }
+  }
+
+  /**
+   * @param user The user that queries the view.
+   * @return One row per connection with the columns of {@link CatalogTable#PG_STAT_ACTIVITY}.
+   */
+  static List<Object[]> getRows(List<ConnectionHandler> connections, String user) {
+    List<Object[]> rows = new ArrayList<>(connections.size());
+    for (ConnectionHandler connection : connections) {
+      ConnectionActivity activity = connection.getActivity();
+      if (!Objects.equals(activity.getUser(), user)) {
+        rows.add(new Object[]{
+            activity.getDatabase(),
+            (long) activity.getConnectionId(),
+            activity.getUser(),
+            activity.getApplicationName(),
+            null, null, null, null, null, null, null, null,
+            INSUFFICIENT_PRIVILEGE,
+            null, null, null, null
+        });
+        continue;
+      }
+      Status status = activity.getStatus();
+      boolean waiting = activity.getWaitNanos() > 0L;
+      long queryNanos = status.getQueryNanos();
+      rows.add(new Object[]{
+          activity.getDatabase(),
+          (long) activity.getConnectionId(),
+          activity.getUser(),
+          activity.getApplicationName(),
+          activity.getClientAddress(),
+          (long) activity.getClientPort(),
+          new Timestamp(activity.getConnectTimeMillis()),
+          status.getQuery() == null ? null : new Timestamp(status.getQueryStartMillis()),
+          new Timestamp(status.getStateChangeMillis()),
+          waiting ? "Client" : null,
+          waiting ? "BackendConnection" : null,
+          status.getState().getLabel(),
+          status.getQuery(),
+          queryNanos < 0L ? null : queryNanos / 1_000_000d,
+          activity.isBackendConnectionHeld(),
+          activity.getCounters().getBytesReceived(),
+          activity.getCounters().getBytesSent()
+      });
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,286 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.statements;
+
+import com.google.cloud.spanner.pgadapter.BackendConnectionPool;
+import com.google.cloud.spanner.pgadapter.ConnectionActivity;
+import com.google.cloud.spanner.pgadapter.ConnectionActivity.Counters;
+import com.google.cloud.spanner.pgadapter.ConnectionActivity.State;
+import com.google.cloud.spanner.pgadapter.ConnectionActivity.Status;
+import com.google.cloud.spanner.pgadapter.ConnectionHandler;
+import com.google.cloud.spanner.pgadapter.ProxyServer;
+import com.google.cloud.spanner.pgadapter.utils.SQLLexer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+/**
+ * A SHOW command of the admin console, in the manner of pgbouncer. A client that connects to the
+ * admin database may only run these commands, and never gets a backend connection:
+ *
+ * <ul>
+ *   <li>SHOW CLIENTS: one row per client connection, with its state, how long it has been waiting
+ *   for a backend connection, and whether it holds one.</li>
+ *   <li>SHOW POOLS: one row per database that clients connected to, with the number of clients
+ *   that are active and waiting, and the backend connections that they hold. The backend pool is
+ *   shared by all databases, so sv_idle and pool_size are the same in every row.</li>
+ *   <li>SHOW STATS: one row per database with the totals of all connections since the server
+ *   started. Times are in microseconds. Closed connections of databases beyond the first 100 are
+ *   counted in a single row named (other).</li>
+ * </ul>
+ */
+public class AdminStatement extends IntermediateStatement {
+
+  public static final String UNSUPPORTED_MESSAGE =
+      "The admin console only supports SHOW CLIENTS, SHOW POOLS and SHOW STATS";
+
+  private static final Pattern SHOW = Pattern.compile(
+      "\\s*show\\s+(clients|pools|stats)\\s*", Pattern.CASE_INSENSITIVE);
+
+  private enum Command {CLIENTS, POOLS, STATS}
+
+  private final ProxyServer server;
+  private final Command command;
+
+  private AdminStatement(String sql, ConnectionHandler connectionHandler, Command command) {
+    super(sql, connectionHandler, (Statement) null);
+    this.server = connectionHandler.getServer();
+    this.command = command;
+  }
+
+  /**
+   * Creates the statement for a command on the admin console.
+   *
+   * @param sql The statement as sent by the client.
+   * @param connectionHandler The connection of the admin console.
+   * @return The statement.
+   * @throws IllegalArgumentException If the statement is not a supported SHOW command.
+   */
+  public static AdminStatement create(String sql, ConnectionHandler connectionHandler) {
+    Matcher matcher = SHOW.matcher(SQLLexer.lex(sql).getSql());
+    if (!matcher.matches()) {
+      throw new IllegalArgumentException(UNSUPPORTED_MESSAGE);
+    }
+    return new AdminStatement(sql, connectionHandler,
+        Command.valueOf(matcher.group(1).toUpperCase(Locale.ENGLISH)));
+  }
+
+  @Override
+  public void execute() {
+    this.executed = true;
+    try {
+      switch (this.command) {
+        case CLIENTS:
+          setResultSet(showClients(this.server.getConnectionRegistry().getConnections()));
+          break;
+        case POOLS:
+          setResultSet(showPools(this.server.getConnectionRegistry().getConnections(),
+              this.server.getConnectionPool(),
+              this.server.getOptions().getPoolMode().name().toLowerCase(Locale.ENGLISH)));
+          break;
+        case STATS:
+          setResultSet(
+              showStats(this.server.getConnectionRegistry().getCountersByDatabase()));
+          break;
+        default:
+          throw new IllegalStateException("Unknown command: " + this.command);
+      }
+    } catch (SQLException e) {
+      handleExecutionException(e);
+    }
+  }
+
+  static ResultSet showClients(List<ConnectionHandler> connections) throws SQLException {
+    List<Object[]> rows = new ArrayList<>(connections.size());
+    for (ConnectionHandler connection : connections) {
+      ConnectionActivity activity = connection.getActivity();
+      Status status = activity.getStatus();
+      long waitMicros = TimeUnit.NANOSECONDS.toMicros(activity.getWaitNanos());
+      rows.add(new Object[]{
+          "C",
+          activity.getUser(),
+          activity.getDatabase(),
+          activity.getWaitNanos() > 0L ? "waiting" : status.getState().getLabel(),
+          activity.getClientAddress(),
+          (long) activity.getClientPort(),
+          new Timestamp(activity.getConnectTimeMillis()),
+          new Timestamp(status.getQuery() == null
+              ? activity.getConnectTimeMillis()
+              : status.getQueryStartMillis()),
+          waitMicros / 1_000_000L,
+          waitMicros % 1_000_000L,
+          (long) activity.getConnectionId(),
+          activity.isBackendConnectionHeld(),
+          activity.getCounters().getBytesReceived(),
+          activity.getCounters().getBytesSent(),
+          activity.getCounters().getQueries(),
+          status.getQuery()
+      });
+    }
+    return createResult(rows,
+        column("type", Types.VARCHAR),
+        column("user", Types.VARCHAR),
+        column("database", Types.VARCHAR),
+        column("state", Types.VARCHAR),
+        column("addr", Types.VARCHAR),
+        column("port", Types.BIGINT),
+        column("connect_time", Types.TIMESTAMP),
+        column("request_time", Types.TIMESTAMP),
+        column("wait", Types.BIGINT),
+        column("wait_us", Types.BIGINT),
+        column("id", Types.BIGINT),
+        column("backend", Types.BOOLEAN),
+        column("bytes_received", Types.BIGINT),
+        column("bytes_sent", Types.BIGINT),
+        column("query_count", Types.BIGINT),
+        column("query", Types.VARCHAR));
+  }
+
+  static ResultSet showPools(List<ConnectionHandler> connections,
+      BackendConnectionPool pool,
+      String poolMode) throws SQLException {
+    // database -> cl_active, cl_waiting, sv_active, maxwait in nanoseconds
+    Map<String, long[]> pools = new TreeMap<>();
+    for (ConnectionHandler connection : connections) {
+      ConnectionActivity activity = connection.getActivity();
+      if (activity.getDatabase() == null || activity.getStatus().getState() == State.STARTUP) {
+        continue;
+      }
+      long[] values = pools.computeIfAbsent(activity.getDatabase(), key -> new long[4]);
+      long waitNanos = activity.getWaitNanos();
+      values[waitNanos > 0L ? 1 : 0]++;
+      if (activity.isBackendConnectionHeld()) {
+        values[2]++;
+      }
+      values[3] = Math.max(values[3], waitNanos);
+    }
+    List<Object[]> rows = new ArrayList<>(pools.size());
+    for (Map.Entry<String, long[]> entry : pools.entrySet()) {
+      long[] values = entry.getValue();
+      long maxWaitMicros = TimeUnit.NANOSECONDS.toMicros(values[3]);
+      rows.add(new Object[]{
+          entry.getKey(),
+          values[0],
+          values[1],
+          values[2],
+          (long) pool.getIdleConnections(),
+          (long) pool.getMaxSize(),
+          maxWaitMicros / 1_000_000L,
+          maxWaitMicros % 1_000_000L,
+          poolMode
+      });
+    }
+    return createResult(rows,
+        column("database", Types.VARCHAR),
+        column("cl_active", Types.BIGINT),
+        column("cl_waiting", Types.BIGINT),
+        column("sv_active", Types.BIGINT),
+        column("sv_idle", Types.BIGINT),
+        column("pool_size", Types.BIGINT),
+        column("maxwait", Types.BIGINT),
+        column("maxwait_us", Types.BIGINT),
+        column("pool_mode", Types.VARCHAR));
+  }
+
+  static ResultSet showStats(Map<String, Counters> countersByDatabase) throws SQLException {
+    List<Object[]> rows = new ArrayList<>(countersByDatabase.size());
+    for (Map.Entry<String, Counters> entry : countersByDatabase.entrySet()) {
+      Counters counters = entry.getValue();
+      long queries = counters.getQueries();
+      long queryMicros = TimeUnit.NANOSECONDS.toMicros(counters.getQueryNanos());
+      rows.add(new Object[]{
+          entry.getKey(),
+          queries,
+          counters.getBytesReceived(),
+          counters.getBytesSent(),
+          queryMicros,
+          TimeUnit.NANOSECONDS.toMicros(counters.getWaitNanos()),
+          queries == 0L ? 0L : queryMicros / queries
+      });
+    }
+    return createResult(rows,
+        column("database", Types.VARCHAR),
+        column("total_query_count", Types.BIGINT),
+        column("total_received", Types.BIGINT),
+        column("total_sent", Types.BIGINT),
+        column("total_query_time", Types.BIGINT),
+        column("total_wait_time", Types.BIGINT),
+        column("avg_query_time", Types.BIGINT));
+  }
+
+  private static Object[] column(String name, int type) {
+    return new Object[]{name, type};
+  }
+
+  /**
+   * Creates a result with the given columns, each a pair of a name and a {@link Types} constant.
+   * Values are reported with the type that Spanner would report for them, as for the emulated
+   * catalog tables.
+   */
+  private static ResultSet createResult(List<Object[]> rows, Object[]... columns)
+      throws SQLException {
+    RowSetMetaDataImpl metadata = new RowSetMetaDataImpl();
+    metadata.setColumnCount(columns.length);
+    for (int index = 0; index < columns.length; index++) {
+      int type = (Integer) columns[index][1];
+      metadata.setColumnName(index + 1, (String) columns[index][0]);
+      metadata.setColumnLabel(index + 1, (String) columns[index][0]);
+      metadata.setColumnType(index + 1, type);
+      metadata.setColumnTypeName(index + 1, getTypeName(type));
+    }
+    CachedRowSet resultSet = RowSetProvider.newFactory().createCachedRowSet();
+    resultSet.setMetaData(metadata);
+    for (Object[] row : rows) {
+      resultSet.moveToInsertRow();
+      for (int index = 0; index < columns.length; index++) {
+        if (row[index] == null) {
+          resultSet.updateNull(index + 1);
+        } else {
+          resultSet.updateObject(index + 1, row[index]);
+        }
+      }
+      resultSet.insertRow();
+    }
+    resultSet.moveToCurrentRow();
+    resultSet.beforeFirst();
+    return resultSet;
+  }
+
+  private static String getTypeName(int type) {
+    switch (type) {
+      case Types.BIGINT:
+        return "INT64";
+      case Types.BOOLEAN:
+        return "BOOL";
+      case Types.TIMESTAMP:
+        return "TIMESTAMP";
+      default:
+        return "STRING";
+    }
+  }
+}
@@ -0,0 +1,81 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.statements;
+
+import com.google.cloud.spanner.pgadapter.ConnectionHandler;
+import com.google.cloud.spanner.pgadapter.ProxyServer;
+import com.google.cloud.spanner.pgadapter.catalog.CatalogQuery;
+import com.google.cloud.spanner.pgadapter.catalog.CatalogTable;
+import com.google.cloud.spanner.pgadapter.catalog.SchemaCatalog;
+import com.google.cloud.spanner.pgadapter.catalog.SchemaSnapshot;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Optional;
+
+/**
+ * A query on a pg_catalog table that is answered from the snapshot of the backend schema that the
+ * proxy keeps, without a backend round trip. Tools such as psql, DBeaver and Metabase send many of
+ * these queries when they connect.
+ */
+public class CatalogStatement extends IntermediateStatement {
+
+  private final CatalogQuery query;
+  private final SchemaSnapshot snapshot;
+
+  private CatalogStatement(String sql,
+      ConnectionHandler connectionHandler,
+      CatalogQuery query,
+      SchemaSnapshot snapshot) {
+    super(sql, connectionHandler, (Statement) null);
+    this.query = query;
+    this.snapshot = snapshot;
+  }
+
+  /**
+   * Creates a statement for the given query if it can be answered from the schema snapshot.
+   *
+   * @param sql The statement as sent by the client.
+   * @param connectionHandler The connection that the statement was received on.
+   * @return The statement, or null if there is no snapshot or if the query is not recognized.
+   */
+  public static CatalogStatement create(String sql, ConnectionHandler connectionHandler) {
+    SchemaSnapshot snapshot = Optional.ofNullable(connectionHandler.getServer())
+        .map(ProxyServer::getSchemaCatalog)
+        .map(SchemaCatalog::getSnapshot)
+        .orElse(null);
+    if (snapshot == null) {
+      return null;
+    }
+    CatalogQuery query = CatalogQuery.parse(sql.trim());
+    if (query == null
+        || query.getTable() == CatalogTable.PG_STAT_STATEMENTS
+        || query.getTable() == CatalogTable.PG_STAT_ACTIVITY) {
+      // The statement statistics and the client connections are not part of the snapshot; see
+      // StatisticsStatement and ActivityStatement.
+      return null;
+    }
+    return new CatalogStatement(sql, connectionHandler, query, snapshot);
+  }
+
+  @Override
+  public void execute() {
+    this.executed = true;
+    try {
+      setResultSet(this.query.execute(this.snapshot));
+    } catch (SQLException e) {
+      handleExecutionException(e);
+    }
+  }
+}
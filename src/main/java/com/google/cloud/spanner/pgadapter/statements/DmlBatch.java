@@ -0,0 +1,238 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.statements;
+
+import com.google.cloud.spanner.pgadapter.ConnectionHandler;
+import com.google.cloud.spanner.pgadapter.utils.LexedSQL.Kind;
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Consecutive executions of the same DML statement in an extended query pipeline, such as those of
+ * a JDBC batch, which are sent to the backend as a single batch instead of one round trip per
+ * execution. The responses to the bind and execute messages that make up the batch are held back
+ * until the batch has been executed, so that the client receives them in the order that it sent
+ * the messages.
+ *
+ * Consecutive DML statements in a simple query with multiple statements are batched in the same
+ * way, see {@link #executeStatements(ConnectionHandler, List)}.
+ */
+public class DmlBatch {
+
+  private final ConnectionHandler connectionHandler;
+  private final String sql;
+  private final List<Step> steps = new ArrayList<>();
+
+  public DmlBatch(ConnectionHandler connectionHandler, String sql) {
+    this.connectionHandler = connectionHandler;
+    this.sql = sql;
+  }
+
+  /**
+   * @param portal The portal that is about to be executed.
+   * @return True if the portal is an unexecuted DML statement, which can be executed in a batch.
+   */
+  public static boolean canBatch(IntermediateStatement portal) {
+    return portal instanceof IntermediatePortalStatement
+        && !portal.isExecuted()
+        && Kind.forCommand(portal.getCommand()) == Kind.DML;
+  }
+
+  /**
+   * @param statement A statement of a simple query with multiple statements.
+   * @return True if the statement is an unexecuted DML statement that is sent to the backend as it
+   * is, which can be executed in a batch with the DML statements next to it.
+   */
+  public static boolean canBatchStatement(IntermediateStatement statement) {
+    return (statement.getClass() == IntermediateStatement.class
+        || statement instanceof PSQLStatement)
+        && !statement.isExecuted()
+        && !statement.hasException()
+        && Kind.forCommand(statement.getCommand()) == Kind.DML;
+  }
+
+  /**
+   * Executes consecutive DML statements of a simple query with a single batch on the backend, and
+   * stores the result in each statement. The backend stops at the first statement that fails; that
+   * statement gets the exception, and the statements after it are not executed.
+   *
+   * @param connectionHandler The connection that the statements were received on.
+   * @param statements The statements, for which {@link #canBatchStatement} is true.
+   */
+  public static void executeStatements(ConnectionHandler connectionHandler,
+      List<IntermediateStatement> statements) {
+    long start = System.nanoTime();
+    try (Statement statement = connectionHandler.getJdbcConnection().createStatement()) {
+      for (IntermediateStatement intermediateStatement : statements) {
+        statement.addBatch(intermediateStatement.getSql());
+      }
+      setResults(statements, statement.executeBatch());
+    } catch (BatchUpdateException e) {
+      setResults(statements, e);
+    } catch (SQLException e) {
+      statements.get(0).setBatchException(e);
+    } finally {
+      IntermediateStatement.recordExecuteTime(connectionHandler, start, statements);
+    }
+  }
+
+  /**
+   * @param sql The SQL string of a statement that is bound or executed.
+   * @return True if the statement is the statement of this batch.
+   */
+  public boolean isBatchOf(String sql) {
+    return this.sql.equals(sql);
+  }
+
+  /**
+   * Adds a portal of the statement of this batch that has been bound, but that the client has not
+   * been told about yet.
+   */
+  public void addBind(IntermediatePortalStatement portal) {
+    this.steps.add(new Step(portal, true));
+  }
+
+  /**
+   * Adds the execution of a portal to this batch.
+   *
+   * @param portal The portal to execute. Must be a portal of the statement of this batch.
+   * @return False if the portal is already executed by this batch, in which case it is not added.
+   */
+  public boolean addExecute(IntermediatePortalStatement portal) {
+    for (Step step : this.steps) {
+      if (step.portal == portal && step.executed) {
+        return false;
+      }
+    }
+    Step last = this.steps.isEmpty() ? null : this.steps.get(this.steps.size() - 1);
+    if (last != null && last.portal == portal) {
+      last.executed = true;
+    } else {
+      Step step = new Step(portal, false);
+      step.executed = true;
+      this.steps.add(step);
+    }
+    return true;
+  }
+
+  /**
+   * @return The bind and execute messages of this batch, in the order they were received.
+   */
+  public List<Step> getSteps() {
+    return Collections.unmodifiableList(this.steps);
+  }
+
+  /**
+   * Executes all portals of this batch with a single batch on the backend, and stores the result
+   * in each portal. The backend stops at the first statement that fails; that statement gets the
+   * exception, and the statements after it are not executed.
+   */
+  public void execute() {
+    List<IntermediatePortalStatement> portals = new ArrayList<>();
+    for (Step step : this.steps) {
+      if (step.executed) {
+        portals.add(step.portal);
+      }
+    }
+    if (portals.isEmpty()) {
+      return;
+    }
+    // The JDBC statements of the portals may already have been closed by binding a new portal with
+    // the same name, so the batch gets a statement of its own.
+    long start = System.nanoTime();
+    try (PreparedStatement statement =
+        this.connectionHandler.getJdbcConnection().prepareStatement(this.sql)) {
+      for (IntermediatePortalStatement portal : portals) {
+        portal.setParameters(statement);
+        statement.addBatch();
+      }
+      setResults(portals, statement.executeBatch());
+    } catch (BatchUpdateException e) {
+      setResults(portals, e);
+    } catch (SQLException e) {
+      portals.get(0).setBatchException(e);
+    } finally {
+      IntermediateStatement.recordExecuteTime(this.connectionHandler, start, portals);
+    }
+  }
+
+  private static void setResults(List<? extends IntermediateStatement> statements,
+      int[] updateCounts) {
+    for (int index = 0; index < statements.size(); index++) {
+      statements.get(index).setBatchResult(updateCounts[index]);
+    }
+  }
+
+  /**
+   * Stores the update counts of the statements that succeeded before the statement that failed,
+   * and the exception in the statement that failed. A driver that stops at the first failure only
+   * returns the update counts of the statements before it, while a driver that continues marks the
+   * failed statements with {@link Statement#EXECUTE_FAILED}.
+   */
+  private static void setResults(List<? extends IntermediateStatement> statements,
+      BatchUpdateException e) {
+    int[] updateCounts = e.getUpdateCounts() == null ? new int[0] : e.getUpdateCounts();
+    int failed = updateCounts.length;
+    for (int index = 0; index < updateCounts.length; index++) {
+      if (updateCounts[index] == Statement.EXECUTE_FAILED) {
+        failed = index;
+        break;
+      }
+    }
+    failed = Math.min(failed, statements.size() - 1);
+    for (int index = 0; index < failed; index++) {
+      statements.get(index).setBatchResult(updateCounts[index]);
+    }
+    statements.get(failed).setBatchException(e);
+  }
+
+  /**
+   * A bind message whose response is held back, an execute message, or both.
+   */
+  public static final class Step {
+
+    private final IntermediatePortalStatement portal;
+    private final boolean bindPending;
+    private boolean executed;
+
+    private Step(IntermediatePortalStatement portal, boolean bindPending) {
+      this.portal = portal;
+      this.bindPending = bindPending;
+    }
+
+    public IntermediatePortalStatement getPortal() {
+      return this.portal;
+    }
+
+    /**
+     * @return True if the client has not yet been told that the portal was bound.
+     */
+    public boolean isBindPending() {
+      return this.bindPending;
+    }
+
+    /**
+     * @return True if the portal was executed as part of the batch.
+     */
+    public boolean isExecuted() {
+      return this.executed;
+    }
+  }
+}
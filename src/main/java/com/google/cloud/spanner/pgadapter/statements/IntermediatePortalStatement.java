@@ -32,12 +32,22 @@ public class IntermediatePortalStatement extends IntermediatePreparedStatement {
 
   protected List<Short> parameterFormatCodes;
   protected List<Short> resultFormatCodes;
+  protected Object[] parameterValues;
 
   public IntermediatePortalStatement(
       PreparedStatement statement, String sql, int parameterCount, ConnectionHandler connectionHandler) {
     super(statement, sql, parameterCount, connectionHandler);
     this.parameterFormatCodes = new ArrayList<>();
     this.resultFormatCodes = new ArrayList<>();
+    this.parameterValues = new Object[0];
+  }
+
+  IntermediatePortalStatement(PreparedStatement statement, String sql,
+      List<Integer> parameterNumbers, ConnectionHandler connectionHandler) {
+    super(statement, sql, parameterNumbers, connectionHandler);
+    this.parameterFormatCodes = new ArrayList<>();
+    this.resultFormatCodes = new ArrayList<>();
+    this.parameterValues = new Object[0];
   }
 
   public short getParameterFormatCode(int index) {
@@ -69,6 +79,32 @@ public class IntermediatePortalStatement extends IntermediatePreparedStatement {
     this.resultFormatCodes = resultFormatCodes;
   }
 
+  /**
+   * @return The values that were bound to the parameters of this portal, so that the portal can be
+   * executed on another statement as part of a batch.
+   */
+  public Object[] getParameterValues() {
+    return this.parameterValues;
+  }
+
+  public void setParameterValues(Object[] parameterValues) {
+    this.parameterValues = parameterValues;
+  }
+
+  /**
+   * Sets the parameter values of this portal on a backend statement for its SQL string. Each
+   * question mark gets the value of the PostgreSQL parameter that it replaced. Parameters that the
+   * client did not bind are left unset, so that the backend reports them when executing.
+   */
+  void setParameters(PreparedStatement statement) throws SQLException {
+    for (int index = 0; index < this.parameterNumbers.size(); index++) {
+      int number = this.parameterNumbers.get(index);
+      if (number >= 1 && number <= this.parameterValues.length) {
+        statement.setObject(index + 1, this.parameterValues[number - 1]);
+      }
+    }
+  }
+
   @Override
   public DescribeMetadata describe() throws Exception {
     try {
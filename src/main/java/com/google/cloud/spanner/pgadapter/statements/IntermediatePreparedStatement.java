@@ -15,16 +15,23 @@
 package com.google.cloud.spanner.pgadapter.statements;
 
 import com.google.cloud.spanner.pgadapter.ConnectionHandler;
+import com.google.cloud.spanner.pgadapter.ProxyServer.DataFormat;
 import com.google.cloud.spanner.pgadapter.metadata.DescribeMetadata;
-import com.google.cloud.spanner.pgadapter.metadata.SQLMetadata;
+import com.google.cloud.spanner.pgadapter.metrics.StatementTimings.Phase;
 import com.google.cloud.spanner.pgadapter.parsers.Parser;
+import com.google.cloud.spanner.pgadapter.statements.PreparedStatementCache.CachedStatement;
 import com.google.cloud.spanner.pgadapter.utils.Converter;
+import com.google.cloud.spanner.pgadapter.utils.LexedSQL;
+import com.google.cloud.spanner.pgadapter.utils.SQLLexer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.postgresql.core.Oid;
 
 /**
  * Intermediate representation for prepared statements (i.e.: statements before they become
@@ -34,37 +41,87 @@ public class IntermediatePreparedStatement extends IntermediateStatement {
 
   private static final Charset UTF8 = StandardCharsets.UTF_8;
   protected final int parameterCount;
+  // For each question mark in the SQL string, the number of the PostgreSQL parameter that it
+  // replaced. Parameters may occur in any order, and more than once.
+  protected final List<Integer> parameterNumbers;
   protected List<Integer> parameterDataTypes;
-
+  private final CachedStatement cachedStatement;
 
   public IntermediatePreparedStatement(String sql, ConnectionHandler connectionHandler) throws SQLException {
-    this(Converter.toJDBCParams(sql), connectionHandler);
+    this(SQLLexer.lex(sql), connectionHandler);
+  }
+
+  private IntermediatePreparedStatement(LexedSQL lexedSql, ConnectionHandler connectionHandler) throws SQLException {
+    super(lexedSql.getJdbcSql(), connectionHandler, connectionHandler.getJdbcConnection().prepareStatement(lexedSql.getJdbcSql()));
+    this.parameterCount = lexedSql.getHighestParameterNumber();
+    this.parameterNumbers = lexedSql.getParameterNumbers();
+    this.parameterDataTypes = null;
+    this.cachedStatement = null;
   }
 
-  private IntermediatePreparedStatement(SQLMetadata parsedSQL, ConnectionHandler connectionHandler) throws SQLException {
-    super(parsedSQL.getSqlString(), connectionHandler, connectionHandler.getJdbcConnection().prepareStatement(parsedSQL.getSqlString()));
-    this.parameterCount = parsedSQL.getParameterCount();
+  /**
+   * Creates a prepared statement from the statement cache of the connection. Its portals reuse the
+   * backend statement of the cache when it is not in use by another portal.
+   */
+  public IntermediatePreparedStatement(CachedStatement cachedStatement,
+      ConnectionHandler connectionHandler) throws SQLException {
+    super(connectionHandler,
+        connectionHandler.getStatementCache()
+            .prepare(cachedStatement, connectionHandler.getJdbcConnection()),
+        cachedStatement.getSql(),
+        cachedStatement.getCommand());
+    this.parameterCount = cachedStatement.getParameterCount();
+    this.parameterNumbers = cachedStatement.getParameterNumbers();
     this.parameterDataTypes = null;
+    this.cachedStatement = cachedStatement;
   }
 
+  /**
+   * Creates a statement for SQL that has already been rewritten, such as the SQL of the prepared
+   * statement that a portal is bound from.
+   */
   IntermediatePreparedStatement(
       PreparedStatement statement, String sql, int totalParameters, ConnectionHandler connectionHandler) {
-    super(sql, connectionHandler, statement);
-    this.parameterCount = totalParameters;
+    this(statement, sql,
+        IntStream.rangeClosed(1, totalParameters).boxed().collect(Collectors.toList()),
+        connectionHandler);
+  }
+
+  /**
+   * @param parameterNumbers For each question mark in the SQL string, the number of the PostgreSQL
+   * parameter that it replaced.
+   */
+  IntermediatePreparedStatement(PreparedStatement statement, String sql,
+      List<Integer> parameterNumbers, ConnectionHandler connectionHandler) {
+    super(connectionHandler, statement, sql, parseCommand(sql));
+    this.parameterCount = getParameterCount(parameterNumbers);
+    this.parameterNumbers = parameterNumbers;
     this.parameterDataTypes = null;
+    this.cachedStatement = null;
+  }
+
+  /**
+   * @return The number of parameter values that a client binds for a statement with the given
+   * parameters, which is the highest parameter number.
+   */
+  static int getParameterCount(List<Integer> parameterNumbers) {
+    return parameterNumbers.stream().mapToInt(Integer::intValue).max().orElse(0);
   }
 
   /**
    * Given a set of parameters in byte format, return the designated type if stored by the user,
-   * otherwise guess that type.
+   * otherwise guess that type. Only text parameters can be guessed.
    *
    * @param parameters Array of all parameters in byte format.
    * @param index Index of the desired item.
+   * @param format The format of the parameter.
    * @return The type of the item specified.
    */
-  private int parseType(byte[][] parameters, int index) {
-    if (this.parameterDataTypes.size() > index) {
+  private int parseType(byte[][] parameters, int index, DataFormat format) {
+    if (this.parameterDataTypes != null && this.parameterDataTypes.size() > index) {
       return this.parameterDataTypes.get(index);
+    } else if (format == DataFormat.POSTGRESQL_BINARY) {
+      return Oid.UNSPECIFIED;
     } else {
       return Converter.guessPGDataType(new String(parameters[index], UTF8));
     }
@@ -82,14 +139,27 @@ public class IntermediatePreparedStatement extends IntermediateStatement {
     return this.parameterCount;
   }
 
+  /**
+   * Closes the result of the statement. The backend statement is closed by the {@link
+   * ConnectionHandler} when the statement or portal is closed, or given back to the statement
+   * cache that it was borrowed from.
+   */
+  @Override
+  public void close() throws Exception {
+    closeResult();
+  }
+
   @Override
   public void execute() {
     this.executed = true;
+    long start = System.nanoTime();
     try {
       ((PreparedStatement) this.getStatement()).execute();
       this.executeHelper();
     } catch (SQLException e) {
       handleExecutionException(e);
+    } finally {
+      recordExecuteTime(start);
     }
   }
 
@@ -108,29 +178,51 @@ public class IntermediatePreparedStatement extends IntermediateStatement {
       List<Short> parameterFormatCodes,
       List<Short> resultFormatCodes,
       ConnectionHandler connectionHandler) throws SQLException {
+    long start = System.nanoTime();
+    PreparedStatement backendStatement = this.cachedStatement == null
+        ? this.getConnection().prepareStatement(this.getSql())
+        : connectionHandler.getStatementCache()
+            .borrow(this.cachedStatement, connectionHandler.getJdbcConnection());
     IntermediatePortalStatement portal = new IntermediatePortalStatement(
-        this.getConnection().prepareStatement(this.getSql()),
+        backendStatement,
         this.getSql(),
-        this.parameterCount,
+        this.parameterNumbers,
         connectionHandler
     );
+    portal.recordTime(Phase.PREPARE, start);
+    if (this.getTimings() != null && portal.getTimings() != null) {
+      // A statement is parsed once, so its parse time goes to the first portal that is bound.
+      portal.getTimings().add(Phase.PARSE, this.getTimings().remove(Phase.PARSE));
+    }
+    start = System.nanoTime();
     portal.setParameterFormatCodes(parameterFormatCodes);
     portal.setResultFormatCodes(resultFormatCodes);
+    PreparedStatement statement = (PreparedStatement) portal.getStatement();
+    Object[] values = new Object[parameters.length];
     for (int index = 0; index < parameters.length; index++) {
-      short formatCode = portal.getParameterFormatCode(index);
-      int type = this.parseType(parameters, index);
-      if (formatCode == 0) {
-        ((PreparedStatement) portal.getStatement()).setObject(
-            index + 1,
-            Parser.create(
-                parameters[index], type).getItem());
-      } else {
-        throw new IllegalStateException("Unimplemented");
+      if (parameters[index] != null) {
+        DataFormat format = toParameterFormat(portal.getParameterFormatCode(index + 1));
+        int type = this.parseType(parameters, index, format);
+        values[index] = Parser.create(parameters[index], type, format).getItem();
       }
     }
+    portal.setParameterValues(values);
+    portal.setParameters(statement);
+    portal.recordTime(Phase.BIND, start);
     return portal;
   }
 
+  private static DataFormat toParameterFormat(short formatCode) {
+    switch (formatCode) {
+      case 0:
+        return DataFormat.POSTGRESQL_TEXT;
+      case 1:
+        return DataFormat.POSTGRESQL_BINARY;
+      default:
+        throw new IllegalArgumentException("Unknown parameter format code: " + formatCode);
+    }
+  }
+
   @Override
   public DescribeMetadata describe() throws Exception {
     /* Currently, Spanner does not support description of prepared statements which may return
@@ -16,15 +16,23 @@ package com.google.cloud.spanner.pgadapter.statements;
 
 import com.google.cloud.spanner.jdbc.JdbcConstants;
 import com.google.cloud.spanner.pgadapter.ConnectionHandler;
+import com.google.cloud.spanner.pgadapter.ProxyServer;
+import com.google.cloud.spanner.pgadapter.catalog.SchemaCatalog;
 import com.google.cloud.spanner.pgadapter.metadata.DescribeMetadata;
-import com.google.cloud.spanner.pgadapter.metadata.QueryRewritesMetadata;
-import com.google.common.base.Preconditions;
+import com.google.cloud.spanner.pgadapter.metrics.ProxyMetrics;
+import com.google.cloud.spanner.pgadapter.metrics.StatementStatistics;
+import com.google.cloud.spanner.pgadapter.metrics.StatementTimings;
+import com.google.cloud.spanner.pgadapter.metrics.StatementTimings.Phase;
+import com.google.cloud.spanner.pgadapter.utils.LexedSQL.Kind;
+import com.google.cloud.spanner.pgadapter.utils.SQLLexer;
+import com.google.cloud.spanner.pgadapter.wireoutput.PortalPrefetcher;
 import org.json.simple.JSONObject;
 
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -40,7 +48,7 @@ public class IntermediateStatement {
 
   private final Statement statement;
   private final String sql;
-  private final Connection connection;
+  private final ConnectionHandler connectionHandler;
   private final String command;
 
   private ResultType resultType;
@@ -48,6 +56,10 @@ public class IntermediateStatement {
   private boolean hasMoreData;
   private Exception exception;
   private Integer updateCount;
+  private PortalPrefetcher prefetcher;
+  private StatementStatistics.Entry statisticsEntry;
+  // Null if the slow query log is turned off.
+  private final StatementTimings timings;
   
   protected boolean executed;
 
@@ -56,15 +68,22 @@ public class IntermediateStatement {
   }
 
   public IntermediateStatement(String sql, ConnectionHandler connectionHandler, Statement statement, Function<String,String> translateSQL) {
+    this(connectionHandler, statement, rewriteQuery(sql, connectionHandler), parseCommand(sql));
+  }
 
-    List<QueryRewritesMetadata> rewrites = Optional.ofNullable(connectionHandler.getServer()).
-            map(x->x.getOptions().getQueryRewritesJSON()).orElse(Collections.emptyList());
-
-    this.sql = rewriteQuery(sql, rewrites);
-    this.command = parseCommand(sql);
-    this.connection = connectionHandler.getJdbcConnection();
+  /**
+   * Creates a statement of which the SQL string has already been rewritten and the command has
+   * already been determined, such as a statement from the {@link PreparedStatementCache}.
+   */
+  protected IntermediateStatement(ConnectionHandler connectionHandler, Statement statement,
+      String sql, String command) {
+    this.sql = sql;
+    this.command = command;
+    this.connectionHandler = connectionHandler;
     this.statement = statement;
-    
+    this.timings = connectionHandler != null && connectionHandler.getSlowQueryLog() != null
+        ? new StatementTimings()
+        : null;
 
     this.executed = false;
     this.exception = null;
@@ -106,12 +125,7 @@ public class IntermediateStatement {
    * Determines the (update) command that was received from the sql string.
    */
   protected static String parseCommand(String sql) {
-    Preconditions.checkNotNull(sql);
-    String[] tokens = sql.split("\\s+", 2);
-    if (tokens.length > 0) {
-      return tokens[0].toUpperCase();
-    }
-    return null;
+    return SQLLexer.lex(sql).getCommand();
   }
 
   /**
@@ -124,12 +138,30 @@ public class IntermediateStatement {
   }
 
   /**
-   * Cleanly close the statement. Does nothing if the statement has not been executed or has no
-   * result.
+   * Cleanly close the statement, including the backend statement that it created for itself. The
+   * backend connection goes back to the pool when the client is done with it, so a statement that
+   * is left open would stay open on the backend connection for as long as that connection lives.
    *
    * @throws Exception if closing fails server-side.
    */
   public void close() throws Exception {
+    closeResult();
+    if (this.statement != null) {
+      this.statement.close();
+    }
+  }
+
+  /**
+   * Closes the result of the statement, but not the backend statement. Does nothing if the
+   * statement has not been executed or has no result.
+   *
+   * @throws Exception if closing fails server-side.
+   */
+  protected void closeResult() throws Exception {
+    if (this.prefetcher != null) {
+      this.prefetcher.close();
+      this.prefetcher = null;
+    }
     if (this.getStatementResult() != null) {
       this.getStatementResult().close();
     }
@@ -174,12 +206,28 @@ public class IntermediateStatement {
     this.hasMoreData = hasMoreData;
   }
 
+  /**
+   * @return The prefetcher that fetches the next page of this portal in the background, or null if
+   * no rows are being prefetched.
+   */
+  public PortalPrefetcher getPrefetcher() {
+    return this.prefetcher;
+  }
+
+  public void setPrefetcher(PortalPrefetcher prefetcher) {
+    this.prefetcher = prefetcher;
+  }
+
   public Statement getStatement() {
     return this.statement;
   }
 
+  /**
+   * @return The backend connection the handler currently holds, which in transaction pool mode is
+   * not necessarily the connection this statement was created on.
+   */
   protected Connection getConnection() {
-    return this.connection;
+    return this.connectionHandler.getJdbcConnection();
   }
   
   public ResultSet getStatementResult() {
@@ -210,12 +258,73 @@ public class IntermediateStatement {
     this.resultType = IntermediateStatement.extractResultType(this.statement);
     if (this.containsResultSet()) {
       this.statementResult = this.statement.getResultSet();
+      long start = System.nanoTime();
       this.hasMoreData = this.statementResult.next();
+      recordTime(Phase.FIRST_ROW, start);
     } else {
       this.updateCount = this.statement.getUpdateCount();
       this.hasMoreData = false;
       this.statementResult = null;
     }
+    this.connectionHandler.updateTransactionState(this.command, true);
+    invalidateSchemaCatalog();
+  }
+
+  /**
+   * Discards the snapshot of the backend schema after a DDL statement, whether it succeeded or
+   * not, as a failed statement may still have changed part of the schema.
+   */
+  private void invalidateSchemaCatalog() {
+    if (Kind.forCommand(this.command) == Kind.DDL) {
+      Optional.ofNullable(this.connectionHandler.getServer())
+          .map(ProxyServer::getSchemaCatalog)
+          .ifPresent(SchemaCatalog::invalidate);
+    }
+  }
+
+  /**
+   * Stores a result that was produced without executing the JDBC statement.
+   *
+   * @param resultSet The result of the statement.
+   * @throws SQLException If moving to the first row fails.
+   */
+  protected void setResultSet(ResultSet resultSet) throws SQLException {
+    this.resultType = ResultType.RESULT_SET;
+    this.statementResult = resultSet;
+    this.hasMoreData = resultSet.next();
+  }
+
+  /**
+   * Marks this statement as executed without a result, without executing the JDBC statement.
+   */
+  protected void setNoResult() {
+    this.resultType = ResultType.NO_RESULT;
+    this.hasMoreData = false;
+    this.statementResult = null;
+  }
+
+  /**
+   * Stores the result of a statement that was executed as part of a batch.
+   *
+   * @param updateCount The number of rows that the statement changed.
+   */
+  void setBatchResult(int updateCount) {
+    this.executed = true;
+    this.resultType = ResultType.UPDATE_COUNT;
+    this.updateCount = updateCount;
+    this.hasMoreData = false;
+    this.statementResult = null;
+    this.connectionHandler.updateTransactionState(this.command, true);
+  }
+
+  /**
+   * Stores the failure of a statement that was executed as part of a batch.
+   *
+   * @param e The exception to store.
+   */
+  void setBatchException(SQLException e) {
+    this.executed = true;
+    handleExecutionException(e);
   }
 
   /**
@@ -228,6 +337,8 @@ public class IntermediateStatement {
     this.hasMoreData = false;
     this.statementResult = null;
     this.resultType = ResultType.NO_RESULT;
+    this.connectionHandler.updateTransactionState(this.command, false);
+    invalidateSchemaCatalog();
   }
 
   /**
@@ -235,11 +346,85 @@ public class IntermediateStatement {
    */
   public void execute() {
     this.executed = true;
+    long start = System.nanoTime();
     try {
       this.statement.execute(this.sql);
       this.executeHelper();
     } catch (SQLException e) {
       handleExecutionException(e);
+    } finally {
+      recordExecuteTime(start);
+    }
+  }
+
+  /**
+   * Adds the time since the given start to the backend execute time of the server and to the
+   * statistics of this statement, if those are turned on.
+   */
+  protected void recordExecuteTime(long startNanos) {
+    recordExecuteTime(this.connectionHandler, startNanos, Collections.singletonList(this));
+  }
+
+  /**
+   * Records the execution of a batch of statements. The time of the batch is divided evenly over
+   * the statements that the backend executed.
+   */
+  static void recordExecuteTime(ConnectionHandler connectionHandler,
+      long startNanos,
+      List<? extends IntermediateStatement> statements) {
+    long nanos = System.nanoTime() - startNanos;
+    ProxyMetrics metrics = connectionHandler.getMetrics();
+    if (metrics != null) {
+      metrics.recordExecute(nanos);
+    }
+    StatementStatistics statistics = connectionHandler.getStatementStatistics();
+    if (statistics == null && connectionHandler.getSlowQueryLog() == null) {
+      return;
+    }
+    List<IntermediateStatement> executed = new ArrayList<>(statements.size());
+    for (IntermediateStatement statement : statements) {
+      if (statement.isExecuted()) {
+        executed.add(statement);
+      }
+    }
+    for (IntermediateStatement statement : executed) {
+      long rows = statement.updateCount == null ? 0L : statement.updateCount;
+      if (statistics != null) {
+        statement.statisticsEntry =
+            statistics.recordExecute(statement.getSql(), nanos / executed.size(), rows);
+      }
+      if (statement.timings != null) {
+        // The first row is fetched as part of the execution, but is reported on its own.
+        statement.timings.add(Phase.EXECUTE, Math.max(
+            nanos / executed.size() - statement.timings.getNanos(Phase.FIRST_ROW), 0L));
+        statement.timings.addRows(rows);
+      }
+    }
+  }
+
+  /**
+   * @return The statistics that the sending of the result of this statement is added to, or null
+   * if statement statistics are turned off.
+   */
+  public StatementStatistics.Entry getStatisticsEntry() {
+    return this.statisticsEntry;
+  }
+
+  /**
+   * @return The time this statement spent in each phase, or null if the slow query log is turned
+   * off.
+   */
+  public StatementTimings getTimings() {
+    return this.timings;
+  }
+
+  /**
+   * Adds the time since the given start to a phase of this statement, if the slow query log is
+   * turned on.
+   */
+  public void recordTime(Phase phase, long startNanos) {
+    if (this.timings != null) {
+      this.timings.add(phase, System.nanoTime() - startNanos);
     }
   }
 
@@ -260,6 +445,14 @@ public class IntermediateStatement {
     return 0;
   }
 
+  /**
+   * @return The tag that reports the number of rows that this statement changed, such as "UPDATE
+   * 5". Inserts also report the OID of the inserted row, which is always 0.
+   */
+  public String getUpdateCommandTag() {
+    return ("INSERT".equals(this.command) ? "INSERT 0" : this.command) + " " + this.updateCount;
+  }
+
   /**
    * @return the extracted command (first word) from the SQL statement.
    */
@@ -268,22 +461,14 @@ public class IntermediateStatement {
   }
 
   /**
-   * foldLeft application of all rewrites on the sql string
-   * @param sql
-   * @param rewrites
-   * @return the sql with all the rewrites applied in order
+   * Applies the query rewrites of the server of the given connection to a SQL string.
    */
-  private String rewriteQuery(String sql, List<QueryRewritesMetadata> rewrites) {
-    String rewrittenSql = sql;
-    for ( QueryRewritesMetadata rewrite : rewrites) {
-      rewrittenSql = rewriteQuery(rewrittenSql, rewrite);
-    }
-    return rewrittenSql;
+  static String rewriteQuery(String sql, ConnectionHandler connectionHandler) {
+    return Optional.ofNullable(connectionHandler.getServer())
+        .map(x -> x.getOptions().getQueryRewriter())
+        .map(x -> x.rewrite(sql))
+        .orElse(sql);
   }
 
-  private String rewriteQuery(String sql, QueryRewritesMetadata rewrite) {
-    return sql.replaceAll(rewrite.getInputPattern(), rewrite.getOutputPattern());
-  }
-  
   public enum ResultType {UPDATE_COUNT, RESULT_SET, NO_RESULT}
 }
@@ -0,0 +1,183 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.statements;
+
+import com.google.cloud.spanner.pgadapter.ConnectionHandler;
+import com.google.cloud.spanner.pgadapter.utils.LexedSQL;
+import com.google.cloud.spanner.pgadapter.utils.SQLLexer;
+import com.google.common.collect.ImmutableMap;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+/**
+ * A statement that is answered by the proxy itself, without a backend connection. Clients such as
+ * BI tools, psql and connection pools send SET and SHOW statements and simple probes like SELECT 1
+ * right after connecting, and may then stay idle. Answering those locally means that such sessions
+ * never have to wait for (or occupy) a backend connection.
+ *
+ * SET statements are accepted and remembered for the session, so that a later SHOW returns the
+ * value that was set. They are not sent to the backend, which is the same as before.
+ */
+public class LocalStatement extends IntermediateStatement {
+
+  public static final String SERVER_VERSION = "11.0";
+  private static final String VERSION = "PostgreSQL " + SERVER_VERSION + " on PGAdapter";
+
+  private static final Pattern SELECT_ONE =
+      Pattern.compile("^select\\s+1\\s*;?$", Pattern.CASE_INSENSITIVE);
+  private static final Pattern SELECT_VERSION = Pattern.compile(
+      "^select\\s+(pg_catalog\\.)?version\\s*\\(\\s*\\)\\s*;?$", Pattern.CASE_INSENSITIVE);
+  private static final Pattern SHOW = Pattern.compile(
+      "^show\\s+([a-z_][a-z0-9_.]*)\\s*;?$", Pattern.CASE_INSENSITIVE);
+  private static final Pattern SET = Pattern.compile(
+      "^SET\\s+(?:SESSION\\s+|LOCAL\\s+)?([a-z_][a-z0-9_.]*)\\s*(?:=|\\s+TO\\s+)\\s*(.*?)\\s*;?$",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+  private static final Pattern SET_TIME_ZONE = Pattern.compile(
+      "^SET\\s+(?:SESSION\\s+|LOCAL\\s+)?TIME\\s+ZONE\\s+(.*?)\\s*;?$",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  /**
+   * The values that are reported for parameters that the session has not set itself. These are
+   * the same values as those that are sent to the client during startup where applicable.
+   */
+  private static final Map<String, String> DEFAULT_PARAMETERS = ImmutableMap.<String, String>builder()
+      .put("server_version", SERVER_VERSION)
+      .put("server_encoding", "UTF8")
+      .put("client_encoding", "utf8")
+      .put("datestyle", "ISO")
+      .put("timezone", "UTC")
+      .put("integer_datetimes", "on")
+      .put("standard_conforming_strings", "on")
+      .put("transaction_isolation", "serializable")
+      .put("default_transaction_isolation", "serializable")
+      .put("application_name", "")
+      .put("extra_float_digits", "1")
+      .put("search_path", "public")
+      .build();
+
+  private final ConnectionHandler connectionHandler;
+  private final String localSql;
+
+  public LocalStatement(String sql, ConnectionHandler connectionHandler) {
+    super(sql, connectionHandler, (Statement) null);
+    this.connectionHandler = connectionHandler;
+    this.localSql = SQLLexer.lex(sql).getSql();
+  }
+
+  /**
+   * Determines whether the given statement can be answered without a backend connection. Only the
+   * exact forms that clients use as probes are recognized; anything else goes to the backend.
+   *
+   * @param sql The statement as sent by the client.
+   * @return True if the statement should be executed as a {@link LocalStatement}.
+   */
+  public static boolean isLocalStatement(String sql) {
+    LexedSQL lexedSql = SQLLexer.lex(sql);
+    // SET statements have never been sent to the backend.
+    if ("SET".equals(lexedSql.getCommand())) {
+      return true;
+    }
+    String localSql = lexedSql.getSql();
+    return SELECT_ONE.matcher(localSql).matches()
+        || SELECT_VERSION.matcher(localSql).matches()
+        || SHOW.matcher(localSql).matches();
+  }
+
+  @Override
+  public void execute() {
+    this.executed = true;
+    String sql = this.localSql;
+    try {
+      Matcher matcher;
+      if ("SET".equals(getCommand())) {
+        executeSet(sql);
+      } else if (SELECT_ONE.matcher(sql).matches()) {
+        setResultSet(createResultSet("?column?", Types.BIGINT, "INT64", 1L));
+      } else if (SELECT_VERSION.matcher(sql).matches()) {
+        setResultSet(createResultSet("version", Types.VARCHAR, "STRING", VERSION));
+      } else if ((matcher = SHOW.matcher(sql)).matches()) {
+        String name = matcher.group(1).toLowerCase(Locale.ENGLISH);
+        setResultSet(createResultSet(name, Types.VARCHAR, "STRING", getParameter(name)));
+      } else {
+        throw new IllegalStateException("Not a local statement: " + sql);
+      }
+    } catch (SQLException e) {
+      handleExecutionException(e);
+    }
+  }
+
+  private void executeSet(String sql) {
+    Matcher matcher = SET_TIME_ZONE.matcher(sql);
+    if (matcher.matches()) {
+      this.connectionHandler.setSessionParameter("timezone", unquote(matcher.group(1)));
+    } else if ((matcher = SET.matcher(sql)).matches()) {
+      this.connectionHandler.setSessionParameter(
+          matcher.group(1).toLowerCase(Locale.ENGLISH), unquote(matcher.group(2)));
+    }
+    setNoResult();
+  }
+
+  private String getParameter(String name) throws SQLException {
+    String value = this.connectionHandler.getSessionParameter(name);
+    if (value == null) {
+      value = DEFAULT_PARAMETERS.get(name);
+    }
+    if (value == null) {
+      throw new SQLException("unrecognized configuration parameter \"" + name + "\"");
+    }
+    return value;
+  }
+
+  private static String unquote(String value) {
+    if (value.length() >= 2 && value.charAt(0) == '\''
+        && value.charAt(value.length() - 1) == '\'') {
+      return value.substring(1, value.length() - 1).replace("''", "'");
+    }
+    return value;
+  }
+
+  /**
+   * Creates a result set with a single row and a single column. The column type name is the one
+   * Spanner would report, so that the result is described and encoded like a backend result.
+   */
+  private static ResultSet createResultSet(String columnName,
+      int type,
+      String typeName,
+      Object value) throws SQLException {
+    RowSetMetaDataImpl metadata = new RowSetMetaDataImpl();
+    metadata.setColumnCount(1);
+    metadata.setColumnName(1, columnName);
+    metadata.setColumnLabel(1, columnName);
+    metadata.setColumnType(1, type);
+    metadata.setColumnTypeName(1, typeName);
+    CachedRowSet resultSet = RowSetProvider.newFactory().createCachedRowSet();
+    resultSet.setMetaData(metadata);
+    resultSet.moveToInsertRow();
+    resultSet.updateObject(1, value);
+    resultSet.insertRow();
+    resultSet.moveToCurrentRow();
+    resultSet.beforeFirst();
+    return resultSet;
+  }
+}
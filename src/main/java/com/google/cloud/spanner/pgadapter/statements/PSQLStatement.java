@@ -16,15 +16,16 @@ package com.google.cloud.spanner.pgadapter.statements;
 
 import com.google.cloud.spanner.pgadapter.ConnectionHandler;
 import com.google.cloud.spanner.pgadapter.commands.Command;
+import com.google.cloud.spanner.pgadapter.commands.CommandDispatcher;
 
 import java.sql.Connection;
 import java.sql.SQLException;
 import org.json.simple.JSONObject;
 
 /**
- * Meant to be utilized when running as a proxy for PSQL. Not meant for production runs. Generally
- * here, all statements will take some penalty by running matchers to determine whether they belong
- * to a specific meta-command. If matches, translates the command into something Spanner can
+ * Meant to be utilized when running as a proxy for PSQL. All statements are checked against the
+ * meta-command matchers by a {@link CommandDispatcher}, which only runs the matchers that the
+ * statement could match. If one matches, translates the command into something Spanner can
  * handle.
  */
 public class PSQLStatement extends IntermediateStatement {
@@ -49,12 +50,6 @@ public class PSQLStatement extends IntermediateStatement {
   private static String translateSQL(String sql, ConnectionHandler connectionHandler) {
     Connection connection = connectionHandler.getJdbcConnection();
     JSONObject commandMetadataJSON = connectionHandler.getServer().getOptions().getCommandMetadataJSON();
-    for (Command currentCommand : Command
-        .getCommands(sql, connection, commandMetadataJSON)) {
-      if (currentCommand.is()) {
-        return currentCommand.translate();
-      }
-    }
-    return sql;
+    return CommandDispatcher.forMetadata(commandMetadataJSON).translate(sql, connection);
   }
 }
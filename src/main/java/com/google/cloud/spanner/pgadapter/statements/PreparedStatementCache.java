@@ -0,0 +1,269 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.statements;
+
+import com.google.cloud.spanner.pgadapter.ConnectionHandler;
+import com.google.cloud.spanner.pgadapter.utils.LexedSQL;
+import com.google.cloud.spanner.pgadapter.utils.SQLLexer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A per-connection cache of parsed statements, keyed by the SQL string exactly as the client sent
+ * it in a Parse message. Most drivers parse an unnamed statement for every execution, so without
+ * this cache the same SQL string is stripped of comments, translated, rewritten and prepared on the
+ * backend again and again.
+ *
+ * Each cached statement also keeps a backend {@link PreparedStatement}, which is lent to one portal
+ * at a time. A portal that is bound while the backend statement is lent out gets a statement of its
+ * own, which is closed as before when the portal is closed. The backend statements are closed when
+ * the connection gives its backend connection back to the pool; the parsed statements stay cached.
+ *
+ * The cache holds at most a fixed number of statements, and evicts the least recently used one when
+ * it is full. It is only used by the thread that handles the connection; the metrics may be read
+ * from any thread.
+ */
+public class PreparedStatementCache {
+
+  private static final Logger logger = Logger.getLogger(PreparedStatementCache.class.getName());
+
+  private final int maxSize;
+  private final Map<String, CachedStatement> statements;
+  // All open backend statements of cached statements, including statements that were replaced or
+  // evicted while a portal was using them.
+  private final Map<Statement, CachedStatement> backendStatements = new IdentityHashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public PreparedStatementCache(int maxSize) {
+    this.maxSize = maxSize;
+    this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+        if (size() <= PreparedStatementCache.this.maxSize) {
+          return false;
+        }
+        evict(eldest.getValue());
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Returns the parsed form of a SQL string, parsing it if it is not in the cache.
+   *
+   * @param sql The SQL string as it was sent by the client.
+   * @param connectionHandler The connection of which the server's query rewrites are applied.
+   * @return The cached statement.
+   */
+  public CachedStatement get(String sql, ConnectionHandler connectionHandler) {
+    CachedStatement statement = this.statements.get(sql);
+    if (statement != null) {
+      this.hits.incrementAndGet();
+      return statement;
+    }
+    this.misses.incrementAndGet();
+    LexedSQL lexedSql = SQLLexer.lex(sql);
+    lexedSql.checkValid();
+    statement = new CachedStatement(
+        IntermediateStatement.rewriteQuery(lexedSql.getJdbcSql(), connectionHandler),
+        lexedSql.getCommand(),
+        lexedSql.getParameterNumbers());
+    this.statements.put(sql, statement);
+    return statement;
+  }
+
+  /**
+   * Returns the backend statement of a cached statement on the given connection, preparing it if
+   * it has not been prepared on that connection yet. The statement is not lent out.
+   */
+  PreparedStatement prepare(CachedStatement statement, Connection connection)
+      throws SQLException {
+    if (statement.backendStatement != null
+        && statement.backendConnection == connection
+        && !statement.backendStatement.isClosed()) {
+      return statement.backendStatement;
+    }
+    if (statement.backendStatement != null && !statement.inUse) {
+      closeBackendStatement(statement.backendStatement);
+    }
+    statement.backendStatement = connection.prepareStatement(statement.sql);
+    statement.backendConnection = connection;
+    statement.inUse = false;
+    this.backendStatements.put(statement.backendStatement, statement);
+    return statement.backendStatement;
+  }
+
+  /**
+   * Lends the backend statement of a cached statement to a portal. If it is already lent out, a new
+   * backend statement is prepared that does not belong to the cache.
+   *
+   * @return A backend statement without parameter values.
+   */
+  PreparedStatement borrow(CachedStatement statement, Connection connection)
+      throws SQLException {
+    if (statement.inUse && statement.backendConnection == connection) {
+      return connection.prepareStatement(statement.sql);
+    }
+    PreparedStatement backendStatement = prepare(statement, connection);
+    backendStatement.clearParameters();
+    statement.inUse = true;
+    return backendStatement;
+  }
+
+  /**
+   * Gives a backend statement back to the cache when the portal that used it is closed.
+   *
+   * @param backendStatement The backend statement of the portal.
+   * @return False if the statement does not belong to the cache, and must be closed by the caller.
+   */
+  public boolean release(Statement backendStatement) {
+    CachedStatement statement = this.backendStatements.get(backendStatement);
+    if (statement == null) {
+      return false;
+    }
+    if (statement.backendStatement != backendStatement || statement.evicted) {
+      closeBackendStatement(backendStatement);
+    } else {
+      statement.inUse = false;
+    }
+    return true;
+  }
+
+  /**
+   * @return True if the backend statement belongs to the cache, in which case only the cache may
+   * close it.
+   */
+  public boolean contains(Statement backendStatement) {
+    return this.backendStatements.containsKey(backendStatement);
+  }
+
+  /**
+   * Closes all backend statements, for example because the backend connection is given back to the
+   * pool. All portals must have been closed before. The parsed statements stay in the cache, and are
+   * prepared again when they are next used.
+   */
+  public void closeBackendStatements() {
+    for (Statement backendStatement : this.backendStatements.keySet()) {
+      try {
+        backendStatement.close();
+      } catch (SQLException e) {
+        logger.log(Level.WARNING, "Unable to close cached statement: {0}", e.getMessage());
+      }
+    }
+    this.backendStatements.clear();
+    for (CachedStatement statement : this.statements.values()) {
+      statement.backendStatement = null;
+      statement.backendConnection = null;
+      statement.inUse = false;
+    }
+  }
+
+  private void evict(CachedStatement statement) {
+    this.evictions.incrementAndGet();
+    statement.evicted = true;
+    if (statement.backendStatement != null && !statement.inUse) {
+      closeBackendStatement(statement.backendStatement);
+    }
+  }
+
+  private void closeBackendStatement(Statement backendStatement) {
+    this.backendStatements.remove(backendStatement);
+    try {
+      backendStatement.close();
+    } catch (SQLException e) {
+      logger.log(Level.WARNING, "Unable to close cached statement: {0}", e.getMessage());
+    }
+  }
+
+  /**
+   * @return The number of statements in the cache.
+   */
+  public int size() {
+    return this.statements.size();
+  }
+
+  /**
+   * @return The number of times a SQL string was found in the cache.
+   */
+  public long getHits() {
+    return this.hits.get();
+  }
+
+  /**
+   * @return The number of times a SQL string had to be parsed.
+   */
+  public long getMisses() {
+    return this.misses.get();
+  }
+
+  /**
+   * @return The number of statements that were removed to make room for another statement.
+   */
+  public long getEvictions() {
+    return this.evictions.get();
+  }
+
+  /**
+   * A parsed statement: the SQL string as it is sent to the backend, with its command and
+   * parameters, and the backend statement that is reused by its portals.
+   */
+  public static final class CachedStatement {
+
+    private final String sql;
+    private final String command;
+    private final List<Integer> parameterNumbers;
+    private PreparedStatement backendStatement;
+    private Connection backendConnection;
+    private boolean inUse;
+    private boolean evicted;
+
+    private CachedStatement(String sql, String command, List<Integer> parameterNumbers) {
+      this.sql = sql;
+      this.command = command;
+      this.parameterNumbers = parameterNumbers;
+    }
+
+    public String getSql() {
+      return this.sql;
+    }
+
+    public String getCommand() {
+      return this.command;
+    }
+
+    public int getParameterCount() {
+      return IntermediatePreparedStatement.getParameterCount(this.parameterNumbers);
+    }
+
+    /**
+     * @return For each question mark in the SQL string, the number of the PostgreSQL parameter
+     * that it replaced.
+     */
+    public List<Integer> getParameterNumbers() {
+      return this.parameterNumbers;
+    }
+  }
+}
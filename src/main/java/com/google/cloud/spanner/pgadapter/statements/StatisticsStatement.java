@@ -0,0 +1,116 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.statements;
+
+import com.google.cloud.spanner.pgadapter.ConnectionHandler;
+import com.google.cloud.spanner.pgadapter.catalog.CatalogQuery;
+import com.google.cloud.spanner.pgadapter.catalog.CatalogTable;
+import com.google.cloud.spanner.pgadapter.metrics.StatementStatistics;
+import com.google.cloud.spanner.pgadapter.utils.SQLLexer;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.regex.Pattern;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+/**
+ * A query on the pg_stat_statements view, or a call of pg_stat_statements_reset(), which are
+ * answered from the {@link StatementStatistics} of the proxy. The view supports the same simple
+ * queries as the emulated pg_catalog tables (see {@link CatalogQuery}), for example:
+ *
+ * <pre>
+ * SELECT query, calls, mean_exec_time FROM pg_stat_statements ORDER BY total_exec_time DESC LIMIT 10
+ * </pre>
+ */
+public class StatisticsStatement extends IntermediateStatement {
+
+  private static final Pattern RESET = Pattern.compile(
+      "^select\\s+(pg_catalog\\.)?pg_stat_statements_reset\\s*\\(\\s*\\)$",
+      Pattern.CASE_INSENSITIVE);
+
+  private final StatementStatistics statistics;
+  // Null for a reset.
+  private final CatalogQuery query;
+
+  private StatisticsStatement(String sql,
+      ConnectionHandler connectionHandler,
+      StatementStatistics statistics,
+      CatalogQuery query) {
+    super(sql, connectionHandler, (Statement) null);
+    this.statistics = statistics;
+    this.query = query;
+  }
+
+  /**
+   * Creates a statement for the given query if it queries or resets the statement statistics.
+   *
+   * @param sql The statement as sent by the client.
+   * @param connectionHandler The connection that the statement was received on.
+   * @return The statement, or null if statement statistics are turned off or if the statement is
+   * not recognized.
+   */
+  public static StatisticsStatement create(String sql, ConnectionHandler connectionHandler) {
+    StatementStatistics statistics = connectionHandler.getStatementStatistics();
+    if (statistics == null) {
+      return null;
+    }
+    String lexedSql = SQLLexer.lex(sql).getSql();
+    if (RESET.matcher(lexedSql).matches()) {
+      return new StatisticsStatement(sql, connectionHandler, statistics, null);
+    }
+    CatalogQuery query = CatalogQuery.parse(lexedSql);
+    if (query == null || query.getTable() != CatalogTable.PG_STAT_STATEMENTS) {
+      return null;
+    }
+    return new StatisticsStatement(sql, connectionHandler, statistics, query);
+  }
+
+  @Override
+  public void execute() {
+    this.executed = true;
+    try {
+      if (this.query == null) {
+        this.statistics.reset();
+        setResultSet(createResetResult());
+      } else {
+        setResultSet(this.query.execute(this.statistics.getRows()));
+      }
+    } catch (SQLException e) {
+      handleExecutionException(e);
+    }
+  }
+
+  /**
+   * The reset function returns void, which is sent as a single row with an empty value.
+   */
+  private static CachedRowSet createResetResult() throws SQLException {
+    RowSetMetaDataImpl metadata = new RowSetMetaDataImpl();
+    metadata.setColumnCount(1);
+    metadata.setColumnName(1, "pg_stat_statements_reset");
+    metadata.setColumnLabel(1, "pg_stat_statements_reset");
+    metadata.setColumnType(1, Types.VARCHAR);
+    metadata.setColumnTypeName(1, "STRING");
+    CachedRowSet resultSet = RowSetProvider.newFactory().createCachedRowSet();
+    resultSet.setMetaData(metadata);
+    resultSet.moveToInsertRow();
+    resultSet.updateObject(1, "");
+    resultSet.insertRow();
+    resultSet.moveToCurrentRow();
+    resultSet.beforeFirst();
+    return resultSet;
+  }
+}
@@ -0,0 +1,133 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes records to a file or a logger on a background thread, so that the threads that handle
+ * client connections never wait for the disk. Records are kept in a bounded buffer and formatted
+ * with toString() by the background thread. When the buffer is full, records are dropped rather
+ * than slowing down the connection.
+ */
+public class AsyncLogWriter {
+
+  private static final Logger logger = Logger.getLogger(AsyncLogWriter.class.getName());
+  private static final int BUFFER_SIZE = 8192;
+  private static final int MAX_BATCH_SIZE = 256;
+  private static final long POLL_INTERVAL_MILLIS = 200L;
+
+  private final String file;
+  private final Logger recordLogger;
+  private final AtomicLong droppedRecords = new AtomicLong();
+  private final BlockingQueue<Object> buffer = new ArrayBlockingQueue<>(BUFFER_SIZE);
+  private final Thread writerThread;
+  private volatile boolean running;
+
+  /**
+   * @param file The file that the records are appended to, or null to write them to the given
+   * logger.
+   * @param recordLogger The logger that the records are written to when no file is given.
+   * @param threadName The name of the background thread.
+   */
+  public AsyncLogWriter(String file, Logger recordLogger, String threadName) {
+    this.file = file;
+    this.recordLogger = recordLogger;
+    this.writerThread = new Thread(this::writeRecords, threadName);
+    this.writerThread.setDaemon(true);
+  }
+
+  public void start() {
+    this.running = true;
+    this.writerThread.start();
+  }
+
+  /**
+   * Stops accepting records. The background thread writes the records that are still in the
+   * buffer, and then stops.
+   */
+  public void close() {
+    this.running = false;
+  }
+
+  /**
+   * Adds a record to the buffer, or drops it if the buffer is full or the writer is not running.
+   */
+  public void write(Object record) {
+    if (!this.running || !this.buffer.offer(record)) {
+      this.droppedRecords.incrementAndGet();
+    }
+  }
+
+  /**
+   * @return The number of records that were dropped because the buffer was full.
+   */
+  public long getDroppedRecords() {
+    return this.droppedRecords.get();
+  }
+
+  private void writeRecords() {
+    List<Object> batch = new ArrayList<>(MAX_BATCH_SIZE);
+    try (Writer writer = this.file == null ? null : Files.newBufferedWriter(Paths.get(this.file),
+        StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+      while (this.running || !this.buffer.isEmpty()) {
+        Object first;
+        try {
+          // The thread is not interrupted on close, as that would close the file.
+          first = this.buffer.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        this.buffer.drainTo(batch, MAX_BATCH_SIZE - 1);
+        for (Object record : batch) {
+          writeLine(writer, record.toString());
+        }
+        if (writer != null) {
+          writer.flush();
+        }
+        batch.clear();
+      }
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Unable to write to {0}: {1}", new Object[]{this.file, e});
+    }
+  }
+
+  private void writeLine(Writer writer, String line) throws IOException {
+    if (writer == null) {
+      this.recordLogger.info(line);
+    } else {
+      writer.write(line);
+      writer.write(System.lineSeparator());
+    }
+  }
+}
@@ -31,43 +31,16 @@ import org.postgresql.core.Oid;
 public class Converter {
 
   /**
-   * PostgreSQL parameters occur as $\\d+, whereas JDBC expects a question mark. For now, doing a
-   * simple iteration to correct. Taking into account both quoted strings and escape sequences.
+   * PostgreSQL parameters occur as $\\d+, whereas JDBC expects a question mark. Parameters in
+   * quoted strings and escape sequences are left as they are. Comments are removed.
    *
    * @param sql The PostgreSQL String.
    * @return A {@link SQLMetadata} object containing both the corrected SQL String as well as the
    * number of parameters iterated.
    */
   public static SQLMetadata toJDBCParams(String sql) {
-    Preconditions.checkNotNull(sql);
-    StringBuilder result = new StringBuilder();
-    boolean openSingleQuote = false;
-    boolean openDoubleQuote = false;
-    boolean openEscape = false;
-    int parameterCount = 0;
-    for (int index = 0; index < sql.length(); index++) {
-      char character = sql.charAt(index);
-      if (openEscape) {
-        openEscape = false;
-      } else if (character == '\"') {
-        openSingleQuote = !openSingleQuote;
-      } else if (character == '\'') {
-        openDoubleQuote = !openDoubleQuote;
-      } else if (character == '\\') {
-        openEscape = true;
-      } else if (!(openDoubleQuote || openSingleQuote)
-          && character == '$' && index + 1 < sql.length()
-          && Character.isDigit(sql.charAt(index + 1))) {
-        parameterCount++;
-        result.append('?');
-        while (++index < sql.length() && Character.isDigit(sql.charAt(index))) {
-        }
-        index -= 1;
-        continue;
-      }
-      result.append(character);
-    }
-    return new SQLMetadata(result.toString(), parameterCount);
+    LexedSQL lexedSql = SQLLexer.lex(sql);
+    return new SQLMetadata(lexedSql.getJdbcSql(), lexedSql.getParameterCount());
   }
 
   /**
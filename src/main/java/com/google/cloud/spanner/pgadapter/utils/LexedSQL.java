@@ -0,0 +1,180 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.utils;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Range;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The result of scanning a SQL string with the {@link SQLLexer}. Instances are immutable and are
+ * shared between all connections that send the same SQL string.
+ */
+public class LexedSQL {
+
+  /**
+   * The kind of a statement, as determined by its command.
+   */
+  public enum Kind {
+    QUERY,
+    DML,
+    DDL,
+    TRANSACTION,
+    SET,
+    OTHER;
+
+    private static final Set<String> QUERY_COMMANDS =
+        ImmutableSet.of("SELECT", "WITH", "SHOW", "VALUES", "EXPLAIN");
+    private static final Set<String> DML_COMMANDS = ImmutableSet.of("INSERT", "UPDATE", "DELETE");
+    private static final Set<String> DDL_COMMANDS = ImmutableSet.of("CREATE", "ALTER", "DROP");
+    private static final Set<String> TRANSACTION_COMMANDS =
+        ImmutableSet.of("BEGIN", "START", "COMMIT", "END", "ROLLBACK", "ABORT");
+    private static final Set<String> SET_COMMANDS = ImmutableSet.of("SET", "RESET");
+
+    /**
+     * @param command An upper case command, such as returned by {@link LexedSQL#getCommand()}.
+     * @return The kind of statements that start with the command.
+     */
+    public static Kind forCommand(String command) {
+      if (QUERY_COMMANDS.contains(command)) {
+        return QUERY;
+      } else if (DML_COMMANDS.contains(command)) {
+        return DML;
+      } else if (DDL_COMMANDS.contains(command)) {
+        return DDL;
+      } else if (TRANSACTION_COMMANDS.contains(command)) {
+        return TRANSACTION;
+      } else if (SET_COMMANDS.contains(command)) {
+        return SET;
+      }
+      return OTHER;
+    }
+  }
+
+  private final String originalSql;
+  private final String sql;
+  private final String jdbcSql;
+  private final List<Integer> parameterNumbers;
+  private final int highestParameterNumber;
+  private final String command;
+  private final Kind kind;
+  private final List<Range<Integer>> literals;
+  private final boolean unclosedLiteral;
+  // Computed when it is first needed, as only statements that are executed are normalized.
+  private volatile String normalizedSql;
+
+  LexedSQL(String originalSql,
+      String sql,
+      String jdbcSql,
+      List<Integer> parameterNumbers,
+      String command,
+      List<Range<Integer>> literals,
+      boolean unclosedLiteral) {
+    this.originalSql = originalSql;
+    this.sql = sql;
+    this.jdbcSql = jdbcSql;
+    this.parameterNumbers = ImmutableList.copyOf(parameterNumbers);
+    this.highestParameterNumber =
+        parameterNumbers.stream().mapToInt(Integer::intValue).max().orElse(0);
+    this.command = command;
+    this.kind = Kind.forCommand(command);
+    this.literals = ImmutableList.copyOf(literals);
+    this.unclosedLiteral = unclosedLiteral;
+  }
+
+  /**
+   * @return The SQL string without comments, leading and trailing spaces and a trailing semicolon.
+   */
+  public String getSql() {
+    return this.sql;
+  }
+
+  /**
+   * @return The same string as {@link #getSql()}, with the PostgreSQL parameters ($1, $2, ...)
+   * replaced by the question marks that JDBC expects.
+   */
+  public String getJdbcSql() {
+    return this.jdbcSql;
+  }
+
+  /**
+   * @return The number of question marks in {@link #getJdbcSql()}. A parameter that occurs more
+   * than once is counted each time.
+   */
+  public int getParameterCount() {
+    return this.parameterNumbers.size();
+  }
+
+  /**
+   * @return The highest PostgreSQL parameter number in the statement, which is the number of
+   * parameter values that a client binds.
+   */
+  public int getHighestParameterNumber() {
+    return this.highestParameterNumber;
+  }
+
+  /**
+   * @return For each question mark in {@link #getJdbcSql()}, the number of the PostgreSQL
+   * parameter that it replaced.
+   */
+  public List<Integer> getParameterNumbers() {
+    return this.parameterNumbers;
+  }
+
+  /**
+   * @return The first keyword of the statement in upper case, or an empty string if the statement
+   * does not start with a keyword.
+   */
+  public String getCommand() {
+    return this.command;
+  }
+
+  public Kind getKind() {
+    return this.kind;
+  }
+
+  /**
+   * @return The positions of the quoted literals and identifiers in {@link #getSql()}, including
+   * their quotes.
+   */
+  public List<Range<Integer>> getLiterals() {
+    return this.literals;
+  }
+
+  /**
+   * @return The same string as {@link #getSql()}, with its constants replaced by numbered
+   * parameters. Statements that only differ in their constants have the same normalized form.
+   */
+  public String getNormalizedSql() {
+    String normalized = this.normalizedSql;
+    if (normalized == null) {
+      normalized = SQLLexer.normalize(this.sql, this.literals);
+      this.normalizedSql = normalized;
+    }
+    return normalized;
+  }
+
+  /**
+   * @throws IllegalArgumentException If the statement contains a literal that is not closed.
+   */
+  public void checkValid() {
+    if (this.unclosedLiteral) {
+      throw new IllegalArgumentException(
+          "SQL statement contains an unclosed literal: " + this.originalSql);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.utils;
+
+/**
+ * The literal text that every match of a regular expression starts with, which allows strings that
+ * cannot match to be skipped with a plain string comparison instead of running the regular
+ * expression. If the expression is anchored to the start of the input, the string must start with
+ * the literal; otherwise it must contain it.
+ */
+public final class PatternPrefilter {
+
+  private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+  private static final String OPTIONAL_QUANTIFIERS = "?*{";
+  private static final PatternPrefilter NONE = new PatternPrefilter("", false);
+
+  private final String literal;
+  private final boolean anchored;
+
+  private PatternPrefilter(String literal, boolean anchored) {
+    this.literal = literal;
+    this.anchored = anchored;
+  }
+
+  /**
+   * Determines the prefilter of a regular expression that is compiled without flags.
+   *
+   * @param regex The regular expression.
+   * @return The prefilter, which matches everything if no literal could be determined.
+   */
+  public static PatternPrefilter of(String regex) {
+    if (hasTopLevelAlternation(regex)) {
+      return NONE;
+    }
+    int index = 0;
+    boolean anchored = false;
+    if (regex.startsWith("^")) {
+      anchored = true;
+      index = 1;
+    } else if (regex.startsWith(".*")) {
+      // With find(), a leading .* only means that the literal may appear anywhere.
+      index = 2;
+    }
+    StringBuilder literal = new StringBuilder();
+    while (index < regex.length()) {
+      char character = regex.charAt(index);
+      int atomLength;
+      char atom;
+      if (character == '\\') {
+        if (index + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(index + 1))) {
+          // Character classes, back references and quotes.
+          break;
+        }
+        atom = regex.charAt(index + 1);
+        atomLength = 2;
+      } else if (METACHARACTERS.indexOf(character) >= 0) {
+        break;
+      } else {
+        atom = character;
+        atomLength = 1;
+      }
+      index += atomLength;
+      if (index < regex.length() && OPTIONAL_QUANTIFIERS.indexOf(regex.charAt(index)) >= 0) {
+        break;
+      }
+      literal.append(atom);
+    }
+    if (literal.length() == 0) {
+      return NONE;
+    }
+    return new PatternPrefilter(literal.toString(), anchored);
+  }
+
+  private static boolean hasTopLevelAlternation(String regex) {
+    int depth = 0;
+    boolean inCharacterClass = false;
+    for (int index = 0; index < regex.length(); index++) {
+      char character = regex.charAt(index);
+      if (character == '\\') {
+        index++;
+      } else if (inCharacterClass) {
+        inCharacterClass = character != ']';
+      } else if (character == '[') {
+        inCharacterClass = true;
+      } else if (character == '(') {
+        depth++;
+      } else if (character == ')') {
+        depth--;
+      } else if (character == '|' && depth == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return The literal text that every match starts with, or an empty string if there is none.
+   */
+  public String getLiteral() {
+    return this.literal;
+  }
+
+  /**
+   * @return True if every match starts at the start of the input.
+   */
+  public boolean isAnchored() {
+    return this.anchored;
+  }
+
+  /**
+   * @param input The string that the regular expression would be run against.
+   * @return False if the regular expression cannot find a match in the string.
+   */
+  public boolean mayMatch(String input) {
+    return this.anchored ? input.startsWith(this.literal) : input.contains(this.literal);
+  }
+}
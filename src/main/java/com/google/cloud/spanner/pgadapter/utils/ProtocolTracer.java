@@ -0,0 +1,173 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.utils;
+
+import com.google.common.base.Preconditions;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Traces the wire protocol messages of a sample of the client connections. A traced connection
+ * enters its {@link Session} while it handles a message, and every message that is received or
+ * sent on that thread in the meantime is recorded.
+ *
+ * Recording only copies the message into a bounded buffer; the records are formatted and written
+ * by a background thread. When the buffer is full, records are dropped rather than slowing down
+ * the connection. When no tracer is running, checking whether to trace a message costs a single
+ * read of a shared counter.
+ */
+public class ProtocolTracer {
+
+  // Records are written here when no trace file is given.
+  private static final Logger traceLogger =
+      Logger.getLogger("com.google.cloud.spanner.pgadapter.trace");
+
+  private static final AtomicInteger runningTracers = new AtomicInteger();
+  private static final ThreadLocal<Session> currentSession = new ThreadLocal<>();
+
+  private final int sampleRate;
+  private final AtomicLong sessions = new AtomicLong();
+  private final AsyncLogWriter writer;
+  private volatile boolean running;
+
+  /**
+   * @param sampleRate One in this many client connections is traced.
+   * @param file The file that the trace is appended to, or null to write it to the
+   * com.google.cloud.spanner.pgadapter.trace logger.
+   * @param threadNamePrefix The prefix of the name of the background thread.
+   */
+  public ProtocolTracer(int sampleRate, String file, String threadNamePrefix) {
+    Preconditions.checkArgument(sampleRate > 0, "The sample rate must be positive");
+    this.sampleRate = sampleRate;
+    this.writer = new AsyncLogWriter(file, traceLogger, threadNamePrefix + "-trace");
+  }
+
+  public void start() {
+    this.running = true;
+    runningTracers.incrementAndGet();
+    this.writer.start();
+  }
+
+  /**
+   * Stops tracing. The background thread writes the records that are still in the buffer, and
+   * then stops.
+   */
+  public void close() {
+    if (!this.running) {
+      return;
+    }
+    this.running = false;
+    runningTracers.decrementAndGet();
+    this.writer.close();
+  }
+
+  /**
+   * Decides whether a new client connection is traced.
+   *
+   * @param connectionId The ID of the connection.
+   * @return The session to enter while the connection handles a message, or null if the connection
+   * is not traced.
+   */
+  public Session newSession(int connectionId) {
+    if (this.sessions.getAndIncrement() % this.sampleRate != 0) {
+      return null;
+    }
+    return new Session(this, connectionId);
+  }
+
+  /**
+   * @return True if the current thread is handling a message of a traced connection. Call this
+   * before building the strings that are passed to {@link #trace}.
+   */
+  public static boolean isTracing() {
+    return runningTracers.get() > 0 && currentSession.get() != null;
+  }
+
+  /**
+   * Records a message of the traced connection of the current thread.
+   *
+   * @param direction '>' for a message that was received, '<' for a message that is sent.
+   * @param identifier The identifier of the message.
+   * @param name The name of the message.
+   * @param payload The payload of the message.
+   */
+  public static void trace(char direction, String identifier, String name, String payload) {
+    Session session = currentSession.get();
+    if (session != null) {
+      session.tracer.writer.write(new TraceRecord(
+          System.currentTimeMillis(), session.connectionId, direction, identifier, name, payload));
+    }
+  }
+
+  /**
+   * @return The number of records that were dropped because the buffer was full.
+   */
+  public long getDroppedRecords() {
+    return this.writer.getDroppedRecords();
+  }
+
+  /**
+   * The trace of one client connection.
+   */
+  public static final class Session {
+
+    private final ProtocolTracer tracer;
+    private final int connectionId;
+
+    private Session(ProtocolTracer tracer, int connectionId) {
+      this.tracer = tracer;
+      this.connectionId = connectionId;
+    }
+
+    /**
+     * Traces the messages that the current thread receives and sends, until {@link #exit()}.
+     */
+    public void enter() {
+      currentSession.set(this);
+    }
+
+    public void exit() {
+      currentSession.remove();
+    }
+  }
+
+  private static final class TraceRecord {
+
+    private final long timestamp;
+    private final int connectionId;
+    private final char direction;
+    private final String identifier;
+    private final String name;
+    private final String payload;
+
+    private TraceRecord(long timestamp, int connectionId, char direction, String identifier,
+        String name, String payload) {
+      this.timestamp = timestamp;
+      this.connectionId = connectionId;
+      this.direction = direction;
+      this.identifier = identifier;
+      this.name = name;
+      this.payload = payload;
+    }
+
+    @Override
+    public String toString() {
+      return Instant.ofEpochMilli(this.timestamp) + " [" + this.connectionId + "] "
+          + this.direction + " (" + this.identifier + ") " + this.name + " {" + this.payload + "}";
+    }
+  }
+}
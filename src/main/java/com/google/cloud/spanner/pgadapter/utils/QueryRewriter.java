@@ -0,0 +1,71 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.utils;
+
+import com.google.cloud.spanner.pgadapter.metadata.QueryRewritesMetadata;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+
+/**
+ * Applies the user-defined query rewrites to SQL strings, in the order in which they were
+ * specified. The result is remembered for the most recently rewritten SQL strings, as clients tend
+ * to send the same statements over and over again. One rewriter is shared by all connections.
+ */
+public class QueryRewriter {
+
+  private static final int MAX_CACHED_QUERIES = 1024;
+  // Longer statements are usually generated with inlined values, and are unlikely to be repeated.
+  private static final int MAX_CACHED_QUERY_LENGTH = 4096;
+
+  private final List<QueryRewritesMetadata> rewrites;
+  private final Cache<String, String> rewrittenQueries;
+
+  public QueryRewriter(List<QueryRewritesMetadata> rewrites) {
+    this.rewrites = ImmutableList.copyOf(Preconditions.checkNotNull(rewrites));
+    this.rewrittenQueries = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_QUERIES).build();
+  }
+
+  /**
+   * foldLeft application of all rewrites on the sql string
+   *
+   * @param sql The SQL string to rewrite.
+   * @return the sql with all the rewrites applied in order
+   */
+  public String rewrite(String sql) {
+    if (this.rewrites.isEmpty()) {
+      return sql;
+    }
+    if (sql.length() > MAX_CACHED_QUERY_LENGTH) {
+      return applyRewrites(sql);
+    }
+    String rewrittenSql = this.rewrittenQueries.getIfPresent(sql);
+    if (rewrittenSql == null) {
+      rewrittenSql = applyRewrites(sql);
+      this.rewrittenQueries.put(sql, rewrittenSql);
+    }
+    return rewrittenSql;
+  }
+
+  private String applyRewrites(String sql) {
+    String rewrittenSql = sql;
+    for (QueryRewritesMetadata rewrite : this.rewrites) {
+      rewrittenSql = rewrite.apply(rewrittenSql);
+    }
+    return rewrittenSql;
+  }
+}
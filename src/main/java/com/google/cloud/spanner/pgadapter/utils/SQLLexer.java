@@ -0,0 +1,364 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.utils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Range;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Scans a SQL string once, and produces everything that the proxy needs to know about it before
+ * it is sent to the backend: the text without comments, the text with JDBC parameters, the command
+ * and the positions of the literals. See {@link LexedSQL}.
+ *
+ * The lexical rules are those of Spanner, which supports three types of comments:
+ * <ul>
+ * <li>Single line comments starting with '--'</li>
+ * <li>Single line comments starting with '#'</li>
+ * <li>Multi line comments between '/&#42;' and '&#42;/'</li>
+ * </ul>
+ * and single quoted, double quoted, backtick quoted and triple quoted literals, in which a
+ * backslash escapes the next character.
+ *
+ * Reference: https://cloud.google.com/spanner/docs/lexical
+ *
+ * The result is remembered for the most recently scanned SQL strings, as clients tend to send the
+ * same statements over and over again.
+ */
+public class SQLLexer {
+
+  private static final int MAX_CACHED_STATEMENTS = 1024;
+  // Longer statements are usually generated with inlined values, and are unlikely to be repeated.
+  private static final int MAX_CACHED_STATEMENT_LENGTH = 4096;
+
+  private static final char SINGLE_QUOTE = '\'';
+  private static final char DOUBLE_QUOTE = '"';
+  private static final char BACKTICK_QUOTE = '`';
+  private static final char HYPHEN = '-';
+  private static final char DASH = '#';
+  private static final char SLASH = '/';
+  private static final char ASTERISK = '*';
+  private static final char BACKSLASH = '\\';
+  private static final char DOLLAR = '$';
+
+  private static final Cache<String, LexedSQL> lexedStatements =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_STATEMENTS).build();
+
+  private SQLLexer() {
+  }
+
+  /**
+   * @param sql The SQL string as sent by the client.
+   * @return The scanned form of the SQL string.
+   */
+  public static LexedSQL lex(String sql) {
+    Preconditions.checkNotNull(sql);
+    if (sql.length() > MAX_CACHED_STATEMENT_LENGTH) {
+      return scan(sql);
+    }
+    LexedSQL lexedSql = lexedStatements.getIfPresent(sql);
+    if (lexedSql == null) {
+      lexedSql = scan(sql);
+      lexedStatements.put(sql, lexedSql);
+    }
+    return lexedSql;
+  }
+
+  /**
+   * Splits a string that may contain multiple statements, such as the body of a simple query
+   * message, at the semicolons that separate the statements. Semicolons in literals and comments
+   * do not separate statements.
+   *
+   * @param sql The SQL string as sent by the client.
+   * @return The statements in the string, without the semicolons and surrounding spaces.
+   * Statements that consist of nothing but comments and spaces are left out.
+   */
+  public static List<String> split(String sql) {
+    Preconditions.checkNotNull(sql);
+    List<String> statements = new ArrayList<>();
+    int length = sql.length();
+    int start = 0;
+    int index = 0;
+    while (index < length) {
+      char c = sql.charAt(index);
+      if (c == DASH || (c == HYPHEN && index + 1 < length && sql.charAt(index + 1) == HYPHEN)) {
+        int end = sql.indexOf('\n', index);
+        index = end < 0 ? length : end;
+      } else if (c == SLASH && index + 1 < length && sql.charAt(index + 1) == ASTERISK) {
+        int end = sql.indexOf("*/", index + 2);
+        index = end < 0 ? length : end + 2;
+      } else if (c == SINGLE_QUOTE || c == DOUBLE_QUOTE || c == BACKTICK_QUOTE) {
+        int end = findEndOfLiteral(sql, index);
+        index = end < 0 ? length : end;
+      } else if (c == BACKSLASH) {
+        index += 2;
+      } else if (c == ';') {
+        addStatement(statements, sql.substring(start, index));
+        start = ++index;
+      } else {
+        index++;
+      }
+    }
+    if (start < length) {
+      addStatement(statements, sql.substring(start));
+    }
+    return statements;
+  }
+
+  /**
+   * Replaces the constants in a scanned SQL string by numbered parameters, so that statements that
+   * only differ in their constants have the same normalized form. String literals, numbers and
+   * parameters ($n and ?) are replaced; backtick quoted identifiers are kept. Runs of spaces are
+   * collapsed into a single space.
+   *
+   * @param sql The SQL string without comments, as returned by {@link LexedSQL#getSql()}.
+   * @param literals The positions of the literals in the SQL string.
+   * @return The normalized SQL string, in which the constants are $1, $2, ...
+   */
+  static String normalize(String sql, List<Range<Integer>> literals) {
+    int length = sql.length();
+    StringBuilder result = new StringBuilder(length);
+    int parameter = 0;
+    int literal = 0;
+    int index = 0;
+    while (index < length) {
+      char c = sql.charAt(index);
+      if (literal < literals.size() && literals.get(literal).lowerEndpoint() == index) {
+        int end = Math.min(literals.get(literal++).upperEndpoint(), length);
+        if (c == BACKTICK_QUOTE) {
+          result.append(sql, index, end);
+        } else {
+          result.append(DOLLAR).append(++parameter);
+        }
+        index = end;
+      } else if (c == '?' || (c == DOLLAR && index + 1 < length
+          && Character.isDigit(sql.charAt(index + 1)))) {
+        index++;
+        while (index < length && Character.isDigit(sql.charAt(index))) {
+          index++;
+        }
+        result.append(DOLLAR).append(++parameter);
+      } else if (isStartOfNumber(sql, index)) {
+        index = findEndOfNumber(sql, index);
+        result.append(DOLLAR).append(++parameter);
+      } else if (Character.isWhitespace(c)) {
+        while (index < length && Character.isWhitespace(sql.charAt(index))) {
+          index++;
+        }
+        result.append(' ');
+      } else {
+        result.append(c);
+        index++;
+      }
+    }
+    return result.toString();
+  }
+
+  /**
+   * A number starts with a digit, or with a period that is followed by a digit, that is not part
+   * of a name such as t1.
+   */
+  private static boolean isStartOfNumber(String sql, int index) {
+    char c = sql.charAt(index);
+    boolean startsNumber = Character.isDigit(c)
+        || (c == '.' && index + 1 < sql.length() && Character.isDigit(sql.charAt(index + 1)));
+    return startsNumber && (index == 0 || !isWordCharacter(sql.charAt(index - 1)));
+  }
+
+  private static int findEndOfNumber(String sql, int start) {
+    int length = sql.length();
+    int index = start;
+    if (sql.startsWith("0x", index) || sql.startsWith("0X", index)) {
+      index += 2;
+      while (index < length && Character.digit(sql.charAt(index), 16) >= 0) {
+        index++;
+      }
+      return index;
+    }
+    while (index < length && (Character.isDigit(sql.charAt(index)) || sql.charAt(index) == '.')) {
+      index++;
+    }
+    if (index < length && (sql.charAt(index) == 'e' || sql.charAt(index) == 'E')) {
+      int exponent = index + 1;
+      if (exponent < length && (sql.charAt(exponent) == '+' || sql.charAt(exponent) == '-')) {
+        exponent++;
+      }
+      if (exponent < length && Character.isDigit(sql.charAt(exponent))) {
+        index = exponent;
+        while (index < length && Character.isDigit(sql.charAt(index))) {
+          index++;
+        }
+      }
+    }
+    return index;
+  }
+
+  private static void addStatement(List<String> statements, String statement) {
+    if (!lex(statement).getSql().isEmpty()) {
+      statements.add(statement.trim());
+    }
+  }
+
+  private static LexedSQL scan(String sql) {
+    int length = sql.length();
+    StringBuilder result = new StringBuilder(length);
+    StringBuilder jdbcResult = new StringBuilder(length);
+    List<Integer> parameterNumbers = new ArrayList<>();
+    List<Range<Integer>> literals = new ArrayList<>();
+    String command = null;
+    int commandStart = -1;
+    boolean unclosedLiteral = false;
+    int index = 0;
+    while (index < length) {
+      char c = sql.charAt(index);
+      if (command == null && commandStart >= 0 && !isWordCharacter(c)) {
+        command = result.substring(commandStart).toUpperCase(Locale.ENGLISH);
+      }
+      if (c == DASH || (c == HYPHEN && index + 1 < length && sql.charAt(index + 1) == HYPHEN)) {
+        // A single line comment. The line feed is kept.
+        int end = sql.indexOf('\n', index);
+        index = end < 0 ? length : end;
+        continue;
+      } else if (c == SLASH && index + 1 < length && sql.charAt(index + 1) == ASTERISK) {
+        int end = sql.indexOf("*/", index + 2);
+        index = end < 0 ? length : end + 2;
+        // The comment separates the tokens before and after it.
+        append(result, jdbcResult, ' ');
+        continue;
+      }
+      if (command == null && commandStart < 0 && !Character.isWhitespace(c) && c != '(') {
+        if (Character.isLetter(c)) {
+          commandStart = result.length();
+        } else {
+          command = "";
+        }
+      }
+      if (c == SINGLE_QUOTE || c == DOUBLE_QUOTE || c == BACKTICK_QUOTE) {
+        int start = result.length();
+        int end = findEndOfLiteral(sql, index);
+        if (end < 0) {
+          unclosedLiteral = true;
+          end = length;
+        }
+        result.append(sql, index, end);
+        jdbcResult.append(sql, index, end);
+        literals.add(Range.closedOpen(start, result.length()));
+        index = end;
+      } else if (c == BACKSLASH) {
+        int end = Math.min(index + 2, length);
+        result.append(sql, index, end);
+        jdbcResult.append(sql, index, end);
+        index = end;
+      } else if (c == DOLLAR && index + 1 < length && Character.isDigit(sql.charAt(index + 1))) {
+        int end = index + 1;
+        int number = 0;
+        while (end < length && Character.isDigit(sql.charAt(end))) {
+          number = number > (Integer.MAX_VALUE - 9) / 10
+              ? Integer.MAX_VALUE
+              : number * 10 + Character.digit(sql.charAt(end), 10);
+          end++;
+        }
+        result.append(sql, index, end);
+        jdbcResult.append('?');
+        parameterNumbers.add(number);
+        index = end;
+      } else {
+        append(result, jdbcResult, c);
+        index++;
+      }
+    }
+    if (command == null) {
+      command = commandStart < 0 ? "" : result.substring(commandStart).toUpperCase(Locale.ENGLISH);
+    }
+    trimEnd(result);
+    trimEnd(jdbcResult);
+    if (result.length() > 0 && result.charAt(result.length() - 1) == ';') {
+      result.setLength(result.length() - 1);
+      jdbcResult.setLength(jdbcResult.length() - 1);
+      trimEnd(result);
+      trimEnd(jdbcResult);
+    }
+    return new LexedSQL(sql,
+        result.toString(),
+        jdbcResult.toString(),
+        parameterNumbers,
+        command,
+        literals,
+        unclosedLiteral);
+  }
+
+  /**
+   * Returns the index after the quote that closes the literal that starts at the given index, or
+   * -1 if the literal is not closed. Only triple quoted literals may span multiple lines. A quote
+   * that is doubled does not close the literal.
+   */
+  private static int findEndOfLiteral(String sql, int start) {
+    char quote = sql.charAt(start);
+    boolean tripleQuoted = sql.startsWith(tripleQuote(quote), start);
+    int index = start + (tripleQuoted ? 3 : 1);
+    while (index < sql.length()) {
+      char c = sql.charAt(index);
+      if (c == BACKSLASH) {
+        index += 2;
+        continue;
+      } else if (tripleQuoted) {
+        if (sql.startsWith(tripleQuote(quote), index)) {
+          return index + 3;
+        }
+      } else if (c == '\n' || c == '\r') {
+        return -1;
+      } else if (c == quote) {
+        if (index + 1 < sql.length() && sql.charAt(index + 1) == quote) {
+          index += 2;
+          continue;
+        }
+        return index + 1;
+      }
+      index++;
+    }
+    return -1;
+  }
+
+  private static String tripleQuote(char quote) {
+    return new String(new char[]{quote, quote, quote});
+  }
+
+  private static boolean isWordCharacter(char c) {
+    return Character.isLetterOrDigit(c) || c == '_';
+  }
+
+  /**
+   * Appends a character that is the same in both results. Leading spaces are left out.
+   */
+  private static void append(StringBuilder result, StringBuilder jdbcResult, char c) {
+    if (result.length() == 0 && Character.isWhitespace(c)) {
+      return;
+    }
+    result.append(c);
+    jdbcResult.append(c);
+  }
+
+  private static void trimEnd(StringBuilder builder) {
+    int length = builder.length();
+    while (length > 0 && Character.isWhitespace(builder.charAt(length - 1))) {
+      length--;
+    }
+    builder.setLength(length);
+  }
+}
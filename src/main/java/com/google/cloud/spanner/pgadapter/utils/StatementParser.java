@@ -14,8 +14,6 @@
 
 package com.google.cloud.spanner.pgadapter.utils;
 
-import com.google.common.base.Preconditions;
-
 public class StatementParser {
 
   /**
@@ -33,92 +31,9 @@ public class StatementParser {
    * @return the sql statement without the comments and leading and trailing spaces.
    */
   public static String removeCommentsAndTrim(String sql) {
-    Preconditions.checkNotNull(sql);
-    final char SINGLE_QUOTE = '\'';
-    final char DOUBLE_QUOTE = '"';
-    final char BACKTICK_QUOTE = '`';
-    final char HYPHEN = '-';
-    final char DASH = '#';
-    final char SLASH = '/';
-    final char ASTERISK = '*';
-    boolean isInQuoted = false;
-    boolean isInSingleLineComment = false;
-    boolean isInMultiLineComment = false;
-    char startQuote = 0;
-    boolean lastCharWasEscapeChar = false;
-    boolean isTripleQuoted = false;
-    StringBuilder res = new StringBuilder(sql.length());
-    int index = 0;
-    while (index < sql.length()) {
-      char c = sql.charAt(index);
-      if (isInQuoted) {
-        if ((c == '\n' || c == '\r') && !isTripleQuoted) {
-          throw new IllegalArgumentException("SQL statement contains an unclosed literal: " + sql);
-        } else if (c == startQuote) {
-          if (lastCharWasEscapeChar) {
-            lastCharWasEscapeChar = false;
-          } else if (isTripleQuoted) {
-            if (sql.length() > index + 2 && sql.charAt(index + 1) == startQuote
-                && sql.charAt(index + 2) == startQuote) {
-              isInQuoted = false;
-              startQuote = 0;
-              isTripleQuoted = false;
-              res.append(c).append(c);
-              index += 2;
-            }
-          } else {
-            isInQuoted = false;
-            startQuote = 0;
-          }
-        } else
-          lastCharWasEscapeChar = c == '\\';
-        res.append(c);
-      } else {
-        // We are not in a quoted string.
-        if (isInSingleLineComment) {
-          if (c == '\n') {
-            isInSingleLineComment = false;
-            // Include the line feed in the result.
-            res.append(c);
-          }
-        } else if (isInMultiLineComment) {
-          if (sql.length() > index + 1 && c == ASTERISK && sql.charAt(index + 1) == SLASH) {
-            isInMultiLineComment = false;
-            index++;
-          }
-        } else {
-          if (c == DASH
-              || (sql.length() > index + 1 && c == HYPHEN && sql.charAt(index + 1) == HYPHEN)) {
-            // This is a single line comment.
-            isInSingleLineComment = true;
-          } else if (sql.length() > index + 1 && c == SLASH && sql.charAt(index + 1) == ASTERISK) {
-            isInMultiLineComment = true;
-            index++;
-          } else {
-            if (c == SINGLE_QUOTE || c == DOUBLE_QUOTE || c == BACKTICK_QUOTE) {
-              isInQuoted = true;
-              startQuote = c;
-              // Check whether it is a triple-quote.
-              if (sql.length() > index + 2 && sql.charAt(index + 1) == startQuote
-                  && sql.charAt(index + 2) == startQuote) {
-                isTripleQuoted = true;
-                res.append(c).append(c);
-                index += 2;
-              }
-            }
-            res.append(c);
-          }
-        }
-      }
-      index++;
-    }
-    if (isInQuoted) {
-      throw new IllegalArgumentException("SQL statement contains an unclosed literal: " + sql);
-    }
-    if (res.length() > 0 && res.charAt(res.length() - 1) == ';') {
-      res.deleteCharAt(res.length() - 1);
-    }
-    return res.toString().trim();
+    LexedSQL lexedSql = SQLLexer.lex(sql);
+    lexedSql.checkValid();
+    return lexedSql.getSql();
   }
 
   /**
@@ -40,7 +40,6 @@ public class CommandCompleteResponse extends WireOutput {
   protected void sendPayload() throws IOException {
     this.outputStream.write(command);
     this.outputStream.writeByte(NULL_TERMINATOR);
-    this.outputStream.flush();
   }
 
   @Override
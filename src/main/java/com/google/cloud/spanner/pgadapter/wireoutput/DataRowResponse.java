@@ -14,74 +14,35 @@
 
 package com.google.cloud.spanner.pgadapter.wireoutput;
 
-import com.google.cloud.spanner.pgadapter.ConnectionHandler.QueryMode;
-import com.google.cloud.spanner.pgadapter.ProxyServer.DataFormat;
-import com.google.cloud.spanner.pgadapter.metadata.OptionsMetadata;
-import com.google.cloud.spanner.pgadapter.statements.IntermediateStatement;
-import com.google.cloud.spanner.pgadapter.utils.Converter;
 import java.io.DataOutputStream;
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
- * Sends to the client specific row contents.
+ * Sends to the client specific row contents. The row is encoded by a {@link RowEncoder} when the
+ * response is sent, so the same response can be sent once for every row of a result set.
  */
 public class DataRowResponse extends WireOutput {
 
   private static final int HEADER_LENGTH = 4;
-  private static final int COLUMN_NUMBER_LENGTH = 2;
-  private static final int COLUMN_SIZE_LENGTH = 4;
 
+  private final RowEncoder encoder;
 
-  private final IntermediateStatement statement;
-  private final QueryMode mode;
-  private final ResultSet resultSet;
-  private final ResultSetMetaData metadata;
-  private final List<byte[]> columns;
+  public DataRowResponse(DataOutputStream output, RowEncoder encoder) {
+    super(output, HEADER_LENGTH);
+    this.encoder = encoder;
+  }
 
-  public DataRowResponse(DataOutputStream output,
-      IntermediateStatement statement,
-      OptionsMetadata options,
-      QueryMode mode) throws Exception {
-    super(output, 0);
-    this.statement = statement;
-    this.mode = mode;
-    this.resultSet = statement.getStatementResult();
-    this.metadata = resultSet.getMetaData();
-    this.columns = new ArrayList<>(this.metadata.getColumnCount());
-    this.length = HEADER_LENGTH + COLUMN_NUMBER_LENGTH;
-    // TODO profile this with immense rows/column count to see if it's an aread of optimization.
-    for (int column_index = 1; /* column indices start at 1 */
-        column_index <= this.metadata.getColumnCount();
-        column_index++) {
-      length += COLUMN_SIZE_LENGTH;
-      if (resultSet.getObject(column_index) == null) {
-        columns.add(null);
-      } else {
-        DataFormat format = DataFormat.getDataFormat(column_index, statement, this.mode, options);
-        byte[] column
-            = new Converter().parseData(this.resultSet, this.metadata, column_index, format);
-        length += column.length;
-        columns.add(column);
-      }
-    }
+  /**
+   * Encodes and sends the current row of the result set.
+   */
+  @Override
+  public void send() throws Exception {
+    this.length = HEADER_LENGTH + this.encoder.encodeRow();
+    super.send();
   }
 
   @Override
   protected void sendPayload() throws Exception {
-    this.outputStream.writeShort(this.metadata.getColumnCount());
-    for (byte[] column_value : columns) {
-      if (column_value == null) {
-        this.outputStream.writeInt(-1);
-      } else {
-        this.outputStream.writeInt(column_value.length);
-        this.outputStream.write(column_value);
-      }
-    }
-    this.outputStream.flush();
-
+    this.encoder.writeTo(this.outputStream);
   }
 
   @Override
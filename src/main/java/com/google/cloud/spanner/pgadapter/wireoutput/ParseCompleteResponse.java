@@ -29,7 +29,7 @@ public class ParseCompleteResponse extends WireOutput {
 
   @Override
   protected void sendPayload() throws IOException {
-    this.outputStream.flush();
+    // This message has no payload.
   }
 
   @Override
@@ -0,0 +1,170 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.wireoutput;
+
+import com.google.cloud.spanner.pgadapter.ConnectionHandler;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Fetches the next page of a suspended portal in the background, while the client is processing
+ * the page it received. The rows are encoded as complete data row messages, so that the next
+ * execute message for the portal can be answered from memory instead of waiting for the backend.
+ *
+ * The prefetcher stops when it has fetched a page, when the result set is exhausted, or when the
+ * memory that the {@link ConnectionHandler} allows for prefetching is used up. Only one thread uses
+ * the result set at any time: the connection handler waits for the prefetcher to finish before it
+ * takes any rows from it, and does not use the result set itself until the prefetcher is empty.
+ */
+public class PortalPrefetcher {
+
+  private static final int HEADER_LENGTH = 4;
+
+  private final ResultSet resultSet;
+  private final RowEncoder encoder;
+  private final ConnectionHandler connection;
+  private final long maxRows;
+  private final CompletableFuture<Void> done = new CompletableFuture<>();
+  // The following fields are only used by the background task until it completes the future, and
+  // only by the connection handler afterwards.
+  private final Deque<byte[]> rows = new ArrayDeque<>();
+  private boolean cursorHasMoreData = true;
+  private long reservedBytes;
+  private Exception failure;
+  private volatile boolean cancelled;
+
+  /**
+   * @param resultSet The result set of the portal, positioned on the first row that has not been
+   * sent.
+   * @param encoder The encoder for the rows of the result set.
+   * @param connection The connection that the memory for the prefetched rows is reserved on.
+   * @param maxRows The maximum number of rows to fetch.
+   */
+  public PortalPrefetcher(ResultSet resultSet,
+      RowEncoder encoder,
+      ConnectionHandler connection,
+      long maxRows) {
+    this.resultSet = resultSet;
+    this.encoder = encoder;
+    this.connection = connection;
+    this.maxRows = maxRows;
+  }
+
+  /**
+   * Starts fetching rows.
+   *
+   * @param executor The executor to fetch the rows on.
+   */
+  public void start(Executor executor) {
+    try {
+      executor.execute(this::fetch);
+    } catch (RejectedExecutionException e) {
+      // The server is stopping; the rows are fetched when the client asks for them.
+      this.done.complete(null);
+    }
+  }
+
+  private void fetch() {
+    try {
+      while (!this.cancelled && this.rows.size() < this.maxRows) {
+        int length = this.encoder.encodeRow();
+        byte[] message = new byte[1 + HEADER_LENGTH + length];
+        if (!this.connection.reservePrefetchMemory(message.length)) {
+          break;
+        }
+        this.reservedBytes += message.length;
+        message[0] = 'D';
+        int messageLength = HEADER_LENGTH + length;
+        message[1] = (byte) (messageLength >>> 24);
+        message[2] = (byte) (messageLength >>> 16);
+        message[3] = (byte) (messageLength >>> 8);
+        message[4] = (byte) messageLength;
+        this.encoder.copyTo(message, 1 + HEADER_LENGTH);
+        this.rows.add(message);
+        this.cursorHasMoreData = this.resultSet.next();
+        if (!this.cursorHasMoreData) {
+          break;
+        }
+      }
+    } catch (Exception e) {
+      this.failure = e;
+    } finally {
+      this.done.complete(null);
+    }
+  }
+
+  /**
+   * Waits for the prefetcher to finish and sends the rows it has fetched.
+   *
+   * @param output The stream to write the data row messages to.
+   * @param maxRows The maximum number of rows to send, or 0 to send all fetched rows.
+   * @return The number of rows that were sent.
+   * @throws Exception if fetching failed before any row was fetched, or if the stream could not be
+   * written to.
+   */
+  public long writeRows(OutputStream output, long maxRows) throws Exception {
+    this.done.join();
+    if (this.rows.isEmpty() && this.failure != null) {
+      Exception failure = this.failure;
+      this.failure = null;
+      this.cursorHasMoreData = false;
+      throw failure;
+    }
+    long sent = 0;
+    while (!this.rows.isEmpty() && (maxRows == 0 || sent < maxRows)) {
+      byte[] message = this.rows.poll();
+      output.write(message);
+      release(message.length);
+      sent++;
+    }
+    return sent;
+  }
+
+  /**
+   * @return True if all fetched rows have been sent.
+   */
+  public boolean isEmpty() {
+    this.done.join();
+    return this.rows.isEmpty() && this.failure == null;
+  }
+
+  /**
+   * @return True if the result set is positioned on a row that has not been fetched.
+   */
+  public boolean cursorHasMoreData() {
+    this.done.join();
+    return this.cursorHasMoreData;
+  }
+
+  /**
+   * Stops fetching, waits for the background task to finish, and discards all fetched rows.
+   */
+  public void close() {
+    this.cancelled = true;
+    this.done.join();
+    this.rows.clear();
+    release(this.reservedBytes);
+  }
+
+  private void release(long bytes) {
+    this.reservedBytes -= bytes;
+    this.connection.releasePrefetchMemory(bytes);
+  }
+}
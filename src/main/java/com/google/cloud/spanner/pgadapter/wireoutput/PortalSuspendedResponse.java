@@ -18,7 +18,8 @@ import java.io.DataOutputStream;
 import java.text.MessageFormat;
 
 /**
- * Signals that there are more rows available.
+ * Signals that there are more rows available. This is a protocol boundary, so any buffered output
+ * is flushed.
  */
 public class PortalSuspendedResponse extends WireOutput {
 
@@ -28,7 +29,8 @@ public class PortalSuspendedResponse extends WireOutput {
 
   @Override
   protected void sendPayload() throws Exception {
-    // Do nothing
+    // The client waits for the next Execute after this, so everything must be sent now.
+    this.outputStream.flush();
   }
 
   @Override
@@ -17,6 +17,7 @@ package com.google.cloud.spanner.pgadapter.wireoutput;
 import com.google.cloud.spanner.pgadapter.ConnectionHandler.QueryMode;
 import com.google.cloud.spanner.pgadapter.ProxyServer.DataFormat;
 import com.google.cloud.spanner.pgadapter.metadata.OptionsMetadata;
+import com.google.cloud.spanner.pgadapter.parsers.Parser;
 import com.google.cloud.spanner.pgadapter.statements.IntermediateStatement;
 import org.postgresql.core.Oid;
 
@@ -105,7 +106,6 @@ public class RowDescriptionResponse extends WireOutput {
                 this.statement.getResultFormatCode(column_index);
         this.outputStream.writeShort(format);
       }
-      this.outputStream.flush();
   }
 
   private int inferPGOidFromMetadata(int columnIndex) throws SQLException {
@@ -115,11 +115,23 @@ public class RowDescriptionResponse extends WireOutput {
       case "INT64": return Oid.INT8;
       case "DATE": return Oid.DATE;
       case "NUMERIC": return Oid.NUMERIC;
+      case "BOOL":
       case "BOOLEAN": return Oid.BOOL;
-      default: return 0;
+      case "TIMESTAMP": return Oid.TIMESTAMPTZ;
+      case "BYTES": return Oid.BYTEA;
+      case "ARRAY<STRING>": return Oid.VARCHAR_ARRAY;
+      case "ARRAY<FLOAT64>": return Oid.FLOAT8_ARRAY;
+      case "ARRAY<INT64>": return Oid.INT8_ARRAY;
+      case "ARRAY<DATE>": return Oid.DATE_ARRAY;
+      case "ARRAY<NUMERIC>": return Oid.NUMERIC_ARRAY;
+      case "ARRAY<BOOL>":
+      case "ARRAY<BOOLEAN>": return Oid.BOOL_ARRAY;
+      case "ARRAY<TIMESTAMP>": return Oid.TIMESTAMPTZ_ARRAY;
+      case "ARRAY<BYTES>": return Oid.BYTEA_ARRAY;
+      default: return Parser.toOid(metadata.getColumnType(columnIndex));
     }
   }
-  
+
   @Override
   public byte getIdentifier() {
     return 'T';
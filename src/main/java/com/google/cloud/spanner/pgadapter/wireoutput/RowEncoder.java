@@ -0,0 +1,89 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.wireoutput;
+
+import com.google.cloud.spanner.pgadapter.ConnectionHandler.QueryMode;
+import com.google.cloud.spanner.pgadapter.ProxyServer.DataFormat;
+import com.google.cloud.spanner.pgadapter.metadata.OptionsMetadata;
+import com.google.cloud.spanner.pgadapter.parsers.ColumnEncoder;
+import com.google.cloud.spanner.pgadapter.parsers.RowBuffer;
+import com.google.cloud.spanner.pgadapter.statements.IntermediateStatement;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * The plan for encoding the rows of one result set. The type and format of each column are
+ * resolved once, when the result set is about to be sent, instead of for every value. Encoding a
+ * row is then a single pass over the column encoders.
+ */
+public class RowEncoder {
+
+  private final ResultSet resultSet;
+  private final ColumnEncoder[] encoders;
+  private final RowBuffer buffer = new RowBuffer();
+
+  public RowEncoder(IntermediateStatement statement,
+      OptionsMetadata options,
+      QueryMode mode) throws SQLException {
+    this.resultSet = statement.getStatementResult();
+    ResultSetMetaData metadata = this.resultSet.getMetaData();
+    this.encoders = new ColumnEncoder[metadata.getColumnCount()];
+    for (int column_index = 1; /* column indices start at 1 */
+        column_index <= this.encoders.length;
+        column_index++) {
+      DataFormat format = DataFormat.getDataFormat(column_index, statement, mode, options);
+      this.encoders[column_index - 1]
+          = ColumnEncoder.create(metadata.getColumnType(column_index), format);
+    }
+  }
+
+  /**
+   * Encodes the current row of the result set, replacing the previously encoded row.
+   *
+   * @return The length of the encoded row.
+   * @throws SQLException if a value could not be read from the result set.
+   */
+  public int encodeRow() throws SQLException {
+    this.buffer.reset();
+    this.buffer.writeShort(this.encoders.length);
+    for (int column = 0; column < this.encoders.length; column++) {
+      this.encoders[column].encode(this.resultSet, column + 1, this.buffer);
+    }
+    return this.buffer.size();
+  }
+
+  /**
+   * Writes the row that was last encoded to the given stream.
+   *
+   * @param output The stream to write to.
+   * @throws IOException if the stream could not be written to.
+   */
+  public void writeTo(OutputStream output) throws IOException {
+    this.buffer.writeTo(output);
+  }
+
+  /**
+   * Copies the row that was last encoded into an array.
+   *
+   * @param target The array to copy to.
+   * @param offset The position in the array of the first byte of the row.
+   */
+  public void copyTo(byte[] target, int offset) {
+    this.buffer.copyTo(target, offset);
+  }
+}
@@ -14,6 +14,7 @@
 
 package com.google.cloud.spanner.pgadapter.wireoutput;
 
+import com.google.cloud.spanner.pgadapter.utils.ProtocolTracer;
 import java.io.DataOutputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
@@ -29,6 +30,11 @@ import java.util.logging.Logger;
  * must override postSend with data you wish to send. Note that this subclass will handle
  * sending the identifier and length (provided you initialize them correctly through getIdentifier
  * and he constructor respectively) via send, so you just have to implement payload sending.
+ *
+ * Output is buffered per connection. Only responses after which the client waits for the server
+ * (such as {@link ReadyResponse}, {@link PortalSuspendedResponse} and authentication requests)
+ * flush the output stream; all other responses are sent together with the next flush, or when the
+ * buffer is full.
  */
 public abstract class WireOutput {
 
@@ -53,7 +59,14 @@ public abstract class WireOutput {
    * @throws Exception
    */
   public void send() throws Exception {
-    logger.log(Level.FINE, this.toString());
+    if (logger.isLoggable(Level.FINE)) {
+      // Only format the message when it is actually logged, as this is called for every row.
+      logger.log(Level.FINE, this.toString());
+    }
+    if (ProtocolTracer.isTracing()) {
+      ProtocolTracer.trace('<', String.valueOf((char) this.getIdentifier()),
+          this.getMessageName(), this.getPayloadString());
+    }
     this.outputStream.writeByte(this.getIdentifier());
     if(this.isCompoundResponse()) {
       this.outputStream.writeInt(this.length);
@@ -15,6 +15,8 @@
 package com.google.cloud.spanner.pgadapter.wireprotocol;
 
 import com.google.cloud.spanner.pgadapter.ConnectionHandler;
+import com.google.cloud.spanner.pgadapter.statements.DmlBatch;
+import com.google.cloud.spanner.pgadapter.statements.IntermediatePortalStatement;
 import com.google.cloud.spanner.pgadapter.statements.IntermediatePreparedStatement;
 import com.google.cloud.spanner.pgadapter.wireoutput.BindCompleteResponse;
 import java.text.MessageFormat;
@@ -54,10 +56,33 @@ public class BindMessage extends ControlMessage {
    */
   @Override
   protected void sendPayload() throws Exception {
-    this.connection.registerPortal(
-        this.portalName,
-        this.statement.bind(this.parameters, this.formatCodes, this.resultFormatCodes, this.connection));
-    new BindCompleteResponse(this.outputStream).send();
+    DmlBatch batch = this.connection.getBatch();
+    if (batch != null && !batch.isBatchOf(this.statement.getSql())) {
+      this.connection.flushBatch(this.outputStream);
+      if (this.connection.isIgnoreTillSync()) {
+        return;
+      }
+      batch = null;
+    }
+    if (this.connection.hasPortal(this.portalName)) {
+      // Close the portal that is replaced first, so that the new portal can reuse its backend
+      // statement when the statement is cached.
+      this.connection.closePortal(this.portalName);
+    }
+    IntermediatePortalStatement portal =
+        this.statement.bind(this.parameters, this.formatCodes, this.resultFormatCodes, this.connection);
+    this.connection.registerPortal(this.portalName, portal);
+    if (batch != null) {
+      // The client may only be told about this bind after the executes before it in the batch.
+      batch.addBind(portal);
+    } else {
+      new BindCompleteResponse(this.outputStream).send();
+    }
+  }
+
+  @Override
+  protected boolean isBatchable() {
+    return true;
   }
 
   @Override
@@ -32,6 +32,7 @@ public abstract class BootstrapMessage extends WireMessage {
 
   public BootstrapMessage(ConnectionHandler connection, int length) {
     super(connection, length);
+    connection.recordBytesReceived(length);
   }
 
   /**
@@ -16,19 +16,29 @@ package com.google.cloud.spanner.pgadapter.wireprotocol;
 
 import com.google.cloud.spanner.pgadapter.ConnectionHandler;
 import com.google.cloud.spanner.pgadapter.ConnectionHandler.QueryMode;
+import com.google.cloud.spanner.pgadapter.ProxyServer;
+import com.google.cloud.spanner.pgadapter.metadata.OptionsMetadata;
 import com.google.cloud.spanner.pgadapter.metadata.SendResultSetState;
+import com.google.cloud.spanner.pgadapter.metrics.ProxyMetrics;
+import com.google.cloud.spanner.pgadapter.metrics.StatementStatistics;
+import com.google.cloud.spanner.pgadapter.metrics.StatementTimings;
+import com.google.cloud.spanner.pgadapter.metrics.StatementTimings.Phase;
 import com.google.cloud.spanner.pgadapter.statements.IntermediateStatement;
 import com.google.cloud.spanner.pgadapter.wireoutput.CommandCompleteResponse;
 import com.google.cloud.spanner.pgadapter.wireoutput.DataRowResponse;
 import com.google.cloud.spanner.pgadapter.wireoutput.ErrorResponse;
 import com.google.cloud.spanner.pgadapter.wireoutput.ErrorResponse.State;
+import com.google.cloud.spanner.pgadapter.wireoutput.PortalPrefetcher;
 import com.google.cloud.spanner.pgadapter.wireoutput.PortalSuspendedResponse;
 import com.google.cloud.spanner.pgadapter.wireoutput.ReadyResponse;
+import com.google.cloud.spanner.pgadapter.wireoutput.RowEncoder;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.ResultSet;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Generic representation for a control wire message: that is, a message which does not handle
@@ -38,6 +48,8 @@ public abstract class ControlMessage extends WireMessage {
 
   public ControlMessage(ConnectionHandler connection) throws IOException {
     super(connection, connection.getConnectionMetadata().getInputStream().readInt());
+    // The length does not include the identifier byte.
+    connection.recordBytesReceived(this.length + 1L);
   }
 
   /**
@@ -50,6 +62,12 @@ public abstract class ControlMessage extends WireMessage {
   public static ControlMessage create(ConnectionHandler connection)
       throws Exception {
     char nextMsg = (char) connection.getConnectionMetadata().getInputStream().readUnsignedByte();
+    connection.setDoingExtendedQueryMessage(isExtendedQueryMessage(nextMsg));
+    if (connection.isIgnoreTillSync()
+        && nextMsg != SyncMessage.IDENTIFIER
+        && nextMsg != TerminateMessage.IDENTIFIER) {
+      return new IgnoredMessage(connection, nextMsg);
+    }
 
     switch (nextMsg) {
       case QueryMessage.IDENTIFIER:
@@ -83,6 +101,96 @@ public abstract class ControlMessage extends WireMessage {
     }
   }
 
+  /**
+   * Whether a message is handled with the backend connection. The non-blocking transport obtains
+   * the backend connection before it hands such a message to the connection handler.
+   *
+   * @param connection The connection handler that the message is for.
+   * @param message A complete message, starting with its identifier byte.
+   * @return False if the message is answered without a backend connection.
+   */
+  public static boolean needsBackendConnection(ConnectionHandler connection, byte[] message) {
+    if (connection.isIgnoreTillSync()) {
+      return false;
+    }
+    switch ((char) (message[0] & 0xFF)) {
+      case QueryMessage.IDENTIFIER:
+        // The query string follows the identifier and the length, and is null-terminated.
+        return QueryMessage.needsBackendConnection(connection,
+            new String(message, 5, Math.max(message.length - 6, 0), StandardCharsets.UTF_8));
+      case ParseMessage.IDENTIFIER:
+      case BindMessage.IDENTIFIER:
+      case DescribeMessage.IDENTIFIER:
+      case ExecuteMessage.IDENTIFIER:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * @return True if a message with the given identifier belongs to the extended query protocol.
+   * Sync is not included, as it ends the sequence of extended query messages.
+   */
+  private static boolean isExtendedQueryMessage(char identifier) {
+    switch (identifier) {
+      case ParseMessage.IDENTIFIER:
+      case BindMessage.IDENTIFIER:
+      case DescribeMessage.IDENTIFIER:
+      case ExecuteMessage.IDENTIFIER:
+      case CloseMessage.IDENTIFIER:
+      case FlushMessage.IDENTIFIER:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Sends the results of the pending DML batch of the connection before this message is handled,
+   * unless this message can add to the batch. The message is ignored if the batch fails.
+   */
+  @Override
+  public void send() throws Exception {
+    ProxyMetrics metrics = this.connection.getMetrics();
+    if (metrics == null) {
+      handle();
+      return;
+    }
+    long start = System.nanoTime();
+    metrics.messageStarted();
+    try {
+      handle();
+    } finally {
+      metrics.messageFinished(this.getIdentifier().charAt(0), System.nanoTime() - start);
+    }
+  }
+
+  private void handle() throws Exception {
+    if (!this.isBatchable()) {
+      this.connection.flushBatch(this.outputStream);
+    }
+    if (this.connection.isIgnoreTillSync() && this.isIgnoredAfterError()) {
+      return;
+    }
+    super.send();
+  }
+
+  /**
+   * @return True if this message handles the pending DML batch of the connection itself, as it can
+   * add to it.
+   */
+  protected boolean isBatchable() {
+    return false;
+  }
+
+  /**
+   * @return False if this message is handled even after an error in the extended query protocol.
+   */
+  protected boolean isIgnoredAfterError() {
+    return true;
+  }
+
   /**
    * Extract format codes from message (useful for both input and output format codes).
    *
@@ -122,8 +230,27 @@ public abstract class ControlMessage extends WireMessage {
    * @throws Exception if there is some issue in the sending of the error messages.
    */
   protected void handleError(Exception e) throws Exception {
+    this.connection.recordError(State.InternalError);
     new ErrorResponse(this.outputStream, e, State.InternalError).send();
+    if (this.connection.isDoingExtendedQueryMessage()) {
+      // The client is told that the server is ready once it sends Sync.
+      this.connection.setIgnoreTillSync(true);
+    } else {
+      this.sendReadyForQuery();
+    }
+  }
+
+  /**
+   * Tells the client that the server is ready for the next query. The connection handler is told
+   * first, as it may give its backend connection back to the pool at this point.
+   *
+   * @throws Exception if sending the message fails.
+   */
+  protected void sendReadyForQuery() throws Exception {
+    this.connection.readyForQuery();
+    long clientWriteNanos = this.connection.getClientWriteNanos();
     new ReadyResponse(this.outputStream, ReadyResponse.Status.IDLE).send();
+    this.connection.readyForQuerySent(this.connection.getClientWriteNanos() - clientWriteNanos);
   }
 
   /**
@@ -147,6 +274,7 @@ public abstract class ControlMessage extends WireMessage {
         statement.setHasMoreData(state.hasMoreRows());
         if (state.hasMoreRows()) {
           new PortalSuspendedResponse(this.outputStream).send();
+          startPrefetch(statement, mode, maxRows);
         } else {
           statement.getStatementResult().close();
           new CommandCompleteResponse(
@@ -154,8 +282,7 @@ public abstract class ControlMessage extends WireMessage {
         }
         return state.hasMoreRows();
       case UPDATE_COUNT:
-        command += ("INSERT ".equals(command)? "0 " : "") + statement.getUpdateCount();
-        new CommandCompleteResponse(this.outputStream, command).send();
+        new CommandCompleteResponse(this.outputStream, statement.getUpdateCommandTag()).send();
         return false;
       default:
         throw new IllegalStateException(
@@ -177,25 +304,105 @@ public abstract class ControlMessage extends WireMessage {
   public SendResultSetState sendResultSet(IntermediateStatement describedResult,
       QueryMode mode,
       long maxRows) throws Exception {
+    ProxyMetrics metrics = this.connection.getMetrics();
+    StatementStatistics.Entry statistics = describedResult.getStatisticsEntry();
+    StatementTimings timings = describedResult.getTimings();
+    if (metrics == null && statistics == null && timings == null) {
+      return writeResultSet(describedResult, mode, maxRows);
+    }
+    long start = System.nanoTime();
+    // The byte count of the stream stops at Integer.MAX_VALUE, after which nothing is counted.
+    int startSize = this.outputStream.size();
+    long startFetchNanos = timings == null ? 0L : timings.getNanos(Phase.FETCH);
+    long startClientWriteNanos = this.connection.getClientWriteNanos();
+    SendResultSetState state = writeResultSet(describedResult, mode, maxRows);
+    long nanos = System.nanoTime() - start;
+    int bytes = this.outputStream.size() - startSize;
+    if (metrics != null) {
+      metrics.recordResultSend(nanos, state.getNumberOfRowsSent());
+    }
+    if (statistics != null) {
+      statistics.recordResultSent(nanos, state.getNumberOfRowsSent(), bytes);
+    }
+    if (timings != null) {
+      long fetchNanos = timings.getNanos(Phase.FETCH) - startFetchNanos;
+      long clientWriteNanos = this.connection.getClientWriteNanos() - startClientWriteNanos;
+      timings.add(Phase.CLIENT_WRITE, clientWriteNanos);
+      timings.add(Phase.ENCODE, Math.max(nanos - fetchNanos - clientWriteNanos, 0L));
+      timings.addRows(state.getNumberOfRowsSent());
+      timings.addBytes(bytes);
+    }
+    return state;
+  }
+
+  private SendResultSetState writeResultSet(IntermediateStatement describedResult,
+      QueryMode mode,
+      long maxRows) throws Exception {
     long rows = 0;
     boolean hasData = describedResult.isHasMoreData();
+    PortalPrefetcher prefetcher = describedResult.getPrefetcher();
+    if (prefetcher != null) {
+      rows = prefetcher.writeRows(this.outputStream, maxRows);
+      if (!prefetcher.isEmpty()) {
+        return new SendResultSetState(rows, true);
+      }
+      // Continue with the rows that the prefetcher did not get to.
+      describedResult.setPrefetcher(null);
+      hasData = prefetcher.cursorHasMoreData();
+    }
     ResultSet resultSet = describedResult.getStatementResult();
-    // TODO optimize loop
-    while (hasData) {
-      new DataRowResponse(
-          this.outputStream, describedResult,
-          this.connection.getServer().getOptions(),
-          mode).send();
+    StatementTimings timings = describedResult.getTimings();
+    OptionsMetadata options = this.connection.getServer().getOptions();
+    // Rows are buffered, but not for longer than the flush interval, so that the client receives
+    // the first rows of a slow result without waiting for the entire result. The buffer is flushed
+    // before the next row is fetched, as fetching may take longer than the interval, and the first
+    // row is always flushed right away.
+    long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(options.getOutputFlushIntervalMillis());
+    long lastFlush = System.nanoTime();
+    // A portal that has already sent all its rows has a closed result set.
+    DataRowResponse row = null;
+    while (hasData && (maxRows == 0 || rows < maxRows)) {
+      if (row == null) {
+        row = new DataRowResponse(
+            this.outputStream, new RowEncoder(describedResult, options, mode));
+      }
+      row.send();
       rows++;
+      if (rows == 1 || System.nanoTime() - lastFlush >= flushIntervalNanos) {
+        this.outputStream.flush();
+        lastFlush = System.nanoTime();
+      }
+      long fetchStart = timings == null ? 0L : System.nanoTime();
       try {
         hasData = resultSet.next();
       } catch (Exception e) {
         System.err.println("Something went wrong with getting next!");
       }
-      if (rows == maxRows) {
-        break;
+      if (timings != null) {
+        timings.add(Phase.FETCH, System.nanoTime() - fetchStart);
       }
     }
     return new SendResultSetState(rows, hasData);
   }
+
+  /**
+   * Starts fetching the next page of a suspended portal in the background, if prefetching is
+   * enabled. The client will normally ask for the next page after it has processed this one, and
+   * the page is then sent from memory.
+   */
+  private void startPrefetch(IntermediateStatement statement, QueryMode mode, long maxRows)
+      throws Exception {
+    ProxyServer server = this.connection.getServer();
+    if (server == null
+        || server.getPrefetchExecutor() == null
+        || server.getOptions().getPrefetchMemoryBytes() == 0
+        || maxRows <= 0
+        || statement.getPrefetcher() != null) {
+      return;
+    }
+    PortalPrefetcher prefetcher = new PortalPrefetcher(statement.getStatementResult(),
+        new RowEncoder(statement, server.getOptions(), mode), this.connection, maxRows);
+    statement.setPrefetcher(prefetcher);
+    prefetcher.start(server.getPrefetchExecutor());
+  }
 }
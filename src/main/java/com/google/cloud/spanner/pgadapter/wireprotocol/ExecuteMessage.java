@@ -16,6 +16,8 @@ package com.google.cloud.spanner.pgadapter.wireprotocol;
 
 import com.google.cloud.spanner.pgadapter.ConnectionHandler;
 import com.google.cloud.spanner.pgadapter.ConnectionHandler.QueryMode;
+import com.google.cloud.spanner.pgadapter.statements.DmlBatch;
+import com.google.cloud.spanner.pgadapter.statements.IntermediatePortalStatement;
 import com.google.cloud.spanner.pgadapter.statements.IntermediateStatement;
 import java.text.MessageFormat;
 
@@ -37,12 +39,46 @@ public class ExecuteMessage extends ControlMessage {
     this.statement = this.connection.getPortal(this.name);
   }
 
+  /**
+   * Executes the portal, or, if the portal has already been executed and was suspended after
+   * sending the maximum number of rows, continues sending rows from where the previous execute
+   * left off. The statement is never executed twice for the same portal.
+   *
+   * DML statements are not executed right away, but added to the batch of the connection, so that
+   * consecutive executions of the same statement are sent to the backend together. The batch is
+   * executed when a message arrives that cannot be added to it, such as Sync.
+   */
   @Override
   protected void sendPayload() throws Exception {
-    this.statement.execute();
+    this.connection.queryStarted(this.statement.getSql());
+    DmlBatch batch = this.connection.getBatch();
+    if (batch != null
+        && DmlBatch.canBatch(this.statement)
+        && batch.isBatchOf(this.statement.getSql())
+        && batch.addExecute((IntermediatePortalStatement) this.statement)) {
+      return;
+    }
+    this.connection.flushBatch(this.outputStream);
+    if (this.connection.isIgnoreTillSync()) {
+      return;
+    }
+    if (DmlBatch.canBatch(this.statement)) {
+      batch = new DmlBatch(this.connection, this.statement.getSql());
+      batch.addExecute((IntermediatePortalStatement) this.statement);
+      this.connection.setBatch(batch);
+      return;
+    }
+    if (!this.statement.isExecuted()) {
+      this.statement.execute();
+    }
     this.handleExecute();
   }
 
+  @Override
+  protected boolean isBatchable() {
+    return true;
+  }
+
   @Override
   protected String getMessageName() {
     return "Execute";
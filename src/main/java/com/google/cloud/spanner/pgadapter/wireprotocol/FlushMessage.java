@@ -15,13 +15,12 @@
 package com.google.cloud.spanner.pgadapter.wireprotocol;
 
 import com.google.cloud.spanner.pgadapter.ConnectionHandler;
-import com.google.cloud.spanner.pgadapter.wireoutput.ReadyResponse;
-import com.google.cloud.spanner.pgadapter.wireoutput.ReadyResponse.Status;
 import java.text.MessageFormat;
 
 /**
- * Handles a flush command from the user. JDBC does not require this step, so server-side this is a
- * noop.
+ * Handles a flush command from the user: all responses that are still buffered, including those of
+ * batched statements, are sent to the client. Unlike Sync, Flush does not end the extended query
+ * pipeline, so the server does not tell the client that it is ready for a new query.
  */
 public class FlushMessage extends ControlMessage {
 
@@ -33,7 +32,7 @@ public class FlushMessage extends ControlMessage {
 
   @Override
   protected void sendPayload() throws Exception {
-    new ReadyResponse(this.outputStream, Status.IDLE).send();
+    this.outputStream.flush();
   }
 
   @Override
@@ -0,0 +1,53 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter.wireprotocol;
+
+import com.google.cloud.spanner.pgadapter.ConnectionHandler;
+import java.text.MessageFormat;
+
+/**
+ * A message that is received after an error in the extended query protocol, and before the next
+ * Sync. Like PostgreSQL, the server reads and discards such messages without handling them.
+ */
+public class IgnoredMessage extends ControlMessage {
+
+  private final char identifier;
+
+  public IgnoredMessage(ConnectionHandler connection, char identifier) throws Exception {
+    super(connection);
+    this.identifier = identifier;
+    this.inputStream.readFully(new byte[this.length - this.getHeaderLength()]);
+  }
+
+  @Override
+  protected void sendPayload() throws Exception {
+    // The message is ignored.
+  }
+
+  @Override
+  protected String getMessageName() {
+    return "Ignored";
+  }
+
+  @Override
+  protected String getPayloadString() {
+    return new MessageFormat("Length: {0}").format(new Object[]{this.length});
+  }
+
+  @Override
+  protected String getIdentifier() {
+    return String.valueOf(this.identifier);
+  }
+}
@@ -15,7 +15,9 @@
 package com.google.cloud.spanner.pgadapter.wireprotocol;
 
 import com.google.cloud.spanner.pgadapter.ConnectionHandler;
+import com.google.cloud.spanner.pgadapter.metrics.StatementTimings.Phase;
 import com.google.cloud.spanner.pgadapter.statements.IntermediatePreparedStatement;
+import com.google.cloud.spanner.pgadapter.statements.PreparedStatementCache;
 import com.google.cloud.spanner.pgadapter.utils.StatementParser;
 import com.google.cloud.spanner.pgadapter.wireoutput.ParseCompleteResponse;
 import com.google.common.base.Strings;
@@ -37,16 +39,25 @@ public class ParseMessage extends ControlMessage {
   public ParseMessage(ConnectionHandler connection) throws Exception {
     super(connection);
     this.name = this.readString();
-    String queryString = StatementParser.removeCommentsAndTrim(this.readString());
+    String queryString = this.readString();
     this.parameterDataTypes = new ArrayList<>();
     short numberOfParameters = this.inputStream.readShort();
     for (int i = 0; i < numberOfParameters; i++) {
       this.parameterDataTypes.add(this.inputStream.readInt());
     }
-    this.statement = new IntermediatePreparedStatement(
-        queryString,
-        connection);
+    long start = System.nanoTime();
+    PreparedStatementCache statementCache = connection.getStatementCache();
+    if (statementCache == null) {
+      this.statement = new IntermediatePreparedStatement(
+          StatementParser.removeCommentsAndTrim(queryString),
+          connection);
+    } else {
+      this.statement = new IntermediatePreparedStatement(
+          statementCache.get(queryString, connection),
+          connection);
+    }
     this.statement.setParameterDataTypes(this.parameterDataTypes);
+    this.statement.recordTime(Phase.PARSE, start);
   }
 
   @Override
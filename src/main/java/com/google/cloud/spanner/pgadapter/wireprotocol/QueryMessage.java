@@ -16,17 +16,40 @@ package com.google.cloud.spanner.pgadapter.wireprotocol;
 
 import com.google.cloud.spanner.pgadapter.ConnectionHandler;
 import com.google.cloud.spanner.pgadapter.ConnectionHandler.QueryMode;
+import com.google.cloud.spanner.pgadapter.metrics.StatementTimings.Phase;
+import com.google.cloud.spanner.pgadapter.statements.ActivityStatement;
+import com.google.cloud.spanner.pgadapter.statements.AdminStatement;
+import com.google.cloud.spanner.pgadapter.statements.CatalogStatement;
+import com.google.cloud.spanner.pgadapter.statements.DmlBatch;
 import com.google.cloud.spanner.pgadapter.statements.IntermediateStatement;
+import com.google.cloud.spanner.pgadapter.statements.LocalStatement;
 import com.google.cloud.spanner.pgadapter.statements.PSQLStatement;
-import com.google.cloud.spanner.pgadapter.wireoutput.CommandCompleteResponse;
-import com.google.cloud.spanner.pgadapter.wireoutput.ReadyResponse;
+import com.google.cloud.spanner.pgadapter.statements.StatisticsStatement;
+import com.google.cloud.spanner.pgadapter.utils.LexedSQL.Kind;
+import com.google.cloud.spanner.pgadapter.utils.SQLLexer;
 import com.google.cloud.spanner.pgadapter.wireoutput.RowDescriptionResponse;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Executes a simple statement.
+ * Executes a simple statement, or a script of multiple statements separated by semicolons. The
+ * statements of a script are executed in order, and each gets its own result, with a single
+ * ReadyForQuery at the end. The script stops at the first statement that fails, as PostgreSQL
+ * does. Consecutive DML statements in a script are sent to the backend as a single batch.
+ *
+ * <p>A script of queries and DML statements that is sent outside of a transaction is executed in
+ * a single transaction, which is committed after the last statement and rolled back if a statement
+ * fails, like the implicit transaction of PostgreSQL. The statements of other scripts are each
+ * committed on their own, as the backend does not allow DDL statements or changes of settings in a
+ * transaction.
  */
 public class QueryMessage extends ControlMessage {
 
@@ -34,50 +57,268 @@ public class QueryMessage extends ControlMessage {
 
   protected static final char IDENTIFIER = 'Q';
 
-  private boolean skipSet;
   private String body;
   private IntermediateStatement statement;
+  // The statements after the first statement of a script. These are only created once the
+  // statements before them have been executed, as those may change what they refer to.
+  private final PeekingIterator<String> remainingStatements;
+  // Whether the script may be executed in a single transaction.
+  private final boolean implicitTransaction;
 
   public QueryMessage(ConnectionHandler connection) throws Exception {
     super(connection);
 
     body = this.readAll();
-    skipSet = body.startsWith("SET ");
+    this.connection.queryStarted(body);
 
-    logger.log(Level.FINE, "query: " + body);
+    logger.log(Level.FINE, "query: {0}", body);
 
-    if (skipSet) {
-      statement = null;
+    List<String> statements = SQLLexer.split(body);
+    if (statements.size() > 1) {
+      this.statement = createStatement(statements.get(0));
+      this.remainingStatements =
+          Iterators.peekingIterator(statements.subList(1, statements.size()).iterator());
+      this.implicitTransaction =
+          !connection.isAdminConsole() && canRunInImplicitTransaction(statements);
     } else {
-      if (!connection.getServer().getOptions().isPSQLMode()) {
-        this.statement = new IntermediateStatement(
-            body,
-            this.connection
-        );
-      } else {
-        this.statement = new PSQLStatement(
-            body,
-            this.connection
-        );
+      this.statement = createStatement(body);
+      this.remainingStatements = null;
+      this.implicitTransaction = false;
+    }
+
+    logger.log(Level.FINE, "updated query: {0}", this.statement.getSql());
+
+    this.connection.addActiveStatement(this.statement);
+  }
+
+  /**
+   * @param connection The connection handler that the query is for.
+   * @param body The query string of a simple query message.
+   * @return True if any statement of the query is sent to the backend, rather than answered by the
+   * proxy itself.
+   */
+  static boolean needsBackendConnection(ConnectionHandler connection, String body) {
+    if (connection.isAdminConsole()) {
+      return false;
+    }
+    List<String> statements = SQLLexer.split(body);
+    for (String sql : statements.size() > 1 ? statements : Collections.singletonList(body)) {
+      if (StatisticsStatement.create(sql, connection) == null
+          && ActivityStatement.create(sql, connection) == null
+          && CatalogStatement.create(sql, connection) == null
+          && !LocalStatement.isLocalStatement(sql)) {
+        return true;
       }
+    }
+    return false;
+  }
 
-      logger.log(Level.FINE, "updated query: " + this.statement.getSql());
+  /**
+   * @param statements The statements of a script.
+   * @return True if the script changes data, and consists only of queries and DML statements.
+   */
+  private static boolean canRunInImplicitTransaction(List<String> statements) {
+    boolean changesData = false;
+    for (String sql : statements) {
+      Kind kind = SQLLexer.lex(sql).getKind();
+      if (kind == Kind.DML) {
+        changesData = true;
+      } else if (kind != Kind.QUERY) {
+        return false;
+      }
+    }
+    return changesData;
+  }
 
-      this.connection.addActiveStatement(this.statement);
+  private IntermediateStatement createStatement(String sql) throws Exception {
+    long start = System.nanoTime();
+    IntermediateStatement statement = newStatement(sql);
+    statement.recordTime(Phase.PARSE, start);
+    return statement;
+  }
+
+  private IntermediateStatement newStatement(String sql) throws Exception {
+    if (this.connection.isAdminConsole()) {
+      return AdminStatement.create(sql, this.connection);
+    }
+    StatisticsStatement statisticsStatement = StatisticsStatement.create(sql, this.connection);
+    if (statisticsStatement != null) {
+      // Answered from the statement statistics of the proxy.
+      return statisticsStatement;
+    }
+    ActivityStatement activityStatement = ActivityStatement.create(sql, this.connection);
+    if (activityStatement != null) {
+      // Answered from the client connections of the proxy.
+      return activityStatement;
+    }
+    CatalogStatement catalogStatement = CatalogStatement.create(sql, this.connection);
+    if (catalogStatement != null) {
+      // Answered from the snapshot of the backend schema.
+      return catalogStatement;
+    } else if (LocalStatement.isLocalStatement(sql)) {
+      // Answered by the proxy itself, so this does not need a backend connection.
+      return new LocalStatement(
+          sql,
+          this.connection
+      );
+    } else if (!connection.getServer().getOptions().isPSQLMode()) {
+      return new IntermediateStatement(
+          sql,
+          this.connection
+      );
+    } else {
+      return new PSQLStatement(
+          sql,
+          this.connection
+      );
     }
   }
 
   @Override
   protected void sendPayload() throws Exception {
-    if (skipSet) {
-      logger.log(Level.INFO, "skip set: " + body);
-      new CommandCompleteResponse(this.outputStream, "SET").send();
-      new ReadyResponse(this.outputStream, ReadyResponse.Status.IDLE).send();
-    } else {
-      this.statement.execute();
-      this.handleQuery();
-      this.connection.removeActiveStatement(this.statement);
+    if (this.remainingStatements != null) {
+      this.executeScript();
+      return;
     }
+    this.statement.execute();
+    this.handleQuery();
+    this.connection.removeActiveStatement(this.statement);
+  }
+
+  /**
+   * Executes the statements of a script one by one, except for runs of consecutive DML statements,
+   * which are executed as a single batch. The result of each statement is sent as soon as it has
+   * been executed.
+   */
+  private void executeScript() throws Exception {
+    IntermediateStatement next = this.statement;
+    // The statements that have been created, but whose results have not been sent yet.
+    List<IntermediateStatement> run = new ArrayList<>();
+    Connection transaction = beginImplicitTransaction();
+    try {
+      while (next != null) {
+        run.add(next);
+        next = null;
+        if (DmlBatch.canBatchStatement(run.get(0))) {
+          // The lexer decides which statements belong to the run, so that a statement after the
+          // run is not created before the statements of the run have been executed.
+          while (nextIsDml()) {
+            next = nextStatement();
+            if (!DmlBatch.canBatchStatement(next)) {
+              break;
+            }
+            run.add(next);
+            next = null;
+          }
+        }
+        this.connection.addActiveStatement(run.get(0));
+        try {
+          if (run.size() > 1) {
+            DmlBatch.executeStatements(this.connection, run);
+          } else {
+            run.get(0).execute();
+          }
+        } finally {
+          this.connection.removeActiveStatement(run.get(0));
+        }
+        if (transaction != null && run.stream().anyMatch(IntermediateStatement::hasException)) {
+          // Nothing that the script changed is kept. This is done before the error is sent, as
+          // the backend connection may be given back to the pool at that point.
+          Connection failed = transaction;
+          transaction = null;
+          endImplicitTransaction(failed, false);
+        }
+        while (!run.isEmpty()) {
+          if (!this.sendResult(run.remove(0))) {
+            // The error response has been sent, and the rest of the script is skipped.
+            return;
+          }
+        }
+        if (next == null) {
+          next = nextStatement();
+        }
+      }
+      if (transaction != null) {
+        Connection completed = transaction;
+        transaction = null;
+        try {
+          endImplicitTransaction(completed, true);
+        } catch (SQLException e) {
+          this.handleError(e);
+          return;
+        }
+      }
+      this.sendReadyForQuery();
+    } finally {
+      if (transaction != null) {
+        try {
+          endImplicitTransaction(transaction, false);
+        } catch (SQLException e) {
+          logger.log(Level.WARNING, "Unable to roll back script: {0}", e);
+        }
+      }
+      // Statements that were created but are skipped still hold a backend statement.
+      if (next != null) {
+        run.add(next);
+      }
+      for (IntermediateStatement statement : run) {
+        closeSkippedStatement(statement);
+      }
+    }
+  }
+
+  /**
+   * Starts the transaction that a script is executed in, unless the client manages transactions
+   * itself.
+   *
+   * @return The backend connection that the transaction was started on, or null if the statements
+   * of the script are each committed on their own.
+   */
+  private Connection beginImplicitTransaction() throws SQLException {
+    if (!this.implicitTransaction || this.connection.isInTransaction()) {
+      return null;
+    }
+    Connection jdbcConnection = this.connection.getJdbcConnection();
+    if (!jdbcConnection.getAutoCommit()) {
+      return null;
+    }
+    jdbcConnection.setAutoCommit(false);
+    return jdbcConnection;
+  }
+
+  private static void endImplicitTransaction(Connection jdbcConnection, boolean commit)
+      throws SQLException {
+    try {
+      if (commit) {
+        jdbcConnection.commit();
+      } else {
+        jdbcConnection.rollback();
+      }
+    } finally {
+      jdbcConnection.setAutoCommit(true);
+    }
+  }
+
+  private boolean nextIsDml() {
+    return this.remainingStatements.hasNext()
+        && SQLLexer.lex(this.remainingStatements.peek()).getKind() == Kind.DML;
+  }
+
+  private static void closeSkippedStatement(IntermediateStatement statement) {
+    try {
+      statement.close();
+    } catch (Exception e) {
+      logger.log(Level.WARNING, "Unable to close statement: {0}", e);
+    }
+  }
+
+  private IntermediateStatement nextStatement() throws Exception {
+    if (!this.remainingStatements.hasNext()) {
+      return null;
+    }
+    IntermediateStatement statement = createStatement(this.remainingStatements.next());
+    logger.log(Level.FINE, "updated query: {0}", statement.getSql());
+    return statement;
   }
 
   @Override
@@ -109,19 +350,33 @@ public class QueryMessage extends ControlMessage {
    * @throws Exception
    */
   public void handleQuery() throws Exception {
-    if (this.statement.hasException()) {
-      this.handleError(this.statement.getException());
-    } else {
-      if (this.statement.containsResultSet()) {
+    if (this.sendResult(this.statement)) {
+      this.sendReadyForQuery();
+    }
+  }
+
+  /**
+   * Sends the result of one executed statement, or the error response if it failed.
+   *
+   * @return False if the statement failed.
+   */
+  private boolean sendResult(IntermediateStatement statement) throws Exception {
+    try {
+      if (statement.hasException()) {
+        this.handleError(statement.getException());
+        return false;
+      }
+      if (statement.containsResultSet()) {
         new RowDescriptionResponse(this.outputStream,
-            this.statement,
-            this.statement.getStatementResult().getMetaData(),
+            statement,
+            statement.getStatementResult().getMetaData(),
             this.connection.getServer().getOptions(),
             QueryMode.SIMPLE).send();
       }
-      this.sendSpannerResult(this.statement, QueryMode.SIMPLE, 0L);
-      new ReadyResponse(this.outputStream, ReadyResponse.Status.IDLE).send();
+      this.sendSpannerResult(statement, QueryMode.SIMPLE, 0L);
+      return true;
+    } finally {
+      this.connection.cleanUp(statement);
     }
-    this.connection.cleanUp(this.statement);
   }
 }
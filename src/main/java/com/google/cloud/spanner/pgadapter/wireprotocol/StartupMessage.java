@@ -41,6 +41,9 @@ public class StartupMessage extends BootstrapMessage {
 
   @Override
   protected void sendPayload() throws Exception {
+    this.connection.startSession(this.parameters.get(USER_KEY),
+        this.parameters.get("database"),
+        this.parameters.get("application_name"));
     if (!authenticate) {
       sendStartupMessage(
           this.outputStream,
@@ -15,13 +15,12 @@
 package com.google.cloud.spanner.pgadapter.wireprotocol;
 
 import com.google.cloud.spanner.pgadapter.ConnectionHandler;
-import com.google.cloud.spanner.pgadapter.wireoutput.ReadyResponse;
-import com.google.cloud.spanner.pgadapter.wireoutput.ReadyResponse.Status;
 import java.text.MessageFormat;
 
 /**
- * Handles a sync command from the user. JDBC does not require this step, so server-side this is a
- * noop.
+ * Handles a sync command from the user. Sync ends a sequence of extended query messages: any
+ * batched statements have been executed before it is handled, and the server stops ignoring
+ * messages after an error.
  */
 public class SyncMessage extends ControlMessage {
 
@@ -33,7 +32,13 @@ public class SyncMessage extends ControlMessage {
 
   @Override
   protected void sendPayload() throws Exception {
-    new ReadyResponse(this.outputStream, Status.IDLE).send();
+    this.connection.setIgnoreTillSync(false);
+    this.sendReadyForQuery();
+  }
+
+  @Override
+  protected boolean isIgnoredAfterError() {
+    return false;
   }
 
   @Override
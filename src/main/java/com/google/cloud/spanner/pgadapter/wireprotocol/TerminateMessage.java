@@ -33,6 +33,11 @@ public class TerminateMessage extends ControlMessage {
     this.connection.handleTerminate();
   }
 
+  @Override
+  protected boolean isIgnoredAfterError() {
+    return false;
+  }
+
   @Override
   protected String getMessageName() {
     return "Terminate";
@@ -15,6 +15,7 @@
 package com.google.cloud.spanner.pgadapter.wireprotocol;
 
 import com.google.cloud.spanner.pgadapter.ConnectionHandler;
+import com.google.cloud.spanner.pgadapter.utils.ProtocolTracer;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -74,7 +75,13 @@ public abstract class WireMessage {
    * @throws Exception If the sending fails.
    */
   public void send() throws Exception {
-    logger.log(Level.FINE, this.toString());
+    if (logger.isLoggable(Level.FINE)) {
+      logger.log(Level.FINE, this.toString());
+    }
+    if (ProtocolTracer.isTracing()) {
+      ProtocolTracer.trace('>', this.getIdentifier(), this.getMessageName(),
+          this.getPayloadString());
+    }
     sendPayload();
   }
 
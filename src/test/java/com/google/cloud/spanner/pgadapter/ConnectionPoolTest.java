@@ -0,0 +1,435 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.spanner.pgadapter;
+
+import com.google.cloud.spanner.pgadapter.metadata.OptionsMetadata;
+import com.google.cloud.spanner.pgadapter.metadata.OptionsMetadata.PoolMode;
+import com.google.cloud.spanner.pgadapter.statements.IntermediatePreparedStatement;
+import com.google.common.primitives.Bytes;
+import com.google.common.primitives.Ints;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(JUnit4.class)
+public class ConnectionPoolTest {
+
+  @Rule
+  public MockitoRule rule = MockitoJUnit.rule();
+  @Mock
+  private ProxyServer server;
+  @Mock
+  private OptionsMetadata options;
+  @Mock
+  private BackendConnectionPool connectionPool;
+  @Mock
+  private Connection connection;
+  @Mock
+  private PreparedStatement firstStatement;
+  @Mock
+  private PreparedStatement secondStatement;
+
+  // The connections that were opened by the pool of the test, in order.
+  private final List<Connection> opened = new ArrayList<>();
+
+  private BackendConnectionPool createPool(int maxSize, long borrowTimeoutMillis,
+      long validationIntervalMillis) {
+    return new BackendConnectionPool("jdbc:cloudspanner:/test", 0, maxSize, 60000L,
+        borrowTimeoutMillis, validationIntervalMillis) {
+      @Override
+      Connection connect() throws SQLException {
+        Connection connection = Mockito.mock(Connection.class);
+        Mockito.when(connection.getAutoCommit()).thenReturn(true);
+        Mockito.lenient().when(connection.prepareStatement(ArgumentMatchers.anyString()))
+            .thenAnswer(invocation -> Mockito.mock(PreparedStatement.class));
+        opened.add(connection);
+        return connection;
+      }
+    };
+  }
+
+  private ConnectionHandler createConnectionHandler() {
+    Socket socket = Mockito.mock(Socket.class);
+    Mockito.when(socket.getInetAddress()).thenReturn(InetAddress.getLoopbackAddress());
+    Mockito.when(server.getOptions()).thenReturn(options);
+    Mockito.when(server.getConnectionPool()).thenReturn(connectionPool);
+    Mockito.when(server.getConnectionRegistry()).thenReturn(new ConnectionRegistry());
+    return new ConnectionHandler(server, socket);
+  }
+
+  @Test
+  public void testPoolReusesConnectionsThatAreGivenBack() throws Exception {
+    BackendConnectionPool pool = createPool(2, 1000L, 60000L);
+
+    Connection first = pool.borrow();
+    Connection second = pool.borrow();
+    Assert.assertNotSame(first, second);
+    Assert.assertEquals(pool.getActiveConnections(), 2);
+
+    pool.release(first);
+    Assert.assertEquals(pool.getActiveConnections(), 1);
+    Assert.assertEquals(pool.getIdleConnections(), 1);
+
+    Assert.assertSame(pool.borrow(), first);
+    Assert.assertEquals(pool.getTotalConnections(), 2);
+    Assert.assertEquals(opened.size(), 2);
+  }
+
+  @Test
+  public void testPoolTimesOutWhenAllConnectionsAreBorrowed() throws Exception {
+    BackendConnectionPool pool = createPool(1, 10L, 60000L);
+    pool.borrow();
+
+    try {
+      pool.borrow();
+      Assert.fail();
+    } catch (SQLException e) {
+      Assert.assertEquals(e.getMessage(),
+          "Timed out after 10ms waiting for one of 1 backend connections");
+    }
+    Assert.assertEquals(opened.size(), 1);
+  }
+
+  @Test(timeout = 10000L)
+  public void testBorrowWaitsForConnectionToBeGivenBack() throws Exception {
+    BackendConnectionPool pool = createPool(1, 10000L, 60000L);
+    Connection connection = pool.borrow();
+    Thread releaser = new Thread(() -> {
+      try {
+        Thread.sleep(50L);
+      } catch (InterruptedException ignored) {
+        return;
+      }
+      pool.release(connection);
+    });
+    releaser.start();
+
+    Assert.assertSame(pool.borrow(), connection);
+    Assert.assertEquals(opened.size(), 1);
+  }
+
+  @Test(timeout = 10000L)
+  public void testBorrowAsyncOpensConnectionInTheBackground() throws Exception {
+    BackendConnectionPool pool = createPool(1, 1000L, 60000L);
+
+    Connection connection = pool.borrowAsync().get(5L, TimeUnit.SECONDS);
+
+    Assert.assertSame(connection, opened.get(0));
+    Assert.assertEquals(pool.getActiveConnections(), 1);
+  }
+
+  @Test(timeout = 10000L)
+  public void testBorrowAsyncWaitersAreServedInOrder() throws Exception {
+    BackendConnectionPool pool = createPool(1, 10000L, 60000L);
+    Connection connection = pool.borrow();
+
+    CompletableFuture<Connection> first = pool.borrowAsync();
+    CompletableFuture<Connection> second = pool.borrowAsync();
+    Assert.assertFalse(first.isDone());
+    Assert.assertFalse(second.isDone());
+
+    pool.release(connection);
+    Assert.assertSame(first.get(5L, TimeUnit.SECONDS), connection);
+    Assert.assertFalse(second.isDone());
+
+    pool.release(connection);
+    Assert.assertSame(second.get(5L, TimeUnit.SECONDS), connection);
+    Assert.assertEquals(opened.size(), 1);
+  }
+
+  @Test(timeout = 10000L)
+  public void testBorrowAsyncTimesOutWhenAllConnectionsAreBorrowed() throws Exception {
+    BackendConnectionPool pool = createPool(1, 10L, 60000L);
+    Connection connection = pool.borrow();
+
+    try {
+      pool.borrowAsync().get(5L, TimeUnit.SECONDS);
+      Assert.fail();
+    } catch (ExecutionException e) {
+      Assert.assertEquals(e.getCause().getMessage(),
+          "Timed out after 10ms waiting for one of 1 backend connections");
+    }
+
+    // The connection goes back to the pool instead of to the borrower that timed out.
+    pool.release(connection);
+    Assert.assertEquals(pool.getActiveConnections(), 0);
+    Assert.assertEquals(pool.getIdleConnections(), 1);
+  }
+
+  @Test(timeout = 10000L)
+  public void testCancelledBorrowAsyncIsSkipped() throws Exception {
+    BackendConnectionPool pool = createPool(1, 10000L, 60000L);
+    Connection connection = pool.borrow();
+    CompletableFuture<Connection> cancelled = pool.borrowAsync();
+    CompletableFuture<Connection> waiting = pool.borrowAsync();
+
+    cancelled.cancel(false);
+    pool.release(connection);
+
+    Assert.assertSame(waiting.get(5L, TimeUnit.SECONDS), connection);
+    Assert.assertEquals(pool.getActiveConnections(), 1);
+  }
+
+  @Test(timeout = 10000L)
+  public void testCloseFailsWaitingBorrowers() throws Exception {
+    BackendConnectionPool pool = createPool(1, 10000L, 60000L);
+    Connection connection = pool.borrow();
+    CompletableFuture<Connection> waiting = pool.borrowAsync();
+
+    pool.close();
+
+    try {
+      waiting.get(5L, TimeUnit.SECONDS);
+      Assert.fail();
+    } catch (ExecutionException e) {
+      Assert.assertEquals(e.getCause().getMessage(),
+          "The backend connection pool has been closed");
+    }
+    Assert.assertTrue(pool.borrowAsync().isCompletedExceptionally());
+    pool.release(connection);
+    Mockito.verify(connection, Mockito.times(1)).close();
+  }
+
+  @Test
+  public void testPoolWithoutMaximumSizeNeverWaits() throws Exception {
+    BackendConnectionPool pool = createPool(0, 10L, 60000L);
+
+    List<Connection> borrowed = new ArrayList<>();
+    for (int index = 0; index < 200; index++) {
+      borrowed.add(index % 2 == 0 ? pool.borrow() : pool.borrowAsync().get());
+    }
+
+    Assert.assertEquals(pool.getActiveConnections(), 200);
+    Assert.assertEquals(pool.getTotalConnections(), 200);
+    Assert.assertEquals(pool.getMaxSize(), 0);
+    borrowed.forEach(pool::release);
+    Assert.assertEquals(pool.getActiveConnections(), 0);
+    Assert.assertEquals(pool.getIdleConnections(), 200);
+  }
+
+  @Test
+  public void testPoolResetsConnectionsThatAreGivenBack() throws Exception {
+    BackendConnectionPool pool = createPool(1, 1000L, 60000L);
+    Connection connection = pool.borrow();
+    // The client left a read-only transaction open.
+    Mockito.when(connection.getAutoCommit()).thenReturn(false);
+    Mockito.when(connection.isReadOnly()).thenReturn(true);
+
+    pool.release(connection);
+
+    Mockito.verify(connection, Mockito.times(1)).rollback();
+    Mockito.verify(connection, Mockito.times(1)).setAutoCommit(true);
+    Mockito.verify(connection, Mockito.times(1)).setReadOnly(false);
+    Mockito.verify(connection, Mockito.times(1)).clearWarnings();
+    Assert.assertEquals(pool.getIdleConnections(), 1);
+  }
+
+  @Test
+  public void testPoolClosesConnectionsThatCannotBeReset() throws Exception {
+    BackendConnectionPool pool = createPool(1, 1000L, 60000L);
+    Connection connection = pool.borrow();
+    Mockito.when(connection.getAutoCommit()).thenReturn(false);
+    Mockito.doThrow(new SQLException("Connection lost")).when(connection).rollback();
+
+    pool.release(connection);
+
+    Mockito.verify(connection, Mockito.times(1)).close();
+    Assert.assertEquals(pool.getIdleConnections(), 0);
+    Assert.assertEquals(pool.getTotalConnections(), 0);
+    Assert.assertNotSame(pool.borrow(), connection);
+  }
+
+  @Test
+  public void testPoolReplacesConnectionsThatAreNoLongerValid() throws Exception {
+    // Idle connections are always validated.
+    BackendConnectionPool pool = createPool(1, 1000L, 0L);
+    Connection connection = pool.borrow();
+    pool.release(connection);
+    Mockito.when(connection.isValid(ArgumentMatchers.anyInt())).thenReturn(false);
+
+    Connection replacement = pool.borrow();
+
+    Assert.assertNotSame(replacement, connection);
+    Mockito.verify(connection, Mockito.times(1)).close();
+    Assert.assertEquals(pool.getTotalConnections(), 1);
+  }
+
+  @Test
+  public void testPreparedStatementsAreClosedWhenTheyAreReplacedOrClosed() throws Exception {
+    Mockito.when(connectionPool.borrow()).thenReturn(connection);
+    Mockito.when(connection.prepareStatement(ArgumentMatchers.anyString()))
+        .thenReturn(firstStatement, secondStatement);
+    ConnectionHandler connectionHandler = createConnectionHandler();
+
+    connectionHandler.registerStatement("",
+        new IntermediatePreparedStatement("SELECT * FROM users", connectionHandler));
+    connectionHandler.registerStatement("",
+        new IntermediatePreparedStatement("SELECT * FROM users", connectionHandler));
+    // The backend connection outlives the client, so the replaced statement is closed.
+    Mockito.verify(firstStatement, Mockito.times(1)).close();
+    Mockito.verify(secondStatement, Mockito.never()).close();
+
+    connectionHandler.closeStatement("");
+    Mockito.verify(secondStatement, Mockito.times(1)).close();
+  }
+
+  @Test
+  public void testTransactionModeReleasesConnectionAtReadyForQuery() throws Exception {
+    Mockito.when(options.getPoolMode()).thenReturn(PoolMode.TRANSACTION);
+    Mockito.when(connectionPool.borrow()).thenReturn(connection);
+    Mockito.when(connection.getAutoCommit()).thenReturn(true);
+    ConnectionHandler connectionHandler = createConnectionHandler();
+    // No backend connection is leased until the first statement needs one.
+    Mockito.verify(connectionPool, Mockito.never()).borrowAsync();
+
+    Assert.assertSame(connectionHandler.getJdbcConnection(), connection);
+    Assert.assertTrue(connectionHandler.getActivity().isBackendConnectionHeld());
+    connectionHandler.readyForQuery();
+
+    Mockito.verify(connectionPool, Mockito.times(1)).release(connection);
+    Assert.assertFalse(connectionHandler.getActivity().isBackendConnectionHeld());
+    Assert.assertSame(connectionHandler.getJdbcConnection(), connection);
+    Mockito.verify(connectionPool, Mockito.times(2)).borrow();
+  }
+
+  @Test
+  public void testTransactionModeKeepsConnectionUntilTransactionEnds() throws Exception {
+    Mockito.when(options.getPoolMode()).thenReturn(PoolMode.TRANSACTION);
+    Mockito.when(connectionPool.borrow()).thenReturn(connection);
+    Mockito.when(connection.getAutoCommit()).thenReturn(true);
+    ConnectionHandler connectionHandler = createConnectionHandler();
+
+    connectionHandler.getJdbcConnection();
+    connectionHandler.updateTransactionState("BEGIN", true);
+    connectionHandler.readyForQuery();
+    connectionHandler.updateTransactionState("SELECT", true);
+    connectionHandler.readyForQuery();
+    Mockito.verify(connectionPool, Mockito.never()).release(connection);
+
+    connectionHandler.updateTransactionState("COMMIT;", true);
+    connectionHandler.readyForQuery();
+    Mockito.verify(connectionPool, Mockito.times(1)).release(connection);
+    Mockito.verify(connectionPool, Mockito.times(1)).borrow();
+  }
+
+  @Test
+  public void testTransactionModeKeepsConnectionWithoutAutoCommit() throws Exception {
+    Mockito.when(options.getPoolMode()).thenReturn(PoolMode.TRANSACTION);
+    Mockito.when(connectionPool.borrow()).thenReturn(connection);
+    Mockito.when(connection.getAutoCommit()).thenReturn(false);
+    ConnectionHandler connectionHandler = createConnectionHandler();
+
+    connectionHandler.getJdbcConnection();
+    connectionHandler.readyForQuery();
+
+    Mockito.verify(connectionPool, Mockito.never()).release(connection);
+  }
+
+  @Test
+  public void testSettingsOfExtendedQueryProtocolDoNotReachNextBorrower() throws Exception {
+    BackendConnectionPool pool = createPool(1, 1000L, 60000L);
+    ConnectionHandler connectionHandler = createConnectionHandler();
+    Mockito.when(options.getPoolMode()).thenReturn(PoolMode.TRANSACTION);
+    Mockito.when(server.getConnectionPool()).thenReturn(pool);
+
+    // A SET in a Parse message is prepared and executed on the backend connection.
+    IntermediatePreparedStatement set =
+        new IntermediatePreparedStatement("SET STATEMENT_TIMEOUT = '1s'", connectionHandler);
+    set.execute();
+    connectionHandler.readyForQuery();
+
+    Mockito.verify(opened.get(0), Mockito.times(1)).close();
+    Assert.assertEquals(pool.getTotalConnections(), 0);
+    Assert.assertNotSame(pool.borrow(), opened.get(0));
+  }
+
+  @Test
+  public void testOtherStatementsKeepTheConnectionInThePool() throws Exception {
+    BackendConnectionPool pool = createPool(1, 1000L, 60000L);
+    ConnectionHandler connectionHandler = createConnectionHandler();
+    Mockito.when(options.getPoolMode()).thenReturn(PoolMode.TRANSACTION);
+    Mockito.when(server.getConnectionPool()).thenReturn(pool);
+
+    new IntermediatePreparedStatement("SELECT 1", connectionHandler).execute();
+    connectionHandler.readyForQuery();
+
+    Mockito.verify(opened.get(0), Mockito.never()).close();
+    Assert.assertSame(pool.borrow(), opened.get(0));
+  }
+
+  private static byte[] queryMessage(String sql) {
+    byte[] body = (sql + "\0").getBytes(StandardCharsets.UTF_8);
+    return Bytes.concat(new byte[]{'Q'}, Ints.toByteArray(body.length + 4), body);
+  }
+
+  @Test
+  public void testOnlyStatementsForTheBackendWaitForConnection() throws Exception {
+    Mockito.when(options.getPoolMode()).thenReturn(PoolMode.TRANSACTION);
+    CompletableFuture<Connection> pending = new CompletableFuture<>();
+    Mockito.when(connectionPool.borrowAsync()).thenReturn(pending);
+    ConnectionHandler connectionHandler = createConnectionHandler();
+    connectionHandler.startSession("me", "db", null);
+
+    Assert.assertNull(connectionHandler.awaitBackendConnection(
+        queryMessage("SET search_path = public; SHOW search_path; SELECT 1")));
+    Assert.assertNull(connectionHandler.awaitBackendConnection(new byte[]{'S', 0, 0, 0, 4}));
+    Mockito.verify(connectionPool, Mockito.never()).borrowAsync();
+
+    Assert.assertSame(connectionHandler.awaitBackendConnection(
+        queryMessage("SET search_path = public; SELECT * FROM users")), pending);
+    Assert.assertTrue(connectionHandler.getActivity().getWaitNanos() > 0L);
+    pending.complete(connection);
+    Assert.assertNull(connectionHandler.awaitBackendConnection(queryMessage("SELECT 2")));
+    Assert.assertSame(connectionHandler.getJdbcConnection(), connection);
+    Assert.assertEquals(connectionHandler.getActivity().getWaitNanos(), 0L);
+    Mockito.verify(connectionPool, Mockito.times(1)).borrowAsync();
+    Mockito.verify(connectionPool, Mockito.never()).borrow();
+  }
+
+  @Test
+  public void testSessionModeKeepsConnectionUntilClose() throws Exception {
+    Mockito.when(options.getPoolMode()).thenReturn(PoolMode.SESSION);
+    Mockito.when(connectionPool.borrowAsync())
+        .thenReturn(CompletableFuture.completedFuture(connection));
+    Mockito.when(connection.getAutoCommit()).thenReturn(true);
+    ConnectionHandler connectionHandler = createConnectionHandler();
+
+    Assert.assertSame(connectionHandler.getJdbcConnection(), connection);
+    connectionHandler.readyForQuery();
+    Mockito.verify(connectionPool, Mockito.never()).release(connection);
+
+    connectionHandler.handleTerminate();
+    Mockito.verify(connectionPool, Mockito.times(1)).release(connection);
+    Mockito.verify(connectionPool, Mockito.never()).borrow();
+  }
+}
@@ -16,6 +16,12 @@ package com.google.cloud.spanner.pgadapter;
 
 import com.google.cloud.spanner.pgadapter.metadata.SQLMetadata;
 import com.google.cloud.spanner.pgadapter.utils.Converter;
+import com.google.cloud.spanner.pgadapter.utils.LexedSQL;
+import com.google.cloud.spanner.pgadapter.utils.LexedSQL.Kind;
+import com.google.cloud.spanner.pgadapter.utils.SQLLexer;
+import com.google.common.collect.Range;
+import java.util.Arrays;
+import java.util.Collections;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -58,4 +64,53 @@ public class ConverterTest {
     Assert.assertEquals(result.getParameterCount(), parameterCount);
   }
 
+  @Test
+  public void testToJDBCParamsWithQuoteInsideOtherQuote() {
+    String sqlStatement = "SELECT * FROM users WHERE data = \"it's $1\" AND name = $1";
+    String expectedResult = "SELECT * FROM users WHERE data = \"it's $1\" AND name = ?";
+    SQLMetadata result = Converter.toJDBCParams(sqlStatement);
+    Assert.assertEquals(result.getSqlString(), expectedResult);
+    Assert.assertEquals(result.getParameterCount(), 1);
+  }
+
+  @Test
+  public void testSQLLexer() {
+    LexedSQL lexedSql = SQLLexer.lex(
+        "-- comment\n /* comment */ insert into t values ('a''b', $2, $1); -- trailing");
+    Assert.assertEquals(lexedSql.getSql(), "insert into t values ('a''b', $2, $1)");
+    Assert.assertEquals(lexedSql.getJdbcSql(), "insert into t values ('a''b', ?, ?)");
+    Assert.assertEquals(lexedSql.getParameterNumbers(), Arrays.asList(2, 1));
+    Assert.assertEquals(lexedSql.getHighestParameterNumber(), 2);
+    Assert.assertEquals(SQLLexer.lex("SELECT $1 WHERE $1 > 0").getHighestParameterNumber(), 1);
+    Assert.assertEquals(lexedSql.getCommand(), "INSERT");
+    Assert.assertEquals(lexedSql.getKind(), Kind.DML);
+    Assert.assertEquals(lexedSql.getLiterals(), Collections.singletonList(Range.closedOpen(22, 28)));
+    Assert.assertSame(lexedSql, SQLLexer.lex(
+        "-- comment\n /* comment */ insert into t values ('a''b', $2, $1); -- trailing"));
+
+    Assert.assertEquals(SQLLexer.lex("(SELECT 1) UNION (SELECT 2)").getKind(), Kind.QUERY);
+    Assert.assertEquals(SQLLexer.lex("CREATE TABLE t (id INT64) PRIMARY KEY (id)").getKind(),
+        Kind.DDL);
+    Assert.assertEquals(SQLLexer.lex("set application_name = 'psql'").getKind(), Kind.SET);
+    Assert.assertEquals(SQLLexer.lex("COMMIT").getKind(), Kind.TRANSACTION);
+  }
+
+  @Test
+  public void testSQLLexerNormalize() {
+    Assert.assertEquals(
+        SQLLexer.lex("SELECT * FROM t1 WHERE id = 42 AND  name = 'x''y' AND `a` = $3 -- c")
+            .getNormalizedSql(),
+        "SELECT * FROM t1 WHERE id = $1 AND name = $2 AND `a` = $3");
+    Assert.assertEquals(
+        SQLLexer.lex("update t set x = ?, y = 1.5e-3 where z = 0xFF").getNormalizedSql(),
+        "update t set x = $1, y = $2 where z = $3");
+    Assert.assertEquals(SQLLexer.lex("select 1").getNormalizedSql(),
+        SQLLexer.lex("select 2").getNormalizedSql());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSQLLexerUnclosedLiteral() {
+    SQLLexer.lex("SELECT 'unclosed").checkValid();
+  }
+
 }
@@ -15,6 +15,8 @@
 package com.google.cloud.spanner.pgadapter;
 
 import com.google.cloud.spanner.pgadapter.metadata.DynamicCommandMetadata;
+import com.google.cloud.spanner.pgadapter.metadata.QueryRewritesMetadata;
+import com.google.cloud.spanner.pgadapter.utils.QueryRewriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -84,4 +86,39 @@ public class MetadataTest {
     Assert.assertEquals(secondResult, result.get(1).getMatcherOrder());
   }
 
+  @Test
+  public void testQueryRewriterAppliesRewritesInOrder() throws Exception {
+    String inputJSON = ""
+        + "{"
+        + " \"rewrites\": "
+        + "   [ "
+        + "     {"
+        + "       \"input_pattern\": \"DOUBLE PRECISION\", "
+        + "       \"output_pattern\": \"FLOAT64\""
+        + "     },"
+        + "     {"
+        + "       \"input_pattern\": \"'0.0'\", "
+        + "       \"output_pattern\": \"0.0\""
+        + "     },"
+        + "     {"
+        + "       \"input_pattern\": \"FLOAT(64|32)\", "
+        + "       \"output_pattern\": \"FLOAT$1 NOT NULL\""
+        + "     }"
+        + "   ]"
+        + "}";
+
+    JSONParser parser = new JSONParser();
+
+    List<QueryRewritesMetadata> rewrites = QueryRewritesMetadata
+        .fromJSON((JSONObject) parser.parse(inputJSON));
+    QueryRewriter rewriter = new QueryRewriter(rewrites);
+    String sql = "CREATE TABLE t (a DOUBLE PRECISION DEFAULT '0.0')";
+
+    Assert.assertEquals("0.0", rewrites.get(1).apply("'0.0'"));
+    Assert.assertEquals("'1.0'", rewrites.get(1).apply("'1.0'"));
+    Assert.assertEquals("CREATE TABLE t (a FLOAT64 NOT NULL DEFAULT 0.0)", rewriter.rewrite(sql));
+    Assert.assertEquals(rewriter.rewrite(sql), rewriter.rewrite(sql));
+    Assert.assertEquals("SELECT 1", rewriter.rewrite("SELECT 1"));
+  }
+
 }
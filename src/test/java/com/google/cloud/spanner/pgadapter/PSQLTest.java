@@ -14,6 +14,7 @@
 
 package com.google.cloud.spanner.pgadapter;
 
+import com.google.cloud.spanner.pgadapter.commands.CommandDispatcher;
 import com.google.cloud.spanner.pgadapter.metadata.OptionsMetadata;
 import com.google.cloud.spanner.pgadapter.statements.PSQLStatement;
 import com.google.cloud.spanner.pgadapter.utils.StatementParser;
@@ -704,6 +705,43 @@ public class PSQLTest {
     Assert.assertEquals(psqlStatement.getSql(), expectedSecondResult);
   }
 
+  @Test
+  public void testCommandDispatcherKeepsCommandOrder() throws Exception {
+    String inputJSON = ""
+        + "{"
+        + " \"commands\": "
+        + "   [ "
+        + "     {"
+        + "       \"input_pattern\": \"^SELECT name FROM USERS WHERE (?<arg1>.*);$\", "
+        + "       \"output_pattern\": \"RESULT 1: %s\", "
+        + "       \"matcher_array\": [ \"arg1\" ]"
+        + "     },"
+        + "     {"
+        + "       \"input_pattern\": \"^SELECT (?<selector>.*) FROM USERS;$\", "
+        + "       \"output_pattern\": \"RESULT 2: %s\", "
+        + "       \"matcher_array\": [ \"selector\" ]"
+        + "     },"
+        + "     {"
+        + "       \"input_pattern\": \"^SELECT name FROM USERS;$\", "
+        + "       \"output_pattern\": \"RESULT 3\", "
+        + "       \"matcher_array\": []"
+        + "     }"
+        + "   ]"
+        + "}";
+
+    JSONParser parser = new JSONParser();
+    CommandDispatcher dispatcher =
+        CommandDispatcher.forMetadata((JSONObject) parser.parse(inputJSON));
+
+    Assert.assertEquals("RESULT 1: age = 30",
+        dispatcher.translate("SELECT name FROM USERS WHERE age = 30;", connection));
+    Assert.assertEquals("RESULT 2: name",
+        dispatcher.translate("SELECT name FROM USERS;", connection));
+    Assert.assertEquals("RESULT 2: name",
+        dispatcher.translate("SELECT name FROM USERS;", connection));
+    Assert.assertEquals("SELECT 1", dispatcher.translate("SELECT 1", connection));
+  }
+
   @Test
   public void testMatcherGroupInPlaceReplacements() throws Exception {
     String inputJSON = ""
@@ -24,12 +24,17 @@ import com.google.cloud.spanner.pgadapter.ProxyServer.DataFormat;
 import com.google.cloud.spanner.pgadapter.parsers.ArrayParser;
 import com.google.cloud.spanner.pgadapter.parsers.BinaryParser;
 import com.google.cloud.spanner.pgadapter.parsers.BooleanParser;
+import com.google.cloud.spanner.pgadapter.parsers.ColumnEncoder;
 import com.google.cloud.spanner.pgadapter.parsers.DateParser;
 import com.google.cloud.spanner.pgadapter.parsers.DoubleParser;
 import com.google.cloud.spanner.pgadapter.parsers.LongParser;
+import com.google.cloud.spanner.pgadapter.parsers.NumericParser;
 import com.google.cloud.spanner.pgadapter.parsers.Parser;
+import com.google.cloud.spanner.pgadapter.parsers.RowBuffer;
 import com.google.cloud.spanner.pgadapter.parsers.StringParser;
 import com.google.cloud.spanner.pgadapter.parsers.TimestampParser;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
 import java.sql.Array;
 import java.sql.Date;
 import java.sql.ResultSet;
@@ -115,23 +120,25 @@ public class ParserTest {
   @Test
   public void testFalseBooleanParsing() {
     boolean value = false;
+    byte[] byteResult = {0};
     byte[] stringResult = {'f'};
     byte[] spannerResult = {'f', 'a', 'l', 's', 'e'};
 
     Parser parsedValue = new BooleanParser(value);
 
-    validate(parsedValue, stringResult, stringResult, spannerResult);
+    validate(parsedValue, byteResult, stringResult, spannerResult);
   }
 
   @Test
   public void testTrueBooleanParsing() {
     boolean value = true;
+    byte[] byteResult = {1};
     byte[] stringResult = {'t'};
     byte[] spannerResult = {'t', 'r', 'u', 'e'};
 
     Parser parsedValue = new BooleanParser(value);
 
-    validate(parsedValue, stringResult, stringResult, spannerResult);
+    validate(parsedValue, byteResult, stringResult, spannerResult);
   }
 
   @Test
@@ -234,9 +241,9 @@ public class ParserTest {
   public void testStringArrayParsing() throws SQLException {
     String[] value = {"abc", "def", "jhi"};
     byte[] byteResult = {
-        0, 0, 0, 1, 0, 0, 0, 1,
-        -1, -1, -1, -9, 0, 0, 0,
-        3, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 1, 0, 0, 0, 0,
+        0, 0, 4, 19, 0, 0, 0,
+        3, 0, 0, 0, 1, 0, 0, 0,
         3, 97, 98, 99, 0, 0, 0,
         3, 100, 101, 102, 0, 0,
         0, 3, 106, 104, 105
@@ -262,9 +269,9 @@ public class ParserTest {
   public void testLongArrayParsing() throws SQLException {
     Long[] value = {1L, 2L, 3L};
     byte[] byteResult = {
-        0, 0, 0, 1, 0, 0, 0, 1,
-        -1, -1, -1, -5, 0, 0, 0,
-        3, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 1, 0, 0, 0, 0,
+        0, 0, 0, 20, 0, 0, 0,
+        3, 0, 0, 0, 1, 0, 0, 0,
         8, 0, 0, 0, 0, 0, 0, 0,
         1, 0, 0, 0, 8, 0, 0, 0,
         0, 0, 0, 0, 2, 0, 0, 0,
@@ -299,4 +306,75 @@ public class ParserTest {
     new ArrayParser(resultSet, 0);
   }
 
+  private byte[] encode(ColumnEncoder encoder, ResultSet resultSet) throws Exception {
+    RowBuffer buffer = new RowBuffer();
+    encoder.encode(resultSet, 1, buffer);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    buffer.writeTo(output);
+    return output.toByteArray();
+  }
+
+  private byte[] withLength(byte[] value) {
+    byte[] result = new byte[4 + value.length];
+    ByteConverter.int4(result, 0, value.length);
+    System.arraycopy(value, 0, result, 4, value.length);
+    return result;
+  }
+
+  @Test
+  public void testColumnEncoderMatchesParser() throws Exception {
+    long value = 1234567890L;
+    ResultSet resultSet = Mockito.mock(ResultSet.class);
+    Mockito.when(resultSet.getLong(1)).thenReturn(value);
+    Mockito.when(resultSet.wasNull()).thenReturn(false);
+
+    for (DataFormat format : DataFormat.values()) {
+      assertThat(encode(ColumnEncoder.create(Types.BIGINT, format), resultSet),
+          is(equalTo(withLength(new LongParser(value).parse(format)))));
+    }
+  }
+
+  @Test
+  public void testColumnEncoderTextMatchesParser() throws Exception {
+    double doubleValue = 1234.5678;
+    Timestamp timestampValue = new Timestamp(1234567890123L);
+    timestampValue.setNanos(123456000);
+    Date dateValue = new Date(1234567890123L);
+    ResultSet resultSet = Mockito.mock(ResultSet.class);
+    Mockito.when(resultSet.getDouble(1)).thenReturn(doubleValue);
+    Mockito.when(resultSet.getTimestamp(1)).thenReturn(timestampValue);
+    Mockito.when(resultSet.getDate(1)).thenReturn(dateValue);
+    Mockito.when(resultSet.wasNull()).thenReturn(false);
+
+    assertThat(encode(ColumnEncoder.create(Types.DOUBLE, DataFormat.POSTGRESQL_TEXT), resultSet),
+        is(equalTo(withLength(new DoubleParser(doubleValue).parse(DataFormat.POSTGRESQL_TEXT)))));
+    assertThat(encode(ColumnEncoder.create(Types.TIMESTAMP, DataFormat.POSTGRESQL_TEXT), resultSet),
+        is(equalTo(
+            withLength(new TimestampParser(timestampValue).parse(DataFormat.POSTGRESQL_TEXT)))));
+    assertThat(encode(ColumnEncoder.create(Types.DATE, DataFormat.POSTGRESQL_TEXT), resultSet),
+        is(equalTo(withLength(new DateParser(dateValue).parse(DataFormat.POSTGRESQL_TEXT)))));
+  }
+
+  @Test
+  public void testNumericBinaryParsing() {
+    BigDecimal value = new BigDecimal("-12345.678");
+    byte[] byteResult = {
+        0, 3, 0, 1, 64, 0, 0, 3,  // 3 digits, weight 1, negative, scale 3
+        0, 1, 9, 41, 26, 124};    // 1 2345 6780
+
+    assertThat(new NumericParser(value).parse(DataFormat.POSTGRESQL_BINARY),
+        is(equalTo(byteResult)));
+  }
+
+  @Test
+  public void testColumnEncoderNullValue() throws Exception {
+    ResultSet resultSet = Mockito.mock(ResultSet.class);
+    Mockito.when(resultSet.getDouble(1)).thenReturn(0d);
+    Mockito.when(resultSet.wasNull()).thenReturn(true);
+
+    byte[] nullResult = {-1, -1, -1, -1};
+    assertThat(encode(ColumnEncoder.create(Types.DOUBLE, DataFormat.POSTGRESQL_TEXT), resultSet),
+        is(equalTo(nullResult)));
+  }
+
 }
@@ -16,18 +16,36 @@ package com.google.cloud.spanner.pgadapter;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 
+import com.google.cloud.spanner.jdbc.JdbcConstants;
+import com.google.cloud.spanner.pgadapter.ConnectionActivity.Counters;
 import com.google.cloud.spanner.pgadapter.ConnectionHandler.QueryMode;
 import com.google.cloud.spanner.pgadapter.metadata.ConnectionMetadata;
 import com.google.cloud.spanner.pgadapter.metadata.DescribePortalMetadata;
 import com.google.cloud.spanner.pgadapter.metadata.DescribeStatementMetadata;
 import com.google.cloud.spanner.pgadapter.metadata.OptionsMetadata;
+import com.google.cloud.spanner.pgadapter.metadata.OptionsMetadata.PoolMode;
+import com.google.cloud.spanner.pgadapter.metadata.SendResultSetState;
+import com.google.cloud.spanner.pgadapter.metrics.MetricsServer;
+import com.google.cloud.spanner.pgadapter.metrics.ProxyMetrics;
 import com.google.cloud.spanner.pgadapter.statements.IntermediatePortalStatement;
 import com.google.cloud.spanner.pgadapter.statements.IntermediatePreparedStatement;
 import com.google.cloud.spanner.pgadapter.statements.IntermediateStatement;
 import com.google.cloud.spanner.pgadapter.statements.PSQLStatement;
+import com.google.cloud.spanner.pgadapter.utils.ProtocolTracer;
+import com.google.cloud.spanner.pgadapter.wireoutput.BindCompleteResponse;
+import com.google.cloud.spanner.pgadapter.wireoutput.CommandCompleteResponse;
+import com.google.cloud.spanner.pgadapter.wireoutput.ErrorResponse;
+import com.google.cloud.spanner.pgadapter.wireoutput.ErrorResponse.State;
+import com.google.cloud.spanner.pgadapter.wireoutput.ParseCompleteResponse;
+import com.google.cloud.spanner.pgadapter.wireoutput.PortalSuspendedResponse;
+import com.google.cloud.spanner.pgadapter.wireoutput.ReadyResponse;
+import com.google.cloud.spanner.pgadapter.wireoutput.PortalPrefetcher;
+import com.google.cloud.spanner.pgadapter.wireoutput.RowEncoder;
 import com.google.cloud.spanner.pgadapter.wireprotocol.BindMessage;
 import com.google.cloud.spanner.pgadapter.wireprotocol.BootstrapMessage;
 import com.google.cloud.spanner.pgadapter.wireprotocol.CancelMessage;
@@ -41,6 +59,7 @@ import com.google.cloud.spanner.pgadapter.wireprotocol.DescribeMessage;
 import com.google.cloud.spanner.pgadapter.wireprotocol.ExecuteMessage;
 import com.google.cloud.spanner.pgadapter.wireprotocol.FlushMessage;
 import com.google.cloud.spanner.pgadapter.wireprotocol.FunctionCallMessage;
+import com.google.cloud.spanner.pgadapter.wireprotocol.IgnoredMessage;
 import com.google.cloud.spanner.pgadapter.wireprotocol.ParseMessage;
 import com.google.cloud.spanner.pgadapter.wireprotocol.QueryMessage;
 import com.google.cloud.spanner.pgadapter.wireprotocol.SSLMessage;
@@ -49,19 +68,34 @@ import com.google.cloud.spanner.pgadapter.wireprotocol.SyncMessage;
 import com.google.cloud.spanner.pgadapter.wireprotocol.TerminateMessage;
 import com.google.cloud.spanner.pgadapter.wireprotocol.WireMessage;
 import com.google.common.primitives.Bytes;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.junit.Assert;
@@ -70,6 +104,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.mockito.ArgumentMatchers;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnit;
@@ -208,6 +243,179 @@ public class ProtocolTest {
     ControlMessage.create(connectionHandler);
   }
 
+  @Test
+  public void testQueryMessageWithMultipleStatements() throws Exception {
+    String payload = "BEGIN; INSERT INTO users VALUES (1); INSERT INTO users VALUES (2);\n"
+        + "COMMIT; -- done\0";
+    byte[] value = Bytes.concat(new byte[]{'Q'}, intToBytes(4 + payload.length()),
+        payload.getBytes());
+
+    DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(value));
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    DataOutputStream outputStream = new DataOutputStream(result);
+
+    Mockito.when(connection.createStatement()).thenReturn(statement);
+    Mockito.when(statement.getUpdateCount()).thenReturn(JdbcConstants.STATEMENT_NO_RESULT);
+    Mockito.when(statement.executeBatch()).thenReturn(new int[]{1, 1});
+    Mockito.when(connectionHandler.getServer()).thenReturn(server);
+    Mockito.when(server.getOptions()).thenReturn(options);
+    Mockito.when(options.isPSQLMode()).thenReturn(false);
+    Mockito.when(connectionHandler.getJdbcConnection()).thenReturn(connection);
+    Mockito.when(connectionHandler.getConnectionMetadata()).thenReturn(connectionMetadata);
+    Mockito.when(connectionMetadata.getInputStream()).thenReturn(inputStream);
+    Mockito.when(connectionMetadata.getOutputStream()).thenReturn(outputStream);
+
+    WireMessage message = ControlMessage.create(connectionHandler);
+    Assert.assertEquals(message.getClass(), QueryMessage.class);
+    Assert.assertEquals(((QueryMessage) message).getStatement().getSql(), "BEGIN");
+
+    message.send();
+
+    // The two INSERT statements are sent to the backend as one batch.
+    Mockito.verify(statement, Mockito.times(1)).execute("BEGIN");
+    Mockito.verify(statement, Mockito.times(1)).addBatch("INSERT INTO users VALUES (1)");
+    Mockito.verify(statement, Mockito.times(1)).addBatch("INSERT INTO users VALUES (2)");
+    Mockito.verify(statement, Mockito.times(1)).executeBatch();
+    Mockito.verify(statement, Mockito.times(1)).execute("COMMIT");
+
+    DataInputStream outputResult = inputStreamFromOutputStream(result);
+    for (String tag : new String[]{"BEGIN", "INSERT 0 1", "INSERT 0 1", "COMMIT"}) {
+      Assert.assertEquals(outputResult.readByte(), 'C');
+      Assert.assertEquals(outputResult.readInt(), 5 + tag.length());
+      Assert.assertEquals(readUntil(outputResult, tag.length()), tag);
+      Assert.assertEquals(outputResult.readByte(), 0);
+    }
+    // A single ReadyForQuery at the end of the script.
+    Assert.assertEquals(outputResult.readByte(), 'Z');
+    Assert.assertEquals(outputResult.readInt(), 5);
+    Assert.assertEquals(outputResult.readByte(), 'I');
+    Assert.assertEquals(outputResult.available(), 0);
+  }
+
+  @Test
+  public void testQueryMessageClosesSkippedStatementsOfScript() throws Exception {
+    String payload = "INSERT INTO users VALUES (1); INSERT INTO users VALUES (2); SELECT 1\0";
+    byte[] value = Bytes.concat(new byte[]{'Q'}, intToBytes(4 + payload.length()),
+        payload.getBytes());
+
+    DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(value));
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    DataOutputStream outputStream = new DataOutputStream(result);
+
+    Mockito.when(connection.createStatement()).thenReturn(statement);
+    // The first statement of the batch fails.
+    Mockito.when(statement.executeBatch()).thenThrow(new BatchUpdateException(new int[0]));
+    Mockito.when(connectionHandler.getServer()).thenReturn(server);
+    Mockito.when(server.getOptions()).thenReturn(options);
+    Mockito.when(connectionHandler.getJdbcConnection()).thenReturn(connection);
+    Mockito.when(connectionHandler.getConnectionMetadata()).thenReturn(connectionMetadata);
+    Mockito.when(connectionMetadata.getInputStream()).thenReturn(inputStream);
+    Mockito.when(connectionMetadata.getOutputStream()).thenReturn(outputStream);
+
+    ControlMessage.create(connectionHandler).send();
+
+    // One statement for each INSERT, and one for the batch. The SELECT is never created.
+    Mockito.verify(connection, Mockito.times(3)).createStatement();
+    // The batch statement, and the statement of the INSERT that was skipped.
+    Mockito.verify(statement, Mockito.times(2)).close();
+    DataInputStream outputResult = inputStreamFromOutputStream(result);
+    Assert.assertEquals(outputResult.readByte(), 'E');
+  }
+
+  @Test
+  public void testQueryMessageExecutesScriptInImplicitTransaction() throws Exception {
+    String payload = "INSERT INTO users VALUES (1); UPDATE users SET age = 2\0";
+    byte[] value = Bytes.concat(new byte[]{'Q'}, intToBytes(4 + payload.length()),
+        payload.getBytes());
+
+    DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(value));
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    DataOutputStream outputStream = new DataOutputStream(result);
+
+    Mockito.when(connection.createStatement()).thenReturn(statement);
+    Mockito.when(connection.getAutoCommit()).thenReturn(true);
+    Mockito.when(statement.executeBatch()).thenReturn(new int[]{1, 1});
+    Mockito.when(connectionHandler.getServer()).thenReturn(server);
+    Mockito.when(server.getOptions()).thenReturn(options);
+    Mockito.when(connectionHandler.getJdbcConnection()).thenReturn(connection);
+    Mockito.when(connectionHandler.getConnectionMetadata()).thenReturn(connectionMetadata);
+    Mockito.when(connectionMetadata.getInputStream()).thenReturn(inputStream);
+    Mockito.when(connectionMetadata.getOutputStream()).thenReturn(outputStream);
+
+    ControlMessage.create(connectionHandler).send();
+
+    InOrder inOrder = Mockito.inOrder(connection, statement, connectionHandler);
+    inOrder.verify(connection).setAutoCommit(false);
+    inOrder.verify(statement).executeBatch();
+    inOrder.verify(connection).commit();
+    inOrder.verify(connection).setAutoCommit(true);
+    inOrder.verify(connectionHandler).readyForQuery();
+    Mockito.verify(connection, Mockito.never()).rollback();
+  }
+
+  @Test
+  public void testQueryMessageRollsBackImplicitTransactionOfFailedScript() throws Exception {
+    String payload = "INSERT INTO users VALUES (1); SELECT * FROM users;\n"
+        + "INSERT INTO users VALUES (2)\0";
+    byte[] value = Bytes.concat(new byte[]{'Q'}, intToBytes(4 + payload.length()),
+        payload.getBytes());
+
+    DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(value));
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    DataOutputStream outputStream = new DataOutputStream(result);
+
+    Mockito.when(connection.createStatement()).thenReturn(statement);
+    Mockito.when(connection.getAutoCommit()).thenReturn(true);
+    Mockito.when(statement.getUpdateCount()).thenReturn(1);
+    // The INSERT succeeds, and the SELECT fails.
+    Mockito.when(statement.execute(anyString())).thenReturn(false)
+        .thenThrow(new SQLException("query failed"));
+    Mockito.when(connectionHandler.getServer()).thenReturn(server);
+    Mockito.when(server.getOptions()).thenReturn(options);
+    Mockito.when(connectionHandler.getJdbcConnection()).thenReturn(connection);
+    Mockito.when(connectionHandler.getConnectionMetadata()).thenReturn(connectionMetadata);
+    Mockito.when(connectionMetadata.getInputStream()).thenReturn(inputStream);
+    Mockito.when(connectionMetadata.getOutputStream()).thenReturn(outputStream);
+
+    ControlMessage.create(connectionHandler).send();
+
+    InOrder inOrder = Mockito.inOrder(connection, connectionHandler);
+    inOrder.verify(connection).setAutoCommit(false);
+    inOrder.verify(connection).rollback();
+    inOrder.verify(connection).setAutoCommit(true);
+    inOrder.verify(connectionHandler).readyForQuery();
+    Mockito.verify(connection, Mockito.never()).commit();
+    Mockito.verify(statement, Mockito.times(2)).execute(anyString());
+  }
+
+  @Test
+  public void testQueryMessageDoesNotStartTransactionForScriptWithDdl() throws Exception {
+    String payload = "INSERT INTO users VALUES (1); CREATE TABLE foo (id bigint primary key)\0";
+    byte[] value = Bytes.concat(new byte[]{'Q'}, intToBytes(4 + payload.length()),
+        payload.getBytes());
+
+    DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(value));
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    DataOutputStream outputStream = new DataOutputStream(result);
+
+    Mockito.when(connection.createStatement()).thenReturn(statement);
+    Mockito.when(connection.getAutoCommit()).thenReturn(true);
+    Mockito.when(statement.getUpdateCount()).thenReturn(1);
+    Mockito.when(connectionHandler.getServer()).thenReturn(server);
+    Mockito.when(server.getOptions()).thenReturn(options);
+    Mockito.when(connectionHandler.getJdbcConnection()).thenReturn(connection);
+    Mockito.when(connectionHandler.getConnectionMetadata()).thenReturn(connectionMetadata);
+    Mockito.when(connectionMetadata.getInputStream()).thenReturn(inputStream);
+    Mockito.when(connectionMetadata.getOutputStream()).thenReturn(outputStream);
+
+    ControlMessage.create(connectionHandler).send();
+
+    // DDL cannot be executed in a transaction, so each statement is committed on its own.
+    Mockito.verify(statement, Mockito.times(2)).execute(anyString());
+    Mockito.verify(connection, Mockito.never()).setAutoCommit(anyBoolean());
+    Mockito.verify(connection, Mockito.never()).commit();
+  }
+
   @Test
   public void testParseMessage() throws Exception {
     byte[] messageMetadata = {'P'};
@@ -752,6 +960,56 @@ public class ProtocolTest {
         .cleanUp(intermediatePortalStatement);
   }
 
+  @Test
+  public void testExecuteMessageResumesSuspendedPortal() throws Exception {
+    byte[] messageMetadata = {'E'};
+    String statementName = "some portal\0";
+    int totalRows = 99999;
+
+    byte[] length = intToBytes(
+        4
+            + statementName.length()
+            + 4
+    );
+
+    byte[] value = Bytes.concat(
+        messageMetadata,
+        length,
+        statementName.getBytes(),
+        intToBytes(totalRows)
+    );
+
+    String expectedStatementName = "some portal";
+    DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(value));
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    DataOutputStream outputStream = new DataOutputStream(result);
+
+    Mockito.when(connectionHandler.getPortal(anyString())).thenReturn(intermediatePortalStatement);
+    Mockito.when(intermediatePortalStatement.isExecuted()).thenReturn(true);
+    Mockito.when(connectionHandler.getConnectionMetadata()).thenReturn(connectionMetadata);
+    Mockito.when(connectionMetadata.getInputStream()).thenReturn(inputStream);
+    Mockito.when(connectionMetadata.getOutputStream()).thenReturn(outputStream);
+
+    WireMessage message = ControlMessage.create(connectionHandler);
+    Assert.assertEquals(message.getClass(), ExecuteMessage.class);
+    Assert.assertEquals(((ExecuteMessage) message).getName(), expectedStatementName);
+    Assert.assertEquals(((ExecuteMessage) message).getMaxRows(), totalRows);
+
+    Mockito.verify(connectionHandler, Mockito.times(1)).getPortal("some portal");
+    ExecuteMessage messageSpy = (ExecuteMessage) Mockito.spy(message);
+
+    Mockito.doReturn(false).when(messageSpy).sendSpannerResult(any(IntermediatePortalStatement.class), any(QueryMode.class), anyLong());
+
+    messageSpy.send();
+
+    Mockito.verify(intermediatePortalStatement, Mockito.never())
+        .execute();
+    Mockito.verify(messageSpy, Mockito.times(1))
+        .sendSpannerResult(intermediatePortalStatement, QueryMode.EXTENDED, totalRows);
+    Mockito.verify(connectionHandler, Mockito.times(1))
+        .cleanUp(intermediatePortalStatement);
+  }
+
   @Test
   public void testClosePortalMessage() throws Exception {
     byte[] messageMetadata = {'C'};
@@ -904,6 +1162,149 @@ public class ProtocolTest {
 
     message.send();
 
+    // A flush only sends pending output; it does not end the pipeline with a ReadyResponse.
+    Mockito.verify(connectionHandler, Mockito.times(1)).flushBatch(outputStream);
+    Assert.assertEquals(result.size(), 0);
+  }
+
+  @Test
+  public void testResponsesAreBufferedUntilReadyForQuery() throws Exception {
+    // Everything in sent has been flushed to the client.
+    ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(sent, 8192));
+
+    new ParseCompleteResponse(outputStream).send();
+    new BindCompleteResponse(outputStream).send();
+    new CommandCompleteResponse(outputStream, "SELECT 1").send();
+    new ErrorResponse(outputStream, new Exception("failed"), State.InternalError).send();
+    Assert.assertEquals(sent.size(), 0);
+
+    new ReadyResponse(outputStream, ReadyResponse.Status.IDLE).send();
+
+    DataInputStream outputResult = inputStreamFromOutputStream(sent);
+    Assert.assertEquals(outputResult.readByte(), '1');
+    Assert.assertEquals(outputResult.readInt(), 4);
+    Assert.assertEquals(outputResult.readByte(), '2');
+    Assert.assertEquals(outputResult.readInt(), 4);
+    Assert.assertEquals(outputResult.readByte(), 'C');
+    Assert.assertEquals(outputResult.readInt(), 4 + "SELECT 1".length() + 1);
+    Assert.assertEquals(readUntil(outputResult, "SELECT 1".length()), "SELECT 1");
+    Assert.assertEquals(outputResult.readByte(), '\0');
+    Assert.assertEquals(outputResult.readByte(), 'E');
+    outputResult.skipBytes(outputResult.readInt() - 4);
+    Assert.assertEquals(outputResult.readByte(), 'Z');
+    Assert.assertEquals(outputResult.readInt(), 5);
+    Assert.assertEquals(outputResult.readByte(), 'I');
+    Assert.assertEquals(outputResult.available(), 0);
+  }
+
+  @Test
+  public void testPortalSuspendedFlushesBufferedResponses() throws Exception {
+    ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(sent, 8192));
+
+    new BindCompleteResponse(outputStream).send();
+    Assert.assertEquals(sent.size(), 0);
+    new PortalSuspendedResponse(outputStream).send();
+
+    DataInputStream outputResult = inputStreamFromOutputStream(sent);
+    Assert.assertEquals(outputResult.readByte(), '2');
+    Assert.assertEquals(outputResult.readInt(), 4);
+    Assert.assertEquals(outputResult.readByte(), 's');
+    Assert.assertEquals(outputResult.readInt(), 4);
+    Assert.assertEquals(outputResult.available(), 0);
+  }
+
+  @Test
+  public void testFlushMessageSendsBufferedResponses() throws Exception {
+    byte[] value = Bytes.concat(new byte[]{'H'}, intToBytes(4));
+    DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(value));
+    ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(sent, 8192));
+
+    Mockito.when(connectionHandler.getConnectionMetadata()).thenReturn(connectionMetadata);
+    Mockito.when(connectionMetadata.getInputStream()).thenReturn(inputStream);
+    Mockito.when(connectionMetadata.getOutputStream()).thenReturn(outputStream);
+
+    new ParseCompleteResponse(outputStream).send();
+    Assert.assertEquals(sent.size(), 0);
+    ControlMessage.create(connectionHandler).send();
+
+    DataInputStream outputResult = inputStreamFromOutputStream(sent);
+    Assert.assertEquals(outputResult.readByte(), '1');
+    Assert.assertEquals(outputResult.readInt(), 4);
+    Assert.assertEquals(outputResult.available(), 0);
+  }
+
+  @Test
+  public void testRowsAreFlushedBeforeNextRowIsFetched() throws Exception {
+    byte[] value = Bytes.concat(new byte[]{'H'}, intToBytes(4));
+    DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(value));
+    ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(sent, 8192));
+    ResultSet resultSet = Mockito.mock(ResultSet.class);
+    ResultSetMetaData metaData = Mockito.mock(ResultSetMetaData.class);
+    Mockito.when(resultSet.getMetaData()).thenReturn(metaData);
+    Mockito.when(metaData.getColumnCount()).thenReturn(1);
+    Mockito.when(metaData.getColumnType(1)).thenReturn(Types.BIGINT);
+    Mockito.when(resultSet.getLong(1)).thenReturn(1L, 2L, 3L);
+    // Records what the client had received each time the backend was asked for the next row,
+    // which may take long for a slow query.
+    List<Integer> sentBeforeFetch = new ArrayList<>();
+    Mockito.when(resultSet.next()).thenAnswer(invocation -> {
+      sentBeforeFetch.add(sent.size());
+      return sentBeforeFetch.size() < 3;
+    });
+    Mockito.when(intermediatePortalStatement.getStatementResult()).thenReturn(resultSet);
+    Mockito.when(intermediatePortalStatement.isHasMoreData()).thenReturn(true);
+    Mockito.when(connectionHandler.getConnectionMetadata()).thenReturn(connectionMetadata);
+    Mockito.when(connectionMetadata.getInputStream()).thenReturn(inputStream);
+    Mockito.when(connectionMetadata.getOutputStream()).thenReturn(outputStream);
+    Mockito.when(connectionHandler.getServer()).thenReturn(server);
+    Mockito.when(server.getOptions()).thenReturn(options);
+    Mockito.when(options.isBinaryFormat()).thenReturn(true);
+    Mockito.when(options.getOutputFlushIntervalMillis()).thenReturn(60000);
+
+    SendResultSetState state = ControlMessage.create(connectionHandler)
+        .sendResultSet(intermediatePortalStatement, QueryMode.EXTENDED, 0L);
+
+    Assert.assertEquals(state.getNumberOfRowsSent(), 3L);
+    // The first row is sent before the second row is fetched, and the rows after it are held back
+    // for the flush interval.
+    Assert.assertEquals(sentBeforeFetch, Arrays.asList(19, 19, 19));
+  }
+
+  @Test
+  public void testMessagesAreIgnoredUntilSyncAfterError() throws Exception {
+    byte[] value = Bytes.concat(
+        new byte[]{'E'},
+        intToBytes(9),
+        "\0".getBytes(),
+        intToBytes(0),
+        new byte[]{'S'},
+        intToBytes(4)
+    );
+
+    DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(value));
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    DataOutputStream outputStream = new DataOutputStream(result);
+
+    Mockito.when(connectionHandler.getConnectionMetadata()).thenReturn(connectionMetadata);
+    Mockito.when(connectionMetadata.getInputStream()).thenReturn(inputStream);
+    Mockito.when(connectionMetadata.getOutputStream()).thenReturn(outputStream);
+    Mockito.when(connectionHandler.isIgnoreTillSync()).thenReturn(true);
+
+    WireMessage message = ControlMessage.create(connectionHandler);
+    Assert.assertEquals(message.getClass(), IgnoredMessage.class);
+    message.send();
+    Mockito.verify(connectionHandler, Mockito.never()).getPortal(anyString());
+    Assert.assertEquals(result.size(), 0);
+
+    message = ControlMessage.create(connectionHandler);
+    Assert.assertEquals(message.getClass(), SyncMessage.class);
+    message.send();
+    Mockito.verify(connectionHandler, Mockito.times(1)).setIgnoreTillSync(false);
+
     // ReadyResponse
     DataInputStream outputResult = inputStreamFromOutputStream(result);
     Assert.assertEquals(outputResult.readByte(), 'Z');
@@ -1202,6 +1603,135 @@ public class ProtocolTest {
         .handleTerminate();
   }
 
+  @Test
+  public void testConnectionRegistry() {
+    ConnectionHandler first = Mockito.mock(ConnectionHandler.class);
+    ConnectionHandler second = Mockito.mock(ConnectionHandler.class);
+    Mockito.when(first.getConnectionId()).thenReturn(1);
+    Mockito.when(second.getConnectionId()).thenReturn(2);
+    Mockito.when(first.getActivity()).thenReturn(new ConnectionActivity(1, "localhost", 5432));
+
+    ConnectionRegistry registry = new ConnectionRegistry();
+    registry.register(first);
+    registry.register(second);
+    List<ConnectionHandler> connections = registry.getConnections();
+
+    Assert.assertSame(registry.get(1), first);
+    Assert.assertSame(registry.get(2), second);
+    Assert.assertNull(registry.get(3));
+
+    registry.deregister(first);
+    registry.deregister(first);
+
+    Assert.assertNull(registry.get(1));
+    Assert.assertEquals(registry.size(), 1);
+    // A snapshot is not changed by connections that close afterwards.
+    Assert.assertEquals(connections.size(), 2);
+  }
+
+  @Test
+  public void testConnectionRegistryBoundsTheTotalsOfClosedConnections() {
+    ConnectionRegistry registry = new ConnectionRegistry();
+    // The last two connections are to databases that are no longer kept apart, and the very last
+    // one is to a database that is.
+    for (int id = 1; id <= ConnectionRegistry.MAX_CLOSED_DATABASES + 3; id++) {
+      ConnectionActivity activity = new ConnectionActivity(id, "localhost", 5432);
+      activity.started("me",
+          id <= ConnectionRegistry.MAX_CLOSED_DATABASES + 2 ? "db" + id : "db1", null);
+      activity.addBytesReceived(10L);
+      ConnectionHandler handler = Mockito.mock(ConnectionHandler.class);
+      Mockito.when(handler.getConnectionId()).thenReturn(id);
+      Mockito.when(handler.getActivity()).thenReturn(activity);
+      registry.register(handler);
+      registry.deregister(handler);
+    }
+
+    Map<String, Counters> counters = registry.getCountersByDatabase();
+    Assert.assertEquals(counters.size(), ConnectionRegistry.MAX_CLOSED_DATABASES + 1);
+    Assert.assertEquals(counters.get("db1").getBytesReceived(), 20L);
+    Assert.assertFalse(
+        counters.containsKey("db" + (ConnectionRegistry.MAX_CLOSED_DATABASES + 1)));
+    Assert.assertEquals(
+        counters.get(ConnectionRegistry.OTHER_DATABASES).getBytesReceived(), 20L);
+  }
+
+  @Test
+  public void testConnectionRegistryDoesNotReplaceOpenConnection() {
+    ConnectionHandler open = Mockito.mock(ConnectionHandler.class);
+    ConnectionHandler other = Mockito.mock(ConnectionHandler.class);
+    Mockito.when(open.getConnectionId()).thenReturn(2);
+    Mockito.when(other.getConnectionId()).thenReturn(2);
+
+    ConnectionRegistry registry = new ConnectionRegistry();
+    registry.register(open);
+    registry.register(open);
+
+    Assert.assertEquals(registry.nextConnectionId(), 1);
+    // The ID of the open connection is skipped.
+    Assert.assertEquals(registry.nextConnectionId(), 3);
+    try {
+      registry.register(other);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertEquals(e.getMessage(), "Connection ID 2 is already in use");
+    }
+    Assert.assertSame(registry.get(2), open);
+  }
+
+  @Test
+  public void testMetricsAreRenderedInPrometheusFormat() {
+    ProxyMetrics metrics = new ProxyMetrics();
+    metrics.messageStarted();
+    metrics.messageFinished('Q', TimeUnit.MICROSECONDS.toNanos(5));
+    metrics.recordResultSend(1000L, 3);
+    metrics.recordError(State.InternalError);
+    BackendConnectionPool pool = Mockito.mock(BackendConnectionPool.class);
+    Mockito.when(pool.getActiveConnections()).thenReturn(2);
+    Mockito.when(pool.getMaxSize()).thenReturn(10);
+    ProxyServer server = Mockito.mock(ProxyServer.class);
+    Mockito.when(server.getMetrics()).thenReturn(metrics);
+    Mockito.when(server.getConnectionRegistry()).thenReturn(new ConnectionRegistry());
+    Mockito.when(server.getConnectionPool()).thenReturn(pool);
+
+    List<String> lines =
+        Arrays.asList(new MetricsServer(server, 9090, "test").render().split("\n"));
+
+    // A duration of 5 microseconds is counted in the bucket with an upper bound of 6.
+    Assert.assertTrue(
+        lines.contains("pgadapter_message_duration_seconds_bucket{type=\"Q\",le=\"0.000004\"} 0"));
+    Assert.assertTrue(
+        lines.contains("pgadapter_message_duration_seconds_bucket{type=\"Q\",le=\"0.000006\"} 1"));
+    Assert.assertTrue(lines.contains("pgadapter_message_duration_seconds_count{type=\"Q\"} 1"));
+    Assert.assertTrue(lines.contains("pgadapter_rows_sent_total 3"));
+    Assert.assertTrue(lines.contains("pgadapter_errors_total{sqlstate=\"XX000\"} 1"));
+    Assert.assertTrue(lines.contains("pgadapter_pool_connections{state=\"active\"} 2"));
+    Assert.assertTrue(lines.contains("pgadapter_pool_max_connections 10"));
+    Assert.assertTrue(lines.contains("pgadapter_client_connections{state=\"active\"} 0"));
+  }
+
+  @Test
+  public void testProtocolTracerSamplesSessions() {
+    ProtocolTracer tracer = new ProtocolTracer(2, null, "test");
+    tracer.start();
+    try {
+      ProtocolTracer.Session session = tracer.newSession(1);
+      Assert.assertNotNull(session);
+      Assert.assertNull(tracer.newSession(2));
+      Assert.assertNotNull(tracer.newSession(3));
+
+      Assert.assertFalse(ProtocolTracer.isTracing());
+      session.enter();
+      try {
+        Assert.assertTrue(ProtocolTracer.isTracing());
+      } finally {
+        session.exit();
+      }
+      Assert.assertFalse(ProtocolTracer.isTracing());
+    } finally {
+      tracer.close();
+    }
+  }
+
 
   @Test
   public void testSSLMessage() throws Exception {
@@ -1232,6 +1762,46 @@ public class ProtocolTest {
     Assert.assertEquals(outputResult.readByte(), 'N');
   }
 
+  @Test
+  public void testPortalPrefetcherSendsPrefetchedRows() throws Exception {
+    ResultSet resultSet = Mockito.mock(ResultSet.class);
+    ResultSetMetaData metaData = Mockito.mock(ResultSetMetaData.class);
+    Mockito.when(resultSet.getMetaData()).thenReturn(metaData);
+    Mockito.when(metaData.getColumnCount()).thenReturn(1);
+    Mockito.when(metaData.getColumnType(1)).thenReturn(Types.BIGINT);
+    Mockito.when(resultSet.getLong(1)).thenReturn(1L, 2L, 3L);
+    Mockito.when(resultSet.next()).thenReturn(true, true, false);
+    Mockito.when(intermediatePortalStatement.getStatementResult()).thenReturn(resultSet);
+    Mockito.when(options.isBinaryFormat()).thenReturn(true);
+    Mockito.when(connectionHandler.reservePrefetchMemory(anyInt())).thenReturn(true);
+
+    RowEncoder encoder =
+        new RowEncoder(intermediatePortalStatement, options, QueryMode.EXTENDED);
+    PortalPrefetcher prefetcher = new PortalPrefetcher(resultSet, encoder, connectionHandler, 2);
+    prefetcher.start(Runnable::run);
+
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    Assert.assertEquals(1, prefetcher.writeRows(result, 1));
+    Assert.assertFalse(prefetcher.isEmpty());
+    Assert.assertEquals(1, prefetcher.writeRows(result, 0));
+    Assert.assertTrue(prefetcher.isEmpty());
+    // The third row has not been fetched, and is still the current row of the result set.
+    Assert.assertTrue(prefetcher.cursorHasMoreData());
+    Mockito.verify(resultSet, Mockito.times(2)).next();
+
+    DataInputStream outputResult = inputStreamFromOutputStream(result);
+    for (long expected = 1L; expected <= 2L; expected++) {
+      Assert.assertEquals(outputResult.readByte(), 'D');
+      Assert.assertEquals(outputResult.readInt(), 18);
+      Assert.assertEquals(outputResult.readShort(), 1);
+      Assert.assertEquals(outputResult.readInt(), 8);
+      Assert.assertEquals(outputResult.readLong(), expected);
+    }
+    Assert.assertEquals(outputResult.available(), 0);
+    Mockito.verify(connectionHandler, Mockito.times(2)).reservePrefetchMemory(19);
+    Mockito.verify(connectionHandler, Mockito.times(2)).releasePrefetchMemory(19L);
+  }
+
   @Test(expected = IOException.class)
   public void testSSLMessageFailsWhenCalledTwice() throws Exception {
     byte[] length = intToBytes(8);
@@ -1262,4 +1832,186 @@ public class ProtocolTest {
 
     message.send();
   }
+
+  private void readUntilPendingFrames(ChannelConnection channelConnection, int frames)
+      throws Exception {
+    while (channelConnection.getPendingFrames() < frames) {
+      channelConnection.onReadable();
+    }
+  }
+
+  @Test(timeout = 10000L)
+  public void testChannelConnectionCutsReceivedBytesIntoMessages() throws Exception {
+    byte[] sslRequest = Bytes.concat(intToBytes(8), intToBytes(80877103));
+    byte[] startup = Bytes.concat(intToBytes(17), intToBytes(196608), "user\0me\0\0".getBytes());
+    byte[] query = Bytes.concat(new byte[]{'Q'}, intToBytes(13), "SELECT 1\0".getBytes());
+
+    try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+      serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      try (SocketChannel client = SocketChannel.open(serverChannel.getLocalAddress());
+          SocketChannel accepted = serverChannel.accept()) {
+        ChannelConnection channelConnection =
+            new ChannelConnection(server, null, runnable -> { }, accepted);
+
+        // A message that has only partly been received is held back until the rest arrives.
+        client.write(ByteBuffer.wrap(Bytes.concat(sslRequest, Arrays.copyOf(startup, 3))));
+        readUntilPendingFrames(channelConnection, 1);
+        client.write(ByteBuffer.wrap(Bytes.concat(
+            Arrays.copyOfRange(startup, 3, startup.length), query, query)));
+        // After the startup message, messages start with an identifier byte.
+        readUntilPendingFrames(channelConnection, 4);
+        Assert.assertEquals(channelConnection.getPendingFrames(), 4);
+
+        client.write(ByteBuffer.wrap(Bytes.concat(new byte[]{'Q'}, intToBytes(2))));
+        try {
+          readUntilPendingFrames(channelConnection, 5);
+          Assert.fail();
+        } catch (IOException e) {
+          Assert.assertEquals(e.getMessage(), "Invalid message length: 2");
+        }
+      }
+    }
+  }
+
+  @Test(timeout = 10000L)
+  public void testChannelConnectionIsClosedIfTheHandlerCannotBeCreated() throws Exception {
+    // Without options, creating the connection handler fails.
+    Mockito.when(server.getOptions()).thenReturn(null);
+
+    try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+      serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      try (SocketChannel client = SocketChannel.open(serverChannel.getLocalAddress());
+          SocketChannel accepted = serverChannel.accept()) {
+        new ChannelConnection(server, null, Runnable::run, accepted).start();
+
+        Assert.assertFalse(accepted.isOpen());
+        // The client sees the connection being closed.
+        Assert.assertEquals(client.read(ByteBuffer.allocate(1)), -1);
+        Mockito.verify(server, Mockito.never()).register(any());
+      }
+    }
+  }
+
+  /**
+   * A client of a {@link ChannelConnection}, for which the test plays the event loop.
+   */
+  private static final class ChannelClient implements AutoCloseable {
+
+    private final SocketChannel client;
+    private final SocketChannel accepted;
+    private final ChannelConnection connection;
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+    ChannelClient(ServerSocketChannel serverChannel, ProxyServer server, ExecutorService workers)
+        throws IOException {
+      this.client = SocketChannel.open(serverChannel.getLocalAddress());
+      this.accepted = serverChannel.accept();
+      this.client.configureBlocking(false);
+      this.accepted.configureBlocking(false);
+      this.connection = new ChannelConnection(server, null, workers, this.accepted);
+      this.connection.start();
+    }
+
+    void send(byte[]... messages) throws IOException {
+      ByteBuffer data = ByteBuffer.wrap(Bytes.concat(messages));
+      while (data.hasRemaining()) {
+        this.client.write(data);
+      }
+    }
+
+    void poll() throws IOException {
+      this.connection.onReadable();
+      ByteBuffer buffer = ByteBuffer.allocate(8192);
+      while (this.client.read(buffer) > 0) {
+        this.received.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+      }
+    }
+
+    /**
+     * @return The identifiers of the messages received so far.
+     */
+    List<Character> getMessages() {
+      ByteBuffer data = ByteBuffer.wrap(this.received.toByteArray());
+      List<Character> messages = new ArrayList<>();
+      while (data.remaining() >= 5) {
+        char identifier = (char) data.get();
+        int length = data.getInt();
+        if (data.remaining() < length - 4) {
+          break;
+        }
+        data.position(data.position() + length - 4);
+        messages.add(identifier);
+      }
+      return messages;
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.client.close();
+      this.accepted.close();
+    }
+  }
+
+  private byte[] queryMessage(String sql) {
+    byte[] body = (sql + "\0").getBytes(StandardCharsets.UTF_8);
+    return Bytes.concat(new byte[]{'Q'}, intToBytes(body.length + 4), body);
+  }
+
+  private static List<Character> awaitReadyForQuery(List<ChannelClient> clients,
+      ChannelClient client, int count) throws Exception {
+    while (Collections.frequency(client.getMessages(), 'Z') < count) {
+      for (ChannelClient other : clients) {
+        other.poll();
+      }
+      Thread.sleep(1L);
+    }
+    return client.getMessages();
+  }
+
+  @Test(timeout = 10000L)
+  public void testChannelConnectionsWaitForBackendConnectionWithoutWorker() throws Exception {
+    // A single backend connection, and clients that would wait for it much longer than the test.
+    BackendConnectionPool pool =
+        new BackendConnectionPool("jdbc:cloudspanner:/test", 0, 1, 60000L, 60000L, 60000L) {
+          @Override
+          Connection connect() {
+            return connection;
+          }
+        };
+    Mockito.when(connection.getAutoCommit()).thenReturn(true);
+    Mockito.when(connection.createStatement()).thenReturn(statement);
+    Mockito.when(server.getOptions()).thenReturn(options);
+    Mockito.when(options.getPoolMode()).thenReturn(PoolMode.TRANSACTION);
+    Mockito.when(server.getConnectionPool()).thenReturn(pool);
+    Mockito.when(server.getConnectionRegistry()).thenReturn(new ConnectionRegistry());
+    byte[] startup = Bytes.concat(intToBytes(17), intToBytes(196608), "user\0me\0\0".getBytes());
+    // A single worker, so every client but one would block it while waiting for the pool.
+    ExecutorService workers = Executors.newSingleThreadExecutor();
+
+    try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+      serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      try (ChannelClient owner = new ChannelClient(serverChannel, server, workers);
+          ChannelClient first = new ChannelClient(serverChannel, server, workers);
+          ChannelClient second = new ChannelClient(serverChannel, server, workers)) {
+        List<ChannelClient> clients = Arrays.asList(owner, first, second);
+        owner.send(startup, queryMessage("BEGIN"));
+        awaitReadyForQuery(clients, owner, 2);
+        first.send(startup, queryMessage("UPDATE users SET name = 'a'"));
+        second.send(startup, queryMessage("UPDATE users SET name = 'b'"));
+        awaitReadyForQuery(clients, first, 1);
+        awaitReadyForQuery(clients, second, 1);
+
+        // The transaction can still be committed while both other clients wait for its connection.
+        owner.send(queryMessage("COMMIT"));
+        Assert.assertEquals(awaitReadyForQuery(clients, owner, 3).subList(6, 10),
+            Arrays.asList('C', 'Z', 'C', 'Z'));
+        Assert.assertFalse(awaitReadyForQuery(clients, first, 2).contains('E'));
+        Assert.assertFalse(awaitReadyForQuery(clients, second, 2).contains('E'));
+        Assert.assertEquals(pool.getActiveConnections(), 0);
+      }
+    } finally {
+      workers.shutdownNow();
+    }
+  }
 }
@@ -15,15 +15,34 @@
 package com.google.cloud.spanner.pgadapter;
 
 import com.google.cloud.spanner.jdbc.JdbcConstants;
+import com.google.cloud.spanner.pgadapter.catalog.SchemaCatalog;
+import com.google.cloud.spanner.pgadapter.catalog.SchemaSnapshot;
+import com.google.cloud.spanner.pgadapter.metadata.OptionsMetadata;
+import com.google.cloud.spanner.pgadapter.metrics.SlowQueryLog;
+import com.google.cloud.spanner.pgadapter.metrics.StatementStatistics;
+import com.google.cloud.spanner.pgadapter.metrics.StatementTimings;
+import com.google.cloud.spanner.pgadapter.metrics.StatementTimings.Phase;
+import com.google.cloud.spanner.pgadapter.statements.ActivityStatement;
+import com.google.cloud.spanner.pgadapter.statements.AdminStatement;
+import com.google.cloud.spanner.pgadapter.statements.CatalogStatement;
+import com.google.cloud.spanner.pgadapter.statements.DmlBatch;
 import com.google.cloud.spanner.pgadapter.statements.IntermediatePortalStatement;
 import com.google.cloud.spanner.pgadapter.statements.IntermediatePreparedStatement;
 import com.google.cloud.spanner.pgadapter.statements.IntermediateStatement;
 import com.google.cloud.spanner.pgadapter.statements.IntermediateStatement.ResultType;
+import com.google.cloud.spanner.pgadapter.statements.LocalStatement;
+import com.google.cloud.spanner.pgadapter.statements.PreparedStatementCache;
+import com.google.cloud.spanner.pgadapter.statements.PreparedStatementCache.CachedStatement;
+import com.google.cloud.spanner.pgadapter.statements.StatisticsStatement;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -120,6 +139,8 @@ public class StatementTest {
     intermediateStatement.close();
 
     Mockito.verify(resultSet, Mockito.times(0)).close();
+    // The backend connection outlives the client, so the statement must not be left open on it.
+    Mockito.verify(statement, Mockito.times(1)).close();
   }
 
   @Test
@@ -219,6 +240,41 @@ public class StatementTest {
     Assert.assertTrue(intermediateStatement.isBound());
   }
 
+  @Test
+  public void testPreparedStatementBindsParametersByNumber() throws Exception {
+    String sqlStatement = "UPDATE users SET age = $2 WHERE name = $1 OR alias = $1";
+    String expectedSQL = "UPDATE users SET age = ? WHERE name = ? OR alias = ?";
+    List<Integer> parameterDataTypes = Arrays.asList(Oid.VARCHAR, Oid.INT8);
+
+    Mockito.when(connectionHandler.getJdbcConnection()).thenReturn(connection);
+    Mockito.when(connection.prepareStatement(expectedSQL)).thenReturn(preparedStatement);
+    Mockito.when(preparedStatement.executeBatch()).thenReturn(new int[]{1});
+
+    IntermediatePreparedStatement intermediateStatement = new IntermediatePreparedStatement(
+        sqlStatement, connectionHandler);
+    intermediateStatement.setParameterDataTypes(parameterDataTypes);
+    // The client binds $1 and $2, even though the statement has three question marks.
+    Assert.assertEquals(intermediateStatement.getParameterCount(), 2);
+
+    byte[][] parameters = {"userName".getBytes(), "30".getBytes()};
+    IntermediatePortalStatement portal =
+        intermediateStatement.bind(parameters, new ArrayList<>(), new ArrayList<>(), connectionHandler);
+
+    Mockito.verify(preparedStatement, Mockito.times(1)).setObject(1, 30L);
+    Mockito.verify(preparedStatement, Mockito.times(1)).setObject(2, "userName");
+    Mockito.verify(preparedStatement, Mockito.times(1)).setObject(3, "userName");
+
+    // A batch binds the parameters of its portals in the same way.
+    DmlBatch batch = new DmlBatch(connectionHandler, expectedSQL);
+    batch.addExecute(portal);
+    batch.execute();
+
+    Mockito.verify(preparedStatement, Mockito.times(2)).setObject(1, 30L);
+    Mockito.verify(preparedStatement, Mockito.times(2)).setObject(2, "userName");
+    Mockito.verify(preparedStatement, Mockito.times(2)).setObject(3, "userName");
+    Assert.assertEquals(portal.getUpdateCommandTag(), "UPDATE 1");
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void testPreparedStatementIllegalTypeThrowsException() throws Exception {
     String sqlStatement = "SELECT * FROM users WHERE metadata = ?";
@@ -237,6 +293,164 @@ public class StatementTest {
     intermediateStatement.bind(parameters, new ArrayList<>(), new ArrayList<>(), connectionHandler);
   }
 
+  @Test
+  public void testPreparedStatementBinaryParameters() throws Exception {
+    String sqlStatement = "SELECT * FROM users WHERE age > $1 AND active = $2 AND name = $3";
+    List<Integer> parameterDataTypes = Arrays.asList(Oid.INT8, Oid.BOOL, Oid.VARCHAR);
+
+    Mockito.when(connectionHandler.getJdbcConnection()).thenReturn(connection);
+    Mockito.when(connection.prepareStatement(ArgumentMatchers.anyString()))
+        .thenReturn(preparedStatement);
+
+    IntermediatePreparedStatement intermediateStatement = new IntermediatePreparedStatement(
+        sqlStatement, connectionHandler);
+    intermediateStatement.setParameterDataTypes(parameterDataTypes);
+
+    byte[][] parameters = {longToBytes(20), {1}, "userName".getBytes()};
+
+    intermediateStatement.bind(parameters, Arrays.asList((short) 1, (short) 1, (short) 0),
+        new ArrayList<>(), connectionHandler);
+
+    Mockito.verify(preparedStatement, Mockito.times(1)).setObject(1, 20L);
+    Mockito.verify(preparedStatement, Mockito.times(1)).setObject(2, true);
+    Mockito.verify(preparedStatement, Mockito.times(1)).setObject(3, "userName");
+  }
+
+  @Test
+  public void testPreparedStatementCacheReusesStatements() throws Exception {
+    String sqlStatement = "SELECT * FROM users WHERE id = $1 -- first";
+    String otherStatement = "SELECT 1";
+    PreparedStatementCache cache = new PreparedStatementCache(1);
+
+    Mockito.when(connectionHandler.getJdbcConnection()).thenReturn(connection);
+    Mockito.when(connectionHandler.getStatementCache()).thenReturn(cache);
+    Mockito.when(connection.prepareStatement("SELECT * FROM users WHERE id = ?"))
+        .thenReturn(preparedStatement);
+
+    CachedStatement cachedStatement = cache.get(sqlStatement, connectionHandler);
+    Assert.assertSame(cache.get(sqlStatement, connectionHandler), cachedStatement);
+    Assert.assertEquals(cachedStatement.getSql(), "SELECT * FROM users WHERE id = ?");
+    Assert.assertEquals(cachedStatement.getCommand(), "SELECT");
+    Assert.assertEquals(cachedStatement.getParameterCount(), 1);
+    Assert.assertEquals(cache.getHits(), 1);
+    Assert.assertEquals(cache.getMisses(), 1);
+
+    IntermediatePreparedStatement intermediateStatement =
+        new IntermediatePreparedStatement(cachedStatement, connectionHandler);
+    IntermediatePortalStatement first =
+        intermediateStatement.bind(new byte[0][], new ArrayList<>(), new ArrayList<>(),
+            connectionHandler);
+    IntermediatePortalStatement second =
+        intermediateStatement.bind(new byte[0][], new ArrayList<>(), new ArrayList<>(),
+            connectionHandler);
+
+    // The first portal borrows the cached statement, the second one gets a statement of its own.
+    Assert.assertSame(first.getStatement(), preparedStatement);
+    Mockito.verify(connection, Mockito.times(2))
+        .prepareStatement("SELECT * FROM users WHERE id = ?");
+    Assert.assertTrue(cache.release(first.getStatement()));
+    Assert.assertFalse(cache.release(statement));
+
+    cache.get(otherStatement, connectionHandler);
+    Assert.assertEquals(cache.size(), 1);
+    Assert.assertEquals(cache.getEvictions(), 1);
+    Mockito.verify(preparedStatement, Mockito.times(1)).close();
+  }
+
+  @Test
+  public void testDmlBatchExecutesPortalsInOneBatch() throws Exception {
+    String sqlStatement = "INSERT INTO users (id) VALUES (?)";
+
+    Mockito.when(connectionHandler.getJdbcConnection()).thenReturn(connection);
+    Mockito.when(connection.prepareStatement(sqlStatement)).thenReturn(preparedStatement);
+    Mockito.when(preparedStatement.executeBatch()).thenReturn(new int[]{1, 1});
+
+    IntermediatePortalStatement first =
+        new IntermediatePortalStatement(preparedStatement, sqlStatement, 1, connectionHandler);
+    first.setParameterValues(new Object[]{1L});
+    IntermediatePortalStatement second =
+        new IntermediatePortalStatement(preparedStatement, sqlStatement, 1, connectionHandler);
+    second.setParameterValues(new Object[]{2L});
+
+    Assert.assertTrue(DmlBatch.canBatch(first));
+    DmlBatch batch = new DmlBatch(connectionHandler, sqlStatement);
+    Assert.assertTrue(batch.addExecute(first));
+    batch.addBind(second);
+    Assert.assertTrue(batch.addExecute(second));
+    Assert.assertFalse(batch.addExecute(second));
+    Assert.assertEquals(batch.getSteps().size(), 2);
+    Assert.assertFalse(batch.getSteps().get(0).isBindPending());
+    Assert.assertTrue(batch.getSteps().get(1).isBindPending());
+
+    batch.execute();
+
+    Mockito.verify(preparedStatement, Mockito.times(1)).setObject(1, 1L);
+    Mockito.verify(preparedStatement, Mockito.times(1)).setObject(1, 2L);
+    Mockito.verify(preparedStatement, Mockito.times(2)).addBatch();
+    Mockito.verify(preparedStatement, Mockito.times(1)).executeBatch();
+    Mockito.verify(preparedStatement, Mockito.never()).execute();
+    Assert.assertTrue(first.isExecuted());
+    Assert.assertEquals(first.getResultType(), ResultType.UPDATE_COUNT);
+    Assert.assertEquals(first.getUpdateCommandTag(), "INSERT 0 1");
+    Assert.assertFalse(DmlBatch.canBatch(second));
+  }
+
+  @Test
+  public void testDmlBatchStopsAtFailedStatement() throws Exception {
+    String sqlStatement = "UPDATE users SET name = ? WHERE id = ?";
+    BatchUpdateException thrownException = new BatchUpdateException(new int[]{3});
+
+    Mockito.when(connectionHandler.getJdbcConnection()).thenReturn(connection);
+    Mockito.when(connection.prepareStatement(sqlStatement)).thenReturn(preparedStatement);
+    Mockito.when(preparedStatement.executeBatch()).thenThrow(thrownException);
+
+    List<IntermediatePortalStatement> portals = new ArrayList<>();
+    DmlBatch batch = new DmlBatch(connectionHandler, sqlStatement);
+    for (int i = 0; i < 3; i++) {
+      IntermediatePortalStatement portal =
+          new IntermediatePortalStatement(preparedStatement, sqlStatement, 2, connectionHandler);
+      portal.setParameterValues(new Object[]{"name", (long) i});
+      batch.addExecute(portal);
+      portals.add(portal);
+    }
+
+    batch.execute();
+
+    Assert.assertEquals(portals.get(0).getUpdateCommandTag(), "UPDATE 3");
+    Assert.assertTrue(portals.get(1).hasException());
+    Assert.assertEquals(portals.get(1).getException(), thrownException);
+    Assert.assertFalse(portals.get(2).isExecuted());
+  }
+
+  @Test
+  public void testDmlBatchFindsFailedStatementOfDriverThatContinues() throws Exception {
+    String sqlStatement = "UPDATE users SET name = ? WHERE id = ?";
+    // The driver went on after the second statement failed.
+    BatchUpdateException thrownException =
+        new BatchUpdateException(new int[]{3, Statement.EXECUTE_FAILED, 1});
+
+    Mockito.when(connectionHandler.getJdbcConnection()).thenReturn(connection);
+    Mockito.when(connection.prepareStatement(sqlStatement)).thenReturn(preparedStatement);
+    Mockito.when(preparedStatement.executeBatch()).thenThrow(thrownException);
+
+    List<IntermediatePortalStatement> portals = new ArrayList<>();
+    DmlBatch batch = new DmlBatch(connectionHandler, sqlStatement);
+    for (int i = 0; i < 3; i++) {
+      IntermediatePortalStatement portal =
+          new IntermediatePortalStatement(preparedStatement, sqlStatement, 2, connectionHandler);
+      portal.setParameterValues(new Object[]{"name", (long) i});
+      batch.addExecute(portal);
+      portals.add(portal);
+    }
+
+    batch.execute();
+
+    Assert.assertEquals(portals.get(0).getUpdateCommandTag(), "UPDATE 3");
+    Assert.assertTrue(portals.get(1).hasException());
+    Assert.assertEquals(portals.get(1).getException(), thrownException);
+    Assert.assertFalse(portals.get(2).isExecuted());
+  }
+
   @Test(expected = IllegalStateException.class)
   public void testPreparedStatementDescribeThrowsException() throws Exception {
     String sqlStatement = "SELECT * FROM users WHERE name = $1 AND age > $2 AND age < $3";
@@ -314,4 +528,233 @@ public class StatementTest {
     intermediateStatement.describe();
   }
 
+  @Test
+  public void testLocalSelectOneStatement() throws Exception {
+    Assert.assertTrue(LocalStatement.isLocalStatement("SELECT 1"));
+    Assert.assertTrue(LocalStatement.isLocalStatement("select 1;\n"));
+    Assert.assertFalse(LocalStatement.isLocalStatement("SELECT 1 FROM users"));
+
+    IntermediateStatement intermediateStatement = new LocalStatement("select 1;", connectionHandler);
+    intermediateStatement.execute();
+
+    Assert.assertTrue(intermediateStatement.containsResultSet());
+    Assert.assertTrue(intermediateStatement.isHasMoreData());
+    Assert.assertEquals(intermediateStatement.getStatementResult().getLong(1), 1L);
+    Assert.assertEquals(
+        intermediateStatement.getStatementResult().getMetaData().getColumnTypeName(1), "INT64");
+    Assert.assertFalse(intermediateStatement.getStatementResult().next());
+    Mockito.verify(connectionHandler, Mockito.never()).getJdbcConnection();
+  }
+
+  @Test
+  public void testLocalSetAndShowStatements() throws Exception {
+    IntermediateStatement setStatement =
+        new LocalStatement("SET application_name = 'psql'", connectionHandler);
+    setStatement.execute();
+
+    Assert.assertEquals(setStatement.getResultType(), ResultType.NO_RESULT);
+    Assert.assertEquals(setStatement.getCommand(), "SET");
+    Mockito.verify(connectionHandler, Mockito.times(1))
+        .setSessionParameter("application_name", "psql");
+
+    Mockito.when(connectionHandler.getSessionParameter("application_name")).thenReturn("psql");
+    IntermediateStatement showStatement =
+        new LocalStatement("SHOW application_name", connectionHandler);
+    showStatement.execute();
+
+    Assert.assertTrue(showStatement.containsResultSet());
+    Assert.assertEquals(showStatement.getStatementResult().getString(1), "psql");
+
+    IntermediateStatement unknownStatement =
+        new LocalStatement("SHOW unknown_parameter", connectionHandler);
+    unknownStatement.execute();
+
+    Assert.assertTrue(unknownStatement.hasException());
+    Mockito.verify(connectionHandler, Mockito.never()).getJdbcConnection();
+  }
+
+  @Test
+  public void testCatalogStatementIsAnsweredFromSnapshot() throws Exception {
+    DatabaseMetaData metaData = Mockito.mock(DatabaseMetaData.class);
+    ResultSet tables = Mockito.mock(ResultSet.class);
+    ResultSet columns = Mockito.mock(ResultSet.class);
+    Mockito.when(connection.getMetaData()).thenReturn(metaData);
+    Mockito.when(metaData.getTables(null, null, "%", null)).thenReturn(tables);
+    Mockito.when(metaData.getColumns(null, null, "%", "%")).thenReturn(columns);
+    Mockito.when(metaData.getIndexInfo(null, "", "users", false, false))
+        .thenThrow(new SQLFeatureNotSupportedException());
+    Mockito.when(tables.next()).thenReturn(true, false);
+    Mockito.when(tables.getString("TABLE_SCHEM")).thenReturn("");
+    Mockito.when(tables.getString("TABLE_NAME")).thenReturn("users");
+    Mockito.when(tables.getString("TABLE_TYPE")).thenReturn("TABLE");
+    Mockito.when(columns.next()).thenReturn(true, false);
+    Mockito.when(columns.getString("TABLE_SCHEM")).thenReturn("");
+    Mockito.when(columns.getString("TABLE_NAME")).thenReturn("users");
+    Mockito.when(columns.getString("COLUMN_NAME")).thenReturn("id");
+    Mockito.when(columns.getInt("DATA_TYPE")).thenReturn(Types.BIGINT);
+    Mockito.when(columns.getInt("NULLABLE")).thenReturn(DatabaseMetaData.columnNoNulls);
+
+    SchemaSnapshot snapshot = SchemaSnapshot.load(connection);
+    ProxyServer server = Mockito.mock(ProxyServer.class);
+    SchemaCatalog schemaCatalog = Mockito.mock(SchemaCatalog.class);
+    Mockito.when(connectionHandler.getServer()).thenReturn(server);
+    Mockito.when(server.getOptions()).thenReturn(Mockito.mock(OptionsMetadata.class));
+    Mockito.when(server.getSchemaCatalog()).thenReturn(schemaCatalog);
+    Mockito.when(schemaCatalog.getSnapshot()).thenReturn(snapshot);
+
+    IntermediateStatement intermediateStatement = CatalogStatement.create(
+        "SELECT c.relname, c.relkind AS kind FROM pg_catalog.pg_class c "
+            + "WHERE c.relnamespace = 2200 ORDER BY 1",
+        connectionHandler);
+    intermediateStatement.execute();
+
+    Assert.assertTrue(intermediateStatement.containsResultSet());
+    Assert.assertTrue(intermediateStatement.isHasMoreData());
+    ResultSet result = intermediateStatement.getStatementResult();
+    Assert.assertEquals(result.getMetaData().getColumnLabel(2), "kind");
+    Assert.assertEquals(result.getString(1), "users");
+    Assert.assertEquals(result.getString(2), "r");
+    Assert.assertFalse(result.next());
+
+    Assert.assertNull(CatalogStatement.create(
+        "SELECT c.relname FROM pg_class c JOIN pg_namespace n ON c.relnamespace = n.oid",
+        connectionHandler));
+    Assert.assertNull(CatalogStatement.create("SELECT * FROM users", connectionHandler));
+    Mockito.verify(connectionHandler, Mockito.never()).getJdbcConnection();
+  }
+
+  @Test
+  public void testStatisticsStatementIsAnsweredFromStatementStatistics() throws Exception {
+    StatementStatistics statistics = new StatementStatistics(100);
+    statistics.recordExecute("SELECT * FROM users WHERE id = 1", 2000000L, 0L)
+        .recordResultSent(1000000L, 1L, 20L);
+    statistics.recordExecute("SELECT * FROM users WHERE id = 2", 4000000L, 0L);
+    statistics.recordExecute("DELETE FROM users", 1000000L, 5L);
+    Mockito.when(connectionHandler.getStatementStatistics()).thenReturn(statistics);
+
+    IntermediateStatement intermediateStatement = StatisticsStatement.create(
+        "SELECT query, calls, total_exec_time, rows FROM pg_stat_statements "
+            + "ORDER BY calls DESC LIMIT 1",
+        connectionHandler);
+    intermediateStatement.execute();
+
+    Assert.assertTrue(intermediateStatement.isHasMoreData());
+    ResultSet result = intermediateStatement.getStatementResult();
+    Assert.assertEquals(result.getString(1), "SELECT * FROM users WHERE id = $1");
+    Assert.assertEquals(result.getLong(2), 2L);
+    Assert.assertEquals(result.getDouble(3), 6.0d, 0.0d);
+    Assert.assertEquals(result.getLong(4), 1L);
+    Assert.assertFalse(result.next());
+
+    StatisticsStatement.create("select pg_stat_statements_reset();", connectionHandler).execute();
+    Assert.assertEquals(statistics.size(), 0);
+
+    Assert.assertNull(StatisticsStatement.create("SELECT * FROM pg_class", connectionHandler));
+    Mockito.verify(connectionHandler, Mockito.never()).getJdbcConnection();
+  }
+
+  @Test
+  public void testStatementTimingsAreRecordedForTheSlowQueryLog() throws Exception {
+    SlowQueryLog slowQueryLog = new SlowQueryLog(0L, null, "test");
+    Mockito.when(connectionHandler.getSlowQueryLog()).thenReturn(slowQueryLog);
+    Mockito.when(connectionHandler.getJdbcConnection()).thenReturn(connection);
+    Mockito.when(connection.createStatement()).thenReturn(statement);
+    Mockito.when(statement.getUpdateCount()).thenReturn(5);
+    Mockito.when(statement.execute(ArgumentMatchers.anyString())).thenAnswer(invocation -> {
+      Thread.sleep(2L);
+      return false;
+    });
+
+    IntermediateStatement intermediateStatement =
+        new IntermediateStatement("DELETE FROM users", connectionHandler);
+    intermediateStatement.execute();
+
+    StatementTimings timings = intermediateStatement.getTimings();
+    Assert.assertTrue(timings.getNanos(Phase.EXECUTE) >= 2000000L);
+    Assert.assertEquals(timings.getNanos(Phase.FIRST_ROW), 0L);
+    Assert.assertEquals(timings.getTotalNanos(), timings.getNanos(Phase.EXECUTE));
+    Assert.assertEquals(timings.getRows(), 5L);
+    Assert.assertTrue(timings.toString().endsWith("client_write=0.000 rows=5 bytes=0"));
+
+    Assert.assertTrue(timings.finish());
+    Assert.assertFalse(timings.finish());
+    Assert.assertTrue(slowQueryLog.record(1, "DELETE FROM users", timings));
+    // The log has not been started, so the statement is dropped.
+    Assert.assertEquals(slowQueryLog.getDroppedRecords(), 1L);
+    Assert.assertFalse(
+        new SlowQueryLog(60000L, null, "test").record(1, "DELETE FROM users", timings));
+  }
+
+  @Test
+  public void testConnectionActivityFollowsTheStateOfTheConnection() {
+    ConnectionActivity activity = new ConnectionActivity(1, "127.0.0.1", 5432);
+    Assert.assertEquals(activity.getStatus().getState(), ConnectionActivity.State.STARTUP);
+
+    activity.started("user", "database", "psql");
+    activity.queryStarted("BEGIN");
+    Assert.assertEquals(activity.getStatus().getState().getLabel(), "active");
+    Assert.assertEquals(activity.getStatus().getQuery(), "BEGIN");
+
+    activity.readyForQuery(true);
+    Assert.assertEquals(activity.getStatus().getState().getLabel(), "idle in transaction");
+    // The last query remains visible while the connection is idle.
+    Assert.assertEquals(activity.getStatus().getQuery(), "BEGIN");
+    Assert.assertEquals(activity.getCounters().getQueries(), 1L);
+
+    activity.waitStarted();
+    Assert.assertTrue(activity.getWaitNanos() > 0L);
+    activity.waitFinished();
+    Assert.assertEquals(activity.getWaitNanos(), 0L);
+  }
+
+  @Test
+  public void testActivityStatementOnlyShowsQueriesOfTheSameUser() throws Exception {
+    ConnectionActivity own = new ConnectionActivity(1, "127.0.0.1", 5432);
+    own.started("alice", "database", "psql");
+    own.queryStarted("SELECT * FROM pg_stat_activity");
+    ConnectionActivity other = new ConnectionActivity(2, "127.0.0.1", 5433);
+    other.started("bob", "database", "psql");
+    other.queryStarted("UPDATE users SET password = 'secret'");
+    ConnectionHandler otherHandler = Mockito.mock(ConnectionHandler.class);
+    ProxyServer server = Mockito.mock(ProxyServer.class);
+    ConnectionRegistry registry = Mockito.mock(ConnectionRegistry.class);
+    Mockito.when(connectionHandler.getServer()).thenReturn(server);
+    Mockito.when(server.getOptions()).thenReturn(Mockito.mock(OptionsMetadata.class));
+    Mockito.when(connectionHandler.getActivity()).thenReturn(own);
+    Mockito.when(otherHandler.getActivity()).thenReturn(other);
+    Mockito.when(server.getConnectionRegistry()).thenReturn(registry);
+    Mockito.when(registry.getConnections())
+        .thenReturn(Arrays.asList(connectionHandler, otherHandler));
+
+    IntermediateStatement intermediateStatement = ActivityStatement.create(
+        "SELECT pid, usename, client_port, query FROM pg_stat_activity ORDER BY pid",
+        connectionHandler);
+    intermediateStatement.execute();
+
+    Assert.assertTrue(intermediateStatement.isHasMoreData());
+    ResultSet result = intermediateStatement.getStatementResult();
+    Assert.assertEquals(result.getLong(1), 1L);
+    Assert.assertEquals(result.getLong(3), 5432L);
+    Assert.assertEquals(result.getString(4), "SELECT * FROM pg_stat_activity");
+    Assert.assertTrue(result.next());
+    // The connection of another user is listed, but its details are not shown.
+    Assert.assertEquals(result.getLong(1), 2L);
+    Assert.assertEquals(result.getString(2), "bob");
+    Assert.assertNull(result.getObject(3));
+    Assert.assertEquals(result.getString(4), "<insufficient privilege>");
+    Assert.assertFalse(result.next());
+    Mockito.verify(connectionHandler, Mockito.never()).getJdbcConnection();
+  }
+
+  @Test
+  public void testAdminConsoleOnlyAcceptsShowCommands() {
+    Assert.assertEquals(AdminStatement.create("show pools;", connectionHandler).getSql(),
+        "show pools;");
+    try {
+      AdminStatement.create("SELECT * FROM users", connectionHandler);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      Assert.assertEquals(e.getMessage(), AdminStatement.UNSUPPORTED_MESSAGE);
+    }
+  }
 }